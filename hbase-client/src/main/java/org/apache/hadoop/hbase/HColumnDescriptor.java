@@ -80,6 +80,24 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
   public static final String CACHE_INDEX_ON_WRITE = "CACHE_INDEX_ON_WRITE";
   public static final String CACHE_BLOOMS_ON_WRITE = "CACHE_BLOOMS_ON_WRITE";
   public static final String EVICT_BLOCKS_ON_CLOSE = "EVICT_BLOCKS_ON_CLOSE";
+  public static final String PREFETCH_BLOCKS_ON_OPEN = "PREFETCH_BLOCKS_ON_OPEN";
+  public static final String CACHE_DATA_COMPRESSED = "CACHE_DATA_COMPRESSED";
+
+  /**
+   * Name of the block cache partition the blocks of this family are cached in.
+   * Families naming the same partition, for example all those of a table,
+   * share it.  Families without one share the rest of the cache.
+   */
+  public static final String BLOCKCACHE_PARTITION = "BLOCKCACHE_PARTITION";
+  /**
+   * Share of the block cache reserved for the partition: its blocks are not
+   * evicted to make room for others while it holds less than this.
+   */
+  public static final String BLOCKCACHE_PARTITION_MIN_SHARE = "BLOCKCACHE_PARTITION_MIN_SHARE";
+  /**
+   * Largest share of the block cache the partition may take up.
+   */
+  public static final String BLOCKCACHE_PARTITION_MAX_SHARE = "BLOCKCACHE_PARTITION_MAX_SHARE";
 
   /**
    * Size of storefile/hfile 'blocks'.  Default is {@link #DEFAULT_BLOCKSIZE}.
@@ -91,6 +109,7 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
   public static final String LENGTH = "LENGTH";
   public static final String TTL = "TTL";
   public static final String BLOOMFILTER = "BLOOMFILTER";
+  public static final String BLOOMFILTER_PREFIX_LENGTH = "BLOOMFILTER_PREFIX_LENGTH";
   public static final String FOREVER = "FOREVER";
   public static final String REPLICATION_SCOPE = "REPLICATION_SCOPE";
   public static final String MIN_VERSIONS = "MIN_VERSIONS";
@@ -167,6 +186,12 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
    */
   public static final String DEFAULT_BLOOMFILTER = BloomType.ROW.toString();
 
+  /**
+   * Default length of the row prefix used as key by row prefix bloomfilters.
+   * Unset, so a row prefix bloomfilter has to be given one.
+   */
+  public static final int DEFAULT_BLOOMFILTER_PREFIX_LENGTH = 0;
+
   /**
    * Default setting for whether to cache bloom filter blocks on write if block
    * caching is enabled.
@@ -189,6 +214,26 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
    */
   public static final boolean DEFAULT_EVICT_BLOCKS_ON_CLOSE = false;
 
+  /**
+   * Default setting for whether to prefetch blocks into the blockcache on open.
+   */
+  public static final boolean DEFAULT_PREFETCH_BLOCKS_ON_OPEN = false;
+
+  /**
+   * Default setting for whether to keep data blocks compressed in the blockcache.
+   */
+  public static final boolean DEFAULT_CACHE_DATA_COMPRESSED = false;
+
+  /**
+   * Default share of the block cache reserved for a partition.
+   */
+  public static final float DEFAULT_BLOCKCACHE_PARTITION_MIN_SHARE = 0.0f;
+
+  /**
+   * Default largest share of the block cache a partition may take up.
+   */
+  public static final float DEFAULT_BLOCKCACHE_PARTITION_MAX_SHARE = 1.0f;
+
   /**
    * Default compress tags along with any type of DataBlockEncoding
    */
@@ -200,6 +245,8 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
     = new HashSet<ImmutableBytesWritable>();
   static {
       DEFAULT_VALUES.put(BLOOMFILTER, DEFAULT_BLOOMFILTER);
+      DEFAULT_VALUES.put(BLOOMFILTER_PREFIX_LENGTH,
+        String.valueOf(DEFAULT_BLOOMFILTER_PREFIX_LENGTH));
       DEFAULT_VALUES.put(REPLICATION_SCOPE, String.valueOf(DEFAULT_REPLICATION_SCOPE));
       DEFAULT_VALUES.put(HConstants.VERSIONS, String.valueOf(DEFAULT_VERSIONS));
       DEFAULT_VALUES.put(MIN_VERSIONS, String.valueOf(DEFAULT_MIN_VERSIONS));
@@ -214,9 +261,17 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
       DEFAULT_VALUES.put(CACHE_INDEX_ON_WRITE, String.valueOf(DEFAULT_CACHE_INDEX_ON_WRITE));
       DEFAULT_VALUES.put(CACHE_BLOOMS_ON_WRITE, String.valueOf(DEFAULT_CACHE_BLOOMS_ON_WRITE));
       DEFAULT_VALUES.put(EVICT_BLOCKS_ON_CLOSE, String.valueOf(DEFAULT_EVICT_BLOCKS_ON_CLOSE));
+      DEFAULT_VALUES.put(PREFETCH_BLOCKS_ON_OPEN, String.valueOf(DEFAULT_PREFETCH_BLOCKS_ON_OPEN));
+      DEFAULT_VALUES.put(CACHE_DATA_COMPRESSED, String.valueOf(DEFAULT_CACHE_DATA_COMPRESSED));
+      DEFAULT_VALUES.put(BLOCKCACHE_PARTITION_MIN_SHARE,
+        String.valueOf(DEFAULT_BLOCKCACHE_PARTITION_MIN_SHARE));
+      DEFAULT_VALUES.put(BLOCKCACHE_PARTITION_MAX_SHARE,
+        String.valueOf(DEFAULT_BLOCKCACHE_PARTITION_MAX_SHARE));
       for (String s : DEFAULT_VALUES.keySet()) {
         RESERVED_KEYWORDS.add(new ImmutableBytesWritable(Bytes.toBytes(s)));
       }
+      // No default, families are in no partition unless given one
+      RESERVED_KEYWORDS.add(new ImmutableBytesWritable(Bytes.toBytes(BLOCKCACHE_PARTITION)));
   }
 
   private static final int UNINITIALIZED = -1;
@@ -819,6 +874,33 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
     return setValue(BLOOMFILTER, bt.toString());
   }
 
+  /**
+   * @return length of the row prefix used as key by a
+   * {@link BloomType#ROWPREFIX} bloom filter
+   */
+  public int getBloomFilterPrefixLength() {
+    String value = getValue(BLOOMFILTER_PREFIX_LENGTH);
+    if (value != null) {
+      return Integer.valueOf(value).intValue();
+    }
+    return DEFAULT_BLOOMFILTER_PREFIX_LENGTH;
+  }
+
+  /**
+   * @param prefixLength length of the row prefix used as key by a
+   * {@link BloomType#ROWPREFIX} bloom filter. Scans whose start and stop rows,
+   * or whose {@link org.apache.hadoop.hbase.filter.PrefixFilter}, share a
+   * prefix of at least this length skip the files without it.
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setBloomFilterPrefixLength(int prefixLength) {
+    if (prefixLength <= 0) {
+      throw new IllegalArgumentException("Bloom filter prefix length must be positive, got " +
+        prefixLength);
+    }
+    return setValue(BLOOMFILTER_PREFIX_LENGTH, Integer.toString(prefixLength));
+  }
+
    /**
     * @return the scope tag
     */
@@ -916,6 +998,105 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
     return setValue(EVICT_BLOCKS_ON_CLOSE, Boolean.toString(value));
   }
 
+  /**
+   * @return true if we should prefetch blocks into the blockcache on open
+   */
+  public boolean shouldPrefetchBlocksOnOpen() {
+    String value = getValue(PREFETCH_BLOCKS_ON_OPEN);
+    if (value != null) {
+      return Boolean.valueOf(value).booleanValue();
+    }
+    return DEFAULT_PREFETCH_BLOCKS_ON_OPEN;
+  }
+
+  /**
+   * @param value true if we should prefetch blocks into the blockcache on open
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setPrefetchBlocksOnOpen(boolean value) {
+    return setValue(PREFETCH_BLOCKS_ON_OPEN, Boolean.toString(value));
+  }
+
+  /**
+   * @return true if data blocks should be kept in the blockcache in their
+   * on-disk compressed form and decompressed on every access
+   */
+  public boolean shouldCacheDataCompressed() {
+    String value = getValue(CACHE_DATA_COMPRESSED);
+    if (value != null) {
+      return Boolean.valueOf(value).booleanValue();
+    }
+    return DEFAULT_CACHE_DATA_COMPRESSED;
+  }
+
+  /**
+   * @param value true if data blocks should be kept in the blockcache in their
+   * on-disk compressed form
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setCacheDataCompressed(boolean value) {
+    return setValue(CACHE_DATA_COMPRESSED, Boolean.toString(value));
+  }
+
+  /**
+   * @return Name of the block cache partition of this family, or null if it
+   * shares the rest of the cache with the other families in no partition
+   */
+  public String getBlockCachePartition() {
+    return getValue(BLOCKCACHE_PARTITION);
+  }
+
+  /**
+   * Put the blocks of this family in a partition of the block cache, with the
+   * share of the cache given by {@link #setBlockCachePartitionShares(float, float)}.
+   * Give all the families of a table the same partition to partition by table.
+   * @param partition Name of the partition, or null for none
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setBlockCachePartition(String partition) {
+    return setValue(BLOCKCACHE_PARTITION, partition);
+  }
+
+  /**
+   * @return Share of the block cache reserved for the partition of this family
+   */
+  public float getBlockCachePartitionMinShare() {
+    String value = getValue(BLOCKCACHE_PARTITION_MIN_SHARE);
+    if (value != null) {
+      return Float.parseFloat(value);
+    }
+    return DEFAULT_BLOCKCACHE_PARTITION_MIN_SHARE;
+  }
+
+  /**
+   * @return Largest share of the block cache the partition of this family
+   * may take up
+   */
+  public float getBlockCachePartitionMaxShare() {
+    String value = getValue(BLOCKCACHE_PARTITION_MAX_SHARE);
+    if (value != null) {
+      return Float.parseFloat(value);
+    }
+    return DEFAULT_BLOCKCACHE_PARTITION_MAX_SHARE;
+  }
+
+  /**
+   * @param minShare Share of the block cache, between 0 and 1, reserved for
+   * the partition of this family
+   * @param maxShare Largest share of the block cache, between minShare and 1,
+   * the partition of this family may take up
+   * @return this (for chained invocation)
+   * @throws IllegalArgumentException if the shares are out of range
+   */
+  public HColumnDescriptor setBlockCachePartitionShares(float minShare, float maxShare) {
+    if (minShare < 0 || maxShare > 1 || minShare > maxShare) {
+      throw new IllegalArgumentException("Block cache partition shares must satisfy " +
+        "0 <= minShare <= maxShare <= 1, got minShare=" + minShare + ", maxShare=" + maxShare);
+    }
+    setValue(BLOCKCACHE_PARTITION_MIN_SHARE, Float.toString(minShare));
+    return setValue(BLOCKCACHE_PARTITION_MAX_SHARE, Float.toString(maxShare));
+  }
+
   /**
    * @see java.lang.Object#toString()
    */
@@ -0,0 +1,634 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.NotServingRegionException;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.UnknownScannerException;
+import org.apache.hadoop.hbase.exceptions.OutOfOrderScannerNextException;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.ipc.NioRpcClient;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.RequestConverter;
+import org.apache.hadoop.hbase.protobuf.ResponseConverter;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ClientService;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.GetResponse;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutateResponse;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanResponse;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.CompareType;
+import org.apache.hadoop.hbase.regionserver.RegionServerStoppedException;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.hbase.util.Threads;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * A table client whose operations never park the calling thread waiting for a region server.
+ * <p>
+ * Every operation returns a {@link ListenableFuture}; scans push their rows to a
+ * {@link ScanResultConsumer}. Region locations come from the {@link HConnection}'s cache and
+ * calls go out through the connection's {@link NioRpcClient}. Failed attempts are retried
+ * after the same backoff as {@link RpcRetryingCaller}, scheduled on a timer rather than slept
+ * through, until <code>hbase.client.retries.number</code> or
+ * <code>hbase.client.operation.timeout</code> is exhausted.
+ * <p>
+ * Futures are completed, and consumers called, on the table's callback threads
+ * (<code>hbase.client.async.callback.threads</code>); work done there should be short. A region
+ * location which is not cached yet is looked up synchronously, by the caller on the first
+ * attempt and by a callback thread on retries.
+ * <p>
+ * Instances are thread safe. {@link #close()} the table to release its threads; the
+ * connection is not closed.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class AsyncTable implements Closeable {
+  private static final Log LOG = LogFactory.getLog(AsyncTable.class);
+
+  /** Number of threads completing futures and scheduling retries, per table */
+  public static final String CALLBACK_THREADS_KEY = "hbase.client.async.callback.threads";
+  public static final int DEFAULT_CALLBACK_THREADS = 2;
+
+  private static final MethodDescriptor GET =
+      ClientService.getDescriptor().findMethodByName("Get");
+  private static final MethodDescriptor MUTATE =
+      ClientService.getDescriptor().findMethodByName("Mutate");
+  private static final MethodDescriptor SCAN =
+      ClientService.getDescriptor().findMethodByName("Scan");
+
+  /**
+   * Receives the rows of a scan. Calls for one scan are never concurrent.
+   */
+  public interface ScanResultConsumer {
+    /**
+     * @param results the next rows of the scan, never empty
+     * @return false to stop the scan; neither {@link #onComplete()} nor
+     *   {@link #onError(Throwable)} are called then.
+     */
+    boolean onNext(Result[] results);
+
+    /** Called once all rows have been passed to {@link #onNext(Result[])} */
+    void onComplete();
+
+    /** Called if the scan failed. No other method is called afterwards. */
+    void onError(Throwable error);
+  }
+
+  private final TableName tableName;
+  private final HConnectionManager.HConnectionImplementation connection;
+  private final NioRpcClient rpcClient;
+  private final User user;
+  private final long pause;
+  private final int retries;
+  private final int operationTimeout;
+  private final int rpcTimeout;
+  private final int scannerCaching;
+  private final int priority;
+  private final ScheduledThreadPoolExecutor pool;
+  // Runs the callbacks on the pool, or right away once the pool is shut down so that no
+  // future is left incomplete.
+  private final Executor callbackExecutor = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      try {
+        pool.execute(command);
+      } catch (RejectedExecutionException e) {
+        command.run();
+      }
+    }
+  };
+
+  /**
+   * @param tableName
+   * @param connection a connection created by {@link HConnectionManager}
+   */
+  public AsyncTable(TableName tableName, HConnection connection) {
+    if (!(connection instanceof HConnectionManager.HConnectionImplementation)) {
+      throw new IllegalArgumentException("Unsupported connection " + connection);
+    }
+    this.tableName = tableName;
+    this.connection = (HConnectionManager.HConnectionImplementation)connection;
+    this.rpcClient = this.connection.getAsyncRpcClient();
+    this.user = this.connection.getUser();
+    Configuration conf = connection.getConfiguration();
+    this.pause = conf.getLong(HConstants.HBASE_CLIENT_PAUSE,
+      HConstants.DEFAULT_HBASE_CLIENT_PAUSE);
+    this.retries = conf.getInt(HConstants.HBASE_CLIENT_RETRIES_NUMBER,
+      HConstants.DEFAULT_HBASE_CLIENT_RETRIES_NUMBER);
+    this.operationTimeout = conf.getInt(HConstants.HBASE_CLIENT_OPERATION_TIMEOUT,
+      HConstants.DEFAULT_HBASE_CLIENT_OPERATION_TIMEOUT);
+    // A fixed rpc timeout: it is part of the connection key.
+    this.rpcTimeout = conf.getInt(HConstants.HBASE_RPC_TIMEOUT_KEY,
+      HConstants.DEFAULT_HBASE_RPC_TIMEOUT);
+    this.scannerCaching = conf.getInt(HConstants.HBASE_CLIENT_SCANNER_CACHING,
+      HConstants.DEFAULT_HBASE_CLIENT_SCANNER_CACHING);
+    this.priority = tableName.isSystemTable() ? HConstants.HIGH_QOS : HConstants.NORMAL_QOS;
+    this.pool = new ScheduledThreadPoolExecutor(
+      Math.max(1, conf.getInt(CALLBACK_THREADS_KEY, DEFAULT_CALLBACK_THREADS)),
+      Threads.newDaemonThreadFactory("async-table-" + tableName.getNameAsString()));
+  }
+
+  public TableName getName() {
+    return tableName;
+  }
+
+  /**
+   * Extracts certain cells from a given row.
+   * @see HTableInterface#get(Get)
+   */
+  public ListenableFuture<Result> get(final Get get) {
+    return new RegionCall<Result>(get.getRow(), GET, GetResponse.getDefaultInstance()) {
+      @Override
+      Message buildRequest(byte[] regionName) throws IOException {
+        return RequestConverter.buildGetRequest(regionName, get);
+      }
+
+      @Override
+      Result convert(Message response, CellScanner cells) throws IOException {
+        return ProtobufUtil.toResult(((GetResponse)response).getResult(), cells);
+      }
+    }.start();
+  }
+
+  /**
+   * @see HTableInterface#put(Put)
+   */
+  public ListenableFuture<Void> put(final Put put) {
+    return new MutateCall<Void>(put.getRow()) {
+      @Override
+      Message buildRequest(byte[] regionName) throws IOException {
+        return RequestConverter.buildMutateRequest(regionName, put);
+      }
+    }.start();
+  }
+
+  /**
+   * @see HTableInterface#delete(Delete)
+   */
+  public ListenableFuture<Void> delete(final Delete delete) {
+    return new MutateCall<Void>(delete.getRow()) {
+      @Override
+      Message buildRequest(byte[] regionName) throws IOException {
+        return RequestConverter.buildMutateRequest(regionName, delete);
+      }
+    }.start();
+  }
+
+  /**
+   * @see HTableInterface#increment(Increment)
+   */
+  public ListenableFuture<Result> increment(final Increment increment) {
+    if (!increment.hasFamilies()) {
+      return Futures.immediateFailedFuture(
+        new IOException("Invalid arguments to increment, no columns specified"));
+    }
+    return new MutateCall<Result>(increment.getRow()) {
+      @Override
+      Message buildRequest(byte[] regionName) throws IOException {
+        return RequestConverter.buildMutateRequest(regionName, increment);
+      }
+
+      @Override
+      Result convert(Message response, CellScanner cells) throws IOException {
+        return ProtobufUtil.toResult(((MutateResponse)response).getResult(), cells);
+      }
+    }.start();
+  }
+
+  /**
+   * @see HTableInterface#append(Append)
+   */
+  public ListenableFuture<Result> append(final Append append) {
+    if (append.numFamilies() == 0) {
+      return Futures.immediateFailedFuture(
+        new IOException("Invalid arguments to append, no columns specified"));
+    }
+    return new MutateCall<Result>(append.getRow()) {
+      @Override
+      Message buildRequest(byte[] regionName) throws IOException {
+        return RequestConverter.buildMutateRequest(regionName, append);
+      }
+
+      @Override
+      Result convert(Message response, CellScanner cells) throws IOException {
+        return ProtobufUtil.toResult(((MutateResponse)response).getResult(), cells);
+      }
+    }.start();
+  }
+
+  /**
+   * Atomically checks a cell value and applies the mutation if the check passes.
+   * @param mutation a {@link Put} or a {@link Delete} of <code>row</code>
+   * @return a future of whether the mutation was applied
+   * @see HTableInterface#checkAndPut(byte[], byte[], byte[], byte[], Put)
+   * @see HTableInterface#checkAndDelete(byte[], byte[], byte[], byte[], Delete)
+   */
+  public ListenableFuture<Boolean> checkAndMutate(final byte[] row, final byte[] family,
+      final byte[] qualifier, final CompareOp compareOp, final byte[] value,
+      final Mutation mutation) {
+    if (!(mutation instanceof Put) && !(mutation instanceof Delete)) {
+      return Futures.immediateFailedFuture(new DoNotRetryIOException(
+        "checkAndMutate supports Put and Delete, not " + mutation.getClass().getSimpleName()));
+    }
+    final CompareType compareType = CompareType.valueOf(compareOp.name());
+    return new MutateCall<Boolean>(row) {
+      @Override
+      Message buildRequest(byte[] regionName) throws IOException {
+        if (mutation instanceof Put) {
+          return RequestConverter.buildMutateRequest(regionName, row, family, qualifier,
+            new BinaryComparator(value), compareType, (Put)mutation);
+        }
+        return RequestConverter.buildMutateRequest(regionName, row, family, qualifier,
+          new BinaryComparator(value), compareType, (Delete)mutation);
+      }
+
+      @Override
+      Boolean convert(Message response, CellScanner cells) {
+        return Boolean.valueOf(((MutateResponse)response).getProcessed());
+      }
+    }.start();
+  }
+
+  /**
+   * Sends each action on its own, all at once, and collects the outcomes.
+   * @param actions {@link Get}s, {@link Put}s, {@link Delete}s, {@link Increment}s and
+   *   {@link Append}s
+   * @return a future of the results in the order of <code>actions</code>: a {@link Result}
+   *   for reads, increments and appends, null for puts and deletes. It fails as soon as one
+   *   of the actions fails.
+   */
+  public ListenableFuture<List<Object>> batch(final List<? extends Row> actions) {
+    List<ListenableFuture<?>> futures = new ArrayList<ListenableFuture<?>>(actions.size());
+    for (Row action : actions) {
+      if (action instanceof Get) {
+        futures.add(get((Get)action));
+      } else if (action instanceof Put) {
+        futures.add(put((Put)action));
+      } else if (action instanceof Delete) {
+        futures.add(delete((Delete)action));
+      } else if (action instanceof Increment) {
+        futures.add(increment((Increment)action));
+      } else if (action instanceof Append) {
+        futures.add(append((Append)action));
+      } else {
+        futures.add(Futures.immediateFailedFuture(new DoNotRetryIOException(
+          "Unsupported action " + action.getClass().getSimpleName())));
+      }
+    }
+    return Futures.<Object>allAsList(futures);
+  }
+
+  /**
+   * Scans the table, handing the rows to <code>consumer</code> as they arrive. The next batch
+   * of rows is only requested once {@link ScanResultConsumer#onNext(Result[])} returned.
+   */
+  public void scan(Scan scan, ScanResultConsumer consumer) {
+    Scan copy;
+    try {
+      copy = new Scan(scan);
+    } catch (IOException e) {
+      consumer.onError(e);
+      return;
+    }
+    new AsyncScanner(copy, consumer).start();
+  }
+
+  /**
+   * Stops the callback threads once the pending retries ran.
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  private InetSocketAddress getAddress(HRegionLocation location) {
+    ServerName sn = location.getServerName();
+    return new InetSocketAddress(sn.getHostname(), sn.getPort());
+  }
+
+  private ListenableFuture<Pair<Message, CellScanner>> call(HRegionLocation location,
+      MethodDescriptor md, Message request, Message responseType) {
+    return rpcClient.callAsync(md, request, null, responseType, user, getAddress(location),
+      rpcTimeout, priority);
+  }
+
+  /**
+   * Keeps track of the failed attempts of an operation.
+   */
+  private abstract class Retrying implements Runnable {
+    private final long startTime = EnvironmentEdgeManager.currentTimeMillis();
+    private final List<RetriesExhaustedException.ThrowableWithExtraContext> exceptions =
+        new ArrayList<RetriesExhaustedException.ThrowableWithExtraContext>();
+    int tries;
+
+    /**
+     * Records the failure and schedules {@link #run()} again after the backoff.
+     * @param t the failure, already translated
+     * @return the exception to fail with if there are no retries left, else null
+     */
+    Throwable scheduleRetry(Throwable t) {
+      long now = EnvironmentEdgeManager.currentTimeMillis();
+      exceptions.add(new RetriesExhaustedException.ThrowableWithExtraContext(t, now, toString()));
+      if (++tries >= retries) {
+        return new RetriesExhaustedException(tries - 1, exceptions);
+      }
+      long expectedSleep = ConnectionUtils.getPauseTime(pause, tries);
+      long duration = now - startTime + expectedSleep;
+      if (duration > operationTimeout) {
+        return new SocketTimeoutException("operationTimeout=" + operationTimeout +
+          ", callDuration=" + duration + ": " + this).initCause(t);
+      }
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Retrying " + this + " in " + expectedSleep + "ms, tries=" + tries, t);
+      }
+      try {
+        pool.schedule(this, expectedSleep, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        return new DoNotRetryIOException("Table " + tableName + " is closed", t);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * One request to the region holding a row.
+   */
+  private abstract class RegionCall<T> extends Retrying
+      implements FutureCallback<Pair<Message, CellScanner>> {
+    private final byte[] row;
+    private final MethodDescriptor md;
+    private final Message responseType;
+    private final SettableFuture<T> future = SettableFuture.create();
+    private HRegionLocation location;
+
+    RegionCall(byte[] row, MethodDescriptor md, Message responseType) {
+      this.row = row;
+      this.md = md;
+      this.responseType = responseType;
+    }
+
+    abstract Message buildRequest(byte[] regionName) throws IOException;
+
+    abstract T convert(Message response, CellScanner cells) throws IOException;
+
+    ListenableFuture<T> start() {
+      run();
+      return future;
+    }
+
+    @Override
+    public void run() {
+      try {
+        location = connection.getRegionLocation(tableName, row, false);
+        if (location == null) {
+          throw new NoServerForRegionException("Unable to find region for " +
+            Bytes.toStringBinary(row) + " in " + tableName);
+        }
+        Message request = buildRequest(location.getRegionInfo().getRegionName());
+        Futures.addCallback(call(location, md, request, responseType), this, callbackExecutor);
+      } catch (Throwable t) {
+        onFailure(t);
+      }
+    }
+
+    @Override
+    public void onSuccess(Pair<Message, CellScanner> response) {
+      try {
+        future.set(convert(response.getFirst(), response.getSecond()));
+      } catch (Throwable t) {
+        future.setException(t);
+      }
+    }
+
+    @Override
+    public void onFailure(Throwable t) {
+      try {
+        t = RpcRetryingCaller.translateException(t);
+      } catch (DoNotRetryIOException e) {
+        future.setException(e);
+        return;
+      }
+      if (location != null) {
+        connection.updateCachedLocations(tableName, row, t, location);
+      }
+      Throwable error = scheduleRetry(t);
+      if (error != null) {
+        future.setException(error);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return md.getName() + " of row '" + Bytes.toStringBinary(row) + "' on table '" +
+        tableName + "' at " + location;
+    }
+  }
+
+  private abstract class MutateCall<T> extends RegionCall<T> {
+    MutateCall(byte[] row) {
+      super(row, MUTATE, MutateResponse.getDefaultInstance());
+    }
+
+    @Override
+    T convert(Message response, CellScanner cells) throws IOException {
+      return null;
+    }
+  }
+
+  /**
+   * Walks the regions of a scan one scanner at a time, with a single request outstanding.
+   * Only the callback of that request touches the state, so it needs no locking.
+   */
+  private class AsyncScanner extends Retrying
+      implements FutureCallback<Pair<Message, CellScanner>> {
+    private final Scan scan;
+    private final ScanResultConsumer consumer;
+    private final int caching;
+    private HRegionLocation location;
+    private long scannerId = -1L;
+    private long nextCallSeq;
+    // Last row handed to the consumer, a reopened scanner starts there and skips it.
+    private byte[] lastRow;
+    private boolean skipFirst;
+
+    AsyncScanner(Scan scan, ScanResultConsumer consumer) {
+      this.scan = scan;
+      this.consumer = consumer;
+      this.caching = scan.getCaching() > 0 ? scan.getCaching() : scannerCaching;
+    }
+
+    void start() {
+      run();
+    }
+
+    /**
+     * Opens a scanner on the region holding the scan's start row.
+     */
+    @Override
+    public void run() {
+      try {
+        location = connection.getRegionLocation(tableName, scan.getStartRow(), false);
+        if (location == null) {
+          throw new NoServerForRegionException("Unable to find region for " +
+            Bytes.toStringBinary(scan.getStartRow()) + " in " + tableName);
+        }
+        Message request = RequestConverter.buildScanRequest(
+          location.getRegionInfo().getRegionName(), scan, caching, false);
+        Futures.addCallback(call(location, SCAN, request, ScanResponse.getDefaultInstance()),
+          this, callbackExecutor);
+      } catch (Throwable t) {
+        onFailure(t);
+      }
+    }
+
+    private void next() {
+      Message request =
+        RequestConverter.buildScanRequest(scannerId, caching, false, nextCallSeq++);
+      Futures.addCallback(call(location, SCAN, request, ScanResponse.getDefaultInstance()),
+        this, callbackExecutor);
+    }
+
+    private void closeScanner() {
+      if (scannerId != -1L) {
+        // Nobody waits for this one; the lease expires if it gets lost.
+        call(location, SCAN, RequestConverter.buildScanRequest(scannerId, 0, true),
+          ScanResponse.getDefaultInstance());
+        scannerId = -1L;
+      }
+    }
+
+    @Override
+    public void onSuccess(Pair<Message, CellScanner> pair) {
+      try {
+        ScanResponse response = (ScanResponse)pair.getFirst();
+        if (scannerId == -1L) {
+          scannerId = response.getScannerId();
+          nextCallSeq = 0;
+        }
+        tries = 0;
+        Result[] results = ResponseConverter.getResults(pair.getSecond(), response);
+        if (skipFirst && results.length > 0 && Bytes.equals(results[0].getRow(), lastRow)) {
+          Result[] rest = new Result[results.length - 1];
+          System.arraycopy(results, 1, rest, 0, rest.length);
+          results = rest;
+        }
+        skipFirst = false;
+        if (results.length > 0) {
+          lastRow = results[results.length - 1].getRow();
+          if (!consumer.onNext(results)) {
+            closeScanner();
+            return;
+          }
+        }
+        if (response.hasMoreResults() && !response.getMoreResults()) {
+          // The server closed the scanner, a filter says there is nothing more.
+          scannerId = -1L;
+          consumer.onComplete();
+        } else if (results.length == 0) {
+          closeScanner();
+          nextRegion();
+        } else {
+          next();
+        }
+      } catch (Throwable t) {
+        closeScanner();
+        consumer.onError(t);
+      }
+    }
+
+    private void nextRegion() {
+      byte[] endKey = location.getRegionInfo().getEndKey();
+      byte[] stopRow = scan.getStopRow();
+      if (endKey == null || Bytes.equals(endKey, HConstants.EMPTY_BYTE_ARRAY) ||
+          (stopRow.length > 0 && Bytes.compareTo(stopRow, endKey) <= 0)) {
+        consumer.onComplete();
+        return;
+      }
+      scan.setStartRow(endKey);
+      run();
+    }
+
+    @Override
+    public void onFailure(Throwable t) {
+      try {
+        t = RpcRetryingCaller.translateException(t);
+      } catch (DoNotRetryIOException e) {
+        // These mean the scanner is gone or out of step, open a new one.
+        Throwable cause = e.getCause();
+        if (!(e instanceof UnknownScannerException) &&
+            !(e instanceof OutOfOrderScannerNextException) &&
+            !(cause instanceof NotServingRegionException) &&
+            !(cause instanceof RegionServerStoppedException)) {
+          closeScanner();
+          consumer.onError(e);
+          return;
+        }
+        t = e;
+      }
+      if (location != null) {
+        connection.updateCachedLocations(tableName, scan.getStartRow(), t, location);
+      }
+      // Start over from the last row we got, the old scanner is left to its lease.
+      scannerId = -1L;
+      if (lastRow != null) {
+        scan.setStartRow(lastRow);
+        skipFirst = true;
+      }
+      Throwable error = scheduleRetry(t);
+      if (error != null) {
+        consumer.onError(error);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "scan of table '" + tableName + "' from row '" +
+        Bytes.toStringBinary(scan.getStartRow()) + "' at " + location;
+    }
+  }
+}
@@ -67,7 +67,9 @@ import org.apache.hadoop.hbase.client.MetaScanner.MetaScannerVisitorBase;
 import org.apache.hadoop.hbase.client.coprocessor.Batch;
 import org.apache.hadoop.hbase.exceptions.RegionMovedException;
 import org.apache.hadoop.hbase.exceptions.RegionOpeningException;
+import org.apache.hadoop.hbase.ipc.NioRpcClient;
 import org.apache.hadoop.hbase.ipc.RpcClient;
+import org.apache.hadoop.hbase.ipc.RpcClientFactory;
 import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
 import org.apache.hadoop.hbase.protobuf.RequestConverter;
 import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.AdminService;
@@ -578,6 +580,9 @@ public class HConnectionManager {
     // Client rpc instance.
     private RpcClient rpcClient;
 
+    // Non-blocking rpc client for AsyncTable; rpcClient itself if it is one. Lazily created.
+    private NioRpcClient asyncRpcClient;
+
     /**
       * Map of table to table {@link HRegionLocation}s.
       */
@@ -633,7 +638,7 @@ public class HConnectionManager {
       this.registry = setupRegistry();
       retrieveClusterId();
 
-      this.rpcClient = new RpcClient(this.conf, this.clusterId);
+      this.rpcClient = RpcClientFactory.createClient(this.conf, this.clusterId);
 
       // Do we publish the status?
       boolean shouldListen = conf.getBoolean(HConstants.STATUS_PUBLISHED,
@@ -787,6 +792,24 @@ public class HConnectionManager {
       return oldRpcClient;
     }
 
+    /**
+     * @return the client AsyncTables of this connection send their calls through
+     */
+    synchronized NioRpcClient getAsyncRpcClient() {
+      if (this.asyncRpcClient == null) {
+        this.asyncRpcClient = this.rpcClient instanceof NioRpcClient ?
+          (NioRpcClient)this.rpcClient : new NioRpcClient(this.conf, this.clusterId);
+      }
+      return this.asyncRpcClient;
+    }
+
+    /**
+     * @return the user rpcs of this connection are made as
+     */
+    User getUser() {
+      return this.user;
+    }
+
     /**
      * An identifier that will remain the same for a given connection.
      * @return
@@ -2518,6 +2541,11 @@ public class HConnectionManager {
       if (clusterStatusListener != null) {
         clusterStatusListener.close();
       }
+      synchronized (this) {
+        if (asyncRpcClient != null && asyncRpcClient != rpcClient) {
+          asyncRpcClient.stop();
+        }
+      }
     }
 
     @Override
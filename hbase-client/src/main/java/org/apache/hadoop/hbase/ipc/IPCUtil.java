@@ -24,6 +24,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -32,7 +35,9 @@ import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.CellScanner;
 import org.apache.hadoop.hbase.HBaseIOException;
+import org.apache.hadoop.hbase.codec.CellCodec;
 import org.apache.hadoop.hbase.codec.Codec;
+import org.apache.hadoop.hbase.codec.KeyValueCodec;
 import org.apache.hadoop.hbase.io.ByteBufferOutputStream;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -134,6 +139,98 @@ class IPCUtil {
     return baos.getByteBuffer();
   }
 
+  /**
+   * Like {@link #buildCellBlock(Codec, CompressionCodec, CellScanner)}, but returns the cell
+   * block as a list of buffers so that large Cells need not be copied: when the codec writes
+   * the Cells' backing arrays out as they are, any write of at least
+   * <code>zeroCopyThreshold</code> bytes is added to the list as a view of the Cell's array.
+   * Such Cells must not be modified until the buffers have been sent. Cells are always copied
+   * when the cell block is compressed, or the codec isn't known to write the arrays unchanged.
+   * @param zeroCopyThreshold smallest write to reference rather than copy, 0 to copy all
+   * @return Null or the buffers of the cellblock, each flipped and ready for reading
+   * @throws IOException
+   */
+  List<ByteBuffer> buildCellBlockBuffers(final Codec codec, final CompressionCodec compressor,
+      final CellScanner cellScanner, final int zeroCopyThreshold)
+  throws IOException {
+    if (cellScanner == null) return null;
+    if (zeroCopyThreshold <= 0 || compressor != null || codec == null ||
+        !(codec.getClass() == KeyValueCodec.class || codec.getClass() == CellCodec.class)) {
+      return Collections.singletonList(buildCellBlock(codec, compressor, cellScanner));
+    }
+    GatheringOutputStream gos =
+      new GatheringOutputStream(this.cellBlockBuildingInitialBufferSize, zeroCopyThreshold);
+    try {
+      Codec.Encoder encoder = codec.getEncoder(gos);
+      while (cellScanner.advance()) {
+        encoder.write(cellScanner.current());
+      }
+      encoder.flush();
+    } finally {
+      gos.close();
+    }
+    return gos.getBuffers();
+  }
+
+  /**
+   * Collects what is written to it as a list of buffers. Small writes are copied into chunks of
+   * our own, large ones are added as views of the caller's array.
+   */
+  private static class GatheringOutputStream extends OutputStream {
+    private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+    private final int chunkSize;
+    private final int zeroCopyThreshold;
+    private byte [] chunk;
+    /** Start of the bytes in chunk not yet added to buffers */
+    private int start = 0;
+    /** End of the bytes written to chunk */
+    private int pos = 0;
+
+    GatheringOutputStream(final int chunkSize, final int zeroCopyThreshold) {
+      this.chunkSize = Math.max(chunkSize, zeroCopyThreshold);
+      this.zeroCopyThreshold = zeroCopyThreshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      ensureRoom(1);
+      this.chunk[this.pos++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len < this.zeroCopyThreshold) {
+        ensureRoom(len);
+        System.arraycopy(b, off, this.chunk, this.pos, len);
+        this.pos += len;
+        return;
+      }
+      addPending();
+      this.buffers.add(ByteBuffer.wrap(b, off, len).slice());
+    }
+
+    private void ensureRoom(int len) {
+      if (this.chunk != null && this.pos + len <= this.chunk.length) return;
+      addPending();
+      this.chunk = new byte[this.chunkSize];
+      this.start = 0;
+      this.pos = 0;
+    }
+
+    /** Add the bytes copied into the current chunk since the last buffer was added */
+    private void addPending() {
+      if (this.pos > this.start) {
+        this.buffers.add(ByteBuffer.wrap(this.chunk, this.start, this.pos - this.start).slice());
+        this.start = this.pos;
+      }
+    }
+
+    List<ByteBuffer> getBuffers() {
+      addPending();
+      return this.buffers;
+    }
+  }
+
   /**
    * @param codec
    * @param cellBlock
@@ -207,6 +304,26 @@ class IPCUtil {
     return bbos;
   }
 
+  /**
+   * Write out header and param of a message whose cell block, of the given size, is sent
+   * separately right after it. The length prefix covers the cell block.
+   * @param header
+   * @param param
+   * @param cellBlockSize
+   * @return A {@link ByteBufferOutputStream} filled with the length prefix, <code>header</code>
+   * and <code>param</code>.
+   * @throws IOException
+   */
+  static ByteBufferOutputStream writeHeaderAndParam(final Message header, final Message param,
+      final int cellBlockSize)
+  throws IOException {
+    int size = getTotalSizeWhenWrittenDelimited(header, param);
+    ByteBufferOutputStream bbos = new ByteBufferOutputStream(Bytes.SIZEOF_INT + size);
+    write(bbos, header, param, null, size + cellBlockSize);
+    bbos.close();
+    return bbos;
+  }
+
   /**
    * Write out header, param, and cell block if there is one.
    * @param dos
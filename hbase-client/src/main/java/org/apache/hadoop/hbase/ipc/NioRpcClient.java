@@ -0,0 +1,697 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.CellBlockMeta;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.ConnectionHeader;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.ExceptionResponse;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.RequestHeader;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.ResponseHeader;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.UserInformation;
+import org.apache.hadoop.hbase.protobuf.generated.TracingProtos.RPCTInfo;
+import org.apache.hadoop.hbase.security.AuthMethod;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.security.UserProvider;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.cloudera.htrace.Span;
+import org.cloudera.htrace.Trace;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.Message.Builder;
+
+/**
+ * An {@link RpcClient} that multiplexes all of its server connections over a few selector
+ * driven event loop threads instead of running a reader thread per connection.
+ * <p>
+ * Requests are serialized on the calling thread and queued on their connection; the event
+ * loop writes everything queued for a connection with a single gathering write. Every call
+ * gets a {@link ListenableFuture} which is completed by the event loop when the response
+ * arrives, the call times out or the connection fails. Listeners added without an executor run
+ * on the event loop thread so they must not block. The blocking {@link #call} methods simply
+ * wait on the future.
+ * <p>
+ * SASL authentication is not supported: when security is enabled all calls go through the
+ * blocking connections of {@link RpcClient}. Pings are not sent.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class NioRpcClient extends RpcClient {
+  /** Number of event loop threads shared by all connections */
+  public static final String EVENT_LOOP_THREADS_KEY = "hbase.ipc.client.nio.eventloop.threads";
+  public static final int DEFAULT_EVENT_LOOP_THREADS = 2;
+
+  /** How often the event loops look for timed out calls and idle connections */
+  private static final int TICK_INTERVAL = 100;
+  /** Most buffers handed to a single gathering write */
+  private static final int MAX_GATHER = 64;
+
+  private final ConcurrentMap<ConnectionId, NioConnection> nioConnections =
+      new ConcurrentHashMap<ConnectionId, NioConnection>();
+  private final EventLoop[] eventLoops;
+  private final AtomicInteger nextEventLoop = new AtomicInteger();
+  private final boolean useSasl;
+  private final int connectTimeout;
+
+  public NioRpcClient(Configuration conf, String clusterId) {
+    this(conf, clusterId, null);
+  }
+
+  public NioRpcClient(Configuration conf, String clusterId, SocketAddress localAddr) {
+    super(conf, clusterId, localAddr);
+    this.useSasl = UserProvider.instantiate(conf).isHBaseSecurityEnabled();
+    this.connectTimeout = getSocketTimeout(conf);
+    int threads = Math.max(1, conf.getInt(EVENT_LOOP_THREADS_KEY, DEFAULT_EVENT_LOOP_THREADS));
+    this.eventLoops = new EventLoop[threads];
+    try {
+      for (int i = 0; i < threads; i++) {
+        eventLoops[i] = new EventLoop(i);
+      }
+    } catch (IOException e) {
+      for (EventLoop loop : eventLoops) {
+        if (loop != null) IOUtils.closeStream(loop.selector);
+      }
+      throw new IllegalStateException("Failed to open selector", e);
+    }
+    for (EventLoop loop : eventLoops) {
+      loop.start();
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Started " + threads + " NIO event loops, sasl=" + useSasl);
+    }
+  }
+
+  /**
+   * Sends a call without waiting for its response.
+   * @param md
+   * @param param
+   * @param cells
+   * @param returnType
+   * @param ticket Be careful which ticket you pass. A new user will mean a new Connection.
+   * @param addr
+   * @param rpcTimeout
+   * @param priority
+   * @return a future completed with the Message response and the Cell data (if any), or with
+   *   the exception the call failed with.
+   */
+  public ListenableFuture<Pair<Message, CellScanner>> callAsync(MethodDescriptor md,
+      Message param, CellScanner cells, Message returnType, User ticket,
+      InetSocketAddress addr, int rpcTimeout, int priority) {
+    if (useSasl) {
+      // No SASL negotiation on the event loops, do it the blocking way.
+      try {
+        return Futures.immediateFuture(super.call(md, param, cells, returnType, ticket, addr,
+          rpcTimeout, priority));
+      } catch (IOException e) {
+        return Futures.immediateFailedFuture(e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return Futures.immediateFailedFuture(e);
+      }
+    }
+    AsyncCall call = new AsyncCall(md, param, cells, returnType, addr);
+    NioConnection connection;
+    try {
+      connection = getNioConnection(
+        new ConnectionId(ticket, md.getService().getName(), addr, rpcTimeout));
+    } catch (IOException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+    connection.writeRequest(call, priority);
+    return call.future;
+  }
+
+  @Override
+  Pair<Message, CellScanner> call(MethodDescriptor md, Message param, CellScanner cells,
+      Message returnType, User ticket, InetSocketAddress addr, int rpcTimeout, int priority)
+  throws InterruptedException, IOException {
+    if (useSasl) {
+      return super.call(md, param, cells, returnType, ticket, addr, rpcTimeout, priority);
+    }
+    try {
+      return callAsync(md, param, cells, returnType, ticket, addr, rpcTimeout, priority).get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RemoteException) {
+        cause.fillInStackTrace();
+      }
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  @Override
+  public void cancelConnections(String hostname, int port, IOException ioe) {
+    super.cancelConnections(hostname, port, ioe);
+    for (final NioConnection connection : nioConnections.values()) {
+      InetSocketAddress address = connection.remoteId.getAddress();
+      if (address.getPort() == port && address.getHostName().equals(hostname)) {
+        LOG.info("The server on " + hostname + ":" + port +
+          " is dead - stopping the connection " + connection.remoteId);
+        connection.closeLater(ioe);
+      }
+    }
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    for (EventLoop loop : eventLoops) {
+      loop.selector.wakeup();
+    }
+    for (EventLoop loop : eventLoops) {
+      try {
+        loop.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private NioConnection getNioConnection(ConnectionId remoteId) throws IOException {
+    if (!running.get()) throw new StoppedRpcClientException();
+    NioConnection connection = nioConnections.get(remoteId);
+    if (connection == null) {
+      InetSocketAddress address = remoteId.getAddress();
+      if (failedServers.isFailedServer(address)) {
+        throw new FailedServerException("This server is in the failed servers list: " +
+          address);
+      }
+      NioConnection newConnection = new NioConnection(remoteId,
+        eventLoops[(nextEventLoop.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length]);
+      connection = nioConnections.putIfAbsent(remoteId, newConnection);
+      if (connection == null) {
+        connection = newConnection;
+        connection.start();
+      }
+    }
+    return connection;
+  }
+
+  /**
+   * A call whose completion is published through a future.
+   */
+  class AsyncCall extends Call {
+    final SettableFuture<Pair<Message, CellScanner>> future = SettableFuture.create();
+    final InetSocketAddress addr;
+
+    AsyncCall(MethodDescriptor md, Message param, CellScanner cells, Message responseDefaultType,
+        InetSocketAddress addr) {
+      super(md, param, cells, responseDefaultType);
+      this.addr = addr;
+    }
+
+    @Override
+    protected void callComplete() {
+      super.callComplete();
+      // Complete the future outside of the call lock, listeners may run right here.
+      if (error == null) {
+        future.set(new Pair<Message, CellScanner>(response, cells));
+      } else if (error instanceof RemoteException) {
+        future.setException(error);
+      } else {
+        future.setException(wrapException(addr, error));
+      }
+    }
+  }
+
+  /**
+   * A selector thread serving many connections. Other threads hand it work through
+   * {@link #execute(Runnable)}.
+   */
+  private class EventLoop extends Thread {
+    final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    // Only accessed by this thread
+    private final Set<NioConnection> connections = new HashSet<NioConnection>();
+
+    EventLoop(int index) throws IOException {
+      this.selector = Selector.open();
+      setName("IPC Client NIO event loop " + index + " (" + NioRpcClient.this.hashCode() + ")");
+      setDaemon(true);
+    }
+
+    void execute(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      long lastTick = System.currentTimeMillis();
+      while (running.get()) {
+        try {
+          selector.select(TICK_INTERVAL);
+        } catch (IOException e) {
+          LOG.warn(getName() + ": select failed", e);
+        }
+        runTasks();
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          ((NioConnection)key.attachment()).process(key);
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastTick >= TICK_INTERVAL) {
+          lastTick = now;
+          for (NioConnection connection : new ArrayList<NioConnection>(connections)) {
+            connection.tick(now);
+          }
+        }
+      }
+      runTasks();
+      IOException stopped = new StoppedRpcClientException();
+      for (NioConnection connection : new ArrayList<NioConnection>(connections)) {
+        connection.close(stopped);
+      }
+      IOUtils.closeStream(selector);
+      if (LOG.isDebugEnabled()) LOG.debug(getName() + ": stopped");
+    }
+
+    private void runTasks() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        task.run();
+      }
+    }
+  }
+
+  /**
+   * A connection to one server. Calls are queued by any thread; the socket is only touched
+   * by the connection's event loop.
+   */
+  private class NioConnection {
+    final ConnectionId remoteId;
+    private final EventLoop eventLoop;
+    private final ConcurrentSkipListMap<Integer, AsyncCall> calls =
+        new ConcurrentSkipListMap<Integer, AsyncCall>();
+    private final ConcurrentLinkedQueue<ByteBuffer> pendingWrites =
+        new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile IOException closeException;
+    private final Runnable flushTask = new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    };
+
+    // Event loop state
+    private SocketChannel channel;
+    private SelectionKey key;
+    private boolean connected;
+    private long connectStart;
+    private long lastActivity;
+    private final ArrayDeque<ByteBuffer> outgoing = new ArrayDeque<ByteBuffer>();
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(Bytes.SIZEOF_INT);
+    private ByteBuffer frame;
+
+    NioConnection(ConnectionId remoteId, EventLoop eventLoop) throws IOException {
+      if (remoteId.getAddress().isUnresolved()) {
+        throw new UnknownHostException("unknown host: " + remoteId.getAddress().getHostName());
+      }
+      this.remoteId = remoteId;
+      this.eventLoop = eventLoop;
+      // The preamble and connection header go out ahead of any request.
+      this.pendingWrites.add(createConnectionPreamble());
+    }
+
+    private ByteBuffer createConnectionPreamble() {
+      ConnectionHeader.Builder builder = ConnectionHeader.newBuilder();
+      builder.setServiceName(remoteId.getServiceName());
+      User ticket = remoteId.getTicket();
+      UserGroupInformation ugi = ticket == null ? null : ticket.getUGI();
+      if (ugi != null) {
+        UserInformation.Builder userInfoPB = UserInformation.newBuilder();
+        userInfoPB.setEffectiveUser(ugi.getUserName());
+        if (ugi.getRealUser() != null) {
+          userInfoPB.setRealUser(ugi.getRealUser().getUserName());
+        }
+        builder.setUserInfo(userInfoPB);
+      }
+      if (codec != null) {
+        builder.setCellBlockCodecClass(codec.getClass().getCanonicalName());
+      }
+      if (compressor != null) {
+        builder.setCellBlockCompressorClass(compressor.getClass().getCanonicalName());
+      }
+      ConnectionHeader header = builder.build();
+
+      // 'HBas' + VERSION + AUTH_CODE, then the length prefixed connection header
+      byte [] rpcHeader = HConstants.RPC_HEADER.array();
+      ByteBuffer buf = ByteBuffer.allocate(rpcHeader.length + 2 + Bytes.SIZEOF_INT +
+        header.getSerializedSize());
+      buf.put(rpcHeader);
+      buf.put(HConstants.RPC_CURRENT_VERSION);
+      buf.put(AuthMethod.SIMPLE.code);
+      buf.putInt(header.getSerializedSize());
+      buf.put(header.toByteArray());
+      buf.flip();
+      return buf;
+    }
+
+    void start() {
+      eventLoop.execute(new Runnable() {
+        @Override
+        public void run() {
+          connect();
+        }
+      });
+    }
+
+    /**
+     * Serializes the call and queues it for the event loop. Failures complete the call.
+     */
+    void writeRequest(AsyncCall call, int priority) {
+      ByteBuffer buf;
+      try {
+        RequestHeader.Builder builder = RequestHeader.newBuilder();
+        builder.setCallId(call.id);
+        if (Trace.isTracing()) {
+          Span s = Trace.currentSpan();
+          builder.setTraceInfo(RPCTInfo.newBuilder().
+            setParentId(s.getSpanId()).setTraceId(s.getTraceId()));
+        }
+        builder.setMethodName(call.md.getName());
+        builder.setRequestParam(call.param != null);
+        ByteBuffer cellBlock = ipcUtil.buildCellBlock(codec, compressor, call.cells);
+        if (cellBlock != null) {
+          CellBlockMeta.Builder cellBlockBuilder = CellBlockMeta.newBuilder();
+          cellBlockBuilder.setLength(cellBlock.limit());
+          builder.setCellBlockMeta(cellBlockBuilder.build());
+        }
+        // Only pass priority if there one.  Let zero be same as no priority.
+        if (priority != 0) builder.setPriority(priority);
+        buf = IPCUtil.write(builder.build(), call.param, cellBlock).getByteBuffer();
+      } catch (IOException e) {
+        call.setException(e);
+        return;
+      }
+      calls.put(call.id, call);
+      if (closed.get()) {
+        // Lost the race with close(), which may not have seen this call.
+        failCall(call.id, getCloseException());
+        return;
+      }
+      pendingWrites.add(buf);
+      if (flushScheduled.compareAndSet(false, true)) {
+        eventLoop.execute(flushTask);
+      }
+    }
+
+    void closeLater(final IOException e) {
+      eventLoop.execute(new Runnable() {
+        @Override
+        public void run() {
+          close(e);
+        }
+      });
+    }
+
+    private void connect() {
+      if (closed.get()) return;
+      connectStart = lastActivity = System.currentTimeMillis();
+      eventLoop.connections.add(this);
+      try {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        Socket socket = channel.socket();
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(tcpKeepAlive);
+        if (localAddr != null) {
+          socket.bind(localAddr);
+        }
+        if (channel.connect(remoteId.getAddress())) {
+          key = channel.register(eventLoop.selector, SelectionKey.OP_READ, this);
+          connected();
+        } else {
+          key = channel.register(eventLoop.selector, SelectionKey.OP_CONNECT, this);
+        }
+      } catch (IOException e) {
+        failedServers.addToFailedServers(remoteId.getAddress());
+        close(e);
+      }
+    }
+
+    private void connected() throws IOException {
+      connected = true;
+      if (LOG.isDebugEnabled()) LOG.debug("Connected to " + remoteId);
+      flush();
+    }
+
+    void process(SelectionKey key) {
+      try {
+        if (key.isConnectable() && channel.finishConnect()) {
+          key.interestOps(SelectionKey.OP_READ);
+          connected();
+        }
+        if (key.isValid() && key.isReadable()) {
+          read();
+        }
+        if (key.isValid() && key.isWritable()) {
+          flush();
+        }
+      } catch (CancelledKeyException e) {
+        close(new IOException("Connection to " + remoteId.getAddress() + " cancelled"));
+      } catch (IOException e) {
+        if (!connected) {
+          failedServers.addToFailedServers(remoteId.getAddress());
+        }
+        close(e);
+      }
+    }
+
+    /**
+     * Writes as much of the queued requests as the socket takes, asking for OP_WRITE if
+     * some is left over.
+     */
+    private void flush() {
+      if (closed.get()) return;
+      // Clear first so that requests queued while we write schedule another flush
+      flushScheduled.set(false);
+      ByteBuffer buf;
+      while ((buf = pendingWrites.poll()) != null) {
+        outgoing.add(buf);
+      }
+      if (!connected) return;
+      try {
+        while (!outgoing.isEmpty()) {
+          int n = Math.min(outgoing.size(), MAX_GATHER);
+          ByteBuffer [] bufs = new ByteBuffer[n];
+          Iterator<ByteBuffer> it = outgoing.iterator();
+          for (int i = 0; i < n; i++) {
+            bufs[i] = it.next();
+          }
+          long written = channel.write(bufs);
+          while (!outgoing.isEmpty() && !outgoing.peek().hasRemaining()) {
+            outgoing.poll();
+          }
+          if (written == 0) break;
+        }
+        lastActivity = System.currentTimeMillis();
+        key.interestOps(outgoing.isEmpty() ? SelectionKey.OP_READ :
+          SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      } catch (IOException e) {
+        close(e);
+      }
+    }
+
+    /**
+     * Reads whatever is available, processing every complete response.
+     */
+    private void read() throws IOException {
+      while (true) {
+        if (frame == null) {
+          if (channel.read(lengthBuffer) < 0) {
+            throw new EOFException("Connection to " + remoteId.getAddress() + " closed");
+          }
+          if (lengthBuffer.hasRemaining()) return;
+          lengthBuffer.flip();
+          int totalSize = lengthBuffer.getInt();
+          lengthBuffer.clear();
+          if (totalSize < 0) {
+            throw new IOException("Invalid response length " + totalSize);
+          }
+          frame = ByteBuffer.allocate(totalSize);
+        }
+        if (channel.read(frame) < 0) {
+          throw new EOFException("Connection to " + remoteId.getAddress() + " closed");
+        }
+        if (frame.hasRemaining()) return;
+        byte [] response = frame.array();
+        frame = null;
+        lastActivity = System.currentTimeMillis();
+        readResponse(response);
+      }
+    }
+
+    /**
+     * @param response one response as framed by the server, without the length prefix
+     */
+    private void readResponse(byte [] response) throws IOException {
+      ByteArrayInputStream in = new ByteArrayInputStream(response);
+      ResponseHeader responseHeader = ResponseHeader.parseDelimitedFrom(in);
+      int id = responseHeader.getCallId();
+      if (responseHeader.hasException()) {
+        ExceptionResponse exceptionResponse = responseHeader.getException();
+        RemoteException re = createRemoteException(exceptionResponse);
+        if (isFatalConnectionException(exceptionResponse)) {
+          throw re;
+        }
+        failCall(id, re);
+        return;
+      }
+      AsyncCall call = calls.remove(id);
+      if (call == null) {
+        // Timed out and cleaned up already, the whole response was read so just drop it.
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Unknown callId: " + id + ", skipping over this response of " +
+            response.length + " bytes");
+        }
+        return;
+      }
+      try {
+        Message value = null;
+        if (call.responseDefaultType != null) {
+          Builder builder = call.responseDefaultType.newBuilderForType();
+          builder.mergeDelimitedFrom(in);
+          value = builder.build();
+        }
+        CellScanner cellBlockScanner = null;
+        if (responseHeader.hasCellBlockMeta()) {
+          int size = responseHeader.getCellBlockMeta().getLength();
+          cellBlockScanner = ipcUtil.createCellScanner(codec, compressor, response,
+            response.length - in.available(), size);
+        }
+        call.setResponse(value, cellBlockScanner);
+      } catch (IOException e) {
+        // The response was framed so the connection is still usable.
+        call.setException(e);
+      }
+    }
+
+    /**
+     * Fails timed out calls and closes the connection if it did not connect in time or has
+     * been idle for too long.
+     */
+    void tick(long now) {
+      if (!connected) {
+        if (now - connectStart > connectTimeout) {
+          failedServers.addToFailedServers(remoteId.getAddress());
+          close(new SocketTimeoutException("Connection to " + remoteId.getAddress() +
+            " timed out after " + connectTimeout + "ms"));
+        }
+        return;
+      }
+      if (remoteId.rpcTimeout > 0) {
+        // Calls are ordered by id, so mostly by start time too
+        for (AsyncCall call : calls.values()) {
+          long waitTime = now - call.getStartTime();
+          if (waitTime < remoteId.rpcTimeout) break;
+          failCall(call.id, new CallTimeoutException("Call id=" + call.id +
+            ", waitTime=" + waitTime + ", rpcTimeout=" + remoteId.rpcTimeout));
+        }
+      }
+      if (calls.isEmpty() && outgoing.isEmpty() && pendingWrites.isEmpty() &&
+          now - lastActivity > maxIdleTime) {
+        if (LOG.isDebugEnabled()) LOG.debug("Closing idle connection to " + remoteId);
+        close(null);
+      }
+    }
+
+    private void failCall(int id, IOException e) {
+      AsyncCall call = calls.remove(id);
+      if (call != null) {
+        call.setException(e);
+      }
+    }
+
+    private IOException getCloseException() {
+      IOException e = closeException;
+      return e != null ? e : new IOException("Connection to " + remoteId.getAddress() +
+        " closed");
+    }
+
+    /**
+     * Closes the socket and fails all outstanding calls. Only called by the event loop.
+     * @param e why the connection is closed, null if idle
+     */
+    void close(IOException e) {
+      if (!closed.compareAndSet(false, true)) return;
+      closeException = e;
+      nioConnections.remove(remoteId, this);
+      eventLoop.connections.remove(this);
+      if (key != null) key.cancel();
+      IOUtils.closeStream(channel);
+      if (e != null && LOG.isDebugEnabled()) {
+        LOG.debug("Closed connection to " + remoteId + ": " + e);
+      }
+      pendingWrites.clear();
+      outgoing.clear();
+      IOException cause = getCloseException();
+      List<Integer> ids = new ArrayList<Integer>(calls.keySet());
+      for (Integer id : ids) {
+        failCall(id, cause);
+      }
+    }
+  }
+}
@@ -124,9 +124,9 @@ public class RpcClient {
   protected final boolean tcpKeepAlive; // if T then use keepalives
   protected int pingInterval; // how often sends ping to the server in msecs
   protected FailedServers failedServers;
-  private final Codec codec;
-  private final CompressionCodec compressor;
-  private final IPCUtil ipcUtil;
+  final Codec codec;
+  final CompressionCodec compressor;
+  final IPCUtil ipcUtil;
 
   protected final SocketFactory socketFactory;           // how to create sockets
   protected String clusterId;
@@ -1123,30 +1123,6 @@ public class RpcClient {
       }
     }
 
-    /**
-     * @param e
-     * @return True if the exception is a fatal connection exception.
-     */
-    private boolean isFatalConnectionException(final ExceptionResponse e) {
-      return e.getExceptionClassName().
-        equals(FatalConnectionException.class.getName());
-    }
-
-    /**
-     * @param e
-     * @return RemoteException made from passed <code>e</code>
-     */
-    private RemoteException createRemoteException(final ExceptionResponse e) {
-      String innerExceptionClassName = e.getExceptionClassName();
-      boolean doNotRetry = e.getDoNotRetry();
-      return e.hasHostname()?
-        // If a hostname then add it to the RemoteWithExtrasException
-        new RemoteWithExtrasException(innerExceptionClassName,
-          e.getStackTrace(), e.getHostname(), e.getPort(), doNotRetry):
-        new RemoteWithExtrasException(innerExceptionClassName,
-          e.getStackTrace(), doNotRetry);
-    }
-
     protected synchronized void markClosed(IOException e) {
       if (shouldCloseConnection.compareAndSet(false, true)) {
         closeException = e;
@@ -1457,6 +1433,30 @@ public class RpcClient {
     }
   }
 
+  /**
+   * @param e
+   * @return True if the exception is a fatal connection exception.
+   */
+  static boolean isFatalConnectionException(final ExceptionResponse e) {
+    return e.getExceptionClassName().
+      equals(FatalConnectionException.class.getName());
+  }
+
+  /**
+   * @param e
+   * @return RemoteException made from passed <code>e</code>
+   */
+  static RemoteException createRemoteException(final ExceptionResponse e) {
+    String innerExceptionClassName = e.getExceptionClassName();
+    boolean doNotRetry = e.getDoNotRetry();
+    return e.hasHostname()?
+      // If a hostname then add it to the RemoteWithExtrasException
+      new RemoteWithExtrasException(innerExceptionClassName,
+        e.getStackTrace(), e.getHostname(), e.getPort(), doNotRetry):
+      new RemoteWithExtrasException(innerExceptionClassName,
+        e.getStackTrace(), doNotRetry);
+  }
+
   /**
    * Take an IOException and the address we were trying to connect to
    * and return an IOException with the input exception as the cause.
@@ -36,5 +36,10 @@ public enum BloomType {
   /**
    * Bloom enabled with Table row & column (family+qualifier) as Key
    */
-  ROWCOL
+  ROWCOL,
+  /**
+   * Bloom enabled with a fixed-length prefix of the Table row as Key. The
+   * prefix length is set per column family.
+   */
+  ROWPREFIX
 }
\ No newline at end of file
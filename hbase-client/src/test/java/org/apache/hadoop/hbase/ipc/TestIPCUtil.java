@@ -17,11 +17,14 @@
  */
 package org.apache.hadoop.hbase.ipc;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
 
 import org.apache.commons.lang.time.StopWatch;
 import org.apache.commons.logging.Log;
@@ -65,6 +68,39 @@ public class TestIPCUtil {
     doBuildCellBlockUndoCellBlock(this.util, new KeyValueCodec(), new GzipCodec());
   }
 
+  @Test
+  public void testBuildCellBlockBuffers() throws IOException {
+    final int valueSize = 16 * 1024;
+    Cell [] cells = getCells(10, valueSize);
+    ByteBuffer copied = this.util.buildCellBlock(new KeyValueCodec(), null,
+      CellUtil.createCellScanner(Arrays.asList(cells).iterator()));
+    List<ByteBuffer> buffers = this.util.buildCellBlockBuffers(new KeyValueCodec(), null,
+      CellUtil.createCellScanner(Arrays.asList(cells).iterator()), valueSize);
+    // The large values were referenced rather than copied into one buffer
+    assertTrue(buffers.size() > 1);
+    int size = 0;
+    for (ByteBuffer bb: buffers) {
+      size += bb.remaining();
+    }
+    ByteBuffer gathered = ByteBuffer.allocate(size);
+    for (ByteBuffer bb: buffers) {
+      gathered.put(bb.duplicate());
+    }
+    assertArrayEquals(Arrays.copyOf(copied.array(), copied.limit()), gathered.array());
+    CellScanner cellScanner =
+      this.util.createCellScanner(new KeyValueCodec(), null, gathered.array(), 0, size);
+    int i = 0;
+    while (cellScanner.advance()) {
+      i++;
+    }
+    assertEquals(cells.length, i);
+
+    // Compressed cell blocks are always built in one piece
+    buffers = this.util.buildCellBlockBuffers(new KeyValueCodec(), new DefaultCodec(),
+      CellUtil.createCellScanner(Arrays.asList(cells).iterator()), valueSize);
+    assertEquals(1, buffers.size());
+  }
+
   static void doBuildCellBlockUndoCellBlock(final IPCUtil util,
       final Codec codec, final CompressionCodec compressor)
   throws IOException {
@@ -0,0 +1,104 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestBoundedPriorityBlockingQueue {
+  private static final int CAPACITY = 4;
+
+  private BoundedPriorityBlockingQueue<Integer> queue;
+
+  @Before
+  public void setUp() {
+    queue = new BoundedPriorityBlockingQueue<Integer>(CAPACITY, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return a.compareTo(b);
+      }
+    });
+  }
+
+  @Test
+  public void testOrder() throws InterruptedException {
+    queue.put(3);
+    queue.put(1);
+    queue.put(4);
+    queue.put(2);
+    assertEquals(4, queue.size());
+    assertEquals(Integer.valueOf(1), queue.peek());
+    for (int i = 1; i <= CAPACITY; i++) {
+      assertEquals(Integer.valueOf(i), queue.take());
+    }
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void testCapacity() throws InterruptedException {
+    for (int i = 0; i < CAPACITY; i++) {
+      assertTrue(queue.offer(i));
+    }
+    assertEquals(0, queue.remainingCapacity());
+    assertFalse(queue.offer(10));
+    assertFalse(queue.offer(10, 10, TimeUnit.MILLISECONDS));
+
+    List<Integer> drained = new ArrayList<Integer>();
+    assertEquals(2, queue.drainTo(drained, 2));
+    assertEquals(2, queue.remainingCapacity());
+    assertTrue(queue.offer(10));
+  }
+
+  @Test
+  public void testBlocking() throws InterruptedException {
+    for (int i = 0; i < CAPACITY; i++) {
+      queue.put(i + 1);
+    }
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          queue.put(0);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    producer.start();
+    // The producer blocks until an element is taken
+    assertEquals(Integer.valueOf(1), queue.take());
+    producer.join();
+    assertEquals(Integer.valueOf(0), queue.poll(1, TimeUnit.SECONDS));
+    queue.clear();
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+  }
+}
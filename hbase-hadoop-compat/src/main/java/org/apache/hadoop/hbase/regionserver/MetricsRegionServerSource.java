@@ -158,6 +158,15 @@ public interface MetricsRegionServerSource extends BaseSource {
   String LARGE_COMPACTION_QUEUE_LENGTH = "largeCompactionQueueLength";
   String SMALL_COMPACTION_QUEUE_LENGTH = "smallCompactionQueueLength";
   String COMPACTION_QUEUE_LENGTH_DESC = "Length of the queue for compactions.";
+  String COMPACTION_THROUGHPUT = "compactionThroughput";
+  String COMPACTION_THROUGHPUT_DESC =
+      "Bytes per second written by all running compactions.";
+  String COMPACTION_THROUGHPUT_LIMIT = "compactionThroughputLimit";
+  String COMPACTION_THROUGHPUT_LIMIT_DESC =
+      "Bytes per second all compactions may write together; 0 if unlimited.";
+  String COMPACTION_THROTTLE_SLEEP_TIME = "compactionThrottleSleepTime";
+  String COMPACTION_THROTTLE_SLEEP_TIME_DESC =
+      "Time in ms compactions slept to stay under the throughput limit.";
   String FLUSH_QUEUE_LENGTH = "flushQueueLength";
   String FLUSH_QUEUE_LENGTH_DESC = "Length of the queue for region flushes";
   String BLOCK_CACHE_FREE_SIZE = "blockCacheFreeSize";
@@ -167,6 +176,10 @@ public interface MetricsRegionServerSource extends BaseSource {
   String BLOCK_CACHE_COUNT_DESC = "Number of block in the block cache.";
   String BLOCK_CACHE_SIZE = "blockCacheSize";
   String BLOCK_CACHE_SIZE_DESC = "Size of the block cache.";
+  String BLOCK_CACHE_INDEX_SIZE = "blockCacheIndexSize";
+  String BLOCK_CACHE_INDEX_SIZE_DESC = "Size of the index blocks in the block cache.";
+  String BLOCK_CACHE_BLOOM_SIZE = "blockCacheBloomSize";
+  String BLOCK_CACHE_BLOOM_SIZE_DESC = "Size of the bloom filter blocks in the block cache.";
   String BLOCK_CACHE_HIT_COUNT = "blockCacheHitCount";
   String BLOCK_CACHE_HIT_COUNT_DESC = "Count of the hit on the block cache.";
   String BLOCK_CACHE_MISS_COUNT = "blockCacheMissCount";
@@ -175,12 +188,32 @@ public interface MetricsRegionServerSource extends BaseSource {
   String BLOCK_CACHE_EVICTION_COUNT = "blockCacheEvictionCount";
   String BLOCK_CACHE_EVICTION_COUNT_DESC =
       "Count of the number of blocks evicted from the block cache.";
+  String BLOCK_CACHE_PREFETCHED_BYTES = "blockCachePrefetchedBytes";
+  String BLOCK_CACHE_PREFETCHED_BYTES_DESC =
+      "Bytes of store file blocks read into the block cache by prefetch-on-open.";
+  String BLOCK_CACHE_PREFETCH_PENDING = "blockCachePrefetchPendingFiles";
+  String BLOCK_CACHE_PREFETCH_PENDING_DESC =
+      "Number of store files whose prefetch-on-open is scheduled or running.";
+  String BLOCK_CACHE_UNPACK_COUNT = "blockCacheUnpackCount";
+  String BLOCK_CACHE_UNPACK_COUNT_DESC =
+      "Number of data blocks decompressed after being read from the block cache compressed.";
+  String BLOCK_CACHE_UNPACK_TIME = "blockCacheUnpackTime";
+  String BLOCK_CACHE_UNPACK_TIME_DESC =
+      "Time in ms spent decompressing data blocks read from the block cache.";
   String BLOCK_CACHE_HIT_PERCENT = "blockCountHitPercent";
   String BLOCK_CACHE_HIT_PERCENT_DESC =
       "Percent of block cache requests that are hits";
   String BLOCK_CACHE_EXPRESS_HIT_PERCENT = "blockCacheExpressHitPercent";
   String BLOCK_CACHE_EXPRESS_HIT_PERCENT_DESC =
       "The percent of the time that requests with the cache turned on hit the cache.";
+  String BLOCK_CACHE_PARTITION_PREFIX = "blockCachePartition_";
+  String BLOCK_CACHE_PARTITION_SIZE = "_size";
+  String BLOCK_CACHE_PARTITION_SIZE_DESC = "Size of the block cache partition.";
+  String BLOCK_CACHE_PARTITION_HIT_COUNT = "_hitCount";
+  String BLOCK_CACHE_PARTITION_HIT_COUNT_DESC = "Count of the hit on the block cache partition.";
+  String BLOCK_CACHE_PARTITION_MISS_COUNT = "_missCount";
+  String BLOCK_CACHE_PARTITION_MISS_COUNT_DESC =
+      "Number of requests for a block of the partition that missed the block cache.";
   String RS_START_TIME_NAME = "regionServerStartTime";
   String ZOOKEEPER_QUORUM_NAME = "zookeeperQuorum";
   String SERVER_NAME_NAME = "serverName";
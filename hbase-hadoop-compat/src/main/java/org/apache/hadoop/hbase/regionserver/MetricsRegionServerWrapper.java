@@ -18,6 +18,8 @@
 
 package org.apache.hadoop.hbase.regionserver;
 
+import java.util.Map;
+
 /**
  * This is the interface that will expose RegionServer information to hadoop1/hadoop2
  * implementations of the MetricsRegionServerSource.
@@ -152,6 +154,22 @@ public interface MetricsRegionServerWrapper {
 
   int getLargeCompactionQueueSize();
 
+  /**
+   * Get the current throughput, in bytes per second, of all running compactions.
+   */
+  long getCompactionThroughput();
+
+  /**
+   * Get the current throughput limit, in bytes per second, of all compactions together, or 0
+   * if compactions are not throttled.
+   */
+  long getCompactionThroughputLimit();
+
+  /**
+   * Get the time in milliseconds compactions have slept to stay under the throughput limit.
+   */
+  long getCompactionThrottleSleepTime();
+
   /**
    * Get the size of the flush queue.
    */
@@ -172,6 +190,16 @@ public interface MetricsRegionServerWrapper {
    */
   long getBlockCacheSize();
 
+  /**
+   * Get the size (in bytes) of the index blocks in the block cache.
+   */
+  long getBlockCacheIndexSize();
+
+  /**
+   * Get the size (in bytes) of the bloom filter blocks in the block cache.
+   */
+  long getBlockCacheBloomSize();
+
   /**
    * Get the count of hits to the block cache
    */
@@ -187,11 +215,47 @@ public interface MetricsRegionServerWrapper {
    */
   long getBlockCacheEvictedCount();
 
+  /**
+   * Get the number of bytes prefetched into the block cache when store files were opened.
+   */
+  long getBlockCachePrefetchedBytes();
+
+  /**
+   * Get the number of store files with a pending block cache prefetch.
+   */
+  int getBlockCachePrefetchPendingCount();
+
+  /**
+   * Get the number of data blocks decompressed after being read from the block cache in
+   * compressed form.
+   */
+  long getBlockCacheUnpackCount();
+
+  /**
+   * Get the time in milliseconds spent decompressing blocks read from the block cache.
+   */
+  long getBlockCacheUnpackTimeMs();
+
   /**
    * Get the percent of all requests that hit the block cache.
    */
   int getBlockCacheHitPercent();
 
+  /**
+   * Get the size of each block cache partition, by partition name.
+   */
+  Map<String, Long> getBlockCachePartitionSizes();
+
+  /**
+   * Get the count of hits on each block cache partition, by partition name.
+   */
+  Map<String, Long> getBlockCachePartitionHitCounts();
+
+  /**
+   * Get the count of misses on each block cache partition, by partition name.
+   */
+  Map<String, Long> getBlockCachePartitionMissCounts();
+
   /**
    * Get the percent of requests with the block cache turned on that hit the block cache.
    */
@@ -18,6 +18,8 @@
 
 package org.apache.hadoop.hbase.regionserver;
 
+import java.util.Map;
+
 import org.apache.hadoop.hbase.metrics.BaseSourceImpl;
 import org.apache.hadoop.metrics2.MetricHistogram;
 import org.apache.hadoop.metrics2.MetricsBuilder;
@@ -180,10 +182,20 @@ public class MetricsRegionServerSourceImpl
           .addGauge(SMALL_COMPACTION_QUEUE_LENGTH,
               COMPACTION_QUEUE_LENGTH_DESC,
               rsWrap.getSmallCompactionQueueSize())
+          .addGauge(COMPACTION_THROUGHPUT, COMPACTION_THROUGHPUT_DESC,
+              rsWrap.getCompactionThroughput())
+          .addGauge(COMPACTION_THROUGHPUT_LIMIT, COMPACTION_THROUGHPUT_LIMIT_DESC,
+              rsWrap.getCompactionThroughputLimit())
+          .addCounter(COMPACTION_THROTTLE_SLEEP_TIME, COMPACTION_THROTTLE_SLEEP_TIME_DESC,
+              rsWrap.getCompactionThrottleSleepTime())
           .addGauge(FLUSH_QUEUE_LENGTH, FLUSH_QUEUE_LENGTH_DESC, rsWrap.getFlushQueueSize())
           .addGauge(BLOCK_CACHE_FREE_SIZE, BLOCK_CACHE_FREE_DESC, rsWrap.getBlockCacheFreeSize())
           .addGauge(BLOCK_CACHE_COUNT, BLOCK_CACHE_COUNT_DESC, rsWrap.getBlockCacheCount())
           .addGauge(BLOCK_CACHE_SIZE, BLOCK_CACHE_SIZE_DESC, rsWrap.getBlockCacheSize())
+          .addGauge(BLOCK_CACHE_INDEX_SIZE, BLOCK_CACHE_INDEX_SIZE_DESC,
+              rsWrap.getBlockCacheIndexSize())
+          .addGauge(BLOCK_CACHE_BLOOM_SIZE, BLOCK_CACHE_BLOOM_SIZE_DESC,
+              rsWrap.getBlockCacheBloomSize())
           .addCounter(BLOCK_CACHE_HIT_COUNT,
               BLOCK_CACHE_HIT_COUNT_DESC,
               rsWrap.getBlockCacheHitCount())
@@ -193,6 +205,18 @@ public class MetricsRegionServerSourceImpl
           .addCounter(BLOCK_CACHE_EVICTION_COUNT,
               BLOCK_CACHE_EVICTION_COUNT_DESC,
               rsWrap.getBlockCacheEvictedCount())
+          .addCounter(BLOCK_CACHE_PREFETCHED_BYTES,
+              BLOCK_CACHE_PREFETCHED_BYTES_DESC,
+              rsWrap.getBlockCachePrefetchedBytes())
+          .addGauge(BLOCK_CACHE_PREFETCH_PENDING,
+              BLOCK_CACHE_PREFETCH_PENDING_DESC,
+              rsWrap.getBlockCachePrefetchPendingCount())
+          .addCounter(BLOCK_CACHE_UNPACK_COUNT,
+              BLOCK_CACHE_UNPACK_COUNT_DESC,
+              rsWrap.getBlockCacheUnpackCount())
+          .addCounter(BLOCK_CACHE_UNPACK_TIME,
+              BLOCK_CACHE_UNPACK_TIME_DESC,
+              rsWrap.getBlockCacheUnpackTimeMs())
           .addGauge(BLOCK_CACHE_HIT_PERCENT,
               BLOCK_CACHE_HIT_PERCENT_DESC,
               rsWrap.getBlockCacheHitPercent())
@@ -203,10 +227,24 @@ public class MetricsRegionServerSourceImpl
           .tag(ZOOKEEPER_QUORUM_NAME, ZOOKEEPER_QUORUM_DESC, rsWrap.getZookeeperQuorum())
           .tag(SERVER_NAME_NAME, SERVER_NAME_DESC, rsWrap.getServerName())
           .tag(CLUSTER_ID_NAME, CLUSTER_ID_DESC, rsWrap.getClusterId());
+      addBlockCachePartitionMetrics(mrb);
     }
 
     metricsRegistry.snapshot(mrb, all);
   }
 
-
+  private void addBlockCachePartitionMetrics(MetricsRecordBuilder mrb) {
+    for (Map.Entry<String, Long> e : rsWrap.getBlockCachePartitionSizes().entrySet()) {
+      mrb.addGauge(BLOCK_CACHE_PARTITION_PREFIX + e.getKey() + BLOCK_CACHE_PARTITION_SIZE,
+          BLOCK_CACHE_PARTITION_SIZE_DESC, e.getValue());
+    }
+    for (Map.Entry<String, Long> e : rsWrap.getBlockCachePartitionHitCounts().entrySet()) {
+      mrb.addCounter(BLOCK_CACHE_PARTITION_PREFIX + e.getKey() + BLOCK_CACHE_PARTITION_HIT_COUNT,
+          BLOCK_CACHE_PARTITION_HIT_COUNT_DESC, e.getValue());
+    }
+    for (Map.Entry<String, Long> e : rsWrap.getBlockCachePartitionMissCounts().entrySet()) {
+      mrb.addCounter(BLOCK_CACHE_PARTITION_PREFIX + e.getKey() + BLOCK_CACHE_PARTITION_MISS_COUNT,
+          BLOCK_CACHE_PARTITION_MISS_COUNT_DESC, e.getValue());
+    }
+  }
 }
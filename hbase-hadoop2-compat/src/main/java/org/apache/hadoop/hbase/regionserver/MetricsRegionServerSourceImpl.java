@@ -18,6 +18,8 @@
 
 package org.apache.hadoop.hbase.regionserver;
 
+import java.util.Map;
+
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.metrics.BaseSourceImpl;
 import org.apache.hadoop.metrics2.MetricHistogram;
@@ -185,6 +187,12 @@ public class MetricsRegionServerSourceImpl
               rsWrap.getPercentFileLocal())
           .addGauge(Interns.info(COMPACTION_QUEUE_LENGTH, COMPACTION_QUEUE_LENGTH_DESC),
               rsWrap.getCompactionQueueSize())
+          .addGauge(Interns.info(COMPACTION_THROUGHPUT, COMPACTION_THROUGHPUT_DESC),
+              rsWrap.getCompactionThroughput())
+          .addGauge(Interns.info(COMPACTION_THROUGHPUT_LIMIT, COMPACTION_THROUGHPUT_LIMIT_DESC),
+              rsWrap.getCompactionThroughputLimit())
+          .addCounter(Interns.info(COMPACTION_THROTTLE_SLEEP_TIME,
+              COMPACTION_THROTTLE_SLEEP_TIME_DESC), rsWrap.getCompactionThrottleSleepTime())
           .addGauge(Interns.info(FLUSH_QUEUE_LENGTH, FLUSH_QUEUE_LENGTH_DESC),
               rsWrap.getFlushQueueSize())
           .addGauge(Interns.info(BLOCK_CACHE_FREE_SIZE, BLOCK_CACHE_FREE_DESC),
@@ -193,12 +201,24 @@ public class MetricsRegionServerSourceImpl
               rsWrap.getBlockCacheCount())
           .addGauge(Interns.info(BLOCK_CACHE_SIZE, BLOCK_CACHE_SIZE_DESC),
               rsWrap.getBlockCacheSize())
+          .addGauge(Interns.info(BLOCK_CACHE_INDEX_SIZE, BLOCK_CACHE_INDEX_SIZE_DESC),
+              rsWrap.getBlockCacheIndexSize())
+          .addGauge(Interns.info(BLOCK_CACHE_BLOOM_SIZE, BLOCK_CACHE_BLOOM_SIZE_DESC),
+              rsWrap.getBlockCacheBloomSize())
           .addCounter(Interns.info(BLOCK_CACHE_HIT_COUNT, BLOCK_CACHE_HIT_COUNT_DESC),
               rsWrap.getBlockCacheHitCount())
           .addCounter(Interns.info(BLOCK_CACHE_MISS_COUNT, BLOCK_COUNT_MISS_COUNT_DESC),
               rsWrap.getBlockCacheMissCount())
           .addCounter(Interns.info(BLOCK_CACHE_EVICTION_COUNT, BLOCK_CACHE_EVICTION_COUNT_DESC),
               rsWrap.getBlockCacheEvictedCount())
+          .addCounter(Interns.info(BLOCK_CACHE_PREFETCHED_BYTES,
+              BLOCK_CACHE_PREFETCHED_BYTES_DESC), rsWrap.getBlockCachePrefetchedBytes())
+          .addGauge(Interns.info(BLOCK_CACHE_PREFETCH_PENDING,
+              BLOCK_CACHE_PREFETCH_PENDING_DESC), rsWrap.getBlockCachePrefetchPendingCount())
+          .addCounter(Interns.info(BLOCK_CACHE_UNPACK_COUNT, BLOCK_CACHE_UNPACK_COUNT_DESC),
+              rsWrap.getBlockCacheUnpackCount())
+          .addCounter(Interns.info(BLOCK_CACHE_UNPACK_TIME, BLOCK_CACHE_UNPACK_TIME_DESC),
+              rsWrap.getBlockCacheUnpackTimeMs())
           .addGauge(Interns.info(BLOCK_CACHE_HIT_PERCENT, BLOCK_CACHE_HIT_PERCENT_DESC),
               rsWrap.getBlockCacheHitPercent())
           .addGauge(Interns.info(BLOCK_CACHE_EXPRESS_HIT_PERCENT,
@@ -209,8 +229,24 @@ public class MetricsRegionServerSourceImpl
               rsWrap.getZookeeperQuorum())
           .tag(Interns.info(SERVER_NAME_NAME, SERVER_NAME_DESC), rsWrap.getServerName())
           .tag(Interns.info(CLUSTER_ID_NAME, CLUSTER_ID_DESC), rsWrap.getClusterId());
+      addBlockCachePartitionMetrics(mrb);
     }
 
     metricsRegistry.snapshot(mrb, all);
   }
+
+  private void addBlockCachePartitionMetrics(MetricsRecordBuilder mrb) {
+    for (Map.Entry<String, Long> e : rsWrap.getBlockCachePartitionSizes().entrySet()) {
+      mrb.addGauge(Interns.info(BLOCK_CACHE_PARTITION_PREFIX + e.getKey() +
+          BLOCK_CACHE_PARTITION_SIZE, BLOCK_CACHE_PARTITION_SIZE_DESC), e.getValue());
+    }
+    for (Map.Entry<String, Long> e : rsWrap.getBlockCachePartitionHitCounts().entrySet()) {
+      mrb.addCounter(Interns.info(BLOCK_CACHE_PARTITION_PREFIX + e.getKey() +
+          BLOCK_CACHE_PARTITION_HIT_COUNT, BLOCK_CACHE_PARTITION_HIT_COUNT_DESC), e.getValue());
+    }
+    for (Map.Entry<String, Long> e : rsWrap.getBlockCachePartitionMissCounts().entrySet()) {
+      mrb.addCounter(Interns.info(BLOCK_CACHE_PARTITION_PREFIX + e.getKey() +
+          BLOCK_CACHE_PARTITION_MISS_COUNT, BLOCK_CACHE_PARTITION_MISS_COUNT_DESC), e.getValue());
+    }
+  }
 }
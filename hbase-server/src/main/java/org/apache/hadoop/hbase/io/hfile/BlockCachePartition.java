@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A named part of a {@link PartitionableBlockCache}, holding the blocks of the
+ * column families configured to use it. A partition may be reserved a minimum
+ * share of the cache, which its blocks are not evicted to make room for other
+ * blocks while it holds less, and limited to a maximum share, beyond which its
+ * own least recently used blocks are evicted. Keeps its own hit and miss
+ * counts.
+ * @see org.apache.hadoop.hbase.HColumnDescriptor#setBlockCachePartition(String)
+ */
+@InterfaceAudience.Private
+public class BlockCachePartition {
+  private final String name;
+  private final float minShare;
+  private final float maxShare;
+
+  /** Heap size of the blocks of this partition in the cache */
+  private final AtomicLong size = new AtomicLong(0);
+
+  private final CacheStats stats = new CacheStats();
+
+  BlockCachePartition(String name, float minShare, float maxShare) {
+    this.name = name;
+    if (minShare < 0 || maxShare > 1 || minShare > maxShare) {
+      throw new IllegalArgumentException("Block cache partition " + name + " shares must " +
+        "satisfy 0 <= minShare <= maxShare <= 1, got minShare=" + minShare +
+        ", maxShare=" + maxShare);
+    }
+    this.minShare = minShare;
+    this.maxShare = maxShare;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return Share of the cache reserved for this partition
+   */
+  public float getMinShare() {
+    return minShare;
+  }
+
+  /**
+   * @return Largest share of the cache this partition may take up
+   */
+  public float getMaxShare() {
+    return maxShare;
+  }
+
+  /**
+   * @return Heap size of the blocks of this partition in the cache
+   */
+  public long getCurrentSize() {
+    return size.get();
+  }
+
+  long addSize(long delta) {
+    return size.addAndGet(delta);
+  }
+
+  /**
+   * @return Hits and misses of lookups of blocks of this partition
+   */
+  public CacheStats getStats() {
+    return stats;
+  }
+
+  @Override
+  public String toString() {
+    return "partition=" + name + ", minShare=" + minShare + ", maxShare=" + maxShare +
+      ", size=" + size.get();
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * The block cache as seen by the column families using one of its
+ * partitions: blocks cached through the view are accounted to the partition,
+ * and lookups through it are counted in the partition's stats. Everything
+ * else goes straight to the underlying cache.
+ */
+@InterfaceAudience.Private
+class BlockCachePartitionView implements BlockCache {
+  private final PartitionableBlockCache cache;
+  private final BlockCachePartition partition;
+
+  BlockCachePartitionView(PartitionableBlockCache cache, BlockCachePartition partition) {
+    this.cache = cache;
+    this.partition = partition;
+  }
+
+  BlockCachePartition getPartition() {
+    return partition;
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory) {
+    cache.cacheBlock(cacheKey, buf, inMemory, partition);
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf) {
+    cacheBlock(cacheKey, buf, false);
+  }
+
+  @Override
+  public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat) {
+    Cacheable block = cache.getBlock(cacheKey, caching, repeat);
+    if (block != null) {
+      partition.getStats().hit(caching);
+    } else if (!repeat) {
+      partition.getStats().miss(caching);
+    }
+    return block;
+  }
+
+  @Override
+  public boolean evictBlock(BlockCacheKey cacheKey) {
+    return cache.evictBlock(cacheKey);
+  }
+
+  @Override
+  public int evictBlocksByHfileName(String hfileName) {
+    return cache.evictBlocksByHfileName(hfileName);
+  }
+
+  @Override
+  public CacheStats getStats() {
+    return cache.getStats();
+  }
+
+  @Override
+  public void shutdown() {
+    cache.shutdown();
+  }
+
+  @Override
+  public long size() {
+    return cache.size();
+  }
+
+  @Override
+  public long getFreeSize() {
+    return cache.getFreeSize();
+  }
+
+  @Override
+  public long getCurrentSize() {
+    return cache.getCurrentSize();
+  }
+
+  @Override
+  public long getEvictedCount() {
+    return cache.getEvictedCount();
+  }
+
+  @Override
+  public long getBlockCount() {
+    return cache.getBlockCount();
+  }
+
+  @Override
+  public List<BlockCacheColumnFamilySummary> getBlockCacheColumnFamilySummaries(
+      Configuration conf) throws IOException {
+    return cache.getBlockCacheColumnFamilySummaries(conf);
+  }
+}
@@ -61,8 +61,9 @@ public class CacheConfig {
       "hfile.block.bloom.cacheonwrite";
 
   /**
-   * TODO: Implement this (jgray)
-   * Configuration key to cache data blocks in compressed format.
+   * Configuration key to cache data blocks in their on-disk compressed format.
+   * Cached blocks are decompressed on every access, trading CPU for cache
+   * capacity.
    */
   public static final String CACHE_DATA_BLOCKS_COMPRESSED_KEY =
       "hbase.rs.blockcache.cachedatacompressed";
@@ -74,6 +75,21 @@ public class CacheConfig {
   public static final String EVICT_BLOCKS_ON_CLOSE_KEY =
       "hbase.rs.evictblocksonclose";
 
+  /**
+   * Configuration key to prefetch all blocks of a given file into the block cache
+   * when the file is opened.
+   */
+  public static final String PREFETCH_BLOCKS_ON_OPEN_KEY =
+      "hbase.rs.prefetchblocksonopen";
+
+  /**
+   * Eviction policy of the on-heap block cache, either "lru" or "tinylfu".
+   * TinyLFU is only used when no bucket or off-heap cache sits behind it.
+   */
+  public static final String BLOCKCACHE_POLICY_KEY = "hbase.blockcache.policy";
+  public static final String BLOCKCACHE_POLICY_LRU = "lru";
+  public static final String BLOCKCACHE_POLICY_TINYLFU = "tinylfu";
+
   /**
    * Configuration keys for Bucket cache
    */
@@ -88,6 +104,12 @@ public class CacheConfig {
   public static final String BUCKET_CACHE_WRITER_THREADS_KEY = "hbase.bucketcache.writer.threads";
   public static final String BUCKET_CACHE_WRITER_QUEUE_KEY = 
       "hbase.bucketcache.writer.queuelength";
+  /**
+   * Interval in milliseconds between checkpoints of the persistent bucket
+   * cache's index; 0 keeps the index in memory until a clean shutdown.
+   */
+  public static final String BUCKET_CACHE_CHECKPOINT_INTERVAL_KEY =
+      "hbase.bucketcache.persistence.checkpoint.interval";
   /**
    * Defaults for Bucket cache
    */
@@ -95,6 +117,7 @@ public class CacheConfig {
   public static final int DEFAULT_BUCKET_CACHE_WRITER_THREADS = 3;
   public static final int DEFAULT_BUCKET_CACHE_WRITER_QUEUE = 64;
   public static final float DEFAULT_BUCKET_CACHE_COMBINED_PERCENTAGE = 0.9f;
+  public static final long DEFAULT_BUCKET_CACHE_CHECKPOINT_INTERVAL = 0;
 
   // Defaults
 
@@ -105,6 +128,7 @@ public class CacheConfig {
   public static final boolean DEFAULT_CACHE_BLOOMS_ON_WRITE = false;
   public static final boolean DEFAULT_EVICT_ON_CLOSE = false;
   public static final boolean DEFAULT_COMPRESSED_CACHE = false;
+  public static final boolean DEFAULT_PREFETCH_ON_OPEN = false;
 
   /** Local reference to the block cache, null if completely disabled */
   private final BlockCache blockCache;
@@ -133,6 +157,9 @@ public class CacheConfig {
   /** Whether data blocks should be stored in compressed form in the cache */
   private final boolean cacheCompressed;
 
+  /** Whether data blocks should be prefetched into the cache */
+  private final boolean prefetchOnOpen;
+
   /**
    * Create a cache configuration using the specified configuration object and
    * family descriptor.
@@ -140,7 +167,7 @@ public class CacheConfig {
    * @param family column family configuration
    */
   public CacheConfig(Configuration conf, HColumnDescriptor family) {
-    this(CacheConfig.instantiateBlockCache(conf),
+    this(CacheConfig.instantiateBlockCache(conf, family),
         family.isBlockCacheEnabled(),
         family.isInMemory(),
         // For the following flags we enable them regardless of per-schema settings
@@ -153,7 +180,10 @@ public class CacheConfig {
             DEFAULT_CACHE_BLOOMS_ON_WRITE) || family.shouldCacheBloomsOnWrite(),
         conf.getBoolean(EVICT_BLOCKS_ON_CLOSE_KEY,
             DEFAULT_EVICT_ON_CLOSE) || family.shouldEvictBlocksOnClose(),
-        conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY, DEFAULT_COMPRESSED_CACHE)
+        conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY,
+            DEFAULT_COMPRESSED_CACHE) || family.shouldCacheDataCompressed(),
+        conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY,
+            DEFAULT_PREFETCH_ON_OPEN) || family.shouldPrefetchBlocksOnOpen()
      );
   }
 
@@ -174,7 +204,8 @@ public class CacheConfig {
                 DEFAULT_CACHE_BLOOMS_ON_WRITE),
         conf.getBoolean(EVICT_BLOCKS_ON_CLOSE_KEY, DEFAULT_EVICT_ON_CLOSE),
         conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY,
-            DEFAULT_COMPRESSED_CACHE)
+            DEFAULT_COMPRESSED_CACHE),
+        conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY, DEFAULT_PREFETCH_ON_OPEN)
      );
   }
 
@@ -189,12 +220,13 @@ public class CacheConfig {
    * @param cacheBloomsOnWrite whether blooms should be cached on write
    * @param evictOnClose whether blocks should be evicted when HFile is closed
    * @param cacheCompressed whether to store blocks as compressed in the cache
+   * @param prefetchOnOpen whether to prefetch blocks upon open
    */
   CacheConfig(final BlockCache blockCache,
       final boolean cacheDataOnRead, final boolean inMemory,
       final boolean cacheDataOnWrite, final boolean cacheIndexesOnWrite,
       final boolean cacheBloomsOnWrite, final boolean evictOnClose,
-      final boolean cacheCompressed) {
+      final boolean cacheCompressed, final boolean prefetchOnOpen) {
     this.blockCache = blockCache;
     this.cacheDataOnRead = cacheDataOnRead;
     this.inMemory = inMemory;
@@ -203,6 +235,7 @@ public class CacheConfig {
     this.cacheBloomsOnWrite = cacheBloomsOnWrite;
     this.evictOnClose = evictOnClose;
     this.cacheCompressed = cacheCompressed;
+    this.prefetchOnOpen = prefetchOnOpen;
   }
 
   /**
@@ -213,7 +246,7 @@ public class CacheConfig {
     this(cacheConf.blockCache, cacheConf.cacheDataOnRead, cacheConf.inMemory,
         cacheConf.cacheDataOnWrite, cacheConf.cacheIndexesOnWrite,
         cacheConf.cacheBloomsOnWrite, cacheConf.evictOnClose,
-        cacheConf.cacheCompressed);
+        cacheConf.cacheCompressed, cacheConf.prefetchOnOpen);
   }
 
   /**
@@ -316,6 +349,13 @@ public class CacheConfig {
     return isBlockCacheEnabled() && this.cacheCompressed;
   }
 
+  /**
+   * @return true if blocks should be prefetched into the cache on open, false if not
+   */
+  public boolean shouldPrefetchOnOpen() {
+    return isBlockCacheEnabled() && this.prefetchOnOpen;
+  }
+
   @Override
   public String toString() {
     if (!isBlockCacheEnabled()) {
@@ -327,7 +367,8 @@ public class CacheConfig {
       "[cacheIndexesOnWrite=" + shouldCacheIndexesOnWrite() + "] " +
       "[cacheBloomsOnWrite=" + shouldCacheBloomsOnWrite() + "] " +
       "[cacheEvictOnClose=" + shouldEvictOnClose() + "] " +
-      "[cacheCompressed=" + shouldCacheCompressed() + "]";
+      "[cacheCompressed=" + shouldCacheCompressed() + "] " +
+      "[prefetchOnOpen=" + shouldPrefetchOnOpen() + "]";
   }
 
   // Static block cache reference and methods
@@ -341,6 +382,30 @@ public class CacheConfig {
   /** Boolean whether we have disabled the block cache entirely. */
   private static boolean blockCacheDisabled = false;
 
+  /**
+   * Returns the block cache as seen by the given family: through the family's
+   * partition of the cache if it has one, else the block cache itself.
+   *
+   * @param conf  The current configuration.
+   * @param family  The column family.
+   * @return The block cache or <code>null</code>.
+   */
+  private static BlockCache instantiateBlockCache(Configuration conf,
+      HColumnDescriptor family) {
+    BlockCache blockCache = instantiateBlockCache(conf);
+    String partition = family.getBlockCachePartition();
+    if (blockCache == null || partition == null) return blockCache;
+    if (!(blockCache instanceof PartitionableBlockCache)) {
+      LOG.warn("Ignoring block cache partition " + partition + " of family " +
+        family.getNameAsString() + ", " + blockCache.getClass().getSimpleName() +
+        " can not be partitioned");
+      return blockCache;
+    }
+    PartitionableBlockCache partitionable = (PartitionableBlockCache) blockCache;
+    return new BlockCachePartitionView(partitionable, partitionable.getPartition(partition,
+      family.getBlockCachePartitionMinShare(), family.getBlockCachePartitionMaxShare()));
+  }
+
   /**
    * Returns the block cache or <code>null</code> in case none should be used.
    *
@@ -396,17 +461,35 @@ public class CacheConfig {
           int ioErrorsTolerationDuration = conf.getInt(
               "hbase.bucketcache.ioengine.errors.tolerated.duration",
               BucketCache.DEFAULT_ERROR_TOLERATION_DURATION);
+          long checkpointInterval = conf.getLong(
+              BUCKET_CACHE_CHECKPOINT_INTERVAL_KEY,
+              DEFAULT_BUCKET_CACHE_CHECKPOINT_INTERVAL);
           bucketCache = new BucketCache(bucketCacheIOEngineName,
               bucketCacheSize, writerThreads, writerQueueLen, persistentPath,
-              ioErrorsTolerationDuration);
+              ioErrorsTolerationDuration, checkpointInterval);
         } catch (IOException ioex) {
           LOG.error("Can't instantiate bucket cache", ioex);
           throw new RuntimeException(ioex);
         }
       }
+      String policy = conf.get(BLOCKCACHE_POLICY_KEY, BLOCKCACHE_POLICY_LRU);
+      if (BLOCKCACHE_POLICY_TINYLFU.equalsIgnoreCase(policy)) {
+        if (bucketCache == null) {
+          LOG.info("Allocating TinyLfuBlockCache with maximum size " +
+            StringUtils.humanReadableInt(lruCacheSize));
+          globalBlockCache = new TinyLfuBlockCache(lruCacheSize,
+              StoreFile.DEFAULT_BLOCKSIZE_SMALL, conf);
+          return globalBlockCache;
+        }
+        LOG.warn(BLOCKCACHE_POLICY_KEY + "=" + policy +
+          " is not supported together with a bucket cache; using LRU");
+      } else if (!BLOCKCACHE_POLICY_LRU.equalsIgnoreCase(policy)) {
+        LOG.warn("Unknown " + BLOCKCACHE_POLICY_KEY + " '" + policy + "'; using LRU");
+      }
       LOG.info("Allocating LruBlockCache with maximum size " +
         StringUtils.humanReadableInt(lruCacheSize));
-      LruBlockCache lruCache = new LruBlockCache(lruCacheSize, StoreFile.DEFAULT_BLOCKSIZE_SMALL);
+      LruBlockCache lruCache = new LruBlockCache(lruCacheSize,
+          StoreFile.DEFAULT_BLOCKSIZE_SMALL, conf);
       lruCache.setVictimCache(bucketCache);
       if (bucketCache != null && combinedWithLru) {
         globalBlockCache = new CombinedBlockCache(lruCache, bucketCache);
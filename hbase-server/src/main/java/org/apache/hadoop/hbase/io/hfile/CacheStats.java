@@ -53,6 +53,14 @@ public class CacheStats {
   private final AtomicLong evictionCount = new AtomicLong(0);
   /** The total number of blocks that have been evicted */
   private final AtomicLong evictedBlockCount = new AtomicLong(0);
+  /** The total time spent in eviction runs, in nanoseconds */
+  private final AtomicLong evictionTimeNanos = new AtomicLong(0);
+  /** The number of blocks the cache declined to admit */
+  private final AtomicLong rejectedBlockCount = new AtomicLong(0);
+  /** The size of the index blocks held in the cache */
+  private final AtomicLong indexBlockSize = new AtomicLong(0);
+  /** The size of the bloom filter blocks held in the cache */
+  private final AtomicLong bloomBlockSize = new AtomicLong(0);
 
   /** The number of metrics periods to include in window */
   private final int numPeriodsInWindow;
@@ -101,10 +109,44 @@ public class CacheStats {
     evictionCount.incrementAndGet();
   }
 
+  /**
+   * Record an eviction run along with how long it took.
+   * @param elapsedNanos time spent in the eviction run, in nanoseconds
+   */
+  public void evict(long elapsedNanos) {
+    evictionCount.incrementAndGet();
+    evictionTimeNanos.addAndGet(elapsedNanos);
+  }
+
   public void evicted() {
     evictedBlockCount.incrementAndGet();
   }
 
+  public void rejected() {
+    rejectedBlockCount.incrementAndGet();
+  }
+
+  /**
+   * Account for a block entering or leaving the cache.  Only index and bloom
+   * blocks are tracked.  The on-heap cache accounts for the heap size of the
+   * blocks, the bucket cache for the space they take in their bucket.
+   * @param blockType type of the block, may be null
+   * @param heapSize size of the block, negative if it left the cache
+   */
+  public void addBlockSize(BlockType blockType, long heapSize) {
+    if (blockType == null) return;
+    switch (blockType.getCategory()) {
+      case INDEX:
+        indexBlockSize.addAndGet(heapSize);
+        break;
+      case BLOOM:
+        bloomBlockSize.addAndGet(heapSize);
+        break;
+      default:
+        break;
+    }
+  }
+
   public long getRequestCount() {
     return getHitCount() + getMissCount();
   }
@@ -137,6 +179,30 @@ public class CacheStats {
     return evictedBlockCount.get();
   }
 
+  public long getEvictionTimeNanos() {
+    return evictionTimeNanos.get();
+  }
+
+  public long getRejectedCount() {
+    return rejectedBlockCount.get();
+  }
+
+  public long getIndexBlockSize() {
+    return indexBlockSize.get();
+  }
+
+  public long getBloomBlockSize() {
+    return bloomBlockSize.get();
+  }
+
+  /**
+   * @return mean time of an eviction run in nanoseconds, or 0 if none ran
+   */
+  public double getAverageEvictionTimeNanos() {
+    long evictions = getEvictionCount();
+    return evictions == 0 ? 0 : (double)getEvictionTimeNanos() / evictions;
+  }
+
   public double getHitRatio() {
     return ((float)getHitCount()/(float)getRequestCount());
   }
@@ -35,7 +35,7 @@ import org.apache.hadoop.hbase.util.ClassSize;
 public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
 
   public final static long PER_BLOCK_OVERHEAD = ClassSize.align(
-    ClassSize.OBJECT + (3 * ClassSize.REFERENCE) + (2 * Bytes.SIZEOF_LONG) +
+    ClassSize.OBJECT + (4 * ClassSize.REFERENCE) + (2 * Bytes.SIZEOF_LONG) +
     ClassSize.STRING + ClassSize.BYTE_BUFFER);
 
   static enum BlockPriority {
@@ -50,7 +50,11 @@ public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
     /**
      * Block from in-memory store
      */
-    MEMORY
+    MEMORY,
+    /**
+     * Index or bloom block held in the pinned tier
+     */
+    PINNED
   };
 
   private final BlockCacheKey cacheKey;
@@ -58,6 +62,7 @@ public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
   private volatile long accessTime;
   private long size;
   private BlockPriority priority;
+  private final BlockCachePartition partition;
 
   public CachedBlock(BlockCacheKey cacheKey, Cacheable buf, long accessTime) {
     this(cacheKey, buf, accessTime, false);
@@ -65,9 +70,21 @@ public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
 
   public CachedBlock(BlockCacheKey cacheKey, Cacheable buf, long accessTime,
       boolean inMemory) {
+    this(cacheKey, buf, accessTime, inMemory, null);
+  }
+
+  public CachedBlock(BlockCacheKey cacheKey, Cacheable buf, long accessTime,
+      boolean inMemory, BlockCachePartition partition) {
+    this(cacheKey, buf, accessTime,
+        inMemory ? BlockPriority.MEMORY : BlockPriority.SINGLE, partition);
+  }
+
+  public CachedBlock(BlockCacheKey cacheKey, Cacheable buf, long accessTime,
+      BlockPriority priority, BlockCachePartition partition) {
     this.cacheKey = cacheKey;
     this.buf = buf;
     this.accessTime = accessTime;
+    this.partition = partition;
     // We approximate the size of this class by the size of its name string
     // plus the size of its byte buffer plus the overhead associated with all
     // the base classes. We also include the base class
@@ -75,11 +92,7 @@ public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
     // their buffer lengths. This variable is used elsewhere in unit tests.
     this.size = ClassSize.align(cacheKey.heapSize())
         + ClassSize.align(buf.heapSize()) + PER_BLOCK_OVERHEAD;
-    if(inMemory) {
-      this.priority = BlockPriority.MEMORY;
-    } else {
-      this.priority = BlockPriority.SINGLE;
-    }
+    this.priority = priority;
   }
 
   /**
@@ -125,4 +138,11 @@ public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
   public BlockPriority getPriority() {
     return this.priority;
   }
+
+  /**
+   * @return The cache partition the block is accounted to, null if none
+   */
+  public BlockCachePartition getPartition() {
+    return this.partition;
+  }
 }
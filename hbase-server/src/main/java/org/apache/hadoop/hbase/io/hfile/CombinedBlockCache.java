@@ -19,6 +19,7 @@
 package org.apache.hadoop.hbase.io.hfile;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -33,11 +34,12 @@ import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
  * to cache bloom blocks and index blocks , the larger bucketCache is used to
  * cache data blocks. getBlock reads first from the smaller lruCache before
  * looking for the block in the bucketCache. Metrics are the combined size and
- * hits and misses of both caches.
+ * hits and misses of both caches. Partitions are those of the lruCache, so
+ * only take in the bloom and index blocks.
  * 
  **/
 @InterfaceAudience.Private
-public class CombinedBlockCache implements BlockCache, HeapSize {
+public class CombinedBlockCache implements PartitionableBlockCache, HeapSize {
 
   private final LruBlockCache lruCache;
   private final BucketCache bucketCache;
@@ -58,14 +60,30 @@ public class CombinedBlockCache implements BlockCache, HeapSize {
 
   @Override
   public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory) {
+    cacheBlock(cacheKey, buf, inMemory, null);
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+      BlockCachePartition partition) {
     boolean isMetaBlock = buf.getBlockType().getCategory() != BlockCategory.DATA;
     if (isMetaBlock) {
-      lruCache.cacheBlock(cacheKey, buf, inMemory);
+      lruCache.cacheBlock(cacheKey, buf, inMemory, partition);
     } else {
       bucketCache.cacheBlock(cacheKey, buf, inMemory);
     }
   }
 
+  @Override
+  public BlockCachePartition getPartition(String name, float minShare, float maxShare) {
+    return lruCache.getPartition(name, minShare, maxShare);
+  }
+
+  @Override
+  public Collection<BlockCachePartition> getPartitions() {
+    return lruCache.getPartitions();
+  }
+
 
   @Override
   public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf) {
@@ -191,6 +209,18 @@ public class CombinedBlockCache implements BlockCache, HeapSize {
           + bucketCacheStats.getEvictedCount();
     }
 
+    @Override
+    public long getIndexBlockSize() {
+      return lruCacheStats.getIndexBlockSize()
+          + bucketCacheStats.getIndexBlockSize();
+    }
+
+    @Override
+    public long getBloomBlockSize() {
+      return lruCacheStats.getBloomBlockSize()
+          + bucketCacheStats.getBloomBlockSize();
+    }
+
     @Override
     public double getHitRatioPastNPeriods() {
       double ratio = ((double) (lruCacheStats.getSumHitCountsPastNPeriods() + bucketCacheStats
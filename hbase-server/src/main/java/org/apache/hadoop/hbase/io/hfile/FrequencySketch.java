@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A count-min sketch estimating how often a block has been requested recently,
+ * used as the admission filter of {@link TinyLfuBlockCache}.
+ *
+ * <p>Counters are 4 bits wide, sixteen packed per long, and each item maps to
+ * one counter in each of four rows. The estimate is the minimum of the four.
+ * Once the number of increments reaches ten times the expected number of
+ * entries every counter is halved, so the sketch keeps tracking recent
+ * popularity instead of saturating. Updates are lock-free; a racing halving
+ * may lose the odd increment, which the estimate tolerates.
+ */
+@InterfaceAudience.Private
+class FrequencySketch {
+  /** Largest value a single counter holds */
+  static final int MAX_FREQUENCY = 15;
+
+  private static final long[] SEEDS = new long[] {
+    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+  private static final long RESET_MASK = 0x7777777777777777L;
+
+  private final AtomicLongArray table;
+  private final int tableMask;
+  private final int sampleSize;
+  private final AtomicInteger additions = new AtomicInteger(0);
+
+  /**
+   * @param expectedEntries the number of items the owning cache expects to hold
+   */
+  FrequencySketch(long expectedEntries) {
+    int maximum = (int) Math.min(Math.max(expectedEntries, 16), 1 << 30);
+    int length = Integer.highestOneBit(maximum - 1) << 1;
+    this.table = new AtomicLongArray(length);
+    this.tableMask = length - 1;
+    this.sampleSize = (int) Math.min(10L * maximum, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Records one more request for the item with the given hash.
+   */
+  void increment(int hashCode) {
+    int hash = spread(hashCode);
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && additions.incrementAndGet() == sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * @return the estimated number of recent requests for the item with the given hash,
+   *   at most {@link #MAX_FREQUENCY}
+   */
+  int frequency(int hashCode) {
+    int hash = spread(hashCode);
+    int start = (hash & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      int offset = (start + i) << 2;
+      int count = (int) ((table.get(indexOf(hash, i)) >>> offset) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  private boolean incrementAt(int index, int counter) {
+    int offset = counter << 2;
+    long mask = 0xfL << offset;
+    while (true) {
+      long value = table.get(index);
+      if ((value & mask) == mask) {
+        return false;
+      }
+      if (table.compareAndSet(index, value, value + (1L << offset))) {
+        return true;
+      }
+    }
+  }
+
+  /** Halves every counter so that old popularity fades out. */
+  private void reset() {
+    for (int i = 0; i < table.length(); i++) {
+      while (true) {
+        long value = table.get(i);
+        if (table.compareAndSet(i, value, (value >>> 1) & RESET_MASK)) {
+          break;
+        }
+      }
+    }
+    additions.addAndGet(-(sampleSize / 2));
+  }
+
+  private int indexOf(int hash, int row) {
+    long h = (hash + SEEDS[row]) * SEEDS[row];
+    h += h >>> 32;
+    return ((int) h) & tableMask;
+  }
+
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+}
@@ -190,6 +190,10 @@ public class HFile {
   // For measuring number of checksum failures
   static final AtomicLong checksumFailures = new AtomicLong();
 
+  // For measuring the cost of unpacking blocks cached in compressed form
+  private static final AtomicLong unpackOps = new AtomicLong();
+  private static final AtomicLong unpackTimeNano = new AtomicLong();
+
   // For getting more detailed stats on FS latencies
   // If, for some reason, the metrics subsystem stops polling for latencies,
   // I don't want data to pile up in a memory leak
@@ -222,6 +226,11 @@ public class HFile {
     writeOps.incrementAndGet();
   }
 
+  static final void offerUnpackLatency(long latencyNanos) {
+    unpackOps.incrementAndGet();
+    unpackTimeNano.addAndGet(latencyNanos);
+  }
+
   public static final Collection<Long> getReadLatenciesNanos() {
     final List<Long> latencies =
         Lists.newArrayListWithCapacity(fsReadLatenciesNanos.size());
@@ -280,6 +289,22 @@ public class HFile {
     return checksumFailures.getAndSet(0);
   }
 
+  /**
+   * Number of blocks decompressed after being read from the cache in
+   * compressed form, since startup.
+   */
+  public static final long getUnpackCount() {
+    return unpackOps.get();
+  }
+
+  /**
+   * Time spent decompressing blocks read from the cache in compressed form,
+   * since startup.
+   */
+  public static final long getUnpackTimeMs() {
+    return unpackTimeNano.get() / 1000000;
+  }
+
   /** API required to write an {@link HFile} */
   public interface Writer extends Closeable {
 
@@ -109,6 +109,7 @@ public class HFileBlock implements Cacheable {
       ByteBuffer.wrap(new byte[0], 0, 0).getClass(), false);
 
   // meta.usesHBaseChecksum+offset+nextBlockOnDiskSizeWithHeader
+  // The leading byte also carries the PACKED_FLAG bit for packed blocks.
   public static final int EXTRA_SERIALIZATION_SPACE = Bytes.SIZEOF_BYTE +  Bytes.SIZEOF_INT
       + Bytes.SIZEOF_LONG;
 
@@ -117,6 +118,9 @@ public class HFileBlock implements Cacheable {
    */
   static final int CHECKSUM_SIZE = Bytes.SIZEOF_INT;
 
+  /** Bit of the serialized usesHBaseChecksum byte set for packed blocks */
+  private static final byte PACKED_FLAG = 2;
+
   private static final CacheableDeserializer<Cacheable> blockDeserializer =
       new CacheableDeserializer<Cacheable>() {
         public HFileBlock deserialize(ByteBuffer buf, boolean reuse) throws IOException{
@@ -130,8 +134,10 @@ public class HFileBlock implements Cacheable {
           }
           buf.position(buf.limit());
           buf.limit(buf.limit() + HFileBlock.EXTRA_SERIALIZATION_SPACE);
-          boolean usesChecksum = buf.get() == (byte)1;
+          byte flags = buf.get();
+          boolean usesChecksum = (flags & 1) != 0;
           HFileBlock ourBuffer = new HFileBlock(newByteBuffer, usesChecksum);
+          ourBuffer.packed = (flags & PACKED_FLAG) != 0;
           ourBuffer.offset = buf.getLong();
           ourBuffer.nextBlockOnDiskSizeWithHeader = buf.getInt();
           return ourBuffer;
@@ -185,6 +191,14 @@ public class HFileBlock implements Cacheable {
    */
   private int nextBlockOnDiskSizeWithHeader = -1;
 
+  /**
+   * Whether the buffer holds the compressed on-disk bytes of the block
+   * instead of its uncompressed data. Packed blocks are only kept in the
+   * block cache and have to be unpacked with {@link FSReader#unpack} before
+   * their contents are read.
+   */
+  private boolean packed;
+
   /**
    * Creates a new {@link HFile} block from the given fields. This constructor
    * is mostly used when the block data has already been read and uncompressed,
@@ -260,6 +274,14 @@ public class HFileBlock implements Cacheable {
     return blockType;
   }
 
+  /**
+   * @return true if this block holds its on-disk compressed bytes and has to
+   *         be unpacked before use
+   */
+  public boolean isPacked() {
+    return packed;
+  }
+
   /** @return get data block encoding id that was used to encode this block */
   public short getDataBlockEncodingId() {
     if (blockType != BlockType.ENCODED_DATA) {
@@ -478,6 +500,33 @@ public class HFileBlock implements Cacheable {
     buf.limit(headerSize() + uncompressedSizeWithoutHeader + cksumBytes);
   }
 
+  /**
+   * Decompresses a packed block into a new block. The new block gets its own
+   * buffer because scanners and the cells they return keep referencing it.
+   *
+   * @param decodingCtx the decoding context of the file this block belongs to
+   * @return the unpacked block, or this block if it is not packed
+   */
+  HFileBlock unpack(HFileBlockDecodingContext decodingCtx) throws IOException {
+    if (!packed) {
+      return this;
+    }
+    long startTimeNs = System.nanoTime();
+    int cksumBytes = totalChecksumBytes();
+    ByteBuffer newBuf = ByteBuffer.allocate(headerSize() + uncompressedSizeWithoutHeader
+        + cksumBytes);
+    System.arraycopy(buf.array(), buf.arrayOffset(), newBuf.array(),
+        newBuf.arrayOffset(), headerSize());
+    HFileBlock unpacked = new HFileBlock(blockType, onDiskSizeWithoutHeader,
+        uncompressedSizeWithoutHeader, prevBlockOffset, newBuf, false, offset,
+        onDiskDataSizeWithHeader, fileContext);
+    decodingCtx.prepareDecoding(onDiskSizeWithoutHeader, uncompressedSizeWithoutHeader,
+        unpacked.getBufferWithoutHeader(), buf.array(), buf.arrayOffset() + headerSize());
+    unpacked.nextBlockOnDiskSizeWithHeader = nextBlockOnDiskSizeWithHeader;
+    HFile.offerUnpackLatency(System.nanoTime() - startTimeNs);
+    return unpacked;
+  }
+
   /** An additional sanity-check in case no compression is being used. */
   public void assumeUncompressed() throws IOException {
     if (onDiskSizeWithoutHeader != uncompressedSizeWithoutHeader + 
@@ -526,6 +575,8 @@ public class HFileBlock implements Cacheable {
         // On-disk size, uncompressed size, and next block's on-disk size
         // bytePerChecksum and onDiskDataSize
         4 * Bytes.SIZEOF_INT +
+        // Packed flag
+        Bytes.SIZEOF_BOOLEAN +
         // This and previous block offset
         2 * Bytes.SIZEOF_LONG +
         // Heap size of the meta object. meta will be always not null.
@@ -1087,6 +1138,23 @@ public class HFileBlock implements Cacheable {
     HFileBlock readBlockData(long offset, long onDiskSize,
         int uncompressedSize, boolean pread) throws IOException;
 
+    /**
+     * Reads the block at the given offset like
+     * {@link #readBlockData(long, long, int, boolean)}. If packData is set,
+     * compressed data blocks are returned in their on-disk form, see
+     * {@link HFileBlock#isPacked()}.
+     */
+    HFileBlock readBlockData(long offset, long onDiskSize,
+        int uncompressedSize, boolean pread, boolean packData) throws IOException;
+
+    /**
+     * Decompresses a block returned packed by this reader or by the block
+     * cache.
+     *
+     * @return the unpacked block, or the given block if it is not packed
+     */
+    HFileBlock unpack(HFileBlock block) throws IOException;
+
     /**
      * Creates a block iterator over the given portion of the {@link HFile}.
      * The iterator returns blocks starting with offset such that offset <=
@@ -1301,6 +1369,12 @@ public class HFileBlock implements Cacheable {
     @Override
     public HFileBlock readBlockData(long offset, long onDiskSizeWithHeaderL,
         int uncompressedSize, boolean pread) throws IOException {
+      return readBlockData(offset, onDiskSizeWithHeaderL, uncompressedSize, pread, false);
+    }
+
+    @Override
+    public HFileBlock readBlockData(long offset, long onDiskSizeWithHeaderL,
+        int uncompressedSize, boolean pread, boolean packData) throws IOException {
 
       // get a copy of the current state of whether to validate
       // hbase checksums or not for this read call. This is not 
@@ -1313,7 +1387,7 @@ public class HFileBlock implements Cacheable {
       HFileBlock blk = readBlockDataInternal(is, offset, 
                          onDiskSizeWithHeaderL, 
                          uncompressedSize, pread,
-                         doVerificationThruHBaseChecksum);
+                         doVerificationThruHBaseChecksum, packData);
       if (blk == null) {
         HFile.LOG.warn("HBase checksum verification failed for file " +
                        path + " at offset " +
@@ -1341,7 +1415,7 @@ public class HFileBlock implements Cacheable {
         doVerificationThruHBaseChecksum = false;
         blk = readBlockDataInternal(is, offset, onDiskSizeWithHeaderL,
                                     uncompressedSize, pread,
-                                    doVerificationThruHBaseChecksum);
+                                    doVerificationThruHBaseChecksum, packData);
         if (blk != null) {
           HFile.LOG.warn("HDFS checksum verification suceeded for file " +
                          path + " at offset " +
@@ -1378,11 +1452,12 @@ public class HFileBlock implements Cacheable {
      * @param pread whether to use a positional read
      * @param verifyChecksum Whether to use HBase checksums. 
      *        If HBase checksum is switched off, then use HDFS checksum.
+     * @param packData whether to leave compressed data blocks packed
      * @return the HFileBlock or null if there is a HBase checksum mismatch
      */
     private HFileBlock readBlockDataInternal(FSDataInputStream is, long offset, 
         long onDiskSizeWithHeaderL, int uncompressedSize, boolean pread,
-        boolean verifyChecksum) throws IOException {
+        boolean verifyChecksum, boolean packData) throws IOException {
       if (offset < 0) {
         throw new IOException("Invalid offset=" + offset + " trying to read "
             + "block (onDiskSize=" + onDiskSizeWithHeaderL
@@ -1504,7 +1579,13 @@ public class HFileBlock implements Cacheable {
         return null;             // checksum mismatch
       }
 
-      if (isCompressed) {
+      if (isCompressed && packData && b.blockType.isData()) {
+        // Keep the on-disk bytes as they are, the caller unpacks the block
+        // when it needs the data.
+        b = new HFileBlock(ByteBuffer.wrap(onDiskBlock, 0,
+                onDiskSizeWithHeader), this.fileContext.isUseHBaseChecksum());
+        b.packed = true;
+      } else if (isCompressed) {
         // This will allocate a new buffer but keep header bytes.
         b.allocateBuffer(nextBlockOnDiskSize > 0);
         if (b.blockType == BlockType.ENCODED_DATA) {
@@ -1547,6 +1628,12 @@ public class HFileBlock implements Cacheable {
       return b;
     }
 
+    @Override
+    public HFileBlock unpack(HFileBlock block) throws IOException {
+      return block.unpack(block.blockType == BlockType.ENCODED_DATA ?
+          encodedBlockDecodingCtx : defaultDecodingCtx);
+    }
+
     void setIncludesMemstoreTS(boolean includesMemstoreTS) {
       this.fileContext.setIncludesMvcc(includesMemstoreTS);
     }
@@ -1590,7 +1677,8 @@ public class HFileBlock implements Cacheable {
   }
 
   public void serializeExtraInfo(ByteBuffer destination) {
-    destination.put(this.fileContext.isUseHBaseChecksum() ? (byte) 1 : (byte) 0);
+    byte flags = this.fileContext.isUseHBaseChecksum() ? (byte) 1 : (byte) 0;
+    destination.put(packed ? (byte) (flags | PACKED_FLAG) : flags);
     destination.putLong(this.offset);
     destination.putInt(this.nextBlockOnDiskSizeWithHeader);
     destination.rewind();
@@ -1633,6 +1721,9 @@ public class HFileBlock implements Cacheable {
     if (castedComparison.uncompressedSizeWithoutHeader != this.uncompressedSizeWithoutHeader) {
       return false;
     }
+    if (castedComparison.packed != this.packed) {
+      return false;
+    }
     if (this.buf.compareTo(castedComparison.buf) != 0) {
       return false;
     }
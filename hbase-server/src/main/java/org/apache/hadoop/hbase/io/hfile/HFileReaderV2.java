@@ -35,6 +35,7 @@ import org.apache.hadoop.hbase.io.FSDataInputStreamWrapper;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoder;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.encoding.HFileBlockDecodingContext;
+import org.apache.hadoop.hbase.io.hfile.BlockType.BlockCategory;
 import org.apache.hadoop.hbase.io.hfile.HFile.FileInfo;
 import org.apache.hadoop.hbase.util.ByteBufferUtils;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -172,6 +173,53 @@ public class HFileReaderV2 extends AbstractHFileReader {
     while ((b = blockIter.nextBlock()) != null) {
       loadOnOpenBlocks.add(b);
     }
+
+    // Prefetch file blocks upon open if requested
+    if (cacheConf.shouldPrefetchOnOpen()) {
+      PrefetchExecutor.request(path, new Runnable() {
+        public void run() {
+          prefetchBlocks();
+        }
+      });
+    }
+  }
+
+  /**
+   * Streams every data and inline block of the file into the block cache, in
+   * file order. Stops early if the reader is closed, which interrupts this task.
+   */
+  private void prefetchBlocks() {
+    try {
+      long offset = 0;
+      long end = trailer.getLoadOnOpenDataOffset();
+      HFileBlock prevBlock = null;
+      while (offset < end) {
+        if (Thread.interrupted()) {
+          break;
+        }
+        long onDiskSize = -1;
+        if (prevBlock != null) {
+          onDiskSize = prevBlock.getNextBlockOnDiskSizeWithHeader();
+        }
+        HFileBlock block = readBlock(offset, onDiskSize, true, false, false, null);
+        PrefetchExecutor.blockPrefetched(block.getOnDiskSizeWithHeader());
+        PrefetchExecutor.throttle(block.getOnDiskSizeWithHeader());
+        prevBlock = block;
+        offset += block.getOnDiskSizeWithHeader();
+      }
+    } catch (InterruptedException e) {
+      // Cancelled by close; nothing to clean up
+    } catch (IOException e) {
+      // IOExceptions are probably due to region closes (relocation, etc.)
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Exception encountered while prefetching " + path + ":", e);
+      }
+    } catch (Exception e) {
+      // Other exceptions are interesting
+      LOG.warn("Exception encountered while prefetching " + path + ":", e);
+    } finally {
+      PrefetchExecutor.complete(path);
+    }
   }
 
   protected HFileContext createHFileContext(FixedFileTrailer trailer) {
@@ -323,6 +371,8 @@ public class HFileReaderV2 extends AbstractHFileReader {
           HFileBlock cachedBlock = (HFileBlock) cacheConf.getBlockCache().getBlock(cacheKey,
               cacheBlock, useLock);
           if (cachedBlock != null) {
+            // Data blocks may be cached in their compressed on-disk form.
+            cachedBlock = fsBlockReader.unpack(cachedBlock);
             validateBlockType(cachedBlock, expectedBlockType);
             if (cachedBlock.getBlockType().isData()) {
               HFile.dataBlockReadCnt.incrementAndGet();
@@ -349,8 +399,10 @@ public class HFileReaderV2 extends AbstractHFileReader {
         }
         // Load block from filesystem.
         long startTimeNs = System.nanoTime();
+        boolean packData = cacheBlock && cacheConf.shouldCacheCompressed()
+            && cacheConf.shouldCacheBlockOnRead(BlockCategory.DATA);
         HFileBlock hfileBlock = fsBlockReader.readBlockData(dataBlockOffset, onDiskBlockSize, -1,
-            pread);
+            pread, packData);
         validateBlockType(hfileBlock, expectedBlockType);
 
         final long delta = System.nanoTime() - startTimeNs;
@@ -360,6 +412,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
         if (cacheBlock && cacheConf.shouldCacheBlockOnRead(hfileBlock.getBlockType().getCategory())) {
           cacheConf.getBlockCache().cacheBlock(cacheKey, hfileBlock, cacheConf.isInMemory());
         }
+        hfileBlock = fsBlockReader.unpack(hfileBlock);
 
         if (hfileBlock.getBlockType().isData()) {
           HFile.dataBlockReadCnt.incrementAndGet();
@@ -433,6 +486,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
   }
 
   public void close(boolean evictOnClose) throws IOException {
+    PrefetchExecutor.cancel(path);
     if (evictOnClose && cacheConf.isBlockCacheEnabled()) {
       int numEvicted = cacheConf.getBlockCache().evictBlocksByHfileName(name);
       if (LOG.isTraceEnabled()) {
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
@@ -45,6 +46,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.BlockType.BlockCategory;
 import org.apache.hadoop.hbase.io.hfile.CachedBlock.BlockPriority;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -92,15 +94,31 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * size, and then while scanning determines the fewest least-recently-used
  * blocks necessary from each of the three priorities (would be 3 times bytes
  * to free).  It then uses the priority chunk sizes to evict fairly according
- * to the relative sizes and usage.
+ * to the relative sizes and usage.<p>
+ *
+ * Blocks may be cached in a {@link BlockCachePartition}, with a minimum and
+ * maximum share of the cache.  Before the priority based eviction, each
+ * partition over its maximum share has enough of its own least-recently-used
+ * blocks evicted to get it back below its share of the minimum size.  The
+ * priority based eviction then passes over the blocks of partitions holding
+ * no more than their minimum share.  The minimum shares of all partitions
+ * together are capped at the min factor so eviction can always reach the
+ * minimum size.<p>
+ *
+ * With a pinned factor above zero, index and bloom blocks are cached in a
+ * pinned tier of that share of the cache.  The priority based eviction
+ * never evicts pinned blocks to make room for data blocks; pinned blocks are
+ * only evicted, least-recently-used first, when the pinned tier grows over
+ * its share.  The other priorities split the rest of the cache.
  */
 @InterfaceAudience.Private
-public class LruBlockCache implements BlockCache, HeapSize {
+public class LruBlockCache implements PartitionableBlockCache, HeapSize {
 
   static final Log LOG = LogFactory.getLog(LruBlockCache.class);
 
   static final String LRU_MIN_FACTOR_CONFIG_NAME = "hbase.lru.blockcache.min.factor";
   static final String LRU_ACCEPTABLE_FACTOR_CONFIG_NAME = "hbase.lru.blockcache.acceptable.factor";
+  static final String LRU_PINNED_FACTOR_CONFIG_NAME = "hbase.lru.blockcache.pinned.factor";
 
   /** Default Configuration Parameters*/
 
@@ -117,6 +135,9 @@ public class LruBlockCache implements BlockCache, HeapSize {
   static final float DEFAULT_MULTI_FACTOR = 0.50f;
   static final float DEFAULT_MEMORY_FACTOR = 0.25f;
 
+  /** Pinned index and bloom tier, disabled by default */
+  static final float DEFAULT_PINNED_FACTOR = 0.0f;
+
   /** Statistics thread */
   static final int statThreadPeriod = 60 * 5;
 
@@ -143,6 +164,9 @@ public class LruBlockCache implements BlockCache, HeapSize {
   /** Current size of cache */
   private final AtomicLong size;
 
+  /** Current size of the pinned tier */
+  private final AtomicLong pinnedSize = new AtomicLong(0);
+
   /** Current number of cached elements */
   private final AtomicLong elements;
 
@@ -173,12 +197,19 @@ public class LruBlockCache implements BlockCache, HeapSize {
   /** In-memory bucket size */
   private float memoryFactor;
 
+  /** Pinned index and bloom tier size */
+  private float pinnedFactor;
+
   /** Overhead of the structure itself */
   private long overhead;
 
   /** Where to send victims (blocks evicted from the cache) */
   private BucketCache victimHandler = null;
 
+  /** Partitions of the cache, by name */
+  private final ConcurrentHashMap<String, BlockCachePartition> partitions =
+    new ConcurrentHashMap<String, BlockCachePartition>();
+
   /**
    * Default constructor.  Specify maximum size and expected average block
    * size (approximation is fine).
@@ -213,7 +244,8 @@ public class LruBlockCache implements BlockCache, HeapSize {
         conf.getFloat(LRU_ACCEPTABLE_FACTOR_CONFIG_NAME, DEFAULT_ACCEPTABLE_FACTOR),
         DEFAULT_SINGLE_FACTOR,
         DEFAULT_MULTI_FACTOR,
-        DEFAULT_MEMORY_FACTOR);
+        DEFAULT_MEMORY_FACTOR,
+        conf.getFloat(LRU_PINNED_FACTOR_CONFIG_NAME, DEFAULT_PINNED_FACTOR));
   }
 
   public LruBlockCache(long maxSize, long blockSize, Configuration conf) {
@@ -238,6 +270,21 @@ public class LruBlockCache implements BlockCache, HeapSize {
       int mapInitialSize, float mapLoadFactor, int mapConcurrencyLevel,
       float minFactor, float acceptableFactor,
       float singleFactor, float multiFactor, float memoryFactor) {
+    this(maxSize, blockSize, evictionThread, mapInitialSize, mapLoadFactor,
+        mapConcurrencyLevel, minFactor, acceptableFactor, singleFactor,
+        multiFactor, memoryFactor, DEFAULT_PINNED_FACTOR);
+  }
+
+  /**
+   * Configurable constructor with a pinned index and bloom tier.
+   * @param pinnedFactor percentage of total size for index and bloom blocks,
+   * 0 to cache them with the data blocks
+   * @see #LruBlockCache(long, long, boolean, int, float, int, float, float, float, float, float)
+   */
+  public LruBlockCache(long maxSize, long blockSize, boolean evictionThread,
+      int mapInitialSize, float mapLoadFactor, int mapConcurrencyLevel,
+      float minFactor, float acceptableFactor,
+      float singleFactor, float multiFactor, float memoryFactor, float pinnedFactor) {
     if(singleFactor + multiFactor + memoryFactor != 1) {
       throw new IllegalArgumentException("Single, multi, and memory factors " +
           " should total 1.0");
@@ -248,6 +295,9 @@ public class LruBlockCache implements BlockCache, HeapSize {
     if(minFactor >= 1.0f || acceptableFactor >= 1.0f) {
       throw new IllegalArgumentException("all factors must be < 1");
     }
+    if(pinnedFactor < 0 || pinnedFactor >= minFactor) {
+      throw new IllegalArgumentException("pinnedFactor must be >= 0 and smaller than minFactor");
+    }
     this.maxSize = maxSize;
     this.blockSize = blockSize;
     map = new ConcurrentHashMap<BlockCacheKey,CachedBlock>(mapInitialSize,
@@ -257,6 +307,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
     this.singleFactor = singleFactor;
     this.multiFactor = multiFactor;
     this.memoryFactor = memoryFactor;
+    this.pinnedFactor = pinnedFactor;
     this.stats = new CacheStats();
     this.count = new AtomicLong(0);
     this.elements = new AtomicLong(0);
@@ -292,6 +343,20 @@ public class LruBlockCache implements BlockCache, HeapSize {
    */
   @Override
   public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory) {
+    cacheBlock(cacheKey, buf, inMemory, null);
+  }
+
+  /**
+   * Cache the block with the specified name and buffer, in a partition.
+   * @param cacheKey block's cache key
+   * @param buf block buffer
+   * @param inMemory if block is in-memory
+   * @param partition partition to account the block to, null for none
+   * @see #cacheBlock(BlockCacheKey, Cacheable, boolean)
+   */
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+      BlockCachePartition partition) {
     CachedBlock cb = map.get(cacheKey);
     if(cb != null) {
       // compare the contents, if they are not equal, we are in big trouble
@@ -304,15 +369,26 @@ public class LruBlockCache implements BlockCache, HeapSize {
       LOG.warn(msg);
       return;
     }
-    cb = new CachedBlock(cacheKey, buf, count.incrementAndGet(), inMemory);
+    boolean pinned = pinnedFactor > 0 && isIndexOrBloom(buf);
+    BlockPriority priority = pinned ? BlockPriority.PINNED :
+      inMemory ? BlockPriority.MEMORY : BlockPriority.SINGLE;
+    cb = new CachedBlock(cacheKey, buf, count.incrementAndGet(), priority, partition);
     long newSize = updateSizeMetrics(cb, false);
     map.put(cacheKey, cb);
     elements.incrementAndGet();
-    if(newSize > acceptableSize() && !evictionInProgress) {
+    if((newSize > acceptableSize() || (partition != null && isOverMaxShare(partition))
+        || (pinned && pinnedSize.get() > pinnedSize())) && !evictionInProgress) {
       runEviction();
     }
   }
 
+  private static boolean isIndexOrBloom(Cacheable buf) {
+    BlockType blockType = buf.getBlockType();
+    if (blockType == null) return false;
+    BlockCategory category = blockType.getCategory();
+    return category == BlockCategory.INDEX || category == BlockCategory.BLOOM;
+  }
+
   private int compare(Cacheable left, Cacheable right) {
     ByteBuffer l = ByteBuffer.allocate(left.getSerializedLength());
     left.serialize(l);
@@ -349,6 +425,13 @@ public class LruBlockCache implements BlockCache, HeapSize {
     if (evict) {
       heapsize *= -1;
     }
+    if (cb.getPartition() != null) {
+      cb.getPartition().addSize(heapsize);
+    }
+    if (cb.getPriority() == BlockPriority.PINNED) {
+      pinnedSize.addAndGet(heapsize);
+    }
+    stats.addBlockSize(cb.getBuffer().getBlockType(), heapsize);
     return size.addAndGet(heapsize);
   }
 
@@ -458,8 +541,15 @@ public class LruBlockCache implements BlockCache, HeapSize {
     // Ensure only one eviction at a time
     if(!evictionLock.tryLock()) return;
 
+    long startTime = System.nanoTime();
     try {
       evictionInProgress = true;
+      if (!partitions.isEmpty()) {
+        evictPartitionsOverMaxShare();
+      }
+      if (pinnedSize.get() > pinnedSize()) {
+        evictPinnedOverSize();
+      }
       long currentSize = this.size.get();
       long bytesToFree = currentSize - minSize();
 
@@ -481,7 +571,12 @@ public class LruBlockCache implements BlockCache, HeapSize {
 
       // Scan entire map putting into appropriate buckets
       for(CachedBlock cachedBlock : map.values()) {
+        if (isReserved(cachedBlock)) continue;
         switch(cachedBlock.getPriority()) {
+          case PINNED: {
+            // Only evicted when the pinned tier is over its own size
+            break;
+          }
           case SINGLE: {
             bucketSingle.add(cachedBlock);
             break;
@@ -530,12 +625,83 @@ public class LruBlockCache implements BlockCache, HeapSize {
           "memory=" + StringUtils.byteDesc(memory));
       }
     } finally {
-      stats.evict();
+      stats.evict(System.nanoTime() - startTime);
       evictionInProgress = false;
       evictionLock.unlock();
     }
   }
 
+  /**
+   * Evict the least-recently-used blocks of each partition over its maximum
+   * share, until it is down to its share of the minimum size.
+   */
+  private void evictPartitionsOverMaxShare() {
+    Map<BlockCachePartition, CachedBlockQueue> queues =
+      new HashMap<BlockCachePartition, CachedBlockQueue>();
+    for (BlockCachePartition partition : partitions.values()) {
+      if (isOverMaxShare(partition)) {
+        long bytesToFree = partition.getCurrentSize() - partitionMinSize(partition);
+        queues.put(partition, new CachedBlockQueue(bytesToFree, blockSize));
+      }
+    }
+    if (queues.isEmpty()) return;
+    for (CachedBlock cachedBlock : map.values()) {
+      CachedBlockQueue queue = cachedBlock.getPartition() == null ? null :
+        queues.get(cachedBlock.getPartition());
+      if (queue != null) queue.add(cachedBlock);
+    }
+    for (Map.Entry<BlockCachePartition, CachedBlockQueue> e : queues.entrySet()) {
+      BlockCachePartition partition = e.getKey();
+      long target = partitionMinSize(partition);
+      long freedBytes = 0;
+      CachedBlock cb;
+      while (partition.getCurrentSize() > target && (cb = e.getValue().pollLast()) != null) {
+        freedBytes += evictBlock(cb, true);
+      }
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Block cache LRU eviction freed " + StringUtils.byteDesc(freedBytes) +
+          " of " + partition);
+      }
+    }
+  }
+
+  /**
+   * Evict the least-recently-used blocks of the pinned tier until it is down
+   * to its share of the minimum size.
+   */
+  private void evictPinnedOverSize() {
+    long bytesToFree = pinnedSize.get() - pinnedMinSize();
+    CachedBlockQueue queue = new CachedBlockQueue(bytesToFree, blockSize);
+    for (CachedBlock cachedBlock : map.values()) {
+      if (cachedBlock.getPriority() == BlockPriority.PINNED) queue.add(cachedBlock);
+    }
+    long target = pinnedMinSize();
+    long freedBytes = 0;
+    CachedBlock cb;
+    while (pinnedSize.get() > target && (cb = queue.pollLast()) != null) {
+      freedBytes += evictBlock(cb, true);
+    }
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Block cache LRU eviction freed " + StringUtils.byteDesc(freedBytes) +
+        " of the pinned tier");
+    }
+  }
+
+  /**
+   * @return true if the block is in a partition holding no more than its
+   * minimum share, so must not be evicted to make room for other blocks
+   */
+  private boolean isReserved(CachedBlock cb) {
+    BlockCachePartition partition = cb.getPartition();
+    return partition != null && partition.getMinShare() > 0 &&
+      partition.getCurrentSize() <= partitionReservedSize(partition);
+  }
+
+  private boolean isOverMaxShare(BlockCachePartition partition) {
+    return partition.getMaxShare() < 1 &&
+      partition.getCurrentSize() > (long)Math.floor(this.maxSize * partition.getMaxShare());
+  }
+
   /**
    * Used to group blocks into priority buckets.  There will be a BlockBucket
    * for each priority (single, multi, memory).  Once bucketed, the eviction
@@ -563,6 +729,8 @@ public class LruBlockCache implements BlockCache, HeapSize {
       CachedBlock cb;
       long freedBytes = 0;
       while ((cb = queue.pollLast()) != null) {
+        // Its partition may have shrunk to its reservation since it was queued
+        if (isReserved(cb)) continue;
         freedBytes += evictBlock(cb, true);
         if (freedBytes >= toFree) {
           return freedBytes;
@@ -611,6 +779,14 @@ public class LruBlockCache implements BlockCache, HeapSize {
     return this.size.get();
   }
 
+  /**
+   * Get the current size of the pinned index and bloom tier.
+   * @return current size in bytes
+   */
+  public long getPinnedSize() {
+    return this.pinnedSize.get();
+  }
+
   /**
    * Get the current size of this cache.
    * @return current size in bytes
@@ -739,7 +915,18 @@ public class LruBlockCache implements BlockCache, HeapSize {
           (stats.getHitCachingCount() == 0 ? "0,": (StringUtils.formatPercent(stats.getHitCachingRatio(), 2) + ", ")) +
         "evictions=" + stats.getEvictionCount() + ", " +
         "evicted=" + stats.getEvictedCount() + ", " +
-        "evictedPerRun=" + stats.evictedPerEviction());
+        "evictedPerRun=" + stats.evictedPerEviction() + ", " +
+        "pinned=" + StringUtils.byteDesc(getPinnedSize()) + ", " +
+        "index=" + StringUtils.byteDesc(stats.getIndexBlockSize()) + ", " +
+        "bloom=" + StringUtils.byteDesc(stats.getBloomBlockSize()) + ", " +
+        "avgEvictionTimeMs=" +
+          String.format("%.3f", stats.getAverageEvictionTimeNanos() / 1000000));
+    for (BlockCachePartition partition : partitions.values()) {
+      CacheStats partitionStats = partition.getStats();
+      LruBlockCache.LOG.debug("Block cache " + partition + ", " +
+          "accesses=" + partitionStats.getRequestCount() + ", " +
+          "hits=" + partitionStats.getHitCount());
+    }
   }
 
   /**
@@ -753,8 +940,8 @@ public class LruBlockCache implements BlockCache, HeapSize {
   }
 
   public final static long CACHE_FIXED_OVERHEAD = ClassSize.align(
-      (3 * Bytes.SIZEOF_LONG) + (9 * ClassSize.REFERENCE) +
-      (5 * Bytes.SIZEOF_FLOAT) + Bytes.SIZEOF_BOOLEAN
+      (3 * Bytes.SIZEOF_LONG) + (11 * ClassSize.REFERENCE) +
+      (6 * Bytes.SIZEOF_FLOAT) + Bytes.SIZEOF_BOOLEAN
       + ClassSize.OBJECT);
 
   // HeapSize implementation
@@ -812,13 +999,73 @@ public class LruBlockCache implements BlockCache, HeapSize {
     return (long)Math.floor(this.maxSize * this.minFactor);
   }
   private long singleSize() {
-    return (long)Math.floor(this.maxSize * this.singleFactor * this.minFactor);
+    return (long)Math.floor(this.maxSize * (1 - this.pinnedFactor) *
+      this.singleFactor * this.minFactor);
   }
   private long multiSize() {
-    return (long)Math.floor(this.maxSize * this.multiFactor * this.minFactor);
+    return (long)Math.floor(this.maxSize * (1 - this.pinnedFactor) *
+      this.multiFactor * this.minFactor);
   }
   private long memorySize() {
-    return (long)Math.floor(this.maxSize * this.memoryFactor * this.minFactor);
+    return (long)Math.floor(this.maxSize * (1 - this.pinnedFactor) *
+      this.memoryFactor * this.minFactor);
+  }
+  private long pinnedSize() {
+    return (long)Math.floor(this.maxSize * this.pinnedFactor);
+  }
+  private long pinnedMinSize() {
+    return (long)Math.floor(this.maxSize * this.pinnedFactor * this.minFactor);
+  }
+  private long partitionMinSize(BlockCachePartition partition) {
+    return (long)Math.floor(this.maxSize * partition.getMaxShare() * this.minFactor);
+  }
+  private long partitionReservedSize(BlockCachePartition partition) {
+    return (long)Math.floor(this.maxSize * partition.getMinShare());
+  }
+
+  /**
+   * Get the partition with the given name, creating it if it does not exist
+   * yet.  An existing partition keeps the shares it was created with, so that
+   * a family asking for other shares cannot take over the partition of the
+   * families already using it.  The minimum share of a new partition is cut
+   * down if the minimum shares of all partitions would come to more than the
+   * min factor.
+   * @param name name of the partition
+   * @param minShare share of the cache reserved for the partition
+   * @param maxShare largest share of the cache the partition may take up
+   * @return the partition
+   */
+  @Override
+  public synchronized BlockCachePartition getPartition(String name, float minShare,
+      float maxShare) {
+    BlockCachePartition partition = partitions.get(name);
+    if (partition != null) {
+      if (partition.getMinShare() != minShare || partition.getMaxShare() != maxShare) {
+        LOG.warn("Ignoring shares minShare=" + minShare + ", maxShare=" + maxShare +
+          " asked for existing block cache " + partition);
+      }
+      return partition;
+    }
+    float reserved = 0;
+    for (BlockCachePartition p : partitions.values()) {
+      reserved += p.getMinShare();
+    }
+    if (reserved + minShare > this.minFactor) {
+      float cut = Math.max(0, this.minFactor - reserved);
+      LOG.warn("Block cache partition " + name + " can only be reserved " + cut +
+        " of the cache rather than " + minShare + ", " + reserved +
+        " is already reserved for other partitions");
+      minShare = cut;
+    }
+    partition = new BlockCachePartition(name, minShare, maxShare);
+    partitions.put(name, partition);
+    LOG.info("Created block cache " + partition);
+    return partition;
+  }
+
+  @Override
+  public Collection<BlockCachePartition> getPartitions() {
+    return Collections.unmodifiableCollection(partitions.values());
   }
 
   public void shutdown() {
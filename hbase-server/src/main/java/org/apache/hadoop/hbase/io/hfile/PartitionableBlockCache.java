@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.Collection;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A {@link BlockCache} that can divide its space among named
+ * {@link BlockCachePartition}s.
+ */
+@InterfaceAudience.Private
+public interface PartitionableBlockCache extends BlockCache {
+  /**
+   * Get the partition with the given name, creating it if it does not exist
+   * yet. An existing partition keeps its shares.
+   * @param name Name of the partition
+   * @param minShare Share of the cache reserved for the partition
+   * @param maxShare Largest share of the cache the partition may take up
+   * @return The partition
+   */
+  BlockCachePartition getPartition(String name, float minShare, float maxShare);
+
+  /**
+   * @return The partitions of this cache
+   */
+  Collection<BlockCachePartition> getPartitions();
+
+  /**
+   * Add block to cache, in the given partition.
+   * @param cacheKey The block's cache key.
+   * @param buf The block contents wrapped in a ByteBuffer.
+   * @param inMemory Whether block should be treated as in-memory
+   * @param partition The partition to account the block to, null for none
+   */
+  void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+      BlockCachePartition partition);
+}
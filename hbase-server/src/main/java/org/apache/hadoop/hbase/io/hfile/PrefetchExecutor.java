@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+
+/**
+ * Background pool that streams the blocks of newly opened HFiles into the
+ * block cache when prefetch-on-open is enabled. Work is keyed by file path so
+ * that closing a reader can cancel its outstanding prefetch. Reads from all
+ * prefetch threads share one optional bandwidth limit so warming a RegionServer
+ * does not starve foreground reads of disk.
+ */
+@InterfaceAudience.Private
+public class PrefetchExecutor {
+
+  private static final Log LOG = LogFactory.getLog(PrefetchExecutor.class);
+
+  /** Number of prefetch threads */
+  public static final String PREFETCH_THREADS_KEY = "hbase.hfile.thread.prefetch";
+  public static final int DEFAULT_PREFETCH_THREADS = 4;
+  /** Delay before a prefetch starts, in milliseconds */
+  public static final String PREFETCH_DELAY_KEY = "hbase.hfile.prefetch.delay";
+  public static final int DEFAULT_PREFETCH_DELAY = 1000;
+  /** Fraction of the delay added or removed at random to spread out bursts of opens */
+  public static final String PREFETCH_DELAY_VARIATION_KEY = "hbase.hfile.prefetch.delay.variation";
+  public static final float DEFAULT_PREFETCH_DELAY_VARIATION = 0.2f;
+  /** Upper bound on prefetch read bandwidth across all threads, 0 for none */
+  public static final String PREFETCH_MAX_BYTES_PER_SEC_KEY =
+      "hbase.hfile.prefetch.max.bytes.per.sec";
+  public static final long DEFAULT_PREFETCH_MAX_BYTES_PER_SEC = 0;
+
+  /** Futures for tracking block prefetch activity */
+  private static final Map<Path,Future<?>> prefetchFutures =
+    new ConcurrentSkipListMap<Path,Future<?>>();
+  /** Executor pool shared among all HFiles for block prefetch */
+  private static final ScheduledExecutorService prefetchExecutorPool;
+  /** Delay before beginning prefetch */
+  private static final int prefetchDelayMillis;
+  /** Variation in prefetch delay times, to mitigate stampedes */
+  private static final float prefetchDelayVariation;
+  /** Bandwidth limit, 0 for none */
+  private static final long maxBytesPerSec;
+  /** Earliest time the next throttled read may start */
+  private static long nextReadTime = 0;
+
+  private static final AtomicLong prefetchedBlocks = new AtomicLong(0);
+  private static final AtomicLong prefetchedBytes = new AtomicLong(0);
+  private static final AtomicLong completedFiles = new AtomicLong(0);
+  private static final AtomicLong cancelledFiles = new AtomicLong(0);
+
+  static {
+    Configuration conf = HBaseConfiguration.create();
+    prefetchDelayMillis = conf.getInt(PREFETCH_DELAY_KEY, DEFAULT_PREFETCH_DELAY);
+    prefetchDelayVariation = conf.getFloat(PREFETCH_DELAY_VARIATION_KEY,
+      DEFAULT_PREFETCH_DELAY_VARIATION);
+    maxBytesPerSec = conf.getLong(PREFETCH_MAX_BYTES_PER_SEC_KEY,
+      DEFAULT_PREFETCH_MAX_BYTES_PER_SEC);
+    int prefetchThreads = conf.getInt(PREFETCH_THREADS_KEY, DEFAULT_PREFETCH_THREADS);
+    prefetchExecutorPool = new ScheduledThreadPoolExecutor(prefetchThreads,
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r);
+          t.setName("hfile-prefetch-" + System.currentTimeMillis());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+  }
+
+  private static final Random RNG = new Random();
+
+  private PrefetchExecutor() {
+  }
+
+  /**
+   * Schedules the given prefetch of the file at path to run after the prefetch delay.
+   * Does nothing if a prefetch of the same path is already outstanding.
+   */
+  public static void request(Path path, Runnable runnable) {
+    if (prefetchFutures.containsKey(path)) {
+      return;
+    }
+    try {
+      long delay;
+      if (prefetchDelayMillis > 0) {
+        delay = (long)((prefetchDelayMillis * (1.0f - (prefetchDelayVariation/2))) +
+          (prefetchDelayMillis * (prefetchDelayVariation/2) * RNG.nextFloat()));
+      } else {
+        delay = 0;
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Prefetch requested for " + path + ", delay=" + delay + " ms");
+      }
+      Future<?> future = prefetchExecutorPool.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+      prefetchFutures.put(path, future);
+      if (future.isDone()) {
+        // The task already ran and its complete() found nothing to remove
+        prefetchFutures.remove(path);
+      }
+    } catch (RejectedExecutionException e) {
+      prefetchFutures.remove(path);
+      LOG.warn("Prefetch request rejected for " + path);
+    }
+  }
+
+  /**
+   * Called by the prefetch task when it has finished, successfully or not.
+   */
+  public static void complete(Path path) {
+    if (prefetchFutures.remove(path) != null) {
+      completedFiles.incrementAndGet();
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Prefetch completed for " + path);
+    }
+  }
+
+  /**
+   * Cancels an outstanding prefetch of the file, interrupting it if it is running.
+   */
+  public static void cancel(Path path) {
+    Future<?> future = prefetchFutures.remove(path);
+    if (future != null) {
+      // ok to race with other cancellation attempts
+      future.cancel(true);
+      cancelledFiles.incrementAndGet();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Prefetch cancelled for " + path);
+      }
+    }
+  }
+
+  /**
+   * @return true if no prefetch of the file is outstanding
+   */
+  public static boolean isCompleted(Path path) {
+    Future<?> future = prefetchFutures.get(path);
+    return future == null || future.isDone();
+  }
+
+  /**
+   * Blocks the calling prefetch thread until reading the given number of bytes
+   * fits in the configured bandwidth limit.
+   * @throws InterruptedException if the prefetch was cancelled while waiting
+   */
+  static void throttle(long bytes) throws InterruptedException {
+    if (maxBytesPerSec <= 0) {
+      return;
+    }
+    long cost = bytes * 1000 / maxBytesPerSec;
+    long wait;
+    synchronized (PrefetchExecutor.class) {
+      long now = System.currentTimeMillis();
+      long start = Math.max(nextReadTime, now);
+      nextReadTime = start + cost;
+      wait = start - now;
+    }
+    if (wait > 0) {
+      Thread.sleep(wait);
+    }
+  }
+
+  /**
+   * Accounts for one block read by a prefetch task.
+   */
+  static void blockPrefetched(long bytes) {
+    prefetchedBlocks.incrementAndGet();
+    prefetchedBytes.addAndGet(bytes);
+  }
+
+  /** @return number of files with a scheduled or running prefetch */
+  public static int getPendingCount() {
+    return prefetchFutures.size();
+  }
+
+  /** @return number of blocks read by prefetch tasks since startup */
+  public static long getPrefetchedBlockCount() {
+    return prefetchedBlocks.get();
+  }
+
+  /** @return number of bytes read by prefetch tasks since startup */
+  public static long getPrefetchedBytes() {
+    return prefetchedBytes.get();
+  }
+
+  /** @return number of files whose prefetch ran to the end */
+  public static long getCompletedCount() {
+    return completedFiles.get();
+  }
+
+  /** @return number of prefetches cancelled because their file was closed */
+  public static long getCancelledCount() {
+    return cancelledFiles.get();
+  }
+}
@@ -0,0 +1,464 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.io.HeapSize;
+import org.apache.hadoop.hbase.io.hfile.CachedBlock.BlockPriority;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.hadoop.util.StringUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * An on-heap block cache with a TinyLFU admission filter and sampled,
+ * approximately-LRU eviction. It is an alternative to {@link LruBlockCache}
+ * for workloads where large scans push the hot working set out of the cache.
+ *
+ * <p>Every lookup bumps the key in a {@link FrequencySketch}. When the cache is
+ * full, a new block is admitted only if it has been requested more often
+ * recently than the block that would be evicted for it, so one-off scan blocks
+ * do not displace frequently read ones. In-memory blocks are always admitted.
+ *
+ * <p>Victims are picked by walking a handful of entries of the backing map with
+ * a rolling cursor and taking the least recently used one, preferring blocks
+ * that are not in-memory. There is no global sort and no eviction thread: the
+ * writer that overflows the cache frees the room itself. Only one writer makes
+ * room at a time; a writer that finds another one already doing so does not
+ * wait but drops its block, which the next read miss will offer again.
+ *
+ * <p>Hit, miss, eviction and rejection counts as well as the time spent making
+ * room are reported through the same {@link CacheStats} as the LRU cache, so
+ * the two policies can be compared side by side.
+ */
+@InterfaceAudience.Private
+public class TinyLfuBlockCache implements BlockCache, HeapSize {
+
+  static final Log LOG = LogFactory.getLog(TinyLfuBlockCache.class);
+
+  /** Number of entries looked at when choosing an eviction victim */
+  static final String SAMPLE_SIZE_CONFIG_NAME = "hbase.blockcache.tinylfu.sample.size";
+  static final int DEFAULT_SAMPLE_SIZE = 8;
+
+  /**
+   * A candidate no more popular than its victim is still admitted once in this
+   * many tries, unless it is nearly cold, so a newly hot block is not locked out
+   * by a victim whose sketch counters collide with other keys.
+   */
+  private static final int ADMIT_RANDOMLY_ONE_IN = 128;
+  private static final int ADMIT_RANDOMLY_MIN_FREQUENCY = 5;
+
+  /** Statistics thread */
+  static final int statThreadPeriod = 60 * 5;
+
+  /** Concurrent map (the cache) */
+  private final ConcurrentHashMap<BlockCacheKey,CachedBlock> map;
+
+  /** Admission filter */
+  private final FrequencySketch sketch;
+
+  /** Set while a writer is making room in the cache */
+  private final AtomicBoolean evictionInProgress = new AtomicBoolean(false);
+
+  /** Rolling position for victim sampling, only used while evictionInProgress is held */
+  private Iterator<CachedBlock> sampleCursor;
+
+  private final Random random = new Random();
+
+  /** Statistics thread schedule pool */
+  private final ScheduledExecutorService scheduleThreadPool =
+    Executors.newScheduledThreadPool(1,
+      new ThreadFactoryBuilder()
+        .setNameFormat("TinyLfuStats #%d")
+        .setDaemon(true)
+        .build());
+
+  /** Current size of cache */
+  private final AtomicLong size;
+
+  /** Current number of cached elements */
+  private final AtomicLong elements = new AtomicLong(0);
+
+  /** Cache access count (sequential ID) */
+  private final AtomicLong count = new AtomicLong(0);
+
+  /** Cache statistics */
+  private final CacheStats stats = new CacheStats();
+
+  /** Maximum allowable size of cache */
+  private final long maxSize;
+
+  /** Number of entries sampled per victim */
+  private final int sampleSize;
+
+  /**
+   * @param maxSize maximum size of cache, in bytes
+   * @param blockSize approximate size of each block, in bytes
+   * @param conf configuration to read the sample size from
+   */
+  public TinyLfuBlockCache(long maxSize, long blockSize, Configuration conf) {
+    this(maxSize, blockSize, conf.getInt(SAMPLE_SIZE_CONFIG_NAME, DEFAULT_SAMPLE_SIZE));
+  }
+
+  /**
+   * @param maxSize maximum size of cache, in bytes
+   * @param blockSize approximate size of each block, in bytes
+   * @param sampleSize number of entries looked at when choosing a victim
+   */
+  public TinyLfuBlockCache(long maxSize, long blockSize, int sampleSize) {
+    if (sampleSize < 1) {
+      throw new IllegalArgumentException("sampleSize must be positive");
+    }
+    this.maxSize = maxSize;
+    this.sampleSize = sampleSize;
+    long expectedBlocks = (long)Math.ceil(1.2 * maxSize / blockSize);
+    this.map = new ConcurrentHashMap<BlockCacheKey,CachedBlock>(
+        (int)Math.min(expectedBlocks, Integer.MAX_VALUE),
+        LruBlockCache.DEFAULT_LOAD_FACTOR, LruBlockCache.DEFAULT_CONCURRENCY_LEVEL);
+    this.sketch = new FrequencySketch(expectedBlocks);
+    this.size = new AtomicLong(LruBlockCache.calculateOverhead(maxSize, blockSize,
+        LruBlockCache.DEFAULT_CONCURRENCY_LEVEL));
+    this.scheduleThreadPool.scheduleAtFixedRate(new StatisticsThread(this),
+        statThreadPeriod, statThreadPeriod, TimeUnit.SECONDS);
+  }
+
+  // BlockCache implementation
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory) {
+    CachedBlock cb = map.get(cacheKey);
+    if (cb != null) {
+      // compare the contents, if they are not equal, we are in big trouble
+      if (compare(buf, cb.getBuffer()) != 0) {
+        throw new RuntimeException("Cached block contents differ, which should not have happened."
+          + "cacheKey:" + cacheKey);
+      }
+      LOG.warn("Cached an already cached block: " + cacheKey + " cb:" + cb.getCacheKey()
+        + ". This is harmless and can happen in rare cases (see HBASE-8547)");
+      return;
+    }
+    cb = new CachedBlock(cacheKey, buf, count.incrementAndGet(), inMemory);
+    if (size.get() + cb.heapSize() > maxSize && !makeRoom(cb)) {
+      stats.rejected();
+      return;
+    }
+    if (map.putIfAbsent(cacheKey, cb) == null) {
+      size.addAndGet(cb.heapSize());
+      elements.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf) {
+    cacheBlock(cacheKey, buf, false);
+  }
+
+  private int compare(Cacheable left, Cacheable right) {
+    ByteBuffer l = ByteBuffer.allocate(left.getSerializedLength());
+    left.serialize(l);
+    ByteBuffer r = ByteBuffer.allocate(right.getSerializedLength());
+    right.serialize(r);
+    return Bytes.compareTo(l.array(), l.arrayOffset(), l.limit(),
+      r.array(), r.arrayOffset(), r.limit());
+  }
+
+  @Override
+  public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat) {
+    if (!repeat) sketch.increment(cacheKey.hashCode());
+    CachedBlock cb = map.get(cacheKey);
+    if (cb == null) {
+      if (!repeat) stats.miss(caching);
+      return null;
+    }
+    stats.hit(caching);
+    cb.access(count.incrementAndGet());
+    return cb.getBuffer();
+  }
+
+  /**
+   * Whether the cache contains block with specified cacheKey
+   * @param cacheKey
+   * @return true if contains the block
+   */
+  public boolean containsBlock(BlockCacheKey cacheKey) {
+    return map.containsKey(cacheKey);
+  }
+
+  @Override
+  public boolean evictBlock(BlockCacheKey cacheKey) {
+    CachedBlock cb = map.get(cacheKey);
+    return cb != null && evictBlock(cb) > 0;
+  }
+
+  @Override
+  public int evictBlocksByHfileName(String hfileName) {
+    int numEvicted = 0;
+    for (BlockCacheKey key : map.keySet()) {
+      if (key.getHfileName().equals(hfileName)) {
+        if (evictBlock(key))
+          ++numEvicted;
+      }
+    }
+    return numEvicted;
+  }
+
+  /**
+   * @return the heap size freed, or 0 if the block was already gone
+   */
+  private long evictBlock(CachedBlock block) {
+    if (!map.remove(block.getCacheKey(), block)) {
+      return 0;
+    }
+    size.addAndGet(-block.heapSize());
+    elements.decrementAndGet();
+    stats.evicted();
+    return block.heapSize();
+  }
+
+  /**
+   * Frees enough room for the candidate if it wins admission against the first
+   * sampled victim.
+   * @return true if the candidate should be cached
+   */
+  private boolean makeRoom(CachedBlock candidate) {
+    boolean inMemory = candidate.getPriority() == BlockPriority.MEMORY;
+    if (!evictionInProgress.compareAndSet(false, true)) {
+      // Somebody else is evicting; in-memory blocks go in and are accounted
+      // for on the next pass, everything else is dropped rather than waiting.
+      return inMemory;
+    }
+    long startTime = System.nanoTime();
+    try {
+      CachedBlock victim = sampleVictim();
+      if (victim == null) {
+        return true;
+      }
+      if (!inMemory && !admit(candidate, victim)) {
+        return false;
+      }
+      long bytesToFree = size.get() + candidate.heapSize() - maxSize;
+      long bytesFreed = 0;
+      while (victim != null) {
+        bytesFreed += evictBlock(victim);
+        if (bytesFreed >= bytesToFree) break;
+        victim = sampleVictim();
+      }
+      stats.evict(System.nanoTime() - startTime);
+      return true;
+    } finally {
+      evictionInProgress.set(false);
+    }
+  }
+
+  private boolean admit(CachedBlock candidate, CachedBlock victim) {
+    int candidateFrequency = sketch.frequency(candidate.getCacheKey().hashCode());
+    int victimFrequency = sketch.frequency(victim.getCacheKey().hashCode());
+    if (candidateFrequency > victimFrequency) {
+      return true;
+    }
+    if (candidateFrequency <= ADMIT_RANDOMLY_MIN_FREQUENCY) {
+      return false;
+    }
+    return random.nextInt(ADMIT_RANDOMLY_ONE_IN) == 0;
+  }
+
+  /**
+   * Looks at up to sampleSize entries from the rolling cursor and returns the
+   * least recently used, preferring blocks that are not in-memory. Must only be
+   * called while evictionInProgress is held.
+   * @return the victim, or null if the cache is empty
+   */
+  private CachedBlock sampleVictim() {
+    CachedBlock victim = null;
+    for (int i = 0; i < sampleSize; i++) {
+      if (sampleCursor == null || !sampleCursor.hasNext()) {
+        sampleCursor = map.values().iterator();
+        if (!sampleCursor.hasNext()) break;
+      }
+      CachedBlock cb = sampleCursor.next();
+      if (victim == null || isBetterVictim(cb, victim)) {
+        victim = cb;
+      }
+    }
+    return victim;
+  }
+
+  private static boolean isBetterVictim(CachedBlock cb, CachedBlock current) {
+    boolean cbInMemory = cb.getPriority() == BlockPriority.MEMORY;
+    boolean currentInMemory = current.getPriority() == BlockPriority.MEMORY;
+    if (cbInMemory != currentInMemory) {
+      return currentInMemory;
+    }
+    // CachedBlock orders the least recently accessed block last
+    return cb.compareTo(current) > 0;
+  }
+
+  /**
+   * Get the maximum size of this cache.
+   * @return max size in bytes
+   */
+  public long getMaxSize() {
+    return this.maxSize;
+  }
+
+  @Override
+  public long getCurrentSize() {
+    return this.size.get();
+  }
+
+  @Override
+  public long getFreeSize() {
+    return getMaxSize() - getCurrentSize();
+  }
+
+  @Override
+  public long size() {
+    return this.elements.get();
+  }
+
+  @Override
+  public long getBlockCount() {
+    return this.elements.get();
+  }
+
+  @Override
+  public long getEvictedCount() {
+    return this.stats.getEvictedCount();
+  }
+
+  @Override
+  public CacheStats getStats() {
+    return this.stats;
+  }
+
+  // HeapSize implementation
+  @Override
+  public long heapSize() {
+    return getCurrentSize();
+  }
+
+  /*
+   * Statistics thread.  Periodically prints the cache statistics to the log.
+   */
+  static class StatisticsThread extends Thread {
+    TinyLfuBlockCache cache;
+
+    public StatisticsThread(TinyLfuBlockCache cache) {
+      super("TinyLfuBlockCache.StatisticsThread");
+      setDaemon(true);
+      this.cache = cache;
+    }
+    @Override
+    public void run() {
+      cache.logStats();
+    }
+  }
+
+  public void logStats() {
+    if (!LOG.isDebugEnabled()) return;
+    long totalSize = heapSize();
+    LOG.debug("Total=" + StringUtils.byteDesc(totalSize) + ", " +
+        "free=" + StringUtils.byteDesc(maxSize - totalSize) + ", " +
+        "max=" + StringUtils.byteDesc(this.maxSize) + ", " +
+        "blocks=" + size() + ", " +
+        "accesses=" + stats.getRequestCount() + ", " +
+        "hits=" + stats.getHitCount() + ", " +
+        "hitRatio=" + (stats.getHitCount() == 0 ? "0" :
+          StringUtils.formatPercent(stats.getHitRatio(), 2)) + ", " +
+        "cachingAccesses=" + stats.getRequestCachingCount() + ", " +
+        "cachingHits=" + stats.getHitCachingCount() + ", " +
+        "cachingHitsRatio=" + (stats.getHitCachingCount() == 0 ? "0" :
+          StringUtils.formatPercent(stats.getHitCachingRatio(), 2)) + ", " +
+        "evictions=" + stats.getEvictionCount() + ", " +
+        "evicted=" + stats.getEvictedCount() + ", " +
+        "rejected=" + stats.getRejectedCount() + ", " +
+        "avgEvictionTimeMs=" +
+          String.format("%.3f", stats.getAverageEvictionTimeNanos() / 1000000));
+  }
+
+  @Override
+  public List<BlockCacheColumnFamilySummary> getBlockCacheColumnFamilySummaries(Configuration conf)
+      throws IOException {
+    Map<String, Path> sfMap = FSUtils.getTableStoreFilePathMap(
+        FileSystem.get(conf),
+        FSUtils.getRootDir(conf));
+
+    Map<BlockCacheColumnFamilySummary, BlockCacheColumnFamilySummary> bcs =
+      new HashMap<BlockCacheColumnFamilySummary, BlockCacheColumnFamilySummary>();
+
+    for (CachedBlock cb : map.values()) {
+      Path path = sfMap.get(cb.getCacheKey().getHfileName());
+      if (path != null) {
+        BlockCacheColumnFamilySummary lookup =
+          BlockCacheColumnFamilySummary.createFromStoreFilePath(path);
+        BlockCacheColumnFamilySummary bcse = bcs.get(lookup);
+        if (bcse == null) {
+          bcse = BlockCacheColumnFamilySummary.create(lookup);
+          bcs.put(lookup, bcse);
+        }
+        bcse.incrementBlocks();
+        bcse.incrementHeapSize(cb.heapSize());
+      }
+    }
+    List<BlockCacheColumnFamilySummary> list =
+        new ArrayList<BlockCacheColumnFamilySummary>(bcs.values());
+    Collections.sort(list);
+    return list;
+  }
+
+  @Override
+  public void shutdown() {
+    this.scheduleThreadPool.shutdown();
+    for (int i = 0; i < 10; i++) {
+      if (!this.scheduleThreadPool.isShutdown()) Threads.sleep(10);
+    }
+    if (!this.scheduleThreadPool.isShutdown()) {
+      List<Runnable> runnables = this.scheduleThreadPool.shutdownNow();
+      LOG.debug("Still running " + runnables);
+    }
+  }
+
+  /** Clears the cache. Used in tests. */
+  public void clearCache() {
+    map.clear();
+  }
+}
@@ -282,6 +282,8 @@ public final class BucketAllocator {
   private BucketSizeInfo[] bucketSizeInfos;
   private final long totalSize;
   private long usedSize = 0;
+  /** Buckets whose size was fixed while restoring a persisted index */
+  private boolean[] reconfigured;
 
   BucketAllocator(long availableSpace) throws BucketAllocatorException {
     buckets = new Bucket[(int) (availableSpace / (long) BUCKET_CAPACITY)];
@@ -312,53 +314,65 @@ public final class BucketAllocator {
   BucketAllocator(long availableSpace, Map<BlockCacheKey, BucketEntry> map,
       AtomicLong realCacheSize) throws BucketAllocatorException {
     this(availableSpace);
+    for (Map.Entry<BlockCacheKey, BucketEntry> entry : map.entrySet()) {
+      restoreAllocation(entry.getValue().offset(), entry.getValue().getLength());
+      realCacheSize.addAndGet(entry.getValue().getLength());
+    }
+  }
 
+  /**
+   * Mark a block found in a persisted index as allocated. Only valid while the
+   * allocator is being rebuilt, before any block has been allocated normally.
+   * @param foundOffset offset of the block in the cache
+   * @param foundLen length of the block
+   * @throws BucketAllocatorException if the block can't be placed, or
+   *           conflicts with the blocks restored before it
+   */
+  void restoreAllocation(long foundOffset, int foundLen)
+      throws BucketAllocatorException {
     // each bucket has an offset, sizeindex. probably the buckets are too big
     // in our default state. so what we do is reconfigure them according to what
     // we've found. we can only reconfigure each bucket once; if more than once,
     // we know there's a bug, so we just log the info, throw, and start again...
-    boolean[] reconfigured = new boolean[buckets.length];
-    for (Map.Entry<BlockCacheKey, BucketEntry> entry : map.entrySet()) {
-      long foundOffset = entry.getValue().offset();
-      int foundLen = entry.getValue().getLength();
-      int bucketSizeIndex = -1;
-      for (int i = 0; i < BUCKET_SIZES.length; ++i) {
-        if (foundLen <= BUCKET_SIZES[i]) {
-          bucketSizeIndex = i;
-          break;
-        }
-      }
-      if (bucketSizeIndex == -1) {
-        throw new BucketAllocatorException(
-            "Can't match bucket size for the block with size " + foundLen);
-      }
-      int bucketNo = (int) (foundOffset / (long) BUCKET_CAPACITY);
-      if (bucketNo < 0 || bucketNo >= buckets.length)
-        throw new BucketAllocatorException("Can't find bucket " + bucketNo
-            + ", total buckets=" + buckets.length
-            + "; did you shrink the cache?");
-      Bucket b = buckets[bucketNo];
-      if (reconfigured[bucketNo] == true) {
-        if (b.sizeIndex() != bucketSizeIndex)
-          throw new BucketAllocatorException(
-              "Inconsistent allocation in bucket map;");
-      } else {
-        if (!b.isCompletelyFree())
-          throw new BucketAllocatorException("Reconfiguring bucket "
-              + bucketNo + " but it's already allocated; corrupt data");
-        // Need to remove the bucket from whichever list it's currently in at
-        // the moment...
-        BucketSizeInfo bsi = bucketSizeInfos[bucketSizeIndex];
-        BucketSizeInfo oldbsi = bucketSizeInfos[b.sizeIndex()];
-        oldbsi.removeBucket(b);
-        bsi.instantiateBucket(b);
-        reconfigured[bucketNo] = true;
+    if (reconfigured == null) {
+      reconfigured = new boolean[buckets.length];
+    }
+    int bucketSizeIndex = -1;
+    for (int i = 0; i < BUCKET_SIZES.length; ++i) {
+      if (foundLen <= BUCKET_SIZES[i]) {
+        bucketSizeIndex = i;
+        break;
       }
-      realCacheSize.addAndGet(foundLen);
-      buckets[bucketNo].addAllocation(foundOffset);
-      usedSize += buckets[bucketNo].itemAllocationSize();
-      bucketSizeInfos[bucketSizeIndex].blockAllocated(b);
     }
+    if (bucketSizeIndex == -1) {
+      throw new BucketAllocatorException(
+          "Can't match bucket size for the block with size " + foundLen);
+    }
+    int bucketNo = (int) (foundOffset / BUCKET_CAPACITY);
+    if (bucketNo < 0 || bucketNo >= buckets.length)
+      throw new BucketAllocatorException("Can't find bucket " + bucketNo
+          + ", total buckets=" + buckets.length
+          + "; did you shrink the cache?");
+    Bucket b = buckets[bucketNo];
+    if (reconfigured[bucketNo] == true) {
+      if (b.sizeIndex() != bucketSizeIndex)
+        throw new BucketAllocatorException(
+            "Inconsistent allocation in bucket map;");
+    } else {
+      if (!b.isCompletelyFree())
+        throw new BucketAllocatorException("Reconfiguring bucket "
+            + bucketNo + " but it's already allocated; corrupt data");
+      // Need to remove the bucket from whichever list it's currently in at
+      // the moment...
+      BucketSizeInfo bsi = bucketSizeInfos[bucketSizeIndex];
+      BucketSizeInfo oldbsi = bucketSizeInfos[b.sizeIndex()];
+      oldbsi.removeBucket(b);
+      bsi.instantiateBucket(b);
+      reconfigured[bucketNo] = true;
+    }
+    buckets[bucketNo].addAllocation(foundOffset);
+    usedSize += buckets[bucketNo].itemAllocationSize();
+    bucketSizeInfos[bucketSizeIndex].blockAllocated(b);
   }
 
   public String getInfo() {
@@ -31,6 +31,7 @@ import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
@@ -44,6 +45,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -53,6 +55,7 @@ import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheColumnFamilySummary;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
 import org.apache.hadoop.hbase.io.hfile.CacheStats;
 import org.apache.hadoop.hbase.io.hfile.Cacheable;
 import org.apache.hadoop.hbase.io.hfile.CacheableDeserializer;
@@ -63,7 +66,7 @@ import org.apache.hadoop.hbase.regionserver.StoreFile;
 import org.apache.hadoop.hbase.util.ConcurrentIndex;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.HasThread;
-import org.apache.hadoop.hbase.util.IdLock;
+import org.apache.hadoop.hbase.util.IdReadWriteLock;
 import org.apache.hadoop.util.StringUtils;
 
 import com.google.common.collect.ImmutableList;
@@ -73,12 +76,16 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * BucketCache uses {@link BucketAllocator} to allocate/free block, and use
  * {@link BucketCache#ramCache} and {@link BucketCache#backingMap} in order to
  * determine whether a given element hit. It could uses memory
- * {@link ByteBufferIOEngine} or file {@link FileIOEngine}to store/read the
- * block data.
+ * {@link ByteBufferIOEngine}, file {@link FileIOEngine} or memory-mapped file
+ * {@link FileMmapIOEngine} to store/read the block data.
  * 
  * Eviction is using similar algorithm as
  * {@link org.apache.hadoop.hbase.io.hfile.LruBlockCache}
  * 
+ * With a persistent IO engine the index is written out on shutdown, or, if a
+ * checkpoint interval is given, periodically by {@link BucketCacheCheckpoint}
+ * so the cached data also survives a crash.
+ * 
  * BucketCache could be used as mainly a block cache(see
  * {@link CombinedBlockCache}), combined with LruBlockCache to decrease CMS and
  * fragment by GC.
@@ -153,6 +160,14 @@ public class BucketCache implements BlockCache, HeapSize {
 
   private String persistencePath;
   private long cacheCapacity;
+  /**
+   * Periodic checkpoints of the index, null if the index is only persisted on
+   * shutdown. Keys whose entries changed since the last checkpoint are kept in
+   * changedKeys.
+   */
+  private BucketCacheCheckpoint checkpoint;
+  private ConcurrentHashMap<BlockCacheKey, Boolean> changedKeys;
+  private final Object checkpointLock = new Object();
   /** Approximate block size */
   private final long blockSize;
 
@@ -167,11 +182,11 @@ public class BucketCache implements BlockCache, HeapSize {
   /**
    * A "sparse lock" implementation allowing to lock on a particular block
    * identified by offset. The purpose of this is to avoid freeing the block
-   * which is being read.
-   * 
-   * TODO:We could extend the IdLock to IdReadWriteLock for better.
+   * which is being read. Readers take the read lock so that concurrent reads
+   * of a hot block don't queue up behind each other; eviction takes the write
+   * lock.
    */
-  private IdLock offsetLock = new IdLock();
+  private IdReadWriteLock offsetLock = new IdReadWriteLock();
 
   private final ConcurrentIndex<String, BlockCacheKey> blocksByHFile =
       new ConcurrentIndex<String, BlockCacheKey>(new Comparator<BlockCacheKey>() {
@@ -207,6 +222,18 @@ public class BucketCache implements BlockCache, HeapSize {
   public BucketCache(String ioEngineName, long capacity, int writerThreadNum,
       int writerQLen, String persistencePath, int ioErrorsTolerationDuration)
       throws FileNotFoundException, IOException {
+    this(ioEngineName, capacity, writerThreadNum, writerQLen, persistencePath,
+        ioErrorsTolerationDuration, 0);
+  }
+
+  /**
+   * @param checkpointInterval milliseconds between checkpoints of the index to
+   *          persistencePath, 0 to persist it only on shutdown. Checkpoints
+   *          allow a persistent cache to survive a crash.
+   */
+  public BucketCache(String ioEngineName, long capacity, int writerThreadNum,
+      int writerQLen, String persistencePath, int ioErrorsTolerationDuration,
+      long checkpointInterval) throws FileNotFoundException, IOException {
     this.ioEngine = getIOEngineFromName(ioEngineName, capacity);
     this.writerThreads = new WriterThread[writerThreadNum];
     this.cacheWaitSignals = new Object[writerThreadNum];
@@ -232,7 +259,18 @@ public class BucketCache implements BlockCache, HeapSize {
 
     this.backingMap = new ConcurrentHashMap<BlockCacheKey, BucketEntry>((int) blockNumCapacity);
 
-    if (ioEngine.isPersistent() && persistencePath != null) {
+    if (ioEngine.isPersistent() && persistencePath != null
+        && checkpointInterval > 0) {
+      checkpoint = new BucketCacheCheckpoint(persistencePath, capacity,
+          ioEngine.getClass().getName());
+      changedKeys = new ConcurrentHashMap<BlockCacheKey, Boolean>();
+      try {
+        retrieveFromCheckpoint();
+      } catch (IOException ioex) {
+        LOG.error("Can't restore from checkpoint " + persistencePath
+            + ", starting with an empty cache", ioex);
+      }
+    } else if (ioEngine.isPersistent() && persistencePath != null) {
       try {
         retrieveFromFile();
       } catch (IOException ioex) {
@@ -252,6 +290,19 @@ public class BucketCache implements BlockCache, HeapSize {
     // Run the statistics thread periodically to print the cache statistics log
     this.scheduleThreadPool.scheduleAtFixedRate(new StatisticsThread(this),
         statThreadPeriod, statThreadPeriod, TimeUnit.SECONDS);
+    if (checkpoint != null) {
+      this.scheduleThreadPool.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            checkpoint();
+          } catch (IOException ioex) {
+            LOG.warn("Failed checkpointing bucket cache index to "
+                + checkpoint.getPath(), ioex);
+          }
+        }
+      }, checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS);
+    }
     LOG.info("Started bucket cache");
   }
 
@@ -266,13 +317,15 @@ public class BucketCache implements BlockCache, HeapSize {
       throws IOException {
     if (ioEngineName.startsWith("file:"))
       return new FileIOEngine(ioEngineName.substring(5), capacity);
+    else if (ioEngineName.startsWith("mmap:"))
+      return new FileMmapIOEngine(ioEngineName.substring(5), capacity);
     else if (ioEngineName.startsWith("offheap"))
       return new ByteBufferIOEngine(capacity, true);
     else if (ioEngineName.startsWith("heap"))
       return new ByteBufferIOEngine(capacity, false);
     else
       throw new IllegalArgumentException(
-          "Don't understand io engine name for cache - prefix with file:, heap or offheap");
+          "Don't understand io engine name for cache - prefix with file:, mmap:, heap or offheap");
   }
 
   /**
@@ -359,25 +412,37 @@ public class BucketCache implements BlockCache, HeapSize {
       return re.getData();
     }
     BucketEntry bucketEntry = backingMap.get(key);
+    boolean corrupt = false;
     if(bucketEntry!=null) {
       long start = System.nanoTime();
-      IdLock.Entry lockEntry = null;
+      IdReadWriteLock.Entry lockEntry = null;
       try {
-        lockEntry = offsetLock.getLockEntry(bucketEntry.offset());
+        lockEntry = offsetLock.getReadLockEntry(bucketEntry.offset());
         if (bucketEntry.equals(backingMap.get(key))) {
           int len = bucketEntry.getLength();
-          ByteBuffer bb = ByteBuffer.allocate(len);
-          ioEngine.read(bb, bucketEntry.offset());
-          Cacheable cachedBlock = bucketEntry.deserializerReference(
-              deserialiserMap).deserialize(bb, true);
-          long timeTaken = System.nanoTime() - start;
-          cacheStats.hit(caching);
-          cacheStats.ioHit(timeTaken);
-          bucketEntry.access(accessCount.incrementAndGet());
-          if (this.ioErrorStartTime > 0) {
-            ioErrorStartTime = -1;
+          ByteBuffer bb = ioEngine.read(bucketEntry.offset(), len);
+          if (bucketEntry.isUnverified()
+              && checksumOf(bb) != bucketEntry.getChecksum()) {
+            // Restored from a checkpoint, but the space was reused between the
+            // checkpoint and the restart
+            corrupt = true;
+          } else {
+            if (bucketEntry.isUnverified()) {
+              bucketEntry.setUnverified(false);
+            }
+            // A view of the engine's storage must be copied out before the offset
+            // lock is released; a private copy can be handed over as is.
+            Cacheable cachedBlock = bucketEntry.deserializerReference(
+                deserialiserMap).deserialize(bb, !ioEngine.usesSharedMemory());
+            long timeTaken = System.nanoTime() - start;
+            cacheStats.hit(caching);
+            cacheStats.ioHit(timeTaken);
+            bucketEntry.access(accessCount.incrementAndGet());
+            if (this.ioErrorStartTime > 0) {
+              ioErrorStartTime = -1;
+            }
+            return cachedBlock;
           }
-          return cachedBlock;
         }
       } catch (IOException ioex) {
         LOG.error("Failed reading block " + key + " from bucket cache", ioex);
@@ -388,6 +453,11 @@ public class BucketCache implements BlockCache, HeapSize {
         }
       }
     }
+    if (corrupt) {
+      LOG.warn("Checksum mismatch for restored block " + key + ", evicting it");
+      cacheStats.checksumFailed();
+      evictBlock(key);
+    }
     if(!repeat)cacheStats.miss(caching);
     return null;
   }
@@ -402,12 +472,14 @@ public class BucketCache implements BlockCache, HeapSize {
     }
     BucketEntry bucketEntry = backingMap.get(cacheKey);
     if (bucketEntry != null) {
-      IdLock.Entry lockEntry = null;
+      IdReadWriteLock.Entry lockEntry = null;
       try {
-        lockEntry = offsetLock.getLockEntry(bucketEntry.offset());
+        lockEntry = offsetLock.getWriteLockEntry(bucketEntry.offset());
         if (bucketEntry.equals(backingMap.remove(cacheKey))) {
+          markChanged(cacheKey);
           bucketAllocator.freeBlock(bucketEntry.offset());
           realCacheSize.addAndGet(-1 * bucketEntry.getLength());
+          cacheStats.addBlockSize(bucketEntry.getBlockType(), -1 * bucketEntry.getLength());
           blocksByHFile.remove(cacheKey.getHfileName(), cacheKey);
           if (removedBlock == null) {
             this.blockNumber.decrementAndGet();
@@ -470,7 +542,10 @@ public class BucketCache implements BlockCache, HeapSize {
           (StringUtils.formatPercent(cacheStats.getHitCachingRatio(), 2)+ ", ")) +
         "evictions=" + cacheStats.getEvictionCount() + ", " +
         "evicted=" + cacheStats.getEvictedCount() + ", " +
-        "evictedPerRun=" + cacheStats.evictedPerEviction());
+        "evictedPerRun=" + cacheStats.evictedPerEviction() + ", " +
+        "restored=" + cacheStats.getRestoredCount() + ", " +
+        "discarded=" + cacheStats.getDiscardedCount() + ", " +
+        "checksumFailures=" + cacheStats.getChecksumFailureCount());
     cacheStats.reset();
   }
 
@@ -701,7 +776,7 @@ public class BucketCache implements BlockCache, HeapSize {
             continue;
           }
           BucketEntry bucketEntry = ramEntry.writeToCache(ioEngine,
-              bucketAllocator, deserialiserMap, realCacheSize);
+              bucketAllocator, deserialiserMap, realCacheSize, checkpoint != null);
           ramEntries[done] = ramEntry;
           bucketEntries[done++] = bucketEntry;
           if (ioErrorStartTime > 0) {
@@ -741,6 +816,8 @@ public class BucketCache implements BlockCache, HeapSize {
       for (int i = 0; i < done; ++i) {
         if (bucketEntries[i] != null) {
           backingMap.put(ramEntries[i].getKey(), bucketEntries[i]);
+          markChanged(ramEntries[i].getKey());
+          cacheStats.addBlockSize(bucketEntries[i].getBlockType(), bucketEntries[i].getLength());
         }
         RAMQueueEntry ramCacheEntry = ramCache.remove(ramEntries[i].getKey());
         if (ramCacheEntry != null) {
@@ -824,6 +901,115 @@ public class BucketCache implements BlockCache, HeapSize {
     }
   }
 
+  private void markChanged(BlockCacheKey key) {
+    if (changedKeys != null) {
+      changedKeys.put(key, Boolean.TRUE);
+    }
+  }
+
+  /**
+   * Checkpoint the index: append the entries changed since the last
+   * checkpoint, or rewrite the whole index when that is cheaper to restore.
+   * Entries changing while this runs are marked again and go in the next one.
+   */
+  void checkpoint() throws IOException {
+    synchronized (checkpointLock) {
+      if (!cacheEnabled) {
+        return;
+      }
+      if (checkpoint.shouldWriteFull()) {
+        changedKeys.clear();
+        checkpoint.writeFull(backingMap, deserialiserMap);
+        return;
+      }
+      if (changedKeys.isEmpty()) {
+        return;
+      }
+      List<BlockCacheKey> changed = new ArrayList<BlockCacheKey>(changedKeys.size());
+      for (BlockCacheKey key : changedKeys.keySet()) {
+        changedKeys.remove(key);
+        changed.add(key);
+      }
+      checkpoint.append(backingMap, changed, deserialiserMap);
+    }
+  }
+
+  /**
+   * Rebuild the index from the checkpoint. Entries that are unreadable or
+   * conflict with the ones restored before them are dropped; the others are
+   * trusted once their data matches their checksum, see {@link #getBlock}.
+   */
+  private void retrieveFromCheckpoint() throws IOException {
+    if (!checkpoint.exists()) {
+      return;
+    }
+    assert !cacheEnabled;
+    Map<BlockCacheKey, BucketEntry> entries = new HashMap<BlockCacheKey, BucketEntry>();
+    UniqueIndexMap<Integer> deserMap = new UniqueIndexMap<Integer>();
+    checkpoint.read(entries, deserMap);
+    long restored = 0;
+    long discarded = checkpoint.getInvalidRecords();
+    long maxAccessTime = 0;
+    for (Map.Entry<BlockCacheKey, BucketEntry> entry : entries.entrySet()) {
+      BlockCacheKey key = entry.getKey();
+      BucketEntry bucketEntry = entry.getValue();
+      if (!deserMap.contains(bucketEntry.deserialiserIndex)) {
+        discarded++;
+        continue;
+      }
+      try {
+        bucketAllocator.restoreAllocation(bucketEntry.offset(),
+            bucketEntry.getLength());
+      } catch (BucketAllocatorException bae) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Discarding restored block " + key + ": " + bae.getMessage());
+        }
+        discarded++;
+        continue;
+      }
+      bucketEntry.setUnverified(true);
+      backingMap.put(key, bucketEntry);
+      blocksByHFile.put(key.getHfileName(), key);
+      realCacheSize.addAndGet(bucketEntry.getLength());
+      blockNumber.incrementAndGet();
+      maxAccessTime = Math.max(maxAccessTime, bucketEntry.getAccessTime());
+      restored++;
+    }
+    deserialiserMap = deserMap;
+    accessCount.set(maxAccessTime);
+    cacheStats.restored(restored);
+    cacheStats.discarded(discarded);
+    LOG.info("Restored " + restored + " blocks from checkpoint "
+        + checkpoint.getPath() + ", discarded " + discarded
+        + " invalid blocks and " + checkpoint.getCorruptChunks() + " corrupt chunks");
+  }
+
+  /**
+   * @return CRC32 of the remaining bytes of the given buffers, without
+   *         changing their positions
+   */
+  static int checksumOf(ByteBuffer... buffers) {
+    CRC32 crc = new CRC32();
+    byte[] chunk = null;
+    for (ByteBuffer buffer : buffers) {
+      if (buffer.hasArray()) {
+        crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(),
+            buffer.remaining());
+        continue;
+      }
+      ByteBuffer dup = buffer.duplicate();
+      if (chunk == null) {
+        chunk = new byte[8 * 1024];
+      }
+      while (dup.hasRemaining()) {
+        int n = Math.min(dup.remaining(), chunk.length);
+        dup.get(chunk, 0, n);
+        crc.update(chunk, 0, n);
+      }
+    }
+    return (int) crc.getValue();
+  }
+
   /**
    * Check whether we tolerate IO error this time. If the duration of IOEngine
    * throwing errors exceeds ioErrorsDurationTimeTolerated, we will disable the
@@ -875,7 +1061,13 @@ public class BucketCache implements BlockCache, HeapSize {
     if (ioEngine.isPersistent() && persistencePath != null) {
       try {
         join();
-        persistToFile();
+        if (checkpoint != null) {
+          synchronized (checkpointLock) {
+            checkpoint.writeFull(backingMap, deserialiserMap);
+          }
+        } else {
+          persistToFile();
+        }
       } catch (IOException ex) {
         LOG.error("Unable to persist data on exit: " + ex.toString(), ex);
       } catch (InterruptedException e) {
@@ -994,6 +1186,12 @@ public class BucketCache implements BlockCache, HeapSize {
     byte deserialiserIndex;
     private volatile long accessTime;
     private BlockPriority priority;
+    /** Type of the cached block, null when restored from a checkpoint */
+    private BlockType blockType;
+    /** CRC32 of the block's data, set when the index is checkpointed */
+    private int checksum;
+    /** Restored from a checkpoint, and the data not yet matched to the checksum */
+    private volatile boolean unverified;
 
     BucketEntry(long offset, int length, long accessTime, boolean inMemory) {
       setOffset(offset);
@@ -1023,6 +1221,34 @@ public class BucketCache implements BlockCache, HeapSize {
       return length;
     }
 
+    long getAccessTime() {
+      return accessTime;
+    }
+
+    BlockType getBlockType() {
+      return blockType;
+    }
+
+    void setBlockType(BlockType blockType) {
+      this.blockType = blockType;
+    }
+
+    int getChecksum() {
+      return checksum;
+    }
+
+    void setChecksum(int checksum) {
+      this.checksum = checksum;
+    }
+
+    boolean isUnverified() {
+      return unverified;
+    }
+
+    void setUnverified(boolean unverified) {
+      this.unverified = unverified;
+    }
+
     protected CacheableDeserializer<Cacheable> deserializerReference(
         UniqueIndexMap<Integer> deserialiserMap) {
       return CacheableDeserializerIdManager.getDeserializer(deserialiserMap
@@ -1152,8 +1378,8 @@ public class BucketCache implements BlockCache, HeapSize {
     public BucketEntry writeToCache(final IOEngine ioEngine,
         final BucketAllocator bucketAllocator,
         final UniqueIndexMap<Integer> deserialiserMap,
-        final AtomicLong realCacheSize) throws CacheFullException, IOException,
-        BucketAllocatorException {
+        final AtomicLong realCacheSize, final boolean checksum)
+        throws CacheFullException, IOException, BucketAllocatorException {
       int len = data.getSerializedLength();
       // This cacheable thing can't be serialized...
       if (len == 0) return null;
@@ -1161,6 +1387,7 @@ public class BucketCache implements BlockCache, HeapSize {
       BucketEntry bucketEntry = new BucketEntry(offset, len, accessTime,
           inMemory);
       bucketEntry.setDeserialiserReference(data.getDeserializer(), deserialiserMap);
+      bucketEntry.setBlockType(data.getBlockType());
       try {
         if (data instanceof HFileBlock) {
           ByteBuffer sliceBuf = ((HFileBlock) data).getBufferReadOnlyWithHeader();
@@ -1168,11 +1395,17 @@ public class BucketCache implements BlockCache, HeapSize {
           assert len == sliceBuf.limit() + HFileBlock.EXTRA_SERIALIZATION_SPACE;
           ByteBuffer extraInfoBuffer = ByteBuffer.allocate(HFileBlock.EXTRA_SERIALIZATION_SPACE);
           ((HFileBlock) data).serializeExtraInfo(extraInfoBuffer);
+          if (checksum) {
+            bucketEntry.setChecksum(checksumOf(sliceBuf, extraInfoBuffer));
+          }
           ioEngine.write(sliceBuf, offset);
           ioEngine.write(extraInfoBuffer, offset + len - HFileBlock.EXTRA_SERIALIZATION_SPACE);
         } else {
           ByteBuffer bb = ByteBuffer.allocate(len);
           data.serialize(bb);
+          if (checksum) {
+            bucketEntry.setChecksum(checksumOf(bb));
+          }
           ioEngine.write(bb, offset);
         }
       } catch (IOException ioe) {
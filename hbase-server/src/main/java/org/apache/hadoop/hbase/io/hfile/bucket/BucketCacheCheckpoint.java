@@ -0,0 +1,430 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BlockPriority;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BucketEntry;
+
+/**
+ * Crash tolerant copy of the {@link BucketCache} index on the local file
+ * system. The file holds a sequence of chunks, each a length, a payload and
+ * the CRC32 of the payload. A full checkpoint writes every entry to a new file
+ * which then replaces the old one; in between, incremental checkpoints append
+ * the entries added and removed since the previous checkpoint.
+ * <p>
+ * Restoring replays the chunks in order. A chunk that fails its checksum is
+ * skipped and loses only the records in it; a torn chunk at the end, left by a
+ * crash in the middle of an append, is ignored. The data of a restored entry
+ * may still have been overwritten after the checkpoint, so every entry carries
+ * the checksum of its block, which the cache verifies on the first read.
+ */
+@InterfaceAudience.Private
+class BucketCacheCheckpoint {
+  static final Log LOG = LogFactory.getLog(BucketCacheCheckpoint.class);
+
+  private static final int MAGIC = 0x42434350; // "BCCP"
+  private static final int VERSION = 1;
+
+  /** Chunk types */
+  private static final byte HEADER = 1;
+  private static final byte DESERIALISERS = 2;
+  private static final byte ADDITIONS = 3;
+  private static final byte REMOVALS = 4;
+
+  /** Records per chunk, bounds what a single corrupt chunk loses */
+  static final int RECORDS_PER_CHUNK = 1024;
+  /** Anything larger is a corrupt length rather than a chunk we wrote */
+  private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+  private final File file;
+  private final long capacity;
+  private final String ioEngineClass;
+
+  /** Whether the file is known to hold a usable base to append to */
+  private boolean valid = false;
+  /** Records written by the last full checkpoint */
+  private long fullRecords = 0;
+  /** Records appended since the last full checkpoint */
+  private long appendedRecords = 0;
+
+  /** Results of the last restore */
+  private int corruptChunks = 0;
+  private long invalidRecords = 0;
+
+  BucketCacheCheckpoint(String path, long capacity, String ioEngineClass) {
+    this.file = new File(path);
+    this.capacity = capacity;
+    this.ioEngineClass = ioEngineClass;
+  }
+
+  boolean exists() {
+    return file.exists();
+  }
+
+  String getPath() {
+    return file.getPath();
+  }
+
+  /**
+   * @return true if the next checkpoint should rewrite the whole index, either
+   *         because there is nothing to append to, or because replaying the
+   *         appended records would cost more than the index itself
+   */
+  boolean shouldWriteFull() {
+    return !valid || appendedRecords > Math.max(fullRecords, RECORDS_PER_CHUNK);
+  }
+
+  /**
+   * Write the whole index to a new file and move it over the old one.
+   */
+  void writeFull(Map<BlockCacheKey, BucketEntry> backingMap,
+      UniqueIndexMap<Integer> deserialiserMap) throws IOException {
+    valid = false;
+    File tmp = new File(file.getPath() + ".tmp");
+    FileOutputStream fos = new FileOutputStream(tmp, false);
+    long records = 0;
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      ChunkWriter header = new ChunkWriter(out, HEADER);
+      header.body.writeLong(capacity);
+      header.body.writeUTF(ioEngineClass);
+      header.finish();
+      writeDeserialisers(out, deserialiserMap);
+      ChunkWriter additions = new ChunkWriter(out, ADDITIONS);
+      for (Map.Entry<BlockCacheKey, BucketEntry> entry : backingMap.entrySet()) {
+        writeAddition(additions.body, entry.getKey(), entry.getValue());
+        records++;
+        if (++additions.records == RECORDS_PER_CHUNK) {
+          additions.finish();
+          additions = new ChunkWriter(out, ADDITIONS);
+        }
+      }
+      additions.finish();
+      out.flush();
+      fos.getFD().sync();
+    } finally {
+      fos.close();
+    }
+    if (!tmp.renameTo(file)) {
+      // Some platforms won't rename over an existing file
+      if (!file.delete() || !tmp.renameTo(file)) {
+        throw new IOException("Failed moving " + tmp + " to " + file);
+      }
+    }
+    fullRecords = records;
+    appendedRecords = 0;
+    valid = true;
+  }
+
+  /**
+   * Append the current state of the given keys, an addition for each key still
+   * in the index and a removal for each key that is gone.
+   */
+  void append(Map<BlockCacheKey, BucketEntry> backingMap,
+      Collection<BlockCacheKey> changed,
+      UniqueIndexMap<Integer> deserialiserMap) throws IOException {
+    if (!valid) {
+      throw new IOException("No full checkpoint to append to in " + file);
+    }
+    valid = false;
+    List<BlockCacheKey> removed = new ArrayList<BlockCacheKey>();
+    FileOutputStream fos = new FileOutputStream(file, true);
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+      writeDeserialisers(out, deserialiserMap);
+      ChunkWriter additions = new ChunkWriter(out, ADDITIONS);
+      for (BlockCacheKey key : changed) {
+        BucketEntry entry = backingMap.get(key);
+        if (entry == null) {
+          removed.add(key);
+          continue;
+        }
+        writeAddition(additions.body, key, entry);
+        if (++additions.records == RECORDS_PER_CHUNK) {
+          additions.finish();
+          additions = new ChunkWriter(out, ADDITIONS);
+        }
+      }
+      additions.finish();
+      ChunkWriter removals = new ChunkWriter(out, REMOVALS);
+      for (BlockCacheKey key : removed) {
+        writeKey(removals.body, key);
+        if (++removals.records == RECORDS_PER_CHUNK) {
+          removals.finish();
+          removals = new ChunkWriter(out, REMOVALS);
+        }
+      }
+      removals.finish();
+      out.flush();
+      fos.getFD().sync();
+    } finally {
+      fos.close();
+    }
+    appendedRecords += changed.size();
+    valid = true;
+  }
+
+  /**
+   * Replay the checkpoint. Corrupt chunks and records are skipped and counted,
+   * see {@link #getCorruptChunks()} and {@link #getInvalidRecords()}.
+   * @param entries receives the restored index
+   * @param deserialiserMap receives the deserialiser indexes the entries use
+   * @throws IOException if the file can't be read, or its header is corrupt or
+   *           belongs to a cache of another size or IO engine
+   */
+  void read(Map<BlockCacheKey, BucketEntry> entries,
+      UniqueIndexMap<Integer> deserialiserMap) throws IOException {
+    corruptChunks = 0;
+    invalidRecords = 0;
+    long records = 0;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a bucket cache checkpoint: " + file);
+      }
+      boolean headerSeen = false;
+      while (true) {
+        int length;
+        try {
+          length = in.readInt();
+        } catch (EOFException eof) {
+          break;
+        }
+        if (length <= 0 || length > MAX_CHUNK_SIZE) {
+          LOG.warn("Invalid chunk length " + length + ", ignoring the rest of " + file);
+          corruptChunks++;
+          break;
+        }
+        byte[] payload = new byte[length];
+        long expected;
+        try {
+          in.readFully(payload);
+          expected = in.readLong();
+        } catch (EOFException eof) {
+          LOG.warn("Ignoring truncated chunk at the end of " + file);
+          corruptChunks++;
+          break;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        if (crc.getValue() != expected) {
+          corruptChunks++;
+          if (!headerSeen) {
+            throw new IOException("Corrupt header in bucket cache checkpoint " + file);
+          }
+          continue;
+        }
+        DataInputStream chunk = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = chunk.readByte();
+        if (!headerSeen) {
+          if (type != HEADER) {
+            throw new IOException("Missing header in bucket cache checkpoint " + file);
+          }
+          checkHeader(chunk);
+          headerSeen = true;
+          continue;
+        }
+        int count = chunk.readInt();
+        for (int i = 0; i < count; i++) {
+          switch (type) {
+          case DESERIALISERS:
+            deserialiserMap.restore(chunk.readInt(), chunk.readInt());
+            break;
+          case ADDITIONS:
+            BlockCacheKey key = readKey(chunk);
+            BucketEntry entry = readEntry(chunk);
+            records++;
+            if (key == null || entry == null) {
+              invalidRecords++;
+            } else {
+              entries.put(key, entry);
+            }
+            break;
+          case REMOVALS:
+            key = readKey(chunk);
+            records++;
+            if (key != null) {
+              entries.remove(key);
+            }
+            break;
+          default:
+            throw new IOException("Unknown chunk type " + type + " in " + file);
+          }
+        }
+      }
+    } finally {
+      in.close();
+    }
+    // Appends continue from the restored state, which is what the file holds
+    fullRecords = records;
+    appendedRecords = 0;
+    valid = true;
+  }
+
+  /** @return number of chunks skipped by the last restore */
+  int getCorruptChunks() {
+    return corruptChunks;
+  }
+
+  /** @return number of unreadable records skipped by the last restore */
+  long getInvalidRecords() {
+    return invalidRecords;
+  }
+
+  private void checkHeader(DataInputStream chunk) throws IOException {
+    long capacitySize = chunk.readLong();
+    if (capacitySize != capacity) {
+      throw new IOException("Mismatched cache capacity: " + capacitySize
+          + ", expected: " + capacity);
+    }
+    String ioclass = chunk.readUTF();
+    if (!ioEngineClass.equals(ioclass)) {
+      throw new IOException("Class name for IO engine mismatch: " + ioclass
+          + ", expected: " + ioEngineClass);
+    }
+  }
+
+  private static void writeDeserialisers(DataOutputStream out,
+      UniqueIndexMap<Integer> deserialiserMap) throws IOException {
+    ChunkWriter chunk = new ChunkWriter(out, DESERIALISERS);
+    for (Map.Entry<Integer, Integer> entry : deserialiserMap.mReverseMap.entrySet()) {
+      chunk.body.writeInt(entry.getKey());
+      chunk.body.writeInt(entry.getValue());
+      chunk.records++;
+    }
+    chunk.finish();
+  }
+
+  private static void writeKey(DataOutputStream out, BlockCacheKey key)
+      throws IOException {
+    out.writeUTF(key.getHfileName());
+    out.writeLong(key.getOffset());
+    out.writeShort(key.getDataBlockEncoding().getId());
+  }
+
+  private static void writeAddition(DataOutputStream out, BlockCacheKey key,
+      BucketEntry entry) throws IOException {
+    writeKey(out, key);
+    out.writeLong(entry.offset());
+    out.writeInt(entry.getLength());
+    out.writeByte(entry.deserialiserIndex);
+    out.writeByte(entry.getPriority().ordinal());
+    out.writeLong(entry.getAccessTime());
+    out.writeInt(entry.getChecksum());
+  }
+
+  /** @return the key, or null if its encoding is unknown */
+  private static BlockCacheKey readKey(DataInputStream in) throws IOException {
+    String hfileName = in.readUTF();
+    long offset = in.readLong();
+    short encodingId = in.readShort();
+    try {
+      return new BlockCacheKey(hfileName, offset,
+          DataBlockEncoding.getEncodingById(encodingId), null);
+    } catch (IllegalArgumentException iae) {
+      return null;
+    }
+  }
+
+  /** @return the entry, or null if it can't be valid */
+  private static BucketEntry readEntry(DataInputStream in) throws IOException {
+    long offset = in.readLong();
+    int length = in.readInt();
+    byte deserialiserIndex = in.readByte();
+    int priority = in.readByte();
+    long accessTime = in.readLong();
+    int checksum = in.readInt();
+    if ((offset & 0xFF) != 0 || length <= 0
+        || priority < 0 || priority >= BlockPriority.values().length) {
+      return null;
+    }
+    BlockPriority blockPriority = BlockPriority.values()[priority];
+    BucketEntry entry = new BucketEntry(offset, length, accessTime,
+        blockPriority == BlockPriority.MEMORY);
+    if (blockPriority == BlockPriority.MULTI) {
+      entry.access(accessTime);
+    }
+    entry.deserialiserIndex = deserialiserIndex;
+    entry.setChecksum(checksum);
+    return entry;
+  }
+
+  /**
+   * Buffers the records of one chunk, then writes it out framed by its length
+   * and checksum.
+   */
+  private static class ChunkWriter {
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    final DataOutputStream body = new DataOutputStream(buffer);
+    int records = 0;
+
+    ChunkWriter(DataOutputStream out, byte type) throws IOException {
+      this.out = out;
+      body.writeByte(type);
+      if (type != HEADER) {
+        // Patched with the record count when the chunk is finished
+        body.writeInt(0);
+      }
+    }
+
+    void finish() throws IOException {
+      body.flush();
+      byte[] payload = buffer.toByteArray();
+      if (payload[0] != HEADER) {
+        if (records == 0) {
+          return;
+        }
+        payload[1] = (byte) (records >>> 24);
+        payload[2] = (byte) (records >>> 16);
+        payload[3] = (byte) (records >>> 8);
+        payload[4] = (byte) records;
+      }
+      CRC32 crc = new CRC32();
+      crc.update(payload, 0, payload.length);
+      out.writeInt(payload.length);
+      out.write(payload);
+      out.writeLong(crc.getValue());
+    }
+  }
+}
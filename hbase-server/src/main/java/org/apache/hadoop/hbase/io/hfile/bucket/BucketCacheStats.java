@@ -33,6 +33,12 @@ public class BucketCacheStats extends CacheStats {
   private final AtomicLong ioHitTime = new AtomicLong(0);
   private final static int nanoTime = 1000000;
   private long lastLogTime = EnvironmentEdgeManager.currentTimeMillis();
+  /** Blocks brought back from a checkpoint of the index on startup */
+  private final AtomicLong restoredCount = new AtomicLong(0);
+  /** Checkpointed blocks dropped on startup because their record was invalid */
+  private final AtomicLong discardedCount = new AtomicLong(0);
+  /** Restored blocks whose data didn't match their checksum on first read */
+  private final AtomicLong checksumFailureCount = new AtomicLong(0);
 
   public void ioHit(long time) {
     ioHitCount.incrementAndGet();
@@ -52,6 +58,30 @@ public class BucketCacheStats extends CacheStats {
     return ((float) time / (float) count);
   }
 
+  public void restored(long count) {
+    restoredCount.addAndGet(count);
+  }
+
+  public void discarded(long count) {
+    discardedCount.addAndGet(count);
+  }
+
+  public void checksumFailed() {
+    checksumFailureCount.incrementAndGet();
+  }
+
+  public long getRestoredCount() {
+    return restoredCount.get();
+  }
+
+  public long getDiscardedCount() {
+    return discardedCount.get();
+  }
+
+  public long getChecksumFailureCount() {
+    return checksumFailureCount.get();
+  }
+
   public void reset() {
     ioHitCount.set(0);
     ioHitTime.set(0);
@@ -68,6 +68,22 @@ public class ByteBufferIOEngine implements IOEngine {
         dstBuffer.arrayOffset());
   }
 
+  @Override
+  public ByteBuffer read(long offset, int length) throws IOException {
+    ByteBuffer dstBuffer = ByteBuffer.allocate(length);
+    read(dstBuffer, offset);
+    return dstBuffer;
+  }
+
+  /**
+   * Reads are copied out of the buffer array
+   * @return false
+   */
+  @Override
+  public boolean usesSharedMemory() {
+    return false;
+  }
+
   /**
    * Transfers data from the given byte buffer to the buffer array
    * @param srcBuffer the given byte buffer from which bytes are to be read
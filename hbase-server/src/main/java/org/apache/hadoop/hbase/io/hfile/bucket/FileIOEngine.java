@@ -76,6 +76,23 @@ public class FileIOEngine implements IOEngine {
     fileChannel.read(dstBuffer, offset);
   }
 
+  @Override
+  public ByteBuffer read(long offset, int length) throws IOException {
+    ByteBuffer dstBuffer = ByteBuffer.allocate(length);
+    read(dstBuffer, offset);
+    dstBuffer.rewind();
+    return dstBuffer;
+  }
+
+  /**
+   * Reads are copied out of the file
+   * @return false
+   */
+  @Override
+  public boolean usesSharedMemory() {
+    return false;
+  }
+
   /**
    * Transfers data from the given byte buffer to file
    * @param srcBuffer the given byte buffer from which bytes are to be read
@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * IO engine that stores data in a file on the local file system and accesses
+ * it through memory mappings. The file is mapped in fixed size segments, since
+ * a single mapping cannot exceed 2GB. Reads that fall within one segment are
+ * served as views of the mapping, without a system call or an intermediate
+ * copy; reads spanning two segments are assembled into a new buffer. Like
+ * {@link FileIOEngine}, the data survives a restart, so the cache index can be
+ * persisted and retrieved.
+ */
+@InterfaceAudience.Private
+public class FileMmapIOEngine implements IOEngine {
+  static final Log LOG = LogFactory.getLog(FileMmapIOEngine.class);
+
+  /** Size of each mapped segment */
+  static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+  private final RandomAccessFile raf;
+  private final FileChannel fileChannel;
+  private final MappedByteBuffer[] segments;
+  private final int segmentSize;
+  private final long capacity;
+
+  public FileMmapIOEngine(String filePath, long fileSize) throws IOException {
+    this(filePath, fileSize, DEFAULT_SEGMENT_SIZE);
+  }
+
+  FileMmapIOEngine(String filePath, long fileSize, int segmentSize) throws IOException {
+    this.capacity = fileSize;
+    this.segmentSize = segmentSize;
+    try {
+      raf = new RandomAccessFile(filePath, "rw");
+    } catch (java.io.FileNotFoundException fex) {
+      LOG.error("Can't create bucket cache file " + filePath, fex);
+      throw fex;
+    }
+    try {
+      raf.setLength(fileSize);
+      fileChannel = raf.getChannel();
+      int segmentCount = (int) ((fileSize + segmentSize - 1) / segmentSize);
+      segments = new MappedByteBuffer[segmentCount];
+      for (int i = 0; i < segmentCount; i++) {
+        long position = (long) i * segmentSize;
+        segments[i] = fileChannel.map(FileChannel.MapMode.READ_WRITE, position,
+            Math.min(segmentSize, fileSize - position));
+      }
+      LOG.info("Mapped " + StringUtils.byteDesc(fileSize) + " in " + segmentCount
+          + " segment(s), on the path:" + filePath);
+    } catch (IOException ioex) {
+      LOG.error("Can't map bucket cache file; insufficient space or address space for "
+          + StringUtils.byteDesc(fileSize), ioex);
+      raf.close();
+      throw ioex;
+    }
+  }
+
+  /**
+   * The mapped file survives restarts, so persistent storage is supported
+   * @return true
+   */
+  @Override
+  public boolean isPersistent() {
+    return true;
+  }
+
+  /**
+   * Reads within a segment are views of the mapping
+   * @return true
+   */
+  @Override
+  public boolean usesSharedMemory() {
+    return true;
+  }
+
+  /**
+   * Transfers data from the mapped file to the given byte buffer
+   * @param dstBuffer the given byte buffer into which bytes are to be written
+   * @param offset The offset in the file where the first byte to be read
+   * @throws IOException
+   */
+  @Override
+  public void read(ByteBuffer dstBuffer, long offset) throws IOException {
+    checkRange(offset, dstBuffer.remaining());
+    while (dstBuffer.hasRemaining()) {
+      ByteBuffer segment = segmentAt(offset);
+      int n = Math.min(dstBuffer.remaining(), segment.remaining());
+      segment.limit(segment.position() + n);
+      dstBuffer.put(segment);
+      offset += n;
+    }
+  }
+
+  @Override
+  public ByteBuffer read(long offset, int length) throws IOException {
+    checkRange(offset, length);
+    if (length == 0) {
+      return ByteBuffer.allocate(0);
+    }
+    ByteBuffer segment = segmentAt(offset);
+    if (segment.remaining() >= length) {
+      segment.limit(segment.position() + length);
+      return segment.slice();
+    }
+    ByteBuffer dstBuffer = ByteBuffer.allocate(length);
+    read(dstBuffer, offset);
+    dstBuffer.rewind();
+    return dstBuffer;
+  }
+
+  /**
+   * Transfers data from the given byte buffer to the mapped file
+   * @param srcBuffer the given byte buffer from which bytes are to be read
+   * @param offset The offset in the file where the first byte to be written
+   * @throws IOException
+   */
+  @Override
+  public void write(ByteBuffer srcBuffer, long offset) throws IOException {
+    checkRange(offset, srcBuffer.remaining());
+    while (srcBuffer.hasRemaining()) {
+      ByteBuffer segment = segmentAt(offset);
+      int n = Math.min(srcBuffer.remaining(), segment.remaining());
+      ByteBuffer src = srcBuffer.duplicate();
+      src.limit(src.position() + n);
+      segment.put(src);
+      srcBuffer.position(srcBuffer.position() + n);
+      offset += n;
+    }
+  }
+
+  /**
+   * Flush the mapped segments to the file
+   * @throws IOException
+   */
+  @Override
+  public void sync() throws IOException {
+    for (MappedByteBuffer segment : segments) {
+      segment.force();
+    }
+  }
+
+  /**
+   * Flush and close the file. The mappings stay valid until they are garbage
+   * collected.
+   */
+  @Override
+  public void shutdown() {
+    try {
+      sync();
+      fileChannel.close();
+      raf.close();
+    } catch (IOException ex) {
+      LOG.error("Can't shutdown cleanly", ex);
+    }
+  }
+
+  /**
+   * @return an independent view of the segment holding offset, positioned at
+   *         offset and limited to the end of the segment
+   */
+  private ByteBuffer segmentAt(long offset) {
+    ByteBuffer segment = segments[(int) (offset / segmentSize)].duplicate();
+    segment.position((int) (offset % segmentSize));
+    return segment;
+  }
+
+  private void checkRange(long offset, int length) throws IOException {
+    if (offset < 0 || length < 0 || offset + length > capacity) {
+      throw new IOException("Range [" + offset + ", " + (offset + length)
+          + ") is outside of the cache file of size " + capacity);
+    }
+  }
+}
@@ -43,6 +43,24 @@ public interface IOEngine {
    */
   void read(ByteBuffer dstBuffer, long offset) throws IOException;
 
+  /**
+   * Returns the given range of the IOEngine. Engines that keep their data in
+   * memory may return a view of their storage instead of a copy, see
+   * {@link #usesSharedMemory()}.
+   * @param offset The offset in the IO engine where the first byte to be read
+   * @param length How many bytes to read
+   * @return a buffer positioned at 0 with the requested bytes remaining
+   * @throws IOException
+   */
+  ByteBuffer read(long offset, int length) throws IOException;
+
+  /**
+   * @return true if {@link #read(long, int)} returns views of the engine's own
+   *         storage. Such a view is only valid while the range is not freed and
+   *         rewritten, so callers must copy whatever they keep.
+   */
+  boolean usesSharedMemory();
+
   /**
    * Transfers data from the given byte buffer to IOEngine
    * @param srcBuffer the given byte buffer from which bytes are to be read
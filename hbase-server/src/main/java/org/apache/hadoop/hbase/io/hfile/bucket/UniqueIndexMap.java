@@ -48,6 +48,25 @@ public final class UniqueIndexMap<T> implements Serializable {
     return nexti;
   }
 
+  /**
+   * Re-establish a mapping read back from a persisted index, so that indexes
+   * stored with the restored entries keep their meaning.
+   */
+  void restore(int index, T parameter) {
+    mForwardMap.put(parameter, index);
+    mReverseMap.put(index, parameter);
+    while (true) {
+      int current = mIndex.get();
+      if (current >= index || mIndex.compareAndSet(current, index)) {
+        break;
+      }
+    }
+  }
+
+  boolean contains(int index) {
+    return mReverseMap.containsKey(Integer.valueOf(index));
+  }
+
   T unmap(int leni) {
     Integer len = Integer.valueOf(leni);
     assert mReverseMap.containsKey(len);
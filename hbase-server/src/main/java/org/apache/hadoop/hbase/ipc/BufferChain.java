@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Chain of ByteBuffers making up a response, written out with gathering writes
+ * so the pieces need not be copied into one buffer first.
+ * Not thread safe.
+ */
+@InterfaceAudience.Private
+class BufferChain {
+  private final ByteBuffer[] buffers;
+  private int remaining = 0;
+  /** Index of the first buffer with bytes left to write */
+  private int bufferOffset = 0;
+
+  BufferChain(ByteBuffer... buffers) {
+    this.buffers = buffers;
+    for (ByteBuffer b : buffers) {
+      this.remaining += b.remaining();
+    }
+  }
+
+  BufferChain(List<ByteBuffer> buffers) {
+    this(buffers.toArray(new ByteBuffer[buffers.size()]));
+  }
+
+  boolean hasRemaining() {
+    return remaining > 0;
+  }
+
+  /** @return number of bytes left to write */
+  int remaining() {
+    return remaining;
+  }
+
+  /**
+   * Write as much of the chain as the channel takes, but no more than chunkSize
+   * bytes, so the JDK does not have to allocate a large temporary direct buffer
+   * for the write.
+   * @param channel channel to write to
+   * @param chunkSize most bytes to write in one call
+   * @return number of bytes written
+   * @throws IOException
+   */
+  long write(GatheringByteChannel channel, int chunkSize) throws IOException {
+    int chunkRemaining = chunkSize;
+    ByteBuffer lastBuffer = null;
+    int bufCount = 0;
+    int restoreLimit = -1;
+    while (bufferOffset < buffers.length && !buffers[bufferOffset].hasRemaining()) {
+      bufferOffset++;
+    }
+    while (chunkRemaining > 0 && bufferOffset + bufCount < buffers.length) {
+      lastBuffer = buffers[bufferOffset + bufCount];
+      bufCount++;
+      if (lastBuffer.remaining() > chunkRemaining) {
+        // Only write part of this buffer
+        restoreLimit = lastBuffer.limit();
+        lastBuffer.limit(lastBuffer.position() + chunkRemaining);
+        chunkRemaining = 0;
+      } else {
+        chunkRemaining -= lastBuffer.remaining();
+      }
+    }
+    if (bufCount == 0) {
+      return 0;
+    }
+    try {
+      long written = channel.write(buffers, bufferOffset, bufCount);
+      if (written > 0) {
+        remaining -= written;
+      }
+      return written;
+    } finally {
+      if (restoreLimit >= 0) {
+        lastBuffer.limit(restoreLimit);
+      }
+    }
+  }
+}
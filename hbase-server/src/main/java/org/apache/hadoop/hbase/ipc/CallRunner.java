@@ -43,6 +43,8 @@ public class CallRunner {
   private final RpcServerInterface rpcServer;
   private final MonitoredRPCHandler status;
   private UserProvider userProvider;
+  // When the call should be served, for schedulers ordering their queue by deadline
+  private long deadline;
 
   /**
    * On construction, adds the size of this call to the running count of outstanding call sizes.
@@ -65,6 +67,18 @@ public class CallRunner {
     return call;
   }
 
+  /**
+   * @return when the call should be served, in milliseconds since the epoch; only set
+   * by schedulers ordering their queue by deadline
+   */
+  public long getDeadline() {
+    return deadline;
+  }
+
+  public void setDeadline(long deadline) {
+    this.deadline = deadline;
+  }
+
   public void run() {
     try {
       this.status.setStatus("Setting up call");
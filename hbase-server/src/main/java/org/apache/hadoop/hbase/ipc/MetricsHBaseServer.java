@@ -63,6 +63,24 @@ public class MetricsHBaseServer {
     source.processedCall(processingTime);
   }
 
+  /**
+   * Update the number of calls waiting in one of the call queues of the scheduler.
+   * @param gaugeName name of the gauge of the queue
+   * @param length calls in the queue
+   */
+  void setQueueLength(String gaugeName, int length) {
+    source.setGauge(gaugeName, length);
+  }
+
+  /**
+   * Record the time a call waited in one of the call queues of the scheduler.
+   * @param histogramName name of the histogram of the queue
+   * @param qTime milliseconds the call waited
+   */
+  void dequeuedCall(String histogramName, int qTime) {
+    source.updateHistogram(histogramName, qTime);
+  }
+
   public MetricsHBaseServerSource getMetricsSource() {
     return source;
   }
@@ -0,0 +1,328 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.Action;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.GetRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MultiRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.RegionAction;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanRequest;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.protobuf.Message;
+
+/**
+ * A scheduler that spreads the general requests over several call queues, each served
+ * by its own group of handlers, so that the handlers do not all contend on the lock of
+ * a single queue. Reads, and among the reads the scans, can optionally be given queues
+ * and handlers of their own, so that long scans cannot hold up short gets and puts.
+ * High-priority and replication requests keep their isolated pools, as in
+ * {@link SimpleRpcScheduler}. The general queues are ordered the same way as the general
+ * queue of {@link SimpleRpcScheduler}: in arrival order, or by deadline.
+ * <p>
+ * The number of calls waiting in, and the time spent in, each group of queues is
+ * reported to the metrics of the server.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class MultiQueueRpcScheduler implements RpcScheduler {
+  private static final Log LOG = LogFactory.getLog(MultiQueueRpcScheduler.class);
+
+  /** Number of general call queues per handler */
+  public static final String CALL_QUEUE_HANDLER_FACTOR_KEY =
+      "hbase.ipc.server.callqueue.handler.factor";
+  public static final float CALL_QUEUE_HANDLER_FACTOR_DEFAULT = 0.1f;
+  /** Share of the general queues and handlers dedicated to reads, 0 to not split them */
+  public static final String CALL_QUEUE_READ_RATIO_KEY = "hbase.ipc.server.callqueue.read.ratio";
+  public static final float CALL_QUEUE_READ_RATIO_DEFAULT = 0;
+  /** Share of the read queues and handlers dedicated to scans, 0 to not split them */
+  public static final String CALL_QUEUE_SCAN_RATIO_KEY = "hbase.ipc.server.callqueue.scan.ratio";
+  public static final float CALL_QUEUE_SCAN_RATIO_DEFAULT = 0;
+
+  /**
+   * Call queues served by a dedicated group of handlers.
+   */
+  @VisibleForTesting
+  static class QueueGroup {
+    final String name;
+    final List<BlockingQueue<CallRunner>> queues;
+    final int handlerCount;
+    /** Longest delay of a call, -1 if the queues are in arrival order */
+    final int maxCallDelay;
+    /** Calls waiting in all the queues of the group */
+    final AtomicInteger length = new AtomicInteger();
+    private final AtomicInteger nextQueue = new AtomicInteger();
+    private final String lengthMetric;
+    private final String timeMetric;
+
+    QueueGroup(String name, int queueCount, int handlerCount, int maxQueueLength,
+        int maxCallDelay) {
+      this.name = name;
+      this.handlerCount = handlerCount;
+      this.maxCallDelay = maxCallDelay;
+      this.queues = Lists.newArrayListWithCapacity(queueCount);
+      for (int i = 0; i < queueCount; i++) {
+        this.queues.add(SimpleRpcScheduler.createCallQueue(maxCallDelay, maxQueueLength));
+      }
+      this.lengthMetric = "numCallsIn" + name + "Queue";
+      this.timeMetric = Character.toLowerCase(name.charAt(0)) + name.substring(1) +
+          "QueueCallTime";
+    }
+
+    /** @return the queue the next call goes to; calls are dealt round robin */
+    BlockingQueue<CallRunner> nextQueue() {
+      if (queues.size() == 1) {
+        return queues.get(0);
+      }
+      return queues.get((nextQueue.getAndIncrement() & Integer.MAX_VALUE) % queues.size());
+    }
+
+    @Override
+    public String toString() {
+      return name + " (" + queues.size() + " queues, " + handlerCount + " handlers)";
+    }
+  }
+
+  private int port;
+  private MetricsHBaseServer metrics;
+  private final PriorityFunction priority;
+  /** What level a high priority call is at. */
+  private final int highPriorityLevel;
+  /** Takes all the general requests, or only the writes if reads have their own queues */
+  @VisibleForTesting
+  final QueueGroup writeGroup;
+  /** Reads, or only the gets and multi gets if scans have their own queues; may be null */
+  @VisibleForTesting
+  final QueueGroup readGroup;
+  /** Scans; may be null */
+  @VisibleForTesting
+  final QueueGroup scanGroup;
+  private final QueueGroup priorityGroup;
+  private final QueueGroup replicationGroup;
+  private volatile boolean running = false;
+  private final List<Thread> handlers = Lists.newArrayList();
+
+  /**
+   * @param conf
+   * @param handlerCount the number of handler threads that will be used to process calls
+   * @param priorityHandlerCount How many threads for priority handling.
+   * @param replicationHandlerCount How many threads for replication handling.
+   * @param priority Function to extract request priority.
+   * @param highPriorityLevel
+   */
+  public MultiQueueRpcScheduler(
+      Configuration conf,
+      int handlerCount,
+      int priorityHandlerCount,
+      int replicationHandlerCount,
+      PriorityFunction priority,
+      int highPriorityLevel) {
+    handlerCount = Math.max(1, handlerCount);
+    int maxQueueLength = conf.getInt("ipc.server.max.callqueue.length",
+        handlerCount * RpcServer.DEFAULT_MAX_CALLQUEUE_LENGTH_PER_HANDLER);
+    float handlerFactor = conf.getFloat(CALL_QUEUE_HANDLER_FACTOR_KEY,
+        CALL_QUEUE_HANDLER_FACTOR_DEFAULT);
+    float readRatio = conf.getFloat(CALL_QUEUE_READ_RATIO_KEY, CALL_QUEUE_READ_RATIO_DEFAULT);
+    float scanRatio = conf.getFloat(CALL_QUEUE_SCAN_RATIO_KEY, CALL_QUEUE_SCAN_RATIO_DEFAULT);
+    int maxCallDelay = SimpleRpcScheduler.getMaxCallDelay(conf);
+    this.priority = priority;
+    this.highPriorityLevel = highPriorityLevel;
+
+    int queueCount = clamp(Math.round(handlerCount * handlerFactor), 1, handlerCount);
+    // Each group needs at least one queue, and at least one handler per queue
+    int readQueues = 0;
+    int readHandlers = 0;
+    if (readRatio > 0 && queueCount > 1) {
+      readQueues = clamp(Math.round(queueCount * readRatio), 1, queueCount - 1);
+      readHandlers = clamp(Math.round(handlerCount * readRatio), readQueues,
+          handlerCount - (queueCount - readQueues));
+    }
+    int scanQueues = 0;
+    int scanHandlers = 0;
+    if (scanRatio > 0 && readQueues > 1) {
+      scanQueues = clamp(Math.round(readQueues * scanRatio), 1, readQueues - 1);
+      scanHandlers = clamp(Math.round(readHandlers * scanRatio), scanQueues,
+          readHandlers - (readQueues - scanQueues));
+    }
+
+    this.writeGroup = new QueueGroup(readQueues > 0 ? "Write" : "General",
+        queueCount - readQueues, handlerCount - readHandlers, maxQueueLength, maxCallDelay);
+    this.readGroup = readQueues > 0
+        ? new QueueGroup("Read", readQueues - scanQueues, readHandlers - scanHandlers,
+            maxQueueLength, maxCallDelay)
+        : null;
+    this.scanGroup = scanQueues > 0
+        ? new QueueGroup("Scan", scanQueues, scanHandlers, maxQueueLength, maxCallDelay)
+        : null;
+    this.priorityGroup = priorityHandlerCount > 0
+        ? new QueueGroup("Priority", 1, priorityHandlerCount, maxQueueLength, -1)
+        : null;
+    this.replicationGroup = replicationHandlerCount > 0
+        ? new QueueGroup("Replication", 1, replicationHandlerCount, maxQueueLength, -1)
+        : null;
+    LOG.info("Using " + writeGroup + (readGroup == null ? "" : ", " + readGroup) +
+        (scanGroup == null ? "" : ", " + scanGroup));
+  }
+
+  private static int clamp(int value, int min, int max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  @Override
+  public void init(Context context) {
+    this.port = context.getListenerAddress().getPort();
+    this.metrics = context.getMetrics();
+  }
+
+  @Override
+  public void start() {
+    running = true;
+    startHandlers(writeGroup);
+    if (readGroup != null) {
+      startHandlers(readGroup);
+    }
+    if (scanGroup != null) {
+      startHandlers(scanGroup);
+    }
+    if (priorityGroup != null) {
+      startHandlers(priorityGroup);
+    }
+    if (replicationGroup != null) {
+      startHandlers(replicationGroup);
+    }
+  }
+
+  private void startHandlers(final QueueGroup group) {
+    int queueCount = group.queues.size();
+    for (int i = 0; i < group.handlerCount; i++) {
+      final BlockingQueue<CallRunner> queue = group.queues.get(i % queueCount);
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          consumerLoop(group, queue);
+        }
+      });
+      t.setDaemon(true);
+      t.setName(group.name + ".RpcServer.handler=" + i + ",queue=" + (i % queueCount) +
+          ",port=" + port);
+      t.start();
+      handlers.add(t);
+    }
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+    for (Thread handler : handlers) {
+      handler.interrupt();
+    }
+  }
+
+  @Override
+  public void dispatch(CallRunner callTask) throws InterruptedException {
+    QueueGroup group = getGroup(callTask.getCall());
+    if (group.maxCallDelay >= 0) {
+      SimpleRpcScheduler.setDeadline(callTask, priority, group.maxCallDelay);
+    }
+    group.nextQueue().put(callTask); // queue the call; maybe blocked here
+    int length = group.length.incrementAndGet();
+    if (metrics != null) {
+      metrics.setQueueLength(group.lengthMetric, length);
+    }
+  }
+
+  @VisibleForTesting
+  QueueGroup getGroup(RpcServer.Call call) {
+    int level = priority.getPriority(call.header, call.param);
+    if (priorityGroup != null && level > highPriorityLevel) {
+      return priorityGroup;
+    } else if (replicationGroup != null && level == HConstants.REPLICATION_QOS) {
+      return replicationGroup;
+    } else if (readGroup != null && isReadRequest(call.param)) {
+      return scanGroup != null && call.param instanceof ScanRequest ? scanGroup : readGroup;
+    }
+    return writeGroup;
+  }
+
+  /**
+   * @return true if the request only reads: a get, a scan or a multi without mutations
+   */
+  private static boolean isReadRequest(Message param) {
+    if (param instanceof GetRequest || param instanceof ScanRequest) {
+      return true;
+    }
+    if (param instanceof MultiRequest) {
+      for (RegionAction regionAction : ((MultiRequest) param).getRegionActionList()) {
+        for (Action action : regionAction.getActionList()) {
+          if (action.hasMutation()) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private static int getLength(QueueGroup group) {
+    return group == null ? 0 : group.length.get();
+  }
+
+  @Override
+  public int getGeneralQueueLength() {
+    return getLength(writeGroup) + getLength(readGroup) + getLength(scanGroup);
+  }
+
+  @Override
+  public int getPriorityQueueLength() {
+    return getLength(priorityGroup);
+  }
+
+  @Override
+  public int getReplicationQueueLength() {
+    return getLength(replicationGroup);
+  }
+
+  private void consumerLoop(QueueGroup group, BlockingQueue<CallRunner> myQueue) {
+    while (running) {
+      try {
+        CallRunner task = myQueue.take();
+        int length = group.length.decrementAndGet();
+        if (metrics != null) {
+          metrics.setQueueLength(group.lengthMetric, length);
+          metrics.dequeuedCall(group.timeMetric,
+              (int) (System.currentTimeMillis() - task.getCall().timestamp));
+        }
+        task.run();
+      } catch (InterruptedException e) {
+        Thread.interrupted();
+      }
+    }
+  }
+}
@@ -30,4 +30,14 @@ public interface PriorityFunction {
    * @return Priority of this request.
    */
   int getPriority(RequestHeader header, Message param);
-}
\ No newline at end of file
+
+  /**
+   * Returns how long a request may wait behind others. Schedulers ordering their queue
+   * by deadline serve the requests by receive time plus this delay, so requests with a
+   * longer delay are pushed back behind the short ones, but not starved.
+   * @param header
+   * @param param
+   * @return Delay of this request, in milliseconds; 0 to serve it in arrival order.
+   */
+  long getDeadline(RequestHeader header, Message param);
+}
@@ -33,6 +33,9 @@ public interface RpcScheduler {
   /** Exposes runtime information of a {@code RpcServer} that a {@code RpcScheduler} may need. */
   interface Context {
     InetSocketAddress getListenerAddress();
+
+    /** @return the metrics of the server, to report on the call queues; may be null */
+    MetricsHBaseServer getMetrics();
   }
 
   /**
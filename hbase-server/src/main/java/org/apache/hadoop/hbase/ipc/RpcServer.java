@@ -35,6 +35,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.Channels;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -81,6 +82,7 @@ import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.RequestHeader;
 import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.ResponseHeader;
 import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.UserInformation;
 import org.apache.hadoop.hbase.regionserver.HRegionServer;
+import org.apache.hadoop.hbase.regionserver.MemStoreChunkPool;
 import org.apache.hadoop.hbase.security.AuthMethod;
 import org.apache.hadoop.hbase.security.HBasePolicyProvider;
 import org.apache.hadoop.hbase.security.HBaseSaslRpcServer;
@@ -252,8 +254,17 @@ public class RpcServer implements RpcServerInterface {
 
   private static final ObjectMapper MAPPER = new ObjectMapper();
 
+  /**
+   * Writes of a cell block of at least this many bytes, typically large values, reference the
+   * Cell's array instead of copying it into the response; 0 to always copy.
+   */
+  static final String CELLBLOCK_ZEROCOPY_THRESHOLD_KEY =
+      "hbase.ipc.server.cellblock.zerocopy.threshold";
+  static final int DEFAULT_CELLBLOCK_ZEROCOPY_THRESHOLD = 8 * 1024;
+
   private final int warnResponseTime;
   private final int warnResponseSize;
+  private final int cellBlockZeroCopyThreshold;
   private final Object serverInstance;
   private final List<BlockingServiceAndInterface> services;
 
@@ -276,7 +287,7 @@ public class RpcServer implements RpcServerInterface {
     protected Connection connection;              // connection to client
     protected long timestamp;      // the time received when response is null
                                    // the time served when response is not null
-    protected ByteBuffer response;                // the response for this call
+    protected BufferChain response;               // the response for this call
     protected boolean delayResponse;
     protected Responder responder;
     protected boolean delayReturnValue;           // if the return value should be
@@ -341,14 +352,14 @@ public class RpcServer implements RpcServerInterface {
     }
 
     protected synchronized void setSaslTokenResponse(ByteBuffer response) {
-      this.response = response;
+      this.response = new BufferChain(response);
     }
 
     protected synchronized void setResponse(Object m, final CellScanner cells,
         Throwable t, String errorMsg) {
       if (this.isError) return;
       if (t != null) this.isError = true;
-      ByteBufferOutputStream bbos = null;
+      BufferChain bc = null;
       try {
         ResponseHeader.Builder headerBuilder = ResponseHeader.newBuilder();
         // Presume it a pb Message.  Could be null.
@@ -371,29 +382,43 @@ public class RpcServer implements RpcServerInterface {
           // Set the exception as the result of the method invocation.
           headerBuilder.setException(exceptionBuilder.build());
         }
-        ByteBuffer cellBlock =
-          ipcUtil.buildCellBlock(this.connection.codec, this.connection.compressionCodec, cells);
+        // A response wrapped by SASL is built in one piece, so there is nothing to gain from
+        // referencing rather than copying the cells.
+        List<ByteBuffer> cellBlock = ipcUtil.buildCellBlockBuffers(this.connection.codec,
+          this.connection.compressionCodec, cells,
+          connection.useWrap ? 0 : cellBlockZeroCopyThreshold);
+        int cellBlockSize = 0;
         if (cellBlock != null) {
+          // Presumes the cellBlock bytebuffers have been flipped so remaining is their size.
+          for (ByteBuffer bb : cellBlock) {
+            cellBlockSize += bb.remaining();
+          }
           CellBlockMeta.Builder cellBlockBuilder = CellBlockMeta.newBuilder();
-          // Presumes the cellBlock bytebuffer has been flipped so limit has total size in it.
-          cellBlockBuilder.setLength(cellBlock.limit());
+          cellBlockBuilder.setLength(cellBlockSize);
           headerBuilder.setCellBlockMeta(cellBlockBuilder.build());
         }
         Message header = headerBuilder.build();
-        bbos = IPCUtil.write(header, result, cellBlock);
         if (connection.useWrap) {
+          ByteBufferOutputStream bbos =
+            IPCUtil.write(header, result, cellBlock == null ? null : cellBlock.get(0));
           wrapWithSasl(bbos);
+          // TODO: If SASL, maybe buffer already been flipped and written?
+          ByteBuffer bb = bbos.getByteBuffer();
+          bb.position(0);
+          bc = new BufferChain(bb);
+        } else {
+          // Send the cell block straight after the header, without copying it in behind it
+          ByteBuffer bb = IPCUtil.writeHeaderAndParam(header, result, cellBlockSize).getByteBuffer();
+          List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(1 +
+            (cellBlock == null ? 0 : cellBlock.size()));
+          buffers.add(bb);
+          if (cellBlock != null) buffers.addAll(cellBlock);
+          bc = new BufferChain(buffers);
         }
       } catch (IOException e) {
         LOG.warn("Exception while creating response " + e);
       }
-      ByteBuffer bb = null;
-      if (bbos != null) {
-        // TODO: If SASL, maybe buffer already been flipped and written?
-        bb = bbos.getByteBuffer();
-        bb.position(0);
-      }
-      this.response = bb;
+      this.response = bc;
     }
 
     private void wrapWithSasl(ByteBufferOutputStream response)
@@ -994,7 +1019,7 @@ public class RpcServer implements RpcServerInterface {
           //
           // Send as much data as we can in the non-blocking fashion
           //
-          int numBytes = channelWrite(channel, call.response);
+          long numBytes = channelWrite(channel, call.response);
           if (numBytes < 0) {
             return true;
           }
@@ -1840,6 +1865,15 @@ public class RpcServer implements RpcServerInterface {
     this.warnDelayedCalls = conf.getInt(WARN_DELAYED_CALLS, DEFAULT_WARN_DELAYED_CALLS);
     this.delayedCalls = new AtomicInteger(0);
     this.ipcUtil = new IPCUtil(conf);
+    int zeroCopyThreshold = conf.getInt(CELLBLOCK_ZEROCOPY_THRESHOLD_KEY,
+      DEFAULT_CELLBLOCK_ZEROCOPY_THRESHOLD);
+    if (zeroCopyThreshold > 0 && MemStoreChunkPool.isPoolingEnabled(conf)) {
+      // Pooled memstore chunks are reused after a flush, possibly before a response referencing
+      // them has been sent
+      LOG.info("Copying all cells into responses since the memstore chunk pool is enabled");
+      zeroCopyThreshold = 0;
+    }
+    this.cellBlockZeroCopyThreshold = zeroCopyThreshold;
 
 
     // Create the responder here
@@ -2161,7 +2195,7 @@ public class RpcServer implements RpcServerInterface {
   private static int NIO_BUFFER_LIMIT = 64 * 1024; //should not be more than 64KB.
 
   /**
-   * This is a wrapper around {@link java.nio.channels.WritableByteChannel#write(java.nio.ByteBuffer)}.
+   * This is a wrapper around {@link java.nio.channels.GatheringByteChannel#write(java.nio.ByteBuffer[])}.
    * If the amount of data is large, it writes to channel in smaller chunks.
    * This is to avoid jdk from creating many direct buffers as the size of
    * buffer increases. This also minimizes extra copies in NIO layer
@@ -2169,18 +2203,16 @@ public class RpcServer implements RpcServerInterface {
    * buffer.
    *
    * @param channel writable byte channel to write to
-   * @param buffer buffer to write
+   * @param bufferChain buffers to write
    * @return number of bytes written
    * @throws java.io.IOException e
-   * @see java.nio.channels.WritableByteChannel#write(java.nio.ByteBuffer)
+   * @see java.nio.channels.GatheringByteChannel#write(java.nio.ByteBuffer[])
    */
-  protected int channelWrite(WritableByteChannel channel,
-                                    ByteBuffer buffer) throws IOException {
-
-    int count =  (buffer.remaining() <= NIO_BUFFER_LIMIT) ?
-           channel.write(buffer) : channelIO(null, channel, buffer);
+  protected long channelWrite(GatheringByteChannel channel, BufferChain bufferChain)
+  throws IOException {
+    long count = bufferChain.write(channel, NIO_BUFFER_LIMIT);
     if (count > 0) {
-      metrics.sentBytes(count);
+      metrics.sentBytes((int)count);
     }
     return count;
   }
@@ -2209,9 +2241,8 @@ public class RpcServer implements RpcServerInterface {
   }
 
   /**
-   * Helper for {@link #channelRead(java.nio.channels.ReadableByteChannel, java.nio.ByteBuffer)}
-   * and {@link #channelWrite(java.nio.channels.WritableByteChannel, java.nio.ByteBuffer)}. Only
-   * one of readCh or writeCh should be non-null.
+   * Helper for {@link #channelRead(java.nio.channels.ReadableByteChannel, java.nio.ByteBuffer)}.
+   * Only one of readCh or writeCh should be non-null.
    *
    * @param readCh read channel
    * @param writeCh write channel
@@ -2219,7 +2250,6 @@ public class RpcServer implements RpcServerInterface {
    * @return bytes written
    * @throws java.io.IOException e
    * @see #channelRead(java.nio.channels.ReadableByteChannel, java.nio.ByteBuffer)
-   * @see #channelWrite(java.nio.channels.WritableByteChannel, java.nio.ByteBuffer)
    */
   private static int channelIO(ReadableByteChannel readCh,
                                WritableByteChannel writeCh,
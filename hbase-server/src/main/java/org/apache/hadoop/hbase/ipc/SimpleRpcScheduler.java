@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hbase.ipc;
 
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -25,6 +26,7 @@ import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.util.BoundedPriorityBlockingQueue;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
@@ -36,6 +38,27 @@ import com.google.common.collect.Lists;
 @InterfaceAudience.Private
 @InterfaceStability.Evolving
 public class SimpleRpcScheduler implements RpcScheduler {
+  /** How the general call queue is ordered: "fifo" or "deadline" */
+  public static final String CALL_QUEUE_TYPE_CONF_KEY = "hbase.ipc.server.callqueue.type";
+  public static final String CALL_QUEUE_TYPE_FIFO_CONF_VALUE = "fifo";
+  public static final String CALL_QUEUE_TYPE_DEADLINE_CONF_VALUE = "deadline";
+  /** Longest delay, in milliseconds, a deadline queue gives a call behind newer ones */
+  public static final String QUEUE_MAX_CALL_DELAY_CONF_KEY =
+      "hbase.ipc.server.queue.max.call.delay";
+  public static final int QUEUE_MAX_CALL_DELAY_DEFAULT = 5000;
+
+  /**
+   * Orders calls by deadline, see {@link PriorityFunction#getDeadline}.
+   */
+  static class CallDeadlineComparator implements Comparator<CallRunner> {
+    @Override
+    public int compare(CallRunner a, CallRunner b) {
+      long deadlineA = a.getDeadline();
+      long deadlineB = b.getDeadline();
+      return deadlineA < deadlineB ? -1 : (deadlineA == deadlineB ? 0 : 1);
+    }
+  }
+
 
   private int port;
   private final int handlerCount;
@@ -50,6 +73,8 @@ public class SimpleRpcScheduler implements RpcScheduler {
 
   /** What level a high priority call is at. */
   private final int highPriorityLevel;
+  /** Longest delay of a general call, -1 if the general queue is in arrival order. */
+  private final int maxCallDelay;
 
   /**
    * @param conf
@@ -73,7 +98,8 @@ public class SimpleRpcScheduler implements RpcScheduler {
     this.replicationHandlerCount = replicationHandlerCount;
     this.priority = priority;
     this.highPriorityLevel = highPriorityLevel;
-    this.callQueue = new LinkedBlockingQueue<CallRunner>(maxQueueLength);
+    this.maxCallDelay = getMaxCallDelay(conf);
+    this.callQueue = createCallQueue(maxCallDelay, maxQueueLength);
     this.priorityCallQueue = priorityHandlerCount > 0
         ? new LinkedBlockingQueue<CallRunner>(maxQueueLength)
         : null;
@@ -82,6 +108,39 @@ public class SimpleRpcScheduler implements RpcScheduler {
         : null;
   }
 
+  /**
+   * @return the longest delay a call may get, -1 if the call queue type is not deadline
+   */
+  static int getMaxCallDelay(Configuration conf) {
+    String type = conf.get(CALL_QUEUE_TYPE_CONF_KEY, CALL_QUEUE_TYPE_FIFO_CONF_VALUE);
+    if (CALL_QUEUE_TYPE_DEADLINE_CONF_VALUE.equals(type)) {
+      return Math.max(0, conf.getInt(QUEUE_MAX_CALL_DELAY_CONF_KEY, QUEUE_MAX_CALL_DELAY_DEFAULT));
+    }
+    return -1;
+  }
+
+  /**
+   * @param maxCallDelay longest delay of a call, -1 for a queue in arrival order
+   * @return a general call queue
+   */
+  static BlockingQueue<CallRunner> createCallQueue(int maxCallDelay, int maxQueueLength) {
+    if (maxCallDelay < 0) {
+      return new LinkedBlockingQueue<CallRunner>(maxQueueLength);
+    }
+    return new BoundedPriorityBlockingQueue<CallRunner>(maxQueueLength,
+        new CallDeadlineComparator());
+  }
+
+  /**
+   * Set the deadline of a call from its receive time and the delay the priority function
+   * gives it, bounded so that no call is starved.
+   */
+  static void setDeadline(CallRunner callTask, PriorityFunction priority, int maxCallDelay) {
+    RpcServer.Call call = callTask.getCall();
+    long delay = Math.min(maxCallDelay, priority.getDeadline(call.header, call.param));
+    callTask.setDeadline(call.timestamp + Math.max(0, delay));
+  }
+
   @Override
   public void init(Context context) {
     this.port = context.getListenerAddress().getPort();
@@ -134,6 +193,9 @@ public class SimpleRpcScheduler implements RpcScheduler {
     } else if (replicationQueue != null && level == HConstants.REPLICATION_QOS) {
       replicationQueue.put(callTask);
     } else {
+      if (maxCallDelay >= 0) {
+        setDeadline(callTask, priority, maxCallDelay);
+      }
       callQueue.put(callTask); // queue the call; maybe blocked here
     }
   }
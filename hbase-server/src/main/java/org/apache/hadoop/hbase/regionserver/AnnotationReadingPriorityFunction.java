@@ -23,6 +23,7 @@ import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.NotServingRegionException;
 import org.apache.hadoop.hbase.ipc.PriorityFunction;
@@ -69,6 +70,9 @@ import com.google.protobuf.TextFormat;
 class AnnotationReadingPriorityFunction implements PriorityFunction {
   public static final Log LOG =
     LogFactory.getLog(AnnotationReadingPriorityFunction.class.getName());
+  /** Weight of the next calls already served by a scanner in the deadline of its next one */
+  public static final String SCAN_VTIME_WEIGHT_CONF_KEY = "hbase.ipc.server.scan.vtime.weight";
+  private final float scanVirtualTimeWeight;
   private final Map<String, Integer> annotatedQos;
   //We need to mock the regionserver instance for some unit tests (set via
   //setRegionServer method.
@@ -94,6 +98,9 @@ class AnnotationReadingPriorityFunction implements PriorityFunction {
 
   AnnotationReadingPriorityFunction(final HRegionServer hrs) {
     this.hRegionServer = hrs;
+    Configuration conf = hrs.getConfiguration();
+    this.scanVirtualTimeWeight =
+        conf == null ? 1.0f : conf.getFloat(SCAN_VTIME_WEIGHT_CONF_KEY, 1.0f);
     Map<String, Integer> qosMap = new HashMap<String, Integer>();
     for (Method m : HRegionServer.class.getMethods()) {
       QosPriority p = m.getAnnotation(QosPriority.class);
@@ -199,6 +206,24 @@ class AnnotationReadingPriorityFunction implements PriorityFunction {
     return HConstants.NORMAL_QOS;
   }
 
+  /**
+   * Based on the number of next calls the scanner already served: the longer a scan, the
+   * further back its next calls go. The square root keeps long scans progressing.
+   * Other requests are served in arrival order.
+   */
+  @Override
+  public long getDeadline(RequestHeader header, Message param) {
+    if (param instanceof ScanRequest) {
+      ScanRequest request = (ScanRequest)param;
+      if (!request.hasScannerId()) {
+        return 0;
+      }
+      long vtime = hRegionServer.getScannerNextCount(request.getScannerId());
+      return Math.round(Math.sqrt(vtime * scanVirtualTimeWeight));
+    }
+    return 0;
+  }
+
   @VisibleForTesting
   void setRegionServer(final HRegionServer hrs) {
     this.hRegionServer = hrs;
@@ -40,6 +40,8 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.RemoteExceptionHandler;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionContext;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequest;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionThroughputController;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionThroughputControllerFactory;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.util.StringUtils;
@@ -61,6 +63,9 @@ public class CompactSplitThread implements CompactionRequestor {
   private final ThreadPoolExecutor splits;
   private final ThreadPoolExecutor mergePool;
 
+  private final CompactionThroughputController compactionThroughputController;
+  private final CompactionOffloader compactionOffloader;
+
   /**
    * Splitting should not take place if the total number of regions exceed this.
    * This is not a hard limit to the number of regions but it is a guideline to
@@ -68,8 +73,11 @@ public class CompactSplitThread implements CompactionRequestor {
    */
   private int regionSplitLimit;
 
-  /** @param server */
-  CompactSplitThread(HRegionServer server) {
+  /**
+   * @param server
+   * @throws IOException if the directory to offload compactions to is not usable
+   */
+  CompactSplitThread(HRegionServer server) throws IOException {
     super();
     this.server = server;
     this.conf = server.getConfiguration();
@@ -131,6 +139,12 @@ public class CompactSplitThread implements CompactionRequestor {
             return t;
           }
         });
+
+    // compaction throughput controller
+    this.compactionThroughputController =
+        CompactionThroughputControllerFactory.create(server, conf);
+    // null unless compactions are offloaded to compaction workers
+    this.compactionOffloader = CompactionOffloader.create(conf);
   }
 
   @Override
@@ -347,6 +361,8 @@ public class CompactSplitThread implements CompactionRequestor {
     mergePool.shutdown();
     largeCompactions.shutdown();
     smallCompactions.shutdown();
+    // let running compactions finish without throttling
+    compactionThroughputController.stop("Region server is stopping");
   }
 
   private void waitFor(ThreadPoolExecutor t, String name) {
@@ -390,6 +406,10 @@ public class CompactSplitThread implements CompactionRequestor {
     return smallCompactions.getQueue().size();
   }
 
+  public CompactionThroughputController getCompactionThroughputController() {
+    return compactionThroughputController;
+  }
+
 
   private boolean shouldSplitRegion() {
     return (regionSplitLimit > server.getNumberOfOnlineRegions());
@@ -467,6 +487,8 @@ public class CompactSplitThread implements CompactionRequestor {
       // Finally we can compact something.
       assert this.compaction != null;
 
+      this.compaction.getRequest().setThroughputController(compactionThroughputController);
+      this.compaction.getRequest().setOffloader(compactionOffloader);
       this.compaction.getRequest().beforeExecute();
       try {
         // Note: please don't put single-compaction logic here;
@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequest;
+import org.apache.hadoop.hbase.regionserver.compactions.DefaultCompactor;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Compaction worker process for the compactions offloaded by region servers, see
+ * {@link CompactionOffloader}. It polls the tasks directory, claims tasks, and compacts
+ * the store files of each task with the default compactor, opening the store like the
+ * {@link CompactionTool} does, into the output directory of the task. Run as many workers
+ * as needed, on nodes other than the region servers; each task is claimed by one of them.
+ */
+@InterfaceAudience.Public
+public class CompactionOffloadWorker extends Configured implements Tool {
+  private static final Log LOG = LogFactory.getLog(CompactionOffloadWorker.class);
+
+  private volatile boolean stopped = false;
+
+  /**
+   * Claims and runs the pending compaction tasks, one at a time.
+   * @return The number of tasks claimed
+   */
+  int runPendingTasks() throws IOException {
+    Path offloadDir = CompactionOffloader.getOffloadDir(getConf());
+    FileSystem fs = offloadDir.getFileSystem(getConf());
+    Path tasksDir = new Path(offloadDir, CompactionOffloader.TASKS_DIR);
+    FileStatus[] tasks = FSUtils.listStatus(fs, tasksDir, new PathFilter() {
+      @Override
+      public boolean accept(Path path) {
+        return path.getName().endsWith(CompactionOffloader.TASK_SUFFIX);
+      }
+    });
+    if (tasks == null) {
+      return 0;
+    }
+    int count = 0;
+    for (FileStatus status : tasks) {
+      if (stopped) {
+        break;
+      }
+      String name = status.getPath().getName();
+      String taskId = name.substring(0, name.length() - CompactionOffloader.TASK_SUFFIX.length());
+      Path claimedFile = new Path(tasksDir, taskId + CompactionOffloader.CLAIMED_SUFFIX);
+      if (!fs.rename(status.getPath(), claimedFile)) {
+        // claimed by another worker, or given up by the region server
+        continue;
+      }
+      runTask(fs, offloadDir, taskId, claimedFile);
+      count++;
+    }
+    return count;
+  }
+
+  private void runTask(final FileSystem fs, final Path offloadDir, final String taskId,
+      final Path claimedFile) {
+    Path tasksDir = new Path(offloadDir, CompactionOffloader.TASKS_DIR);
+    Path outputDir = new Path(new Path(offloadDir, CompactionOffloader.OUTPUT_DIR), taskId);
+    try {
+      CompactionOffloader.Task task = new CompactionOffloader.Task();
+      FSDataInputStream in = fs.open(claimedFile);
+      try {
+        task.readFields(in);
+      } finally {
+        in.close();
+      }
+      LOG.info("Running compaction task " + taskId + " of " + task.files.size()
+          + " file(s) in " + task.hri.getRegionNameAsString() + "/" + task.family);
+      StringBuilder outputs = new StringBuilder();
+      for (Path output : compact(fs, task, outputDir)) {
+        outputs.append(output.getName()).append('\n');
+      }
+      // the region server removes the tasks it does not wait for anymore
+      if (!fs.exists(claimedFile)) {
+        LOG.warn("Compaction task " + taskId + " was abandoned by the region server");
+        CompactionOffloader.deleteQuietly(fs, outputDir);
+        return;
+      }
+      CompactionOffloader.writeAtomically(fs,
+          new Path(tasksDir, taskId + CompactionOffloader.DONE_SUFFIX), outputs.toString());
+      LOG.info("Completed compaction task " + taskId);
+    } catch (IOException e) {
+      LOG.error("Compaction task " + taskId + " failed", e);
+      CompactionOffloader.deleteQuietly(fs, outputDir);
+      try {
+        CompactionOffloader.writeAtomically(fs,
+            new Path(tasksDir, taskId + CompactionOffloader.FAILED_SUFFIX),
+            StringUtils.stringifyException(e));
+      } catch (IOException ex) {
+        LOG.error("Failed to report the failure of compaction task " + taskId, ex);
+      }
+    }
+  }
+
+  private List<Path> compact(final FileSystem fs, final CompactionOffloader.Task task,
+      final Path outputDir) throws IOException {
+    HStore store = CompactionTool.getStore(getConf(), fs, task.tableDir, task.htd, task.hri,
+        task.family, outputDir);
+    try {
+      List<StoreFile> files = new ArrayList<StoreFile>(task.files.size());
+      for (String name : task.files) {
+        StoreFile file = null;
+        for (StoreFile storeFile : store.getStorefiles()) {
+          if (storeFile.getPath().getName().equals(name)) {
+            file = storeFile;
+            break;
+          }
+        }
+        if (file == null) {
+          throw new FileNotFoundException("Store file " + name + " not found in " + store);
+        }
+        files.add(file);
+      }
+      CompactionRequest request = new CompactionRequest(files);
+      request.setIsMajor(task.major);
+      return new DefaultCompactor(getConf(), store).compact(request);
+    } finally {
+      store.close();
+    }
+  }
+
+  /**
+   * Removes what the tasks given up by their region server left behind, see
+   * {@link CompactionOffloader#cleanOrphans}.
+   */
+  private void cleanOrphans() {
+    Path offloadDir = CompactionOffloader.getOffloadDir(getConf());
+    try {
+      int count = CompactionOffloader.cleanOrphans(offloadDir.getFileSystem(getConf()),
+          offloadDir, getConf().getLong(CompactionOffloader.TIMEOUT_KEY,
+              CompactionOffloader.DEFAULT_TIMEOUT), CompactionOffloader.ORPHAN_MIN_AGE);
+      if (count > 0) {
+        LOG.info("Removed " + count + " file(s) of abandoned compaction tasks");
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to clean up abandoned compaction tasks in " + offloadDir, e);
+    }
+  }
+
+  /** Stops the worker after the running task. */
+  public void stop() {
+    this.stopped = true;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    boolean once = false;
+    for (String arg : args) {
+      if (arg.equals("-once")) {
+        once = true;
+      } else {
+        printUsage();
+        return 1;
+      }
+    }
+    long pollInterval = getConf().getLong(CompactionOffloader.POLL_INTERVAL_KEY, 1000);
+    long cleanerInterval = getConf().getLong(CompactionOffloader.CLEANER_INTERVAL_KEY,
+        CompactionOffloader.DEFAULT_CLEANER_INTERVAL);
+    long nextClean = 0;
+    while (!stopped) {
+      if (EnvironmentEdgeManager.currentTimeMillis() >= nextClean) {
+        cleanOrphans();
+        nextClean = EnvironmentEdgeManager.currentTimeMillis() + cleanerInterval;
+      }
+      int count = runPendingTasks();
+      if (once) {
+        break;
+      }
+      if (count == 0) {
+        Thread.sleep(pollInterval);
+      }
+    }
+    return 0;
+  }
+
+  private void printUsage() {
+    System.err.println("Usage: java " + this.getClass().getName()
+        + " [-once] [-D<property=value>]*");
+    System.err.println();
+    System.err.println("Options:");
+    System.err.println(" once           Run the pending tasks and exit. (default: keep polling)");
+    System.err.println();
+    System.err.println("The worker uses the directory in " + CompactionOffloader.OFFLOAD_DIR_KEY
+        + ", or " + CompactionOffloader.DEFAULT_OFFLOAD_DIR_NAME + " under the HBase root dir.");
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(HBaseConfiguration.create(), new CompactionOffloadWorker(), args));
+  }
+}
@@ -0,0 +1,415 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.exceptions.DeserializationException;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequest;
+import org.apache.hadoop.hbase.regionserver.compactions.OffPeakHours;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Hands compactions of the region server to external compaction workers, see
+ * {@link CompactionOffloadWorker}, through a directory of the HBase file system.
+ * <p/>
+ * The region server writes a task file describing the store and the files to compact to
+ * the tasks directory. A worker claims the task by renaming it, compacts the files into the
+ * output directory of the task and marks it done, or failed. The region server waits for the
+ * task, checks the output files and moves them into the temporary directory of the region;
+ * the store then commits them as if it had compacted the files itself. When the task fails or
+ * no worker finishes it in time, the region server does the compaction itself.
+ * <p/>
+ * Only compactions of the default store engine without coprocessors are offloaded, since
+ * the worker uses the default compactor and does not run compaction hooks. The offload
+ * directory has to be on the file system of the HBase root directory, for the output files
+ * to be renamed into the regions.
+ * <p/>
+ * What a task leaves behind when its region server gives up on it while a worker is
+ * finishing it, or dies, is removed by {@link #cleanOrphans}, when a region server starts
+ * and periodically by the workers.
+ */
+@InterfaceAudience.Private
+public class CompactionOffloader {
+  private static final Log LOG = LogFactory.getLog(CompactionOffloader.class);
+
+  public static final String OFFLOAD_ENABLED_KEY = "hbase.regionserver.compaction.offload.enabled";
+  /** Directory shared with the compaction workers, on the HBase file system. */
+  public static final String OFFLOAD_DIR_KEY = "hbase.regionserver.compaction.offload.dir";
+  public static final String DEFAULT_OFFLOAD_DIR_NAME = ".compaction-offload";
+  /** Minimum total size of the files of a compaction to offload it. */
+  public static final String MIN_SIZE_KEY = "hbase.regionserver.compaction.offload.min.size";
+  public static final long DEFAULT_MIN_SIZE = 128L * 1024 * 1024;
+  /** Whether to keep compactions on the region server during off peak hours. */
+  public static final String PEAK_ONLY_KEY = "hbase.regionserver.compaction.offload.peak.only";
+  /** Time to wait for a worker to finish a compaction before doing it locally. */
+  public static final String TIMEOUT_KEY = "hbase.regionserver.compaction.offload.timeout";
+  public static final long DEFAULT_TIMEOUT = 60L * 60 * 1000;
+  public static final String POLL_INTERVAL_KEY =
+      "hbase.regionserver.compaction.offload.poll.interval";
+  /** Time between two removals of abandoned task files by a compaction worker. */
+  public static final String CLEANER_INTERVAL_KEY =
+      "hbase.regionserver.compaction.offload.cleaner.interval";
+  public static final long DEFAULT_CLEANER_INTERVAL = 10L * 60 * 1000;
+  /** Age under which a file without a task may still be being written, and is kept. */
+  static final long ORPHAN_MIN_AGE = 60L * 1000;
+
+  static final String TASKS_DIR = "tasks";
+  static final String OUTPUT_DIR = "output";
+  static final String TASK_SUFFIX = ".task";
+  static final String CLAIMED_SUFFIX = ".claimed";
+  static final String DONE_SUFFIX = ".done";
+  static final String FAILED_SUFFIX = ".failed";
+  static final String TMP_SUFFIX = ".tmp";
+
+  private final Configuration conf;
+  private final Path offloadDir;
+  private final long minSize;
+  private final boolean peakOnly;
+  private final OffPeakHours offPeakHours;
+  private final long timeout;
+  private final long pollInterval;
+
+  CompactionOffloader(final Configuration conf) {
+    this.conf = conf;
+    this.offloadDir = getOffloadDir(conf);
+    this.minSize = conf.getLong(MIN_SIZE_KEY, DEFAULT_MIN_SIZE);
+    this.peakOnly = conf.getBoolean(PEAK_ONLY_KEY, true);
+    this.offPeakHours = OffPeakHours.getInstance(conf);
+    this.timeout = conf.getLong(TIMEOUT_KEY, DEFAULT_TIMEOUT);
+    this.pollInterval = conf.getLong(POLL_INTERVAL_KEY, 1000);
+  }
+
+  /**
+   * @return The offloader, or null if compactions are not offloaded
+   */
+  public static CompactionOffloader create(final Configuration conf) throws IOException {
+    if (!conf.getBoolean(OFFLOAD_ENABLED_KEY, false)) {
+      return null;
+    }
+    CompactionOffloader offloader = new CompactionOffloader(conf);
+    FileSystem fs = offloader.offloadDir.getFileSystem(conf);
+    FileSystem rootFs = FSUtils.getCurrentFileSystem(conf);
+    if (!fs.getUri().equals(rootFs.getUri())) {
+      // renames between file systems fail, the outputs could never be moved to the regions
+      throw new IllegalArgumentException(OFFLOAD_DIR_KEY + " " + offloader.offloadDir
+          + " is not on the file system of the HBase root dir, " + rootFs.getUri());
+    }
+    try {
+      cleanOrphans(fs, offloader.offloadDir, offloader.timeout, ORPHAN_MIN_AGE);
+    } catch (IOException e) {
+      LOG.warn("Failed to clean up abandoned compaction tasks in " + offloader.offloadDir, e);
+    }
+    LOG.info("Offloading compactions of at least " + StringUtils.humanReadableInt(
+        offloader.minSize) + " through " + offloader.offloadDir
+        + (offloader.peakOnly ? " outside off peak hours" : ""));
+    return offloader;
+  }
+
+  static Path getOffloadDir(final Configuration conf) {
+    String dir = conf.get(OFFLOAD_DIR_KEY);
+    return dir != null ? new Path(dir)
+        : new Path(conf.get(HConstants.HBASE_DIR), DEFAULT_OFFLOAD_DIR_NAME);
+  }
+
+  /**
+   * @return Whether the compaction should be handed to a compaction worker
+   */
+  boolean shouldOffload(final HStore store, final CompactionRequest request) {
+    return request.getSize() >= minSize
+        && !(peakOnly && offPeakHours.isOffPeakHour())
+        && store.storeEngine instanceof DefaultStoreEngine
+        && (store.getCoprocessorHost() == null
+            || store.getCoprocessorHost().getCoprocessors().isEmpty());
+  }
+
+  /**
+   * Has a compaction worker compact the files of the request.
+   * @return The compacted files, in the temporary directory of the region; null if the
+   *         compaction has to be done locally
+   * @throws InterruptedIOException if the store is closed or the thread interrupted while
+   *         waiting for the worker
+   */
+  List<Path> compact(final HStore store, final CompactionRequest request) throws IOException {
+    FileSystem fs = offloadDir.getFileSystem(conf);
+    Task task = new Task(store.getRegionFileSystem().getTableDir(),
+        store.getHRegion().getTableDesc(), store.getRegionInfo(), store.getColumnFamilyName(),
+        request.isMajor());
+    long maxSeqId = 0;
+    for (StoreFile file : request.getFiles()) {
+      task.files.add(file.getPath().getName());
+      maxSeqId = Math.max(maxSeqId, file.getMaxSequenceId());
+    }
+
+    String taskId = UUID.randomUUID().toString().replaceAll("-", "");
+    Path tasksDir = new Path(offloadDir, TASKS_DIR);
+    Path outputDir = new Path(new Path(offloadDir, OUTPUT_DIR), taskId);
+    Path doneFile = new Path(tasksDir, taskId + DONE_SUFFIX);
+    Path failedFile = new Path(tasksDir, taskId + FAILED_SUFFIX);
+    try {
+      writeAtomically(fs, new Path(tasksDir, taskId + TASK_SUFFIX), task);
+      LOG.info("Offloaded compaction of " + request.getFiles().size() + " file(s) in " + store
+          + " of " + store.getRegionInfo().getRegionNameAsString() + " as task " + taskId);
+      long deadline = EnvironmentEdgeManager.currentTimeMillis() + timeout;
+      while (!fs.exists(doneFile)) {
+        if (fs.exists(failedFile)) {
+          LOG.warn("Compaction task " + taskId + " failed: " + readString(fs, failedFile)
+              + ", compacting locally");
+          return null;
+        }
+        if (EnvironmentEdgeManager.currentTimeMillis() > deadline) {
+          LOG.warn("Compaction task " + taskId + " did not finish in " + timeout
+              + " ms, compacting locally");
+          return null;
+        }
+        if (!store.areWritesEnabled()) {
+          throw new InterruptedIOException("Aborting compaction of store " + store
+              + " in region " + store.getRegionInfo().getRegionNameAsString()
+              + " because it was interrupted.");
+        }
+        try {
+          Thread.sleep(pollInterval);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException("Interrupted while waiting for compaction task "
+              + taskId);
+        }
+      }
+
+      List<Path> newFiles = new ArrayList<Path>();
+      for (String name : readString(fs, doneFile).split("\n")) {
+        if (name.isEmpty()) {
+          continue;
+        }
+        Path output = new Path(outputDir, name);
+        validateOutput(store, output, maxSeqId, request.isMajor());
+        Path tmpPath = store.getRegionFileSystem().createTempName();
+        if (!fs.exists(tmpPath.getParent())) {
+          fs.mkdirs(tmpPath.getParent());
+        }
+        if (!fs.rename(output, tmpPath)) {
+          throw new IOException("Failed rename of " + output + " to " + tmpPath);
+        }
+        newFiles.add(tmpPath);
+      }
+      return newFiles;
+    } finally {
+      deleteQuietly(fs, new Path(tasksDir, taskId + TASK_SUFFIX));
+      deleteQuietly(fs, new Path(tasksDir, taskId + CLAIMED_SUFFIX));
+      deleteQuietly(fs, doneFile);
+      deleteQuietly(fs, failedFile);
+      deleteQuietly(fs, outputDir);
+    }
+  }
+
+  /**
+   * Removes the files of the tasks no region server waits for anymore: the done and failed
+   * markers and the output directories of tasks without a task or claim file, and the task
+   * and claim files older than the timeout, after which their region server gave up on them.
+   * @param timeout the time a region server waits for a task
+   * @param minAge files younger than this are kept, they may be being written
+   * @return The number of files and directories removed
+   */
+  static int cleanOrphans(final FileSystem fs, final Path offloadDir, final long timeout,
+      final long minAge) throws IOException {
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    Set<String> liveTasks = new HashSet<String>();
+    List<FileStatus> candidates = new ArrayList<FileStatus>();
+    FileStatus[] taskFiles = FSUtils.listStatus(fs, new Path(offloadDir, TASKS_DIR));
+    if (taskFiles != null) {
+      for (FileStatus status : taskFiles) {
+        String name = status.getPath().getName();
+        long age = now - status.getModificationTime();
+        if ((name.endsWith(TASK_SUFFIX) || name.endsWith(CLAIMED_SUFFIX)) && age <= timeout) {
+          liveTasks.add(getTaskId(name));
+        } else if (age >= minAge) {
+          candidates.add(status);
+        }
+      }
+    }
+    FileStatus[] outputDirs = FSUtils.listStatus(fs, new Path(offloadDir, OUTPUT_DIR));
+    if (outputDirs != null) {
+      for (FileStatus status : outputDirs) {
+        if (now - status.getModificationTime() >= minAge) {
+          candidates.add(status);
+        }
+      }
+    }
+    int count = 0;
+    for (FileStatus status : candidates) {
+      if (!liveTasks.contains(getTaskId(status.getPath().getName()))) {
+        LOG.info("Removing " + status.getPath() + " of an abandoned compaction task");
+        deleteQuietly(fs, status.getPath());
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static String getTaskId(final String name) {
+    int index = name.indexOf('.');
+    return index < 0 ? name : name.substring(0, index);
+  }
+
+  /**
+   * Checks that an output file of a worker is a readable store file with the metadata of the
+   * compaction of the requested files.
+   */
+  private void validateOutput(final HStore store, final Path path, final long maxSeqId,
+      final boolean major) throws IOException {
+    StoreFile file = new StoreFile(store.getFileSystem(), path, conf, store.getCacheConfig(),
+        store.getFamily().getBloomFilterType());
+    try {
+      file.createReader();
+      if (file.getMaxSequenceId() != maxSeqId || file.isMajorCompaction() != major) {
+        throw new IOException("Compaction output " + path + " has max sequence id "
+            + file.getMaxSequenceId() + " and major compaction " + file.isMajorCompaction()
+            + ", expected " + maxSeqId + " and " + major);
+      }
+    } finally {
+      file.closeReader(false);
+    }
+  }
+
+  static void writeAtomically(final FileSystem fs, final Path path, final Writable content)
+      throws IOException {
+    Path tmpPath = path.suffix(TMP_SUFFIX);
+    FSDataOutputStream out = fs.create(tmpPath, true);
+    try {
+      content.write(out);
+    } finally {
+      out.close();
+    }
+    if (!fs.rename(tmpPath, path)) {
+      fs.delete(tmpPath, false);
+      throw new IOException("Failed rename of " + tmpPath + " to " + path);
+    }
+  }
+
+  static void writeAtomically(final FileSystem fs, final Path path, final String content)
+      throws IOException {
+    writeAtomically(fs, path, new Writable() {
+      @Override
+      public void write(DataOutput out) throws IOException {
+        out.write(Bytes.toBytes(content));
+      }
+
+      @Override
+      public void readFields(DataInput in) throws IOException {
+        throw new UnsupportedOperationException();
+      }
+    });
+  }
+
+  static String readString(final FileSystem fs, final Path path) throws IOException {
+    FSDataInputStream in = fs.open(path);
+    try {
+      byte[] content = new byte[(int) fs.getFileStatus(path).getLen()];
+      in.readFully(content);
+      return Bytes.toString(content);
+    } finally {
+      in.close();
+    }
+  }
+
+  static void deleteQuietly(final FileSystem fs, final Path path) {
+    try {
+      fs.delete(path, true);
+    } catch (IOException e) {
+      LOG.warn("Failed to delete " + path, e);
+    }
+  }
+
+  /**
+   * A compaction for a worker: the store, as the table directory, table descriptor, region
+   * info and family name, and the names of the store files to compact.
+   */
+  static class Task implements Writable {
+    Path tableDir;
+    HTableDescriptor htd;
+    HRegionInfo hri;
+    String family;
+    boolean major;
+    List<String> files = new ArrayList<String>();
+
+    Task() {
+    }
+
+    Task(Path tableDir, HTableDescriptor htd, HRegionInfo hri, String family, boolean major) {
+      this.tableDir = tableDir;
+      this.htd = htd;
+      this.hri = hri;
+      this.family = family;
+      this.major = major;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeUTF(tableDir.toString());
+      Bytes.writeByteArray(out, htd.toByteArray());
+      Bytes.writeByteArray(out, hri.toByteArray());
+      out.writeUTF(family);
+      out.writeBoolean(major);
+      out.writeInt(files.size());
+      for (String file : files) {
+        out.writeUTF(file);
+      }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      tableDir = new Path(in.readUTF());
+      try {
+        htd = HTableDescriptor.parseFrom(Bytes.readByteArray(in));
+        hri = HRegionInfo.parseFrom(Bytes.readByteArray(in));
+      } catch (DeserializationException e) {
+        throw new IOException(e);
+      }
+      family = in.readUTF();
+      major = in.readBoolean();
+      int count = in.readInt();
+      files = new ArrayList<String>(count);
+      for (int i = 0; i < count; i++) {
+        files.add(in.readUTF());
+      }
+    }
+  }
+}
@@ -172,23 +172,23 @@ public class CompactionTool extends Configured implements Tool {
         }
       } while (store.needsCompaction() && !compactOnce);
     }
+  }
 
-    /**
-     * Create a "mock" HStore that uses the tmpDir specified by the user and
-     * the store dir to compact as source.
-     */
-    private static HStore getStore(final Configuration conf, final FileSystem fs,
-        final Path tableDir, final HTableDescriptor htd, final HRegionInfo hri,
-        final String familyName, final Path tempDir) throws IOException {
-      HRegionFileSystem regionFs = new HRegionFileSystem(conf, fs, tableDir, hri) {
-        @Override
-        public Path getTempDir() {
-          return tempDir;
-        }
-      };
-      HRegion region = new HRegion(regionFs, null, conf, htd, null);
-      return new HStore(region, htd.getFamily(Bytes.toBytes(familyName)), conf);
-    }
+  /**
+   * Create a "mock" HStore that uses the tmpDir specified by the user and
+   * the store dir to compact as source.
+   */
+  static HStore getStore(final Configuration conf, final FileSystem fs,
+      final Path tableDir, final HTableDescriptor htd, final HRegionInfo hri,
+      final String familyName, final Path tempDir) throws IOException {
+    HRegionFileSystem regionFs = new HRegionFileSystem(conf, fs, tableDir, hri) {
+      @Override
+      public Path getTempDir() {
+        return tempDir;
+      }
+    };
+    HRegion region = new HRegion(regionFs, null, conf, htd, null);
+    return new HStore(region, htd.getFamily(Bytes.toBytes(familyName)), conf);
   }
 
   private static boolean isRegionDir(final FileSystem fs, final Path path) throws IOException {
@@ -789,6 +789,30 @@ public class HRegion implements HeapSize { // , Writable{
     return this.memstoreSize.getAndAdd(memStoreSize);
   }
 
+  /**
+   * Make a change to the memstore of one of our stores that does not come from
+   * an update, such as an in-memory compaction, and account for its change in
+   * size. Runs under the updates lock so the change cannot slip between the read
+   * of the memstore size and the snapshot of a flush.
+   * @param change makes the change and returns the change in memstore size
+   * @throws IOException if the change failed
+   */
+  void applyMemstoreChange(final Callable<Long> change) throws IOException {
+    this.updatesLock.readLock().lock();
+    try {
+      long delta = change.call();
+      if (delta != 0) {
+        addAndGetGlobalMemstoreSize(delta);
+      }
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    } finally {
+      this.updatesLock.readLock().unlock();
+    }
+  }
+
   /** @return a HRegionInfo object for this region */
   public HRegionInfo getRegionInfo() {
     return this.fs.getRegionInfo();
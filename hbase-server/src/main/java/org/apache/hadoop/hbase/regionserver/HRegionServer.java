@@ -107,6 +107,7 @@ import org.apache.hadoop.hbase.ipc.PayloadCarryingRpcController;
 import org.apache.hadoop.hbase.ipc.PriorityFunction;
 import org.apache.hadoop.hbase.ipc.RpcCallContext;
 import org.apache.hadoop.hbase.ipc.RpcClient;
+import org.apache.hadoop.hbase.ipc.RpcClientFactory;
 import org.apache.hadoop.hbase.ipc.RpcServer;
 import org.apache.hadoop.hbase.ipc.RpcServer.BlockingServiceAndInterface;
 import org.apache.hadoop.hbase.ipc.RpcServerInterface;
@@ -192,6 +193,7 @@ import org.apache.hadoop.hbase.regionserver.handler.OpenRegionHandler;
 import org.apache.hadoop.hbase.regionserver.snapshot.RegionServerSnapshotManager;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.regionserver.wal.HLogFactory;
+import org.apache.hadoop.hbase.regionserver.wal.HLogGroupProvider;
 import org.apache.hadoop.hbase.regionserver.wal.HLogKey;
 import org.apache.hadoop.hbase.regionserver.wal.HLogSplitter;
 import org.apache.hadoop.hbase.regionserver.wal.HLogUtil;
@@ -406,6 +408,9 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
   // HLog and HLog roller. log is protected rather than private to avoid
   // eclipse warning when accessed by inner classes
   protected volatile HLog hlog;
+  // All the hlogs of this server, hlog being the default one. Regions are
+  // spread over them when running more than one WAL group.
+  protected volatile HLogGroupProvider hlogGroups;
   // The meta updates are written to a different hlog. If this
   // regionserver holds meta regions, then this field will be non-null.
   protected volatile HLog hlogForMeta;
@@ -595,7 +600,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     // login the server principal (if using secure Hadoop)
     userProvider.login("hbase.regionserver.keytab.file",
       "hbase.regionserver.kerberos.principal", this.isa.getHostName());
-    regionServerAccounting = new RegionServerAccounting();
+    regionServerAccounting = new RegionServerAccounting(conf);
     cacheConfig = new CacheConfig(conf);
     uncaughtExceptionHandler = new UncaughtExceptionHandler() {
       @Override
@@ -649,6 +654,11 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     return priority.getPriority(header, param);
   }
 
+  @Override
+  public long getDeadline(RequestHeader header, Message param) {
+    return priority.getDeadline(header, param);
+  }
+
   @Retention(RetentionPolicy.RUNTIME)
   protected @interface QosPriority {
     int priority() default 0;
@@ -667,6 +677,14 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     return null;
   }
 
+  /**
+   * @return the number of next calls served so far by the scanner, 0 if it is unknown
+   */
+  long getScannerNextCount(long scannerId) {
+    RegionScannerHolder scannerHolder = scanners.get(Long.toString(scannerId));
+    return scannerHolder == null ? 0 : scannerHolder.nextCount;
+  }
+
   /**
    * All initialization needed before we go register with Master.
    *
@@ -790,7 +808,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     movedRegionsCleaner = MovedRegionsCleaner.createAndStart(this);
 
     // Setup RPC client for master communication
-    rpcClient = new RpcClient(conf, clusterId, new InetSocketAddress(
+    rpcClient = RpcClientFactory.createClient(conf, clusterId, new InetSocketAddress(
         this.isa.getAddress(), 0));
     this.pauseMonitor = new JvmPauseMonitor(conf);
     pauseMonitor.start();
@@ -1135,7 +1153,17 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
         LOG.error("Metalog close and delete failed", RemoteExceptionHandler.checkThrowable(e));
       }
     }
-    if (this.hlog != null) {
+    if (this.hlogGroups != null) {
+      try {
+        if (delete) {
+          hlogGroups.closeAndDelete();
+        } else {
+          hlogGroups.close();
+        }
+      } catch (Throwable e) {
+        LOG.error("Close and delete failed", RemoteExceptionHandler.checkThrowable(e));
+      }
+    } else if (this.hlog != null) {
       try {
         if (delete) {
           hlog.closeAndDelete();
@@ -1467,8 +1495,13 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
    * @throws IOException
    */
   protected HLog instantiateHLog(Path rootdir, String logName) throws IOException {
-    return HLogFactory.createHLog(this.fs.getBackingFs(), rootdir, logName, this.conf,
-      getWALActionListeners(), this.serverNameFromMasterPOV.toString());
+    this.hlogGroups = new HLogGroupProvider(this.fs.getBackingFs(), rootdir, logName,
+      this.conf, getWALActionListeners(), this.serverNameFromMasterPOV.toString());
+    // The log roller tells apart roll requests of the different groups.
+    for (HLog wal : this.hlogGroups.getHLogs()) {
+      this.hlogRoller.addWAL(wal);
+    }
+    return this.hlogGroups.getDefaultHLog();
   }
 
   /**
@@ -1479,9 +1512,8 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
    */
   protected List<WALActionsListener> getWALActionListeners() {
     List<WALActionsListener> listeners = new ArrayList<WALActionsListener>();
-    // Log roller.
+    // Log roller. It registers itself with each hlog, see instantiateHLog.
     this.hlogRoller = new LogRoller(this, this);
-    listeners.add(this.hlogRoller);
     if (this.replicationSourceHandler != null &&
         this.replicationSourceHandler.getWALActionsListener() != null) {
       // Replication handler is an implementation of WALActionsListener.
@@ -1674,7 +1706,28 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     if (regionInfo != null && regionInfo.isMetaTable()) {
       return getMetaWAL();
     }
-    return this.hlog;
+    if (this.hlogGroups == null || regionInfo == null) {
+      return this.hlog;
+    }
+    // An online region keeps the hlog it was opened with; daughters of a split
+    // write to the hlog of their parent.
+    HRegion r = this.onlineRegions.get(regionInfo.getEncodedName());
+    if (r != null && r.getLog() != null) {
+      return r.getLog();
+    }
+    return this.hlogGroups.getHLog(regionInfo);
+  }
+
+  /**
+   * @return all the non-meta hlogs of this server
+   */
+  public List<HLog> getWALs() {
+    if (this.hlogGroups != null) {
+      return this.hlogGroups.getHLogs();
+    }
+    List<HLog> wals = new ArrayList<HLog>(1);
+    if (this.hlog != null) wals.add(this.hlog);
+    return wals;
   }
 
   @Override
@@ -2197,6 +2250,20 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     return this.compactSplitThread;
   }
 
+  @Override
+  public double getCompactionPressure() {
+    double max = 0;
+    for (HRegion region : onlineRegions.values()) {
+      for (Store store : region.getStores().values()) {
+        double normCount = store.getCompactionPressure();
+        if (normCount > max) {
+          max = normCount;
+        }
+      }
+    }
+    return max;
+  }
+
   public ZooKeeperWatcher getZooKeeperWatcher() {
     return this.zooKeeper;
   }
@@ -2558,7 +2625,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     HRegion toReturn = this.onlineRegions.remove(r.getRegionInfo().getEncodedName());
 
     if (destination != null) {
-      HLog wal = getWAL();
+      HLog wal = r.getLog() != null ? r.getLog() : getWAL();
       long closeSeqNum = wal.getEarliestMemstoreSeqNum(r.getRegionInfo().getEncodedNameAsBytes());
       if (closeSeqNum == HConstants.NO_SEQNUM) {
         // No edits in WAL for this region; get the sequence number when the region was opened.
@@ -3040,6 +3107,9 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
             rsh.nextCallSeq++;
           }
         }
+        if (rsh != null) {
+          rsh.nextCount++;
+        }
         try {
           // Remove lease while its being processed in server; protects against case
           // where processing of request takes > lease expiration time.
@@ -3915,12 +3985,13 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
       final RollWALWriterRequest request) throws ServiceException {
     try {
       requestCount.increment();
-      HLog wal = this.getWAL();
-      byte[][] regionsToFlush = wal.rollWriter(true);
       RollWALWriterResponse.Builder builder = RollWALWriterResponse.newBuilder();
-      if (regionsToFlush != null) {
-        for (byte[] region: regionsToFlush) {
-          builder.addRegionToFlush(ZeroCopyLiteralByteString.wrap(region));
+      for (HLog wal : getWALs()) {
+        byte[][] regionsToFlush = wal.rollWriter(true);
+        if (regionsToFlush != null) {
+          for (byte[] region: regionsToFlush) {
+            builder.addRegionToFlush(ZeroCopyLiteralByteString.wrap(region));
+          }
         }
       }
       return builder.build();
@@ -4322,6 +4393,9 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
   private static class RegionScannerHolder {
     private RegionScanner s;
     private long nextCallSeq = 0L;
+    // Next calls served, read by the priority function to push long scans back.
+    // Only updated by the handler serving the scanner.
+    private volatile long nextCount = 0L;
     private HRegion r;
 
     public RegionScannerHolder(RegionScanner s, HRegion r) {
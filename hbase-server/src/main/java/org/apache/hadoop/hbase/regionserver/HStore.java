@@ -119,6 +119,8 @@ public class HStore implements Store {
   static final Log LOG = LogFactory.getLog(HStore.class);
 
   protected final MemStore memstore;
+  // Compacts the memstore in memory; null unless the memstore is compacting
+  private final MemStoreCompactor memstoreCompactor;
   // This stores directory in the filesystem.
   private final HRegion region;
   private final HColumnDescriptor family;
@@ -217,6 +219,8 @@ public class HStore implements Store {
     // to clone it?
     scanInfo = new ScanInfo(family, ttl, timeToPurgeDeletes, this.comparator);
     this.memstore = new MemStore(conf, this.comparator);
+    this.memstoreCompactor =
+      this.memstore.compacting ? new MemStoreCompactor(this, this.memstore) : null;
     this.offPeakHours = OffPeakHours.getInstance(conf);
 
     // Setting up cache configuration for this family
@@ -486,6 +490,17 @@ public class HStore implements Store {
       return this.memstore.add(kv);
     } finally {
       lock.readLock().unlock();
+      requestInMemoryCompaction();
+    }
+  }
+
+  /**
+   * Have the memstore compacted in memory if it is compacting and large enough.
+   * Must be called without holding the store lock.
+   */
+  private void requestInMemoryCompaction() {
+    if (this.memstoreCompactor != null) {
+      this.memstoreCompactor.requestCompactionIfNeeded();
     }
   }
 
@@ -506,6 +521,7 @@ public class HStore implements Store {
       return this.memstore.delete(kv);
     } finally {
       lock.readLock().unlock();
+      requestInMemoryCompaction();
     }
   }
 
@@ -811,6 +827,7 @@ public class HStore implements Store {
             .withFilePath(fs.createTempName())
             .withComparator(comparator)
             .withBloomType(family.getBloomFilterType())
+            .withBloomPrefixLength(family.getBloomFilterPrefixLength())
             .withMaxKeyCount(maxKeyCount)
             .withFavoredNodes(favoredNodes)
             .withFileContext(hFileContext)
@@ -1001,8 +1018,15 @@ public class HStore implements Store {
     long compactionStartTime = EnvironmentEdgeManager.currentTimeMillis();
     List<StoreFile> sfs = null;
     try {
-      // Commence the compaction.
-      List<Path> newFiles = compaction.compact();
+      // Commence the compaction, on a compaction worker if it is offloaded.
+      List<Path> newFiles = null;
+      CompactionOffloader offloader = cr.getOffloader();
+      if (offloader != null && offloader.shouldOffload(this, cr)) {
+        newFiles = offloader.compact(this, cr);
+      }
+      if (newFiles == null) {
+        newFiles = compaction.compact();
+      }
 
       // TODO: get rid of this!
       if (!this.conf.getBoolean("hbase.hstore.compaction.complete", true)) {
@@ -1836,6 +1860,7 @@ public class HStore implements Store {
       return this.memstore.upsert(cells, readpoint);
     } finally {
       this.lock.readLock().unlock();
+      requestInMemoryCompaction();
     }
   }
 
@@ -1865,6 +1890,19 @@ public class HStore implements Store {
 
     @Override
     public void flushCache(MonitoredTask status) throws IOException {
+      // The region waited for the transactions in flight at snapshot time, so no
+      // rollback can touch the snapshot anymore: make it flat for the flush, and
+      // merge in the pipeline segments it took. The copy is made without locks,
+      // only swapping it in excludes the readers.
+      SortedSet<KeyValue> merged = memstore.mergeSnapshot(snapshot);
+      if (merged != snapshot) {
+        lock.writeLock().lock();
+        try {
+          snapshot = memstore.replaceSnapshot(snapshot, merged);
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
       tempFiles = HStore.this.flushCache(
         cacheFlushSeqNum, snapshot, snapshotTimeRangeTracker, flushedSize, status);
     }
@@ -1910,13 +1948,19 @@ public class HStore implements Store {
     return this.storeEngine.needsCompaction(this.filesCompacting);
   }
 
+  @Override
+  public double getCompactionPressure() {
+    return storeEngine.getCompactionPolicy().getCompactionPressure(
+        storeEngine.getStoreFileManager().getStoreCompactionPriority());
+  }
+
   @Override
   public CacheConfig getCacheConfig() {
     return this.cacheConf;
   }
 
   public static final long FIXED_OVERHEAD =
-      ClassSize.align(ClassSize.OBJECT + (15 * ClassSize.REFERENCE) + (4 * Bytes.SIZEOF_LONG)
+      ClassSize.align(ClassSize.OBJECT + (16 * ClassSize.REFERENCE) + (4 * Bytes.SIZEOF_LONG)
               + (5 * Bytes.SIZEOF_INT) + (2 * Bytes.SIZEOF_BOOLEAN));
 
   public static final long DEEP_OVERHEAD = ClassSize.align(FIXED_OVERHEAD
@@ -0,0 +1,347 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue;
+
+/**
+ * An immutable, sorted {@link java.util.Set} of {@link KeyValue}s backed by a
+ * flat array. Lookups are binary searches and iteration walks the array, so it
+ * is cheaper to read and much smaller than a {@link KeyValueSkipListSet} holding
+ * the same entries; it cannot be added to.
+ * <p>
+ * Entries can still be removed, as the memstore does when rolling back an edit or
+ * dropping an expired cell: a removed entry is only marked as such and is skipped by
+ * all the methods of the set and of its views. Views returned by
+ * {@link #headSet(KeyValue)} and friends share the array and the removals of the set
+ * they come from. Like {@link KeyValueSkipListSet}, iterators never throw
+ * ConcurrentModificationException.
+ */
+@InterfaceAudience.Private
+public class KeyValueArraySet extends AbstractSet<KeyValue> implements NavigableSet<KeyValue> {
+  private final KeyValue.KVComparator comparator;
+  private final KeyValue[] kvs;
+  // This set (or view) covers kvs[lo, hi)
+  private final int lo;
+  private final int hi;
+  private final Removals removals;
+
+  /**
+   * Removed entries, by index in the backing array. Shared by a set and its views.
+   * Removals are rare so the bits are copied on write and read without locking.
+   */
+  private static class Removals {
+    private volatile BitSet bits = null;
+
+    boolean isRemoved(final int index) {
+      BitSet b = this.bits;
+      return b != null && b.get(index);
+    }
+
+    synchronized boolean remove(final int index) {
+      if (isRemoved(index)) return false;
+      BitSet b = this.bits == null ? new BitSet() : (BitSet)this.bits.clone();
+      b.set(index);
+      this.bits = b;
+      return true;
+    }
+
+    int count(final int from, final int to) {
+      BitSet b = this.bits;
+      return b == null ? 0 : b.get(from, to).cardinality();
+    }
+  }
+
+  /**
+   * @param c comparator the entries are sorted with
+   * @param kvs entries, sorted by <code>c</code> and without duplicates; not copied
+   * @param count number of entries used at the head of <code>kvs</code>
+   */
+  KeyValueArraySet(final KeyValue.KVComparator c, final KeyValue[] kvs, final int count) {
+    this(c, kvs, 0, count, new Removals());
+  }
+
+  private KeyValueArraySet(final KeyValue.KVComparator c, final KeyValue[] kvs,
+      final int lo, final int hi, final Removals removals) {
+    this.comparator = c;
+    this.kvs = kvs;
+    this.lo = lo;
+    this.hi = Math.max(lo, hi);
+    this.removals = removals;
+  }
+
+  /**
+   * @param c comparator the entries are sorted with
+   * @param sorted entries, sorted by <code>c</code> and without duplicates
+   * @return a set holding a copy of the entries of <code>sorted</code>
+   */
+  static KeyValueArraySet copyOf(final KeyValue.KVComparator c,
+      final Collection<KeyValue> sorted) {
+    // Walk the collection once rather than trusting size(), which is not constant
+    // time for a skip list.
+    List<KeyValue> list = new ArrayList<KeyValue>();
+    for (KeyValue kv : sorted) {
+      list.add(kv);
+    }
+    return new KeyValueArraySet(c, list.toArray(new KeyValue[list.size()]), list.size());
+  }
+
+  /**
+   * @return the index of <code>key</code> in this set, or
+   * <code>-(insertion point) - 1</code> if it is not there
+   */
+  private int search(final KeyValue key) {
+    int low = this.lo;
+    int high = this.hi - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = this.comparator.compare(this.kvs[mid], key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * @return index of the first entry greater than (or equal to, if inclusive) key
+   */
+  private int ceilingIndex(final KeyValue key, final boolean inclusive) {
+    int index = search(key);
+    if (index < 0) return -(index + 1);
+    return inclusive ? index : index + 1;
+  }
+
+  /**
+   * @return index of the last entry lower than (or equal to, if inclusive) key
+   */
+  private int floorIndex(final KeyValue key, final boolean inclusive) {
+    int index = search(key);
+    if (index < 0) return -(index + 1) - 1;
+    return inclusive ? index : index - 1;
+  }
+
+  private KeyValue forwardFrom(int index) {
+    for (; index < this.hi; index++) {
+      if (!this.removals.isRemoved(index)) return this.kvs[index];
+    }
+    return null;
+  }
+
+  private KeyValue backwardFrom(int index) {
+    for (; index >= this.lo; index--) {
+      if (!this.removals.isRemoved(index)) return this.kvs[index];
+    }
+    return null;
+  }
+
+  /**
+   * @param kv key to look up
+   * @return the entry equal to <code>kv</code> according to the comparator, or null
+   */
+  public KeyValue get(final KeyValue kv) {
+    int index = search(kv);
+    return index < 0 || this.removals.isRemoved(index) ? null : this.kvs[index];
+  }
+
+  /**
+   * @return the entries removed from the backing array so far, in order
+   */
+  List<KeyValue> getRemoved() {
+    List<KeyValue> removed = new ArrayList<KeyValue>();
+    for (int i = this.lo; i < this.hi; i++) {
+      if (this.removals.isRemoved(i)) removed.add(this.kvs[i]);
+    }
+    return removed;
+  }
+
+  public KeyValue ceiling(final KeyValue e) {
+    return forwardFrom(ceilingIndex(e, true));
+  }
+
+  public KeyValue higher(final KeyValue e) {
+    return forwardFrom(ceilingIndex(e, false));
+  }
+
+  public KeyValue floor(final KeyValue e) {
+    return backwardFrom(floorIndex(e, true));
+  }
+
+  public KeyValue lower(final KeyValue e) {
+    return backwardFrom(floorIndex(e, false));
+  }
+
+  public KeyValue first() {
+    KeyValue kv = forwardFrom(this.lo);
+    if (kv == null) throw new NoSuchElementException();
+    return kv;
+  }
+
+  public KeyValue last() {
+    KeyValue kv = backwardFrom(this.hi - 1);
+    if (kv == null) throw new NoSuchElementException();
+    return kv;
+  }
+
+  public KeyValue pollFirst() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public KeyValue pollLast() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public Comparator<? super KeyValue> comparator() {
+    return this.comparator;
+  }
+
+  public NavigableSet<KeyValue> subSet(final KeyValue fromElement, final boolean fromInclusive,
+      final KeyValue toElement, final boolean toInclusive) {
+    return view(ceilingIndex(fromElement, fromInclusive), floorIndex(toElement, toInclusive) + 1);
+  }
+
+  public SortedSet<KeyValue> subSet(final KeyValue fromElement, final KeyValue toElement) {
+    return subSet(fromElement, true, toElement, false);
+  }
+
+  public NavigableSet<KeyValue> headSet(final KeyValue toElement, final boolean inclusive) {
+    return view(this.lo, floorIndex(toElement, inclusive) + 1);
+  }
+
+  public SortedSet<KeyValue> headSet(final KeyValue toElement) {
+    return headSet(toElement, false);
+  }
+
+  public NavigableSet<KeyValue> tailSet(final KeyValue fromElement, final boolean inclusive) {
+    return view(ceilingIndex(fromElement, inclusive), this.hi);
+  }
+
+  public SortedSet<KeyValue> tailSet(final KeyValue fromElement) {
+    return tailSet(fromElement, true);
+  }
+
+  private KeyValueArraySet view(final int from, final int to) {
+    return new KeyValueArraySet(this.comparator, this.kvs, from, to, this.removals);
+  }
+
+  public NavigableSet<KeyValue> descendingSet() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public Iterator<KeyValue> iterator() {
+    return new Itr(true);
+  }
+
+  public Iterator<KeyValue> descendingIterator() {
+    return new Itr(false);
+  }
+
+  private class Itr implements Iterator<KeyValue> {
+    private final boolean ascending;
+    private int next;
+    private int last = -1;
+
+    Itr(final boolean ascending) {
+      this.ascending = ascending;
+      this.next = ascending ? lo : hi - 1;
+      skipRemoved();
+    }
+
+    private void skipRemoved() {
+      if (this.ascending) {
+        while (this.next < hi && removals.isRemoved(this.next)) this.next++;
+      } else {
+        while (this.next >= lo && removals.isRemoved(this.next)) this.next--;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return this.ascending ? this.next < hi : this.next >= lo;
+    }
+
+    @Override
+    public KeyValue next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      this.last = this.next;
+      this.next += this.ascending ? 1 : -1;
+      skipRemoved();
+      return kvs[this.last];
+    }
+
+    @Override
+    public void remove() {
+      if (this.last < 0) throw new IllegalStateException();
+      removals.remove(this.last);
+      this.last = -1;
+    }
+  }
+
+  @Override
+  public int size() {
+    return this.hi - this.lo - this.removals.count(this.lo, this.hi);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return forwardFrom(this.lo) == null;
+  }
+
+  @Override
+  public boolean contains(final Object o) {
+    return get((KeyValue)o) != null;
+  }
+
+  @Override
+  public boolean add(final KeyValue e) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  @Override
+  public boolean addAll(final Collection<? extends KeyValue> c) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  @Override
+  public boolean remove(final Object o) {
+    int index = search((KeyValue)o);
+    return index >= 0 && this.removals.remove(index);
+  }
+}
@@ -56,7 +56,7 @@ public class KeyValueSkipListSet implements NavigableSet<KeyValue> {
   }
 
   public KeyValue ceiling(KeyValue e) {
-    throw new UnsupportedOperationException("Not implemented");
+    return this.delegatee.ceilingKey(e);
   }
 
   public Iterator<KeyValue> descendingIterator() {
@@ -68,7 +68,7 @@ public class KeyValueSkipListSet implements NavigableSet<KeyValue> {
   }
 
   public KeyValue floor(KeyValue e) {
-    throw new UnsupportedOperationException("Not implemented");
+    return this.delegatee.floorKey(e);
   }
 
   public SortedSet<KeyValue> headSet(final KeyValue toElement) {
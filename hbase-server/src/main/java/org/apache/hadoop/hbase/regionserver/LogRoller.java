@@ -32,11 +32,19 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.HasThread;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Runs periodically to determine if the HLog should be rolled.
+ * <p>
+ * A roller either rolls the single HLog returned by {@link #getWAL()}, or, when
+ * HLogs are handed to it with {@link #addWAL(HLog)}, all of those; a roll request
+ * from one of them only forces a roll of that HLog.
  *
  * NOTE: This class extends Thread rather than Chore because the sleep time
  * can be interrupted when there is something to do, rather than the Chore
@@ -47,6 +55,9 @@ class LogRoller extends HasThread implements WALActionsListener {
   static final Log LOG = LogFactory.getLog(LogRoller.class);
   private final ReentrantLock rollLock = new ReentrantLock();
   private final AtomicBoolean rollLog = new AtomicBoolean(false);
+  // HLogs added with addWAL, and whether each asked for a roll.
+  private final ConcurrentHashMap<HLog, Boolean> walNeedsRoll =
+    new ConcurrentHashMap<HLog, Boolean>();
   private final Server server;
   protected final RegionServerServices services;
   private volatile long lastrolltime = System.currentTimeMillis();
@@ -92,10 +103,15 @@ class LogRoller extends HasThread implements WALActionsListener {
       rollLock.lock(); // FindBugs UL_UNRELEASED_LOCK_EXCEPTION_PATH
       try {
         this.lastrolltime = now;
-        // This is array of actual region names.
-        byte [][] regionsToFlush = getWAL().rollWriter(rollLog.get());
-        if (regionsToFlush != null) {
-          for (byte [] r: regionsToFlush) scheduleFlush(r);
+        for (Map.Entry<HLog, Boolean> entry : getWALsToRoll().entrySet()) {
+          boolean requested = entry.getValue().booleanValue();
+          // On a roll request, leave alone the HLogs that did not ask for one.
+          if (!periodic && !requested) continue;
+          // This is array of actual region names.
+          byte [][] regionsToFlush = entry.getKey().rollWriter(requested);
+          if (regionsToFlush != null) {
+            for (byte [] r: regionsToFlush) scheduleFlush(r);
+          }
         }
       } catch (FailedLogCloseException e) {
         server.abort("Failed log close in log roller", e);
@@ -141,12 +157,45 @@ class LogRoller extends HasThread implements WALActionsListener {
   }
 
   public void logRollRequested() {
+    for (HLog wal : this.walNeedsRoll.keySet()) {
+      this.walNeedsRoll.put(wal, Boolean.TRUE);
+    }
+    wakeUp();
+  }
+
+  private void wakeUp() {
     synchronized (rollLog) {
       rollLog.set(true);
       rollLog.notifyAll();
     }
   }
 
+  /**
+   * Have this roller take care of the given HLog, in addition to any added before.
+   * Registers a listener on the HLog so its roll requests are told apart from
+   * those of the other HLogs.
+   */
+  public void addWAL(final HLog wal) {
+    if (this.walNeedsRoll.putIfAbsent(wal, Boolean.FALSE) == null) {
+      wal.registerWALActionsListener(new RollRequestListener(wal));
+    }
+  }
+
+  /**
+   * @return the HLogs to look at, each mapped to whether it asked for a roll since
+   * the last time around; clears the requests.
+   */
+  private Map<HLog, Boolean> getWALsToRoll() throws IOException {
+    if (this.walNeedsRoll.isEmpty()) {
+      return Collections.singletonMap(getWAL(), Boolean.valueOf(rollLog.get()));
+    }
+    Map<HLog, Boolean> wals = new HashMap<HLog, Boolean>();
+    for (HLog wal : this.walNeedsRoll.keySet()) {
+      wals.put(wal, this.walNeedsRoll.put(wal, Boolean.FALSE));
+    }
+    return wals;
+  }
+
   /**
    * Called by region server to wake up this thread if it sleeping.
    * It is sleeping if rollLock is not held.
@@ -200,4 +249,58 @@ class LogRoller extends HasThread implements WALActionsListener {
   public void logCloseRequested() {
     // not interested
   }
+
+  /**
+   * Flags roll requests of a single HLog.
+   */
+  private class RollRequestListener implements WALActionsListener {
+    private final HLog wal;
+
+    RollRequestListener(final HLog wal) {
+      this.wal = wal;
+    }
+
+    @Override
+    public void logRollRequested() {
+      walNeedsRoll.put(this.wal, Boolean.TRUE);
+      wakeUp();
+    }
+
+    @Override
+    public void preLogRoll(Path oldPath, Path newPath) throws IOException {
+      // Not interested
+    }
+
+    @Override
+    public void postLogRoll(Path oldPath, Path newPath) throws IOException {
+      // Not interested
+    }
+
+    @Override
+    public void preLogArchive(Path oldPath, Path newPath) throws IOException {
+      // Not interested
+    }
+
+    @Override
+    public void postLogArchive(Path oldPath, Path newPath) throws IOException {
+      // Not interested
+    }
+
+    @Override
+    public void logCloseRequested() {
+      // Not interested
+    }
+
+    @Override
+    public void visitLogEntryBeforeWrite(HRegionInfo info, HLogKey logKey,
+        WALEdit logEdit) {
+      // Not interested
+    }
+
+    @Override
+    public void visitLogEntryBeforeWrite(HTableDescriptor htd, HLogKey logKey,
+        WALEdit logEdit) {
+      // Not interested
+    }
+  }
 }
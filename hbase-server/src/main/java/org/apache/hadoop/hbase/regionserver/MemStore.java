@@ -27,6 +27,8 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.SortedSet;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -56,6 +58,14 @@ import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
  * The MemStore functions should not be called in parallel. Callers should hold
  *  write and read locks. This is done in {@link HStore}.
  *  </p>
+ * <p>
+ * When compacting (see {@link #COMPACTING_KEY}), the current memstore is frozen
+ * into an immutable {@link Segment} each time it grows past
+ * {@link #IN_MEMORY_FLUSH_SIZE_KEY}. Frozen segments form a pipeline which
+ * {@link MemStoreCompactor} merges in the background, dropping the versions the
+ * family does not keep. A flush snapshots the current memstore and the whole
+ * pipeline together.
+ * </p>
  *
  * TODO: Adjust size of the memstore when we remove items because they have
  * been deleted.
@@ -68,7 +78,21 @@ public class MemStore implements HeapSize {
 
   static final String USEMSLAB_KEY =
     "hbase.hregion.memstore.mslab.enabled";
-  private static final boolean USEMSLAB_DEFAULT = true;
+  static final boolean USEMSLAB_DEFAULT = true;
+
+  /** Whether to compact edits in memory before flushing them */
+  static final String COMPACTING_KEY = "hbase.hregion.memstore.compacting.enabled";
+  static final boolean COMPACTING_DEFAULT = false;
+  /** Size the current memstore is frozen into the pipeline at, when compacting */
+  static final String IN_MEMORY_FLUSH_SIZE_KEY =
+    "hbase.hregion.memstore.compacting.inmemoryflush.size";
+  static final long IN_MEMORY_FLUSH_SIZE_DEFAULT = 4 * 1024 * 1024L;
+  /** Number of segments in the pipeline at which they are merged */
+  static final String MERGE_THRESHOLD_KEY = "hbase.hregion.memstore.compacting.merge.threshold";
+  static final int MERGE_THRESHOLD_DEFAULT = 2;
+  /** Whether the snapshot is turned into a flat array before being flushed */
+  static final String FLAT_SNAPSHOT_KEY = "hbase.hregion.memstore.snapshot.flat";
+  static final boolean FLAT_SNAPSHOT_DEFAULT = true;
 
   private Configuration conf;
 
@@ -79,8 +103,25 @@ public class MemStore implements HeapSize {
   // reference passed.
   volatile KeyValueSkipListSet kvset;
 
-  // Snapshot of memstore.  Made for flusher.
-  volatile KeyValueSkipListSet snapshot;
+  // Snapshot of memstore.  Made for flusher.  A KeyValueArraySet once the
+  // flush flattened it.
+  volatile NavigableSet<KeyValue> snapshot;
+  // Segments of the pipeline taken by the snapshot and not merged into it yet;
+  // readers see them as part of the snapshot.  Only replaced under the store
+  // write lock, together with the snapshot.
+  volatile List<Segment> snapshotSegments = Collections.emptyList();
+
+  // Segments frozen out of kvset, newest first.  The list is replaced, never
+  // modified, and only under the store write lock.
+  volatile List<Segment> pipeline = Collections.emptyList();
+  volatile long pipelineSize = 0;
+  // Segments the snapshot was made from; they own allocators the snapshot uses.
+  volatile List<Segment> snapshotPipeline = Collections.emptyList();
+
+  final boolean compacting;
+  final long inMemoryFlushSize;
+  final int mergeThreshold;
+  final boolean flatSnapshot;
 
   final KeyValue.KVComparator comparator;
 
@@ -124,15 +165,29 @@ public class MemStore implements HeapSize {
       this.allocator = null;
       this.chunkPool = null;
     }
+    this.compacting = conf.getBoolean(COMPACTING_KEY, COMPACTING_DEFAULT);
+    this.inMemoryFlushSize = conf.getLong(IN_MEMORY_FLUSH_SIZE_KEY, IN_MEMORY_FLUSH_SIZE_DEFAULT);
+    this.mergeThreshold = Math.max(1, conf.getInt(MERGE_THRESHOLD_KEY, MERGE_THRESHOLD_DEFAULT));
+    this.flatSnapshot = conf.getBoolean(FLAT_SNAPSHOT_KEY, FLAT_SNAPSHOT_DEFAULT);
   }
 
   void dump() {
     for (KeyValue kv: this.kvset) {
       LOG.info(kv);
     }
+    for (Segment segment: this.pipeline) {
+      for (KeyValue kv: segment.kvs) {
+        LOG.info(kv);
+      }
+    }
     for (KeyValue kv: this.snapshot) {
       LOG.info(kv);
     }
+    for (Segment segment: this.snapshotSegments) {
+      for (KeyValue kv: segment.kvs) {
+        LOG.info(kv);
+      }
+    }
   }
 
   /**
@@ -143,14 +198,33 @@ public class MemStore implements HeapSize {
   void snapshot() {
     // If snapshot currently has entries, then flusher failed or didn't call
     // cleanup.  Log a warning.
-    if (!this.snapshot.isEmpty()) {
+    if (!this.snapshot.isEmpty() || !this.snapshotSegments.isEmpty()) {
       LOG.warn("Snapshot called again without clearing previous. " +
           "Doing nothing. Another ongoing flush or did we fail last attempt?");
     } else {
-      if (!this.kvset.isEmpty()) {
+      List<Segment> segments = this.pipeline;
+      if (!segments.isEmpty()) {
+        // Updates are blocked here, so only take the segments along; they are
+        // merged into the snapshot by flattenSnapshot. Write the snapshot before
+        // letting go of kvset and the pipeline so a scanner being created finds
+        // the edits in at least one of them.
+        TimeRangeTracker trt = new TimeRangeTracker(this.timeRangeTracker);
+        for (Segment segment : segments) {
+          trt.includeTimeRange(segment.timeRangeTracker);
+        }
+        this.snapshotTimeRangeTracker = trt;
         this.snapshot = this.kvset;
+        this.snapshotSegments = segments;
+        this.snapshotPipeline = segments;
+        this.pipeline = Collections.emptyList();
+        this.pipelineSize = 0;
+      }
+      if (!this.kvset.isEmpty() || !segments.isEmpty()) {
+        if (segments.isEmpty()) {
+          this.snapshot = this.kvset;
+          this.snapshotTimeRangeTracker = this.timeRangeTracker;
+        }
         this.kvset = new KeyValueSkipListSet(this.comparator);
-        this.snapshotTimeRangeTracker = this.timeRangeTracker;
         this.timeRangeTracker = new TimeRangeTracker();
         // Reset heap to not include any keys
         this.size.set(DEEP_OVERHEAD);
@@ -167,15 +241,78 @@ public class MemStore implements HeapSize {
   /**
    * Return the current snapshot.
    * Called by flusher to get current snapshot made by a previous
-   * call to {@link #snapshot()}
+   * call to {@link #snapshot()}. When the snapshot took pipeline segments, they
+   * are only part of what this returns once {@link #flattenSnapshot(SortedSet)}
+   * merged them in.
    * @return Return snapshot.
    * @see #snapshot()
    * @see #clearSnapshot(SortedSet)
    */
-  KeyValueSkipListSet getSnapshot() {
+  NavigableSet<KeyValue> getSnapshot() {
     return this.snapshot;
   }
 
+  /**
+   * Turn the snapshot into a flat, array backed set. The flush, and the scanners
+   * opened from now on, then walk an array instead of chasing the pointers of a
+   * skip list. Copying the references costs a walk of the skip list, so it is not
+   * done in {@link #snapshot()} where updates are blocked. The pipeline segments
+   * the snapshot took are merged in here too, whether flat snapshots are enabled
+   * or not, since the flush needs a single sorted set.
+   * <p>
+   * Must only be called once no rollback can touch the snapshot anymore, that is
+   * after the flush waited for the transactions in flight when the snapshot was
+   * made: a rollback applied to the skip list would not show in the copy.
+   * @param ss the snapshot, as returned by {@link #getSnapshot()}
+   * @return the snapshot to flush, flat or not
+   */
+  SortedSet<KeyValue> flattenSnapshot(final SortedSet<KeyValue> ss) {
+    return replaceSnapshot(ss, mergeSnapshot(ss));
+  }
+
+  /**
+   * Computes the flat snapshot of {@link #flattenSnapshot(SortedSet)} without
+   * installing it, so that the copy can be made without holding any lock.
+   * @param ss the snapshot, as returned by {@link #getSnapshot()}
+   * @return the flat snapshot, or ss if it is to be flushed as is
+   */
+  SortedSet<KeyValue> mergeSnapshot(final SortedSet<KeyValue> ss) {
+    if (ss != this.snapshot) {
+      return ss;
+    }
+    List<Segment> segments = this.snapshotSegments;
+    if (!segments.isEmpty()) {
+      List<NavigableSet<KeyValue>> sets = new ArrayList<NavigableSet<KeyValue>>();
+      sets.add(this.snapshot);
+      for (Segment segment : segments) {
+        sets.add(segment.kvs);
+      }
+      return mergeSorted(this.comparator, sets);
+    }
+    if (!this.flatSnapshot || !(ss instanceof KeyValueSkipListSet) || ss.isEmpty()) {
+      return ss;
+    }
+    return KeyValueArraySet.copyOf(this.comparator, ss);
+  }
+
+  /**
+   * Installs a snapshot made by {@link #mergeSnapshot(SortedSet)} in place of the
+   * snapshot and the segments it was merged from. Readers must not see one without
+   * the other, so the store calls this holding its write lock.
+   * @param ss the snapshot, as returned by {@link #getSnapshot()}
+   * @param merged the result of mergeSnapshot for ss
+   * @return the snapshot to flush
+   */
+  SortedSet<KeyValue> replaceSnapshot(final SortedSet<KeyValue> ss,
+      final SortedSet<KeyValue> merged) {
+    if (merged == ss || ss != this.snapshot) {
+      return ss;
+    }
+    this.snapshot = (NavigableSet<KeyValue>) merged;
+    this.snapshotSegments = Collections.emptyList();
+    return merged;
+  }
+
   /**
    * The passed snapshot was successfully persisted; it can be let go.
    * @param ss The snapshot to clean out.
@@ -191,8 +328,9 @@ public class MemStore implements HeapSize {
     }
     // OK. Passed in snapshot is same as current snapshot.  If not-empty,
     // create a new snapshot and let the old one go.
-    if (!ss.isEmpty()) {
+    if (!ss.isEmpty() || !this.snapshotSegments.isEmpty()) {
       this.snapshot = new KeyValueSkipListSet(this.comparator);
+      this.snapshotSegments = Collections.emptyList();
       this.snapshotTimeRangeTracker = new TimeRangeTracker();
     }
     if (this.snapshotAllocator != null) {
@@ -202,6 +340,11 @@ public class MemStore implements HeapSize {
     if (tmpAllocator != null) {
       tmpAllocator.close();
     }
+    List<Segment> segments = this.snapshotPipeline;
+    this.snapshotPipeline = Collections.emptyList();
+    for (Segment segment : segments) {
+      segment.close();
+    }
   }
 
   /**
@@ -250,6 +393,16 @@ public class MemStore implements HeapSize {
   }
 
   private KeyValue maybeCloneWithAllocator(KeyValue kv) {
+    return cloneWithAllocator(this.allocator, kv);
+  }
+
+  /**
+   * @param allocator allocator to copy the KeyValue to; may be null
+   * @param kv KeyValue to copy
+   * @return a copy of <code>kv</code> backed by the allocator, or <code>kv</code>
+   * itself when there is no allocator or it is too large for it
+   */
+  static KeyValue cloneWithAllocator(final MemStoreLAB allocator, final KeyValue kv) {
     if (allocator == null) {
       return kv;
     }
@@ -282,10 +435,24 @@ public class MemStore implements HeapSize {
     // not the snapshot. The flush of this snapshot to disk has not
     // yet started because Store.flush() waits for all rwcc transactions to
     // commit before starting the flush to disk.
-    KeyValue found = this.snapshot.get(kv);
+    KeyValue found = getMatching(this.snapshot, kv);
     if (found != null && found.getMvccVersion() == kv.getMvccVersion()) {
       this.snapshot.remove(kv);
     }
+    // Same for the frozen segments: this.size does not track them either. The
+    // entry is only marked as removed, it still counts in the pipeline size.
+    for (Segment segment : this.snapshotSegments) {
+      found = segment.kvs.get(kv);
+      if (found != null && found.getMvccVersion() == kv.getMvccVersion()) {
+        segment.kvs.remove(kv);
+      }
+    }
+    for (Segment segment : this.pipeline) {
+      found = segment.kvs.get(kv);
+      if (found != null && found.getMvccVersion() == kv.getMvccVersion()) {
+        segment.kvs.remove(kv);
+      }
+    }
     // If the key is in the memstore, delete it. Update this.size.
     found = this.kvset.get(kv);
     if (found != null && found.getMvccVersion() == kv.getMvccVersion()) {
@@ -295,6 +462,99 @@ public class MemStore implements HeapSize {
     }
   }
 
+  /*
+   * @return the entry of <code>set</code> equal to <code>kv</code>, or null
+   */
+  private KeyValue getMatching(final NavigableSet<KeyValue> set, final KeyValue kv) {
+    KeyValue found = set.ceiling(kv);
+    return found != null && comparator.compare(found, kv) == 0 ? found : null;
+  }
+
+  /**
+   * @return true if compacting and the current memstore is large enough to be
+   * frozen into the pipeline
+   */
+  boolean shouldFreeze() {
+    return this.compacting && this.size.get() - DEEP_OVERHEAD >= this.inMemoryFlushSize;
+  }
+
+  /**
+   * Freeze the current memstore into a new segment at the head of the pipeline.
+   * Callers must hold the store write lock, and account for the returned change in
+   * size: a frozen entry does not pay for the skip list anymore.
+   * @return change in the heap size of this memstore
+   */
+  long freeze() {
+    if (this.kvset.isEmpty()) {
+      return 0;
+    }
+    long before = heapSize();
+    Segment segment = new Segment(KeyValueArraySet.copyOf(this.comparator, this.kvset),
+        this.timeRangeTracker, this.allocator);
+    List<Segment> segments = new ArrayList<Segment>(this.pipeline.size() + 1);
+    segments.add(segment);
+    segments.addAll(this.pipeline);
+    this.pipeline = Collections.unmodifiableList(segments);
+    this.pipelineSize += segment.heapSize;
+    this.kvset = new KeyValueSkipListSet(this.comparator);
+    this.timeRangeTracker = new TimeRangeTracker();
+    this.size.set(DEEP_OVERHEAD);
+    // The segment keeps the allocator its data lives in
+    if (this.allocator != null) {
+      this.allocator = new MemStoreLAB(conf, chunkPool);
+    }
+    return heapSize() - before;
+  }
+
+  /**
+   * @return the frozen segments, newest first
+   */
+  List<Segment> getPipeline() {
+    return this.pipeline;
+  }
+
+  /**
+   * @return a new allocator for the data of a merged segment, null if MSLAB is off
+   */
+  MemStoreLAB newAllocator() {
+    return this.allocator == null ? null : new MemStoreLAB(conf, chunkPool);
+  }
+
+  /**
+   * Replace merged segments of the pipeline by the result of their merge. Nothing
+   * is done if the pipeline does not end with the merged segments anymore, e.g.
+   * because it was snapshotted meanwhile. Callers must hold the store write lock,
+   * and account for the returned change in size.
+   * @param merged the segments that were merged, newest first
+   * @param result their merge
+   * @return change in the heap size of this memstore
+   */
+  long swapPipeline(final List<Segment> merged, final Segment result) {
+    List<Segment> segments = this.pipeline;
+    int head = segments.size() - merged.size();
+    if (merged.isEmpty() || head < 0 || !segments.subList(head, segments.size()).equals(merged)) {
+      result.close();
+      return 0;
+    }
+    // Edits rolled back while the merge ran are still in the result.
+    long mergedSize = 0;
+    for (Segment segment : merged) {
+      for (KeyValue kv : segment.kvs.getRemoved()) {
+        result.kvs.remove(kv);
+      }
+      mergedSize += segment.heapSize;
+    }
+    List<Segment> swapped = new ArrayList<Segment>(head + 1);
+    swapped.addAll(segments.subList(0, head));
+    swapped.add(result);
+    this.pipeline = Collections.unmodifiableList(swapped);
+    this.pipelineSize += result.heapSize - mergedSize;
+    for (Segment segment : merged) {
+      segment.close();
+    }
+    return result.heapSize - mergedSize;
+  }
+
   /**
    * Write a delete
    * @param delete
@@ -315,7 +575,14 @@ public class MemStore implements HeapSize {
    * @return Next row or null if none found.
    */
   KeyValue getNextRow(final KeyValue kv) {
-    return getLowest(getNextRow(kv, this.kvset), getNextRow(kv, this.snapshot));
+    KeyValue lowest = getLowest(getNextRow(kv, this.kvset), getNextRow(kv, this.snapshot));
+    for (Segment segment : this.pipeline) {
+      lowest = getLowest(lowest, getNextRow(kv, segment.kvs));
+    }
+    for (Segment segment : this.snapshotSegments) {
+      lowest = getLowest(lowest, getNextRow(kv, segment.kvs));
+    }
+    return lowest;
   }
 
   /*
@@ -360,7 +627,13 @@ public class MemStore implements HeapSize {
    */
   void getRowKeyAtOrBefore(final GetClosestRowBeforeTracker state) {
     getRowKeyAtOrBefore(kvset, state);
+    for (Segment segment : this.pipeline) {
+      getRowKeyAtOrBefore(segment.kvs, state);
+    }
     getRowKeyAtOrBefore(snapshot, state);
+    for (Segment segment : this.snapshotSegments) {
+      getRowKeyAtOrBefore(segment.kvs, state);
+    }
   }
 
   /*
@@ -458,16 +731,9 @@ public class MemStore implements HeapSize {
     KeyValue firstKv = KeyValue.createFirstOnRow(
         row, family, qualifier);
     // Is there a KeyValue in 'snapshot' with the same TS? If so, upgrade the timestamp a bit.
-    SortedSet<KeyValue> snSs = snapshot.tailSet(firstKv);
-    if (!snSs.isEmpty()) {
-      KeyValue snKv = snSs.first();
-      // is there a matching KV in the snapshot?
-      if (snKv.matchingRow(firstKv) && snKv.matchingQualifier(firstKv)) {
-        if (snKv.getTimestamp() == now) {
-          // poop,
-          now += 1;
-        }
-      }
+    now = avoidTimestamp(snapshot, firstKv, now);
+    for (Segment segment : this.snapshotSegments) {
+      now = avoidTimestamp(segment.kvs, firstKv, now);
     }
 
     // logic here: the new ts MUST be at least 'now'. But it could be larger if necessary.
@@ -497,6 +763,25 @@ public class MemStore implements HeapSize {
     return upsert(cells, 1L);
   }
 
+  /**
+   * @return now, or now + 1 if set holds a KeyValue of the column of firstKv at now
+   */
+  private static long avoidTimestamp(final NavigableSet<KeyValue> set, final KeyValue firstKv,
+      final long now) {
+    SortedSet<KeyValue> snSs = set.tailSet(firstKv);
+    if (!snSs.isEmpty()) {
+      KeyValue snKv = snSs.first();
+      // is there a matching KV in the snapshot?
+      if (snKv.matchingRow(firstKv) && snKv.matchingQualifier(firstKv)) {
+        if (snKv.getTimestamp() == now) {
+          // poop,
+          return now + 1;
+        }
+      }
+    }
+    return now;
+  }
+
   /**
    * Update or insert the specified KeyValues.
    * <p>
@@ -641,54 +926,185 @@ public class MemStore implements HeapSize {
    * @return False if the key definitely does not exist in this Memstore
    */
   public boolean shouldSeek(Scan scan, long oldestUnexpiredTS) {
-    return (timeRangeTracker.includesTimeRange(scan.getTimeRange()) ||
-        snapshotTimeRangeTracker.includesTimeRange(scan.getTimeRange()))
-        && (Math.max(timeRangeTracker.getMaximumTimestamp(),
-                     snapshotTimeRangeTracker.getMaximumTimestamp()) >=
-            oldestUnexpiredTS);
+    if (shouldSeek(timeRangeTracker, scan, oldestUnexpiredTS) ||
+        shouldSeek(snapshotTimeRangeTracker, scan, oldestUnexpiredTS)) {
+      return true;
+    }
+    for (Segment segment : this.pipeline) {
+      if (shouldSeek(segment.timeRangeTracker, scan, oldestUnexpiredTS)) return true;
+    }
+    return false;
+  }
+
+  private static boolean shouldSeek(final TimeRangeTracker trt, final Scan scan,
+      final long oldestUnexpiredTS) {
+    return trt.includesTimeRange(scan.getTimeRange()) &&
+        trt.getMaximumTimestamp() >= oldestUnexpiredTS;
   }
 
   public TimeRangeTracker getSnapshotTimeRangeTracker() {
     return this.snapshotTimeRangeTracker;
   }
 
+  /**
+   * An immutable part of the pipeline: the entries frozen out of the current
+   * memstore, or the merge of several such segments.
+   */
+  static class Segment {
+    final KeyValueArraySet kvs;
+    final TimeRangeTracker timeRangeTracker;
+    // Allocator the data of the entries lives in; null if MSLAB is off
+    final MemStoreLAB allocator;
+    final long heapSize;
+
+    Segment(final KeyValueArraySet kvs, final TimeRangeTracker timeRangeTracker,
+        final MemStoreLAB allocator) {
+      this.kvs = kvs;
+      this.timeRangeTracker = timeRangeTracker;
+      this.allocator = allocator;
+      long heap = SEGMENT_OVERHEAD;
+      for (KeyValue kv : kvs) {
+        heap += heapSizeChange(kv);
+      }
+      this.heapSize = heap;
+    }
+
+    /**
+     * Let the segment go. Its data is given back once no scanner reads it anymore.
+     */
+    void close() {
+      if (this.allocator != null) {
+        this.allocator.close();
+      }
+    }
+  }
+
+  /**
+   * @param c comparator the sets are sorted with
+   * @param sets sorted sets, newest first
+   * @return a flat copy of the union of the sets
+   */
+  static KeyValueArraySet mergeSorted(final KeyValue.KVComparator c,
+      final List<? extends NavigableSet<KeyValue>> sets) {
+    int count = 0;
+    for (NavigableSet<KeyValue> set : sets) {
+      count += set.size();
+    }
+    KeyValue[] kvs = new KeyValue[count];
+    int n = 0;
+    for (MergeIterator it = new MergeIterator(c, sets); it.hasNext();) {
+      kvs[n++] = it.next();
+    }
+    return new KeyValueArraySet(c, kvs, n);
+  }
+
+  /**
+   * Iterates over the union of sorted sets, in order. When several sets hold
+   * entries equal according to the comparator, only the one of the first set is
+   * returned, the way a later add overwrites an entry of the memstore.
+   */
+  static class MergeIterator implements Iterator<KeyValue> {
+    private final KeyValue.KVComparator comparator;
+    private final PriorityQueue<Source> heap;
+
+    private class Source implements Comparable<Source> {
+      final Iterator<KeyValue> it;
+      final int order;
+      KeyValue current;
+
+      Source(final Iterator<KeyValue> it, final int order) {
+        this.it = it;
+        this.order = order;
+        this.current = it.next();
+      }
+
+      @Override
+      public int compareTo(final Source other) {
+        int cmp = comparator.compare(this.current, other.current);
+        return cmp != 0 ? cmp : this.order - other.order;
+      }
+    }
+
+    MergeIterator(final KeyValue.KVComparator c,
+        final List<? extends NavigableSet<KeyValue>> sets) {
+      this.comparator = c;
+      this.heap = new PriorityQueue<Source>(Math.max(1, sets.size()));
+      for (int i = 0; i < sets.size(); i++) {
+        Iterator<KeyValue> it = sets.get(i).iterator();
+        if (it.hasNext()) {
+          this.heap.add(new Source(it, i));
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !this.heap.isEmpty();
+    }
+
+    @Override
+    public KeyValue next() {
+      Source top = this.heap.poll();
+      if (top == null) {
+        throw new NoSuchElementException();
+      }
+      KeyValue kv = top.current;
+      advance(top);
+      // Skip the older copies of the same entry
+      while (!this.heap.isEmpty() && comparator.compare(this.heap.peek().current, kv) == 0) {
+        advance(this.heap.poll());
+      }
+      return kv;
+    }
+
+    private void advance(final Source source) {
+      if (source.it.hasNext()) {
+        source.current = source.it.next();
+        this.heap.add(source);
+      }
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
   /*
    * MemStoreScanner implements the KeyValueScanner.
-   * It lets the caller scan the contents of a memstore -- both current
-   * map and snapshot.
+   * It lets the caller scan the contents of a memstore -- the current
+   * map, the segments of the pipeline and the snapshot.
    * This behaves as if it were a real scanner but does not maintain position.
    */
   protected class MemStoreScanner extends NonLazyKeyValueScanner {
-    // Next row information for either kvset or snapshot
-    private KeyValue kvsetNextRow = null;
-    private KeyValue snapshotNextRow = null;
-
-    // last iterated KVs for kvset and snapshot (to restore iterator state after reseek)
-    private KeyValue kvsetItRow = null;
-    private KeyValue snapshotItRow = null;
-    
-    // iterator based scanning.
-    private Iterator<KeyValue> kvsetIt;
-    private Iterator<KeyValue> snapshotIt;
+    // The kvset, pipeline segments and snapshot at the time of creating this
+    // scanner, in this order
+    private final List<NavigableSet<KeyValue>> setsAtCreation;
 
-    // The kvset and snapshot at the time of creating this scanner
-    private KeyValueSkipListSet kvsetAtCreation;
-    private KeyValueSkipListSet snapshotAtCreation;
+    // Next row information for each set
+    private final KeyValue[] nextRows;
 
-    // the pre-calculated KeyValue to be returned by peek() or next()
+    // last iterated KVs for each set (to restore iterator state after reseek)
+    private final KeyValue[] itRows;
+
+    // iterator based scanning.
+    private final List<Iterator<KeyValue>> iterators;
+
+    // the pre-calculated KeyValue to be returned by peek() or next(), and the
+    // index of the set it comes from
     private KeyValue theNext;
+    private int theNextIndex = -1;
+
+    // The allocators holding the data of the sets at the time of creating this scanner
+    private List<MemStoreLAB> allocatorsAtCreation = new ArrayList<MemStoreLAB>();
 
-    // The allocator and snapshot allocator at the time of creating this scanner
-    volatile MemStoreLAB allocatorAtCreation;
-    volatile MemStoreLAB snapshotAllocatorAtCreation;
-    
     private long readPoint;
 
     /*
     Some notes...
 
      So memstorescanner is fixed at creation time. this includes pointers/iterators into
-    existing kvset/snapshot.  during a snapshot creation, the kvset is null, and the
+    existing kvset/pipeline/snapshot.  during a snapshot creation, the kvset is null, and the
     snapshot is moved.  since kvset is null there is no point on reseeking on both,
       we can save us the trouble. During the snapshot->hfile transition, the memstore
       scanner is re-created by StoreScanner#updateReaders().  StoreScanner should
@@ -703,25 +1119,53 @@ public class MemStore implements HeapSize {
       Currently, this problem is only partly managed: during the small amount of time
       when the StoreScanner has not yet created a new MemStoreScanner, we will miss
       the adds to kvset in the MemStoreScanner.
+
+      Segments frozen into the pipeline are immutable, so freezing kvset or merging
+      segments does not change what a scanner sees: it keeps the sets it started with.
     */
 
     MemStoreScanner(long readPoint) {
       super();
 
       this.readPoint = readPoint;
-      kvsetAtCreation = kvset;
-      snapshotAtCreation = snapshot;
-      if (allocator != null) {
-        this.allocatorAtCreation = allocator;
-        this.allocatorAtCreation.incScannerCount();
+      // Read kvset first and the snapshot last: snapshot() writes them the other way
+      // around, so every edit is in at least one of the sets we get.
+      this.setsAtCreation = new ArrayList<NavigableSet<KeyValue>>();
+      this.setsAtCreation.add(kvset);
+      List<Segment> segments = pipeline;
+      for (Segment segment : segments) {
+        this.setsAtCreation.add(segment.kvs);
       }
-      if (snapshotAllocator != null) {
-        this.snapshotAllocatorAtCreation = snapshotAllocator;
-        this.snapshotAllocatorAtCreation.incScannerCount();
+      this.setsAtCreation.add(snapshot);
+      for (Segment segment : snapshotSegments) {
+        this.setsAtCreation.add(segment.kvs);
+      }
+      this.nextRows = new KeyValue[this.setsAtCreation.size()];
+      this.itRows = new KeyValue[this.setsAtCreation.size()];
+      this.iterators = new ArrayList<Iterator<KeyValue>>(this.setsAtCreation.size());
+      for (int i = 0; i < this.setsAtCreation.size(); i++) {
+        this.iterators.add(null);
+      }
+
+      addAllocator(allocator);
+      for (Segment segment : segments) {
+        addAllocator(segment.allocator);
+      }
+      addAllocator(snapshotAllocator);
+      for (Segment segment : snapshotPipeline) {
+        addAllocator(segment.allocator);
       }
     }
 
-    private KeyValue getNext(Iterator<KeyValue> it) {
+    private void addAllocator(final MemStoreLAB lab) {
+      if (lab != null) {
+        lab.incScannerCount();
+        this.allocatorsAtCreation.add(lab);
+      }
+    }
+
+    private KeyValue getNext(int index) {
+      Iterator<KeyValue> it = this.iterators.get(index);
       KeyValue v = null;
       try {
         while (it.hasNext()) {
@@ -735,11 +1179,7 @@ public class MemStore implements HeapSize {
       } finally {
         if (v != null) {
           // in all cases, remember the last KV iterated to
-          if (it == snapshotIt) {
-            snapshotItRow = v;
-          } else {
-            kvsetItRow = v;
-          }
+          this.itRows[index] = v;
         }
       }
     }
@@ -758,12 +1198,12 @@ public class MemStore implements HeapSize {
         return false;
       }
 
-      // kvset and snapshot will never be null.
+      // the sets will never be null.
       // if tailSet can't find anything, SortedSet is empty (not null).
-      kvsetIt = kvsetAtCreation.tailSet(key).iterator();
-      snapshotIt = snapshotAtCreation.tailSet(key).iterator();
-      kvsetItRow = null;
-      snapshotItRow = null;
+      for (int i = 0; i < this.iterators.size(); i++) {
+        this.iterators.set(i, this.setsAtCreation.get(i).tailSet(key).iterator());
+        this.itRows[i] = null;
+      }
 
       return seekInSubLists(key);
     }
@@ -773,11 +1213,12 @@ public class MemStore implements HeapSize {
      * (Re)initialize the iterators after a seek or a reseek.
      */
     private synchronized boolean seekInSubLists(KeyValue key){
-      kvsetNextRow = getNext(kvsetIt);
-      snapshotNextRow = getNext(snapshotIt);
+      for (int i = 0; i < this.iterators.size(); i++) {
+        this.nextRows[i] = getNext(i);
+      }
 
       // Calculate the next value
-      theNext = getLowest(kvsetNextRow, snapshotNextRow);
+      setTheNext();
 
       // has data
       return (theNext != null);
@@ -798,14 +1239,15 @@ public class MemStore implements HeapSize {
       1) It's not possible to use the 'kvTail' and 'snapshot'
        variables, as they are modified during a flush.
       2) The ideal implementation for performance would use the sub skip list
-       implicitly pointed by the iterators 'kvsetIt' and
-       'snapshotIt'. Unfortunately the Java API does not offer a method to
-       get it. So we remember the last keys we iterated to and restore
-       the reseeked set to at least that point.
+       implicitly pointed by the iterators. Unfortunately the Java API does not
+       offer a method to get it. So we remember the last keys we iterated to and
+       restore the reseeked set to at least that point.
        */
 
-      kvsetIt = kvsetAtCreation.tailSet(getHighest(key, kvsetItRow)).iterator();
-      snapshotIt = snapshotAtCreation.tailSet(getHighest(key, snapshotItRow)).iterator();
+      for (int i = 0; i < this.iterators.size(); i++) {
+        this.iterators.set(i,
+          this.setsAtCreation.get(i).tailSet(getHighest(key, this.itRows[i])).iterator());
+      }
 
       return seekInSubLists(key);
     }
@@ -825,15 +1267,11 @@ public class MemStore implements HeapSize {
 
       final KeyValue ret = theNext;
 
-      // Advance one of the iterators
-      if (theNext == kvsetNextRow) {
-        kvsetNextRow = getNext(kvsetIt);
-      } else {
-        snapshotNextRow = getNext(snapshotIt);
-      }
+      // Advance the iterator the value came from
+      this.nextRows[theNextIndex] = getNext(theNextIndex);
 
       // Calculate the next value
-      theNext = getLowest(kvsetNextRow, snapshotNextRow);
+      setTheNext();
 
       //long readpoint = ReadWriteConsistencyControl.getThreadReadPoint();
       //DebugPrint.println(" MS@" + hashCode() + " next: " + theNext + " next_next: " +
@@ -842,19 +1280,20 @@ public class MemStore implements HeapSize {
     }
 
     /*
-     * Returns the lower of the two key values, or null if they are both null.
-     * This uses comparator.compare() to compare the KeyValue using the memstore
-     * comparator.
+     * Set theNext to the lowest of the next rows of the sets, or null if they
+     * are all done. This uses comparator.compare() to compare the KeyValue using
+     * the memstore comparator; on a tie the first set wins.
      */
-    private KeyValue getLowest(KeyValue first, KeyValue second) {
-      if (first == null && second == null) {
-        return null;
-      }
-      if (first != null && second != null) {
-        int compare = comparator.compare(first, second);
-        return (compare <= 0 ? first : second);
+    private void setTheNext() {
+      theNext = null;
+      theNextIndex = -1;
+      for (int i = 0; i < this.nextRows.length; i++) {
+        KeyValue kv = this.nextRows[i];
+        if (kv != null && (theNext == null || comparator.compare(kv, theNext) < 0)) {
+          theNext = kv;
+          theNextIndex = i;
+        }
       }
-      return (first != null ? first : second);
     }
 
     /*
@@ -874,23 +1313,17 @@ public class MemStore implements HeapSize {
     }
 
     public synchronized void close() {
-      this.kvsetNextRow = null;
-      this.snapshotNextRow = null;
-
-      this.kvsetIt = null;
-      this.snapshotIt = null;
-      
-      if (allocatorAtCreation != null) {
-        this.allocatorAtCreation.decScannerCount();
-        this.allocatorAtCreation = null;
-      }
-      if (snapshotAllocatorAtCreation != null) {
-        this.snapshotAllocatorAtCreation.decScannerCount();
-        this.snapshotAllocatorAtCreation = null;
+      for (int i = 0; i < this.iterators.size(); i++) {
+        this.nextRows[i] = null;
+        this.iterators.set(i, null);
+        this.itRows[i] = null;
       }
+      this.theNext = null;
 
-      this.kvsetItRow = null;
-      this.snapshotItRow = null;
+      for (MemStoreLAB lab : this.allocatorsAtCreation) {
+        lab.decScannerCount();
+      }
+      this.allocatorsAtCreation = Collections.emptyList();
     }
 
     /**
@@ -910,7 +1343,8 @@ public class MemStore implements HeapSize {
   }
 
   public final static long FIXED_OVERHEAD = ClassSize.align(
-      ClassSize.OBJECT + (10 * ClassSize.REFERENCE) + Bytes.SIZEOF_LONG);
+      ClassSize.OBJECT + (12 * ClassSize.REFERENCE) + (3 * Bytes.SIZEOF_LONG) +
+      Bytes.SIZEOF_INT + (2 * Bytes.SIZEOF_BOOLEAN));
 
   public final static long DEEP_OVERHEAD = ClassSize.align(FIXED_OVERHEAD +
       ClassSize.ATOMIC_LONG + (2 * ClassSize.TIMERANGE_TRACKER) +
@@ -929,13 +1363,29 @@ public class MemStore implements HeapSize {
         0;
   }
 
+  /** Overhead of a {@link Segment}, its KeyValueArraySet and its TimeRangeTracker */
+  static final long SEGMENT_OVERHEAD =
+      ClassSize.align(ClassSize.OBJECT + (3 * ClassSize.REFERENCE) + Bytes.SIZEOF_LONG) +
+      ClassSize.align(ClassSize.OBJECT + (4 * ClassSize.REFERENCE) + (2 * Bytes.SIZEOF_INT)) +
+      ClassSize.TIMERANGE_TRACKER + ClassSize.ARRAY;
+
+  /*
+   * Calculate the size of an entry of a frozen {@link Segment}: a slot in an
+   * array rather than a skip list entry.
+   * @param kv
+   * @return Size
+   */
+  static long heapSizeChange(final KeyValue kv) {
+    return ClassSize.REFERENCE + kv.heapSize();
+  }
+
   /**
-   * Get the entire heap usage for this MemStore not including keys in the
-   * snapshot.
+   * Get the entire heap usage for this MemStore, pipeline included, not
+   * including keys in the snapshot.
    */
   @Override
   public long heapSize() {
-    return size.get();
+    return size.get() + pipelineSize;
   }
 
   /**
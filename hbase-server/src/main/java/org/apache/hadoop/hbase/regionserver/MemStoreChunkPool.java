@@ -48,14 +48,24 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * {@link MemStoreChunkPool#getChunk()} is called when MemStoreLAB allocating
  * bytes, and {@link MemStoreChunkPool#putbackChunks(BlockingQueue)} is called
  * when MemStore clearing snapshot for flush
+ * 
+ * When <code>hbase.hregion.memstore.chunkpool.dedicated.size</code> is set, the
+ * pool is sized in bytes rather than as a fraction of the global memstore limit,
+ * and all of it is allocated up front. Its chunks then live for the lifetime of
+ * the region server, so the memstore data copied into them never has to be
+ * collected. The pool is carved out of the global memstore limit, which it may
+ * not exceed, and flushes are also forced when it runs out of chunks. See
+ * {@link RegionServerAccounting}.
  */
 @InterfaceAudience.Private
 public class MemStoreChunkPool {
   private static final Log LOG = LogFactory.getLog(MemStoreChunkPool.class);
-  final static String CHUNK_POOL_MAXSIZE_KEY = "hbase.hregion.memstore.chunkpool.maxsize";
+  public final static String CHUNK_POOL_MAXSIZE_KEY = "hbase.hregion.memstore.chunkpool.maxsize";
   final static String CHUNK_POOL_INITIALSIZE_KEY = "hbase.hregion.memstore.chunkpool.initialsize";
   final static float POOL_MAX_SIZE_DEFAULT = 0.0f;
   final static float POOL_INITIAL_SIZE_DEFAULT = 0.0f;
+  final static String CHUNK_POOL_DEDICATED_SIZE_KEY =
+      "hbase.hregion.memstore.chunkpool.dedicated.size";
 
   // Static reference to the MemStoreChunkPool
   private static MemStoreChunkPool globalInstance;
@@ -67,6 +77,10 @@ public class MemStoreChunkPool {
   // A queue of reclaimed chunks
   private final BlockingQueue<Chunk> reclaimedChunks;
   private final int chunkSize;
+  // Whether this pool is preallocated and has a flush limit of its own
+  private final boolean dedicated;
+  // Number of chunks handed out and not given back yet
+  private final AtomicLong chunksInUse = new AtomicLong();
 
   /** Statistics thread schedule pool */
   private final ScheduledExecutorService scheduleThreadPool;
@@ -77,8 +91,14 @@ public class MemStoreChunkPool {
 
   MemStoreChunkPool(Configuration conf, int chunkSize, int maxCount,
       int initialCount) {
+    this(conf, chunkSize, maxCount, initialCount, false);
+  }
+
+  MemStoreChunkPool(Configuration conf, int chunkSize, int maxCount,
+      int initialCount, boolean dedicated) {
     this.maxCount = maxCount;
     this.chunkSize = chunkSize;
+    this.dedicated = dedicated;
     this.reclaimedChunks = new LinkedBlockingQueue<Chunk>();
     for (int i = 0; i < initialCount; i++) {
       Chunk chunk = new Chunk(chunkSize);
@@ -107,6 +127,7 @@ public class MemStoreChunkPool {
       chunk.reset();
       reusedChunkCount.incrementAndGet();
     }
+    chunksInUse.incrementAndGet();
     return chunk;
   }
 
@@ -116,6 +137,7 @@ public class MemStoreChunkPool {
    * @param chunks
    */
   void putbackChunks(BlockingQueue<Chunk> chunks) {
+    chunksInUse.addAndGet(-chunks.size());
     int maxNumToPutback = this.maxCount - reclaimedChunks.size();
     if (maxNumToPutback <= 0) {
       return;
@@ -129,6 +151,7 @@ public class MemStoreChunkPool {
    * @param chunk
    */
   void putbackChunk(Chunk chunk) {
+    chunksInUse.decrementAndGet();
     if (reclaimedChunks.size() >= this.maxCount) {
       return;
     }
@@ -139,6 +162,27 @@ public class MemStoreChunkPool {
     return this.reclaimedChunks.size();
   }
 
+  /**
+   * @return true if this pool is preallocated and flushes are forced when it runs out
+   */
+  boolean isDedicated() {
+    return this.dedicated;
+  }
+
+  /**
+   * @return bytes of the chunks currently handed out to MemStoreLABs
+   */
+  long getInUseSize() {
+    return this.chunksInUse.get() * this.chunkSize;
+  }
+
+  /**
+   * @return bytes of the chunks this pool keeps for reuse at most
+   */
+  long getCapacity() {
+    return (long) this.maxCount * this.chunkSize;
+  }
+
   /*
    * Only used in testing
    */
@@ -167,12 +211,45 @@ public class MemStoreChunkPool {
     long reused = reusedChunkCount.get();
     long total = created + reused;
     LOG.debug("Stats: current pool size=" + reclaimedChunks.size()
+        + ",chunks in use=" + chunksInUse.get()
         + ",created chunk count=" + created
         + ",reused chunk count=" + reused
         + ",reuseRatio=" + (total == 0 ? "0" : StringUtils.formatPercent(
             (float) reused / (float) total, 2)));
   }
 
+  /**
+   * @param conf
+   * @return true if the configuration enables a chunk pool of either kind, so that the
+   *         chunks of a flushed memstore may be handed to another memstore and overwritten
+   */
+  public static boolean isPoolingEnabled(Configuration conf) {
+    return conf.getLong(CHUNK_POOL_DEDICATED_SIZE_KEY, 0) > 0
+        || conf.getFloat(CHUNK_POOL_MAXSIZE_KEY, POOL_MAX_SIZE_DEFAULT) > 0;
+  }
+
+  /**
+   * @param conf
+   * @param heapMax maximum size of the heap
+   * @return the configured size of the dedicated pool, 0 if there is none
+   * @throws IllegalArgumentException if the pool does not fit in the global memstore limit;
+   *         its chunks are on heap, so it has to fit in the memstore's share of the heap
+   */
+  static long getDedicatedSize(Configuration conf, long heapMax) {
+    long dedicatedSize = conf.getLong(CHUNK_POOL_DEDICATED_SIZE_KEY, 0);
+    if (dedicatedSize <= 0) {
+      return 0;
+    }
+    long globalMemStoreLimit = MemStoreFlusher.globalMemStoreLimit(heapMax,
+        MemStoreFlusher.DEFAULT_UPPER, MemStoreFlusher.UPPER_KEY, conf);
+    if (dedicatedSize > globalMemStoreLimit) {
+      throw new IllegalArgumentException(CHUNK_POOL_DEDICATED_SIZE_KEY + " of "
+          + StringUtils.byteDesc(dedicatedSize) + " is larger than the global memstore limit of "
+          + StringUtils.byteDesc(globalMemStoreLimit));
+    }
+    return dedicatedSize;
+  }
+
   /**
    * @param conf
    * @return the global MemStoreChunkPool instance
@@ -181,6 +258,18 @@ public class MemStoreChunkPool {
     if (globalInstance != null) return globalInstance;
     if (chunkPoolDisabled) return null;
 
+    int chunkSize = conf.getInt(MemStoreLAB.CHUNK_SIZE_KEY,
+        MemStoreLAB.CHUNK_SIZE_DEFAULT);
+    long dedicatedSize = getDedicatedSize(conf,
+        ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax());
+    if (dedicatedSize > 0) {
+      int maxCount = (int) (dedicatedSize / chunkSize);
+      LOG.info("Allocating dedicated MemStoreChunkPool with chunk size "
+          + StringUtils.byteDesc(chunkSize) + ", count " + maxCount);
+      globalInstance = new MemStoreChunkPool(conf, chunkSize, maxCount,
+          maxCount, true);
+      return globalInstance;
+    }
 
     float poolSizePercentage = conf.getFloat(CHUNK_POOL_MAXSIZE_KEY,
         POOL_MAX_SIZE_DEFAULT);
@@ -196,8 +285,6 @@ public class MemStoreChunkPool {
         .getMax();
     long globalMemStoreLimit = MemStoreFlusher.globalMemStoreLimit(heapMax,
         MemStoreFlusher.DEFAULT_UPPER, MemStoreFlusher.UPPER_KEY, conf);
-    int chunkSize = conf.getInt(MemStoreLAB.CHUNK_SIZE_KEY,
-        MemStoreLAB.CHUNK_SIZE_DEFAULT);
     int maxCount = (int) (globalMemStoreLimit * poolSizePercentage / chunkSize);
 
     float initialCountPercentage = conf.getFloat(CHUNK_POOL_INITIALSIZE_KEY,
@@ -0,0 +1,243 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Compacts the {@link MemStore} of a store in memory. Once the current memstore is
+ * large enough it is frozen into the pipeline of immutable segments, and when the
+ * pipeline is long enough its segments are merged into one. The merge drops what
+ * a flush would drop: versions beyond the family maximum, expired cells and cells
+ * masked by a delete marker. It keeps anything a running scanner may still read,
+ * and all the delete markers, which also mask cells already in store files.
+ * <p>
+ * The work runs on a pool shared by all the stores of the region server. Only
+ * freezing and swapping in the merged segment hold the store write lock; the merge
+ * itself runs without locks, on immutable segments.
+ */
+@InterfaceAudience.Private
+class MemStoreCompactor {
+  static final Log LOG = LogFactory.getLog(MemStoreCompactor.class);
+
+  /** Number of threads compacting memstores in memory, per region server */
+  static final String THREADS_KEY = "hbase.hregion.memstore.compacting.threads";
+  static final int THREADS_DEFAULT = 1;
+
+  private static ExecutorService pool;
+
+  private final HStore store;
+  private final MemStore memstore;
+  private final AtomicBoolean requested = new AtomicBoolean(false);
+
+  MemStoreCompactor(final HStore store, final MemStore memstore) {
+    this.store = store;
+    this.memstore = memstore;
+  }
+
+  private static synchronized ExecutorService getPool(final Configuration conf) {
+    if (pool == null) {
+      pool = Executors.newFixedThreadPool(Math.max(1, conf.getInt(THREADS_KEY, THREADS_DEFAULT)),
+        new ThreadFactoryBuilder().setNameFormat("MemStoreCompactor-%d").setDaemon(true).build());
+    }
+    return pool;
+  }
+
+  /**
+   * Queue an in-memory compaction of the memstore if it has grown large enough
+   * and none is queued already. Called after each update.
+   */
+  void requestCompactionIfNeeded() {
+    if (!this.memstore.shouldFreeze() || !this.requested.compareAndSet(false, true)) {
+      return;
+    }
+    getPool(this.store.getHRegion().getBaseConf()).execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          compact();
+        } catch (IOException e) {
+          LOG.warn("In-memory compaction of " + store + " failed", e);
+        } finally {
+          requested.set(false);
+        }
+      }
+    });
+  }
+
+  /**
+   * Freeze the current memstore and merge the pipeline if it is long enough.
+   * @throws IOException
+   */
+  void compact() throws IOException {
+    HRegion region = this.store.getHRegion();
+    region.applyMemstoreChange(new Callable<Long>() {
+      @Override
+      public Long call() {
+        store.lock.writeLock().lock();
+        try {
+          return memstore.shouldFreeze() ? memstore.freeze() : 0;
+        } finally {
+          store.lock.writeLock().unlock();
+        }
+      }
+    });
+
+    final List<MemStore.Segment> segments = this.memstore.getPipeline();
+    if (segments.size() < this.memstore.mergeThreshold) {
+      return;
+    }
+    final MemStore.Segment merged = merge(segments, this.store.getScanInfo(),
+        region.getSmallestReadPoint(), EnvironmentEdgeManager.currentTimeMillis(),
+        this.memstore.comparator, this.memstore.newAllocator());
+    region.applyMemstoreChange(new Callable<Long>() {
+      @Override
+      public Long call() {
+        store.lock.writeLock().lock();
+        try {
+          return memstore.swapPipeline(segments, merged);
+        } finally {
+          store.lock.writeLock().unlock();
+        }
+      }
+    });
+    if (LOG.isDebugEnabled()) {
+      long before = 0;
+      for (MemStore.Segment segment : segments) {
+        before += segment.heapSize;
+      }
+      LOG.debug("Merged " + segments.size() + " memstore segments of " + this.store +
+        " from " + before + " to " + merged.heapSize + " bytes");
+    }
+  }
+
+  /**
+   * Merge segments into one, dropping the entries a flush would not write out.
+   * Only entries visible to all the readers, i.e. not newer than the smallest read
+   * point, are dropped or taken into account to drop others.
+   * @param segments segments to merge, newest first
+   * @param scanInfo versions and TTL of the family
+   * @param smallestReadPoint read point of the oldest running scanner
+   * @param now current time, to expire cells
+   * @param comparator comparator of the memstore
+   * @param allocator allocator to copy the entries kept to; null to keep them as is
+   * @return the merged segment
+   */
+  static MemStore.Segment merge(final List<MemStore.Segment> segments, final ScanInfo scanInfo,
+      final long smallestReadPoint, final long now, final KeyValue.KVComparator comparator,
+      final MemStoreLAB allocator) {
+    List<NavigableSet<KeyValue>> sets = new ArrayList<NavigableSet<KeyValue>>(segments.size());
+    int count = 0;
+    for (MemStore.Segment segment : segments) {
+      sets.add(segment.kvs);
+      count += segment.kvs.size();
+    }
+    long ttl = scanInfo.getTtl();
+    long oldestUnexpiredTs = ttl == Long.MAX_VALUE ? Long.MIN_VALUE : now - ttl;
+    boolean keepDeletedCells = scanInfo.getKeepDeletedCells();
+
+    KeyValue[] kept = new KeyValue[count];
+    int n = 0;
+    TimeRangeTracker trt = new TimeRangeTracker();
+    KeyValue row = null;
+    KeyValue column = null;
+    // Timestamps below which the row / column is deleted, -1 if not
+    long familyDeleteTs = -1;
+    long columnDeleteTs = -1;
+    // Whether markers deleting single versions were seen; versions are then
+    // not counted, as the scanner would skip the deleted ones
+    boolean rowHasVersionDeletes = false;
+    boolean columnHasVersionDeletes = false;
+    int versions = 0;
+    long lastTs = -1;
+
+    for (Iterator<KeyValue> it = new MemStore.MergeIterator(comparator, sets); it.hasNext();) {
+      KeyValue kv = it.next();
+      if (row == null || !kv.matchingRow(row)) {
+        row = kv;
+        column = null;
+        familyDeleteTs = -1;
+        rowHasVersionDeletes = false;
+      }
+      if (column == null || !kv.matchingQualifier(column)) {
+        column = kv;
+        columnDeleteTs = -1;
+        columnHasVersionDeletes = false;
+        versions = 0;
+        lastTs = -1;
+      }
+      boolean visible = kv.getMvccVersion() <= smallestReadPoint;
+      byte type = kv.getTypeByte();
+      if (KeyValue.isDelete(type)) {
+        if (type == KeyValue.Type.DeleteFamily.getCode()) {
+          if (visible && !keepDeletedCells) {
+            familyDeleteTs = Math.max(familyDeleteTs, kv.getTimestamp());
+          }
+        } else if (type == KeyValue.Type.DeleteColumn.getCode()) {
+          if (visible && !keepDeletedCells) {
+            columnDeleteTs = Math.max(columnDeleteTs, kv.getTimestamp());
+          }
+        } else if (type == KeyValue.Type.DeleteFamilyVersion.getCode()) {
+          rowHasVersionDeletes = true;
+        } else {
+          columnHasVersionDeletes = true;
+        }
+      } else if (visible) {
+        long ts = kv.getTimestamp();
+        if (ts <= familyDeleteTs || ts <= columnDeleteTs) {
+          continue;
+        }
+        boolean countVersions = !rowHasVersionDeletes && !columnHasVersionDeletes;
+        if (countVersions && ts == lastTs) {
+          // Older put at the same timestamp, hidden by the newer one
+          continue;
+        }
+        if (ts < oldestUnexpiredTs && versions >= scanInfo.getMinVersions()) {
+          continue;
+        }
+        if (countVersions && versions >= scanInfo.getMaxVersions()) {
+          continue;
+        }
+        versions++;
+        lastTs = ts;
+      }
+      KeyValue copy = MemStore.cloneWithAllocator(allocator, kv);
+      kept[n++] = copy;
+      trt.includeTimestamp(copy);
+    }
+    return new MemStore.Segment(new KeyValueArraySet(comparator, kept, n), trt, allocator);
+  }
+}
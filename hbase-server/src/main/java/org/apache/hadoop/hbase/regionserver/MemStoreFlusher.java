@@ -301,19 +301,29 @@ class MemStoreFlusher implements FlushRequester {
   }
 
   /**
-   * Return true if global memory usage is above the high watermark
+   * Return true if global memory usage is above the high watermark, or the
+   * dedicated chunk pool, if any, has run out.
    */
   private boolean isAboveHighWaterMark() {
-    return server.getRegionServerAccounting().
-      getGlobalMemstoreSize() >= globalMemStoreLimit;
+    RegionServerAccounting accounting = server.getRegionServerAccounting();
+    long poolCapacity = accounting.getGlobalMemstoreChunkPoolCapacity();
+    return accounting.getGlobalMemstoreSize() >= globalMemStoreLimit ||
+      (poolCapacity > 0 &&
+        accounting.getGlobalMemstoreChunkPoolSize() >= poolCapacity);
   }
 
   /**
    * Return true if we're above the high watermark
    */
   private boolean isAboveLowWaterMark() {
-    return server.getRegionServerAccounting().
-      getGlobalMemstoreSize() >= globalMemStoreLimitLowMark;
+    RegionServerAccounting accounting = server.getRegionServerAccounting();
+    long poolCapacity = accounting.getGlobalMemstoreChunkPoolCapacity();
+    // Same headroom below the pool capacity as below the global limit
+    long poolLowMark = (long) (poolCapacity *
+      ((double) globalMemStoreLimitLowMark / globalMemStoreLimit));
+    return accounting.getGlobalMemstoreSize() >= globalMemStoreLimitLowMark ||
+      (poolCapacity > 0 &&
+        accounting.getGlobalMemstoreChunkPoolSize() >= poolLowMark);
   }
 
   public void requestFlush(HRegion r) {
@@ -18,6 +18,9 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -30,8 +33,12 @@ import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HDFSBlocksDistribution;
 import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
+import org.apache.hadoop.hbase.io.hfile.BlockCachePartition;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.CacheStats;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.PartitionableBlockCache;
+import org.apache.hadoop.hbase.io.hfile.PrefetchExecutor;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
 import org.apache.hadoop.metrics2.MetricsExecutor;
@@ -182,6 +189,34 @@ class MetricsRegionServerWrapperImpl
     return this.regionServer.compactSplitThread.getLargeCompactionQueueSize();
   }
 
+  @Override
+  public long getCompactionThroughput() {
+    if (this.regionServer.compactSplitThread == null) {
+      return 0;
+    }
+    return (long) this.regionServer.compactSplitThread.getCompactionThroughputController()
+        .getThroughput();
+  }
+
+  @Override
+  public long getCompactionThroughputLimit() {
+    if (this.regionServer.compactSplitThread == null) {
+      return 0;
+    }
+    double limit =
+        this.regionServer.compactSplitThread.getCompactionThroughputController().getMaxThroughput();
+    return limit >= Long.MAX_VALUE ? 0 : (long) limit;
+  }
+
+  @Override
+  public long getCompactionThrottleSleepTime() {
+    if (this.regionServer.compactSplitThread == null) {
+      return 0;
+    }
+    return this.regionServer.compactSplitThread.getCompactionThroughputController()
+        .getSleepTime();
+  }
+
   @Override
   public int getFlushQueueSize() {
     //If there is no flusher there should be no queue.
@@ -207,6 +242,22 @@ class MetricsRegionServerWrapperImpl
     return this.blockCache.getCurrentSize();
   }
 
+  @Override
+  public long getBlockCacheIndexSize() {
+    if (this.cacheStats == null) {
+      return 0;
+    }
+    return this.cacheStats.getIndexBlockSize();
+  }
+
+  @Override
+  public long getBlockCacheBloomSize() {
+    if (this.cacheStats == null) {
+      return 0;
+    }
+    return this.cacheStats.getBloomBlockSize();
+  }
+
   @Override
   public long getBlockCacheFreeSize() {
     if (this.blockCache == null) {
@@ -239,6 +290,26 @@ class MetricsRegionServerWrapperImpl
     return this.cacheStats.getEvictedCount();
   }
 
+  @Override
+  public long getBlockCachePrefetchedBytes() {
+    return PrefetchExecutor.getPrefetchedBytes();
+  }
+
+  @Override
+  public int getBlockCachePrefetchPendingCount() {
+    return PrefetchExecutor.getPendingCount();
+  }
+
+  @Override
+  public long getBlockCacheUnpackCount() {
+    return HFile.getUnpackCount();
+  }
+
+  @Override
+  public long getBlockCacheUnpackTimeMs() {
+    return HFile.getUnpackTimeMs();
+  }
+
   @Override
   public int getBlockCacheHitPercent() {
     if (this.cacheStats == null) {
@@ -247,6 +318,40 @@ class MetricsRegionServerWrapperImpl
     return (int) (this.cacheStats.getHitRatio() * 100);
   }
 
+  @Override
+  public Map<String, Long> getBlockCachePartitionSizes() {
+    Map<String, Long> sizes = new TreeMap<String, Long>();
+    for (BlockCachePartition partition : getBlockCachePartitions()) {
+      sizes.put(partition.getName(), partition.getCurrentSize());
+    }
+    return sizes;
+  }
+
+  @Override
+  public Map<String, Long> getBlockCachePartitionHitCounts() {
+    Map<String, Long> hits = new TreeMap<String, Long>();
+    for (BlockCachePartition partition : getBlockCachePartitions()) {
+      hits.put(partition.getName(), partition.getStats().getHitCount());
+    }
+    return hits;
+  }
+
+  @Override
+  public Map<String, Long> getBlockCachePartitionMissCounts() {
+    Map<String, Long> misses = new TreeMap<String, Long>();
+    for (BlockCachePartition partition : getBlockCachePartitions()) {
+      misses.put(partition.getName(), partition.getStats().getMissCount());
+    }
+    return misses;
+  }
+
+  private Collection<BlockCachePartition> getBlockCachePartitions() {
+    if (!(this.blockCache instanceof PartitionableBlockCache)) {
+      return Collections.emptyList();
+    }
+    return ((PartitionableBlockCache) this.blockCache).getPartitions();
+  }
+
   @Override
   public int getBlockCacheHitCachingPercent() {
     if (this.cacheStats == null) {
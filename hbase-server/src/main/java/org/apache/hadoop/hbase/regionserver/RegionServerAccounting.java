@@ -23,11 +23,17 @@ import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * RegionServerAccounting keeps record of some basic real time information about
  * the Region Server. Currently, it only keeps record the global memstore size. 
+ * <p>
+ * When the MemStoreLABs allocate from a dedicated {@link MemStoreChunkPool}, the
+ * memstore data held in the pool's chunks is also reported on its own, see
+ * {@link #getGlobalMemstoreChunkPoolSize()}. It still counts in the global
+ * Memstore size, since the pool is part of the global memstore limit.
  */
 @InterfaceAudience.Private
 public class RegionServerAccounting {
@@ -39,12 +45,45 @@ public class RegionServerAccounting {
   private final ConcurrentMap<byte[], AtomicLong> replayEditsPerRegion = 
     new ConcurrentSkipListMap<byte[], AtomicLong>(Bytes.BYTES_COMPARATOR);
 
+  // The dedicated chunk pool of the MemStoreLABs, if any
+  private final MemStoreChunkPool dedicatedChunkPool;
+
+  public RegionServerAccounting() {
+    this((MemStoreChunkPool) null);
+  }
+
+  public RegionServerAccounting(Configuration conf) {
+    this(conf.getBoolean(MemStore.USEMSLAB_KEY, MemStore.USEMSLAB_DEFAULT) ?
+      MemStoreChunkPool.getPool(conf) : null);
+  }
+
+  RegionServerAccounting(MemStoreChunkPool chunkPool) {
+    this.dedicatedChunkPool =
+      chunkPool != null && chunkPool.isDedicated() ? chunkPool : null;
+  }
+
   /**
    * @return the global Memstore size in the RegionServer
    */
   public long getGlobalMemstoreSize() {
     return atomicGlobalMemstoreSize.get();
   }
+
+  /**
+   * @return bytes of the dedicated chunk pool in use by the memstores; 0 if there
+   *         is no such pool
+   */
+  public long getGlobalMemstoreChunkPoolSize() {
+    return dedicatedChunkPool == null ? 0 : dedicatedChunkPool.getInUseSize();
+  }
+
+  /**
+   * @return bytes of memstore data the dedicated chunk pool was sized for; 0 if
+   *         there is no such pool
+   */
+  public long getGlobalMemstoreChunkPoolCapacity() {
+    return dedicatedChunkPool == null ? 0 : dedicatedChunkPool.getCapacity();
+  }
   
   /**
    * @param memStoreSize the Memstore size will be added to 
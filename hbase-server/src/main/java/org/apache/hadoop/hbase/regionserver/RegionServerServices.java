@@ -115,4 +115,12 @@ public interface RegionServerServices
    * @return set of recovering regions on the hosting region server
    */
   Map<String, HRegion> getRecoveringRegions();
+
+  /**
+   * @return the max compaction pressure of all stores on this regionserver. The value should be
+   *         greater than or equal to 0.0, and any value greater than 1.0 means we enter the
+   *         emergency state that some stores have too many store files.
+   * @see Store#getCompactionPressure()
+   */
+  double getCompactionPressure();
 }
@@ -203,6 +203,20 @@ public interface Store extends HeapSize, StoreConfigInformation {
 
   int getCompactPriority();
 
+  /**
+   * This value can represent the degree of emergency of compaction for this store. It should be
+   * greater than or equal to 0.0, any value greater than 1.0 means we have too many store files.
+   * <ul>
+   * <li>if getStorefilesCount &lt;= getMinFilesToCompact, return 0.0</li>
+   * <li>return (getStorefilesCount - getMinFilesToCompact) / (blockingFileCount -
+   * getMinFilesToCompact)</li>
+   * </ul>
+   * <p>
+   * For stripe stores the file count is the effective one used for the compaction priority.
+   * @return the degree of emergency of compaction for this store
+   */
+  double getCompactionPressure();
+
   StoreFlushContext createFlushContext(long cacheFlushId);
 
   /**
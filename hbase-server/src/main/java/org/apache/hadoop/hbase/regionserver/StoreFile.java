@@ -42,6 +42,8 @@ import org.apache.hadoop.hbase.HDFSBlocksDistribution;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValue.KVComparator;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.PrefixFilter;
 import org.apache.hadoop.hbase.io.FSDataInputStreamWrapper;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.hfile.BlockType;
@@ -102,9 +104,15 @@ public class StoreFile {
   public static final byte[] DELETE_FAMILY_COUNT =
       Bytes.toBytes("DELETE_FAMILY_COUNT");
 
+  /** Count of delete markers of any type in FileInfo */
+  public static final byte[] DELETE_COUNT = Bytes.toBytes("DELETE_COUNT");
+
   /** Last Bloom filter key in FileInfo */
   private static final byte[] LAST_BLOOM_KEY = Bytes.toBytes("LAST_BLOOM_KEY");
 
+  /** Row prefix length of a row prefix Bloom filter in FileInfo */
+  public static final byte[] BLOOM_PREFIX_LENGTH_KEY = Bytes.toBytes("BLOOM_PREFIX_LENGTH");
+
   /** Key for Timerange information in metadata*/
   public static final byte[] TIMERANGE_KEY = Bytes.toBytes("TIMERANGE");
 
@@ -518,6 +526,7 @@ public class StoreFile {
 
     private KeyValue.KVComparator comparator = KeyValue.COMPARATOR;
     private BloomType bloomType = BloomType.NONE;
+    private int bloomPrefixLength = 0;
     private long maxKeyCount = 0;
     private Path dir;
     private Path filePath;
@@ -575,6 +584,16 @@ public class StoreFile {
       return this;
     }
 
+    /**
+     * @param bloomPrefixLength length of the row prefix keying a
+     *          {@link BloomType#ROWPREFIX} Bloom filter
+     * @return this (for chained invocation)
+     */
+    public WriterBuilder withBloomPrefixLength(int bloomPrefixLength) {
+      this.bloomPrefixLength = bloomPrefixLength;
+      return this;
+    }
+
     /**
      * @param maxKeyCount estimated maximum number of keys we expect to add
      * @return this (for chained invocation)
@@ -614,11 +633,17 @@ public class StoreFile {
         }
       }
 
+      if (bloomType == BloomType.ROWPREFIX && bloomPrefixLength <= 0) {
+        LOG.warn("No prefix length for the row prefix Bloom filter of " + filePath +
+          "; writing it without a Bloom filter");
+        bloomType = BloomType.NONE;
+      }
+
       if (comparator == null) {
         comparator = KeyValue.COMPARATOR;
       }
-      return new Writer(fs, filePath, 
-          conf, cacheConf, comparator, bloomType, maxKeyCount, favoredNodes, fileContext);
+      return new Writer(fs, filePath, conf, cacheConf, comparator, bloomType,
+          bloomPrefixLength, maxKeyCount, favoredNodes, fileContext);
     }
   }
 
@@ -642,6 +667,12 @@ public class StoreFile {
         getReader().timeRangeTracker.minimumTimestamp;
   }
 
+  public Long getMaximumTimestamp() {
+    return (getReader().timeRangeTracker == null) ?
+        null :
+        getReader().timeRangeTracker.maximumTimestamp;
+  }
+
   /**
    * Gets the approximate mid-point of this file that is optimal for use in splitting it.
    * @param comparator Comparator used to compare KVs.
@@ -683,6 +714,7 @@ public class StoreFile {
     private final BloomFilterWriter generalBloomFilterWriter;
     private final BloomFilterWriter deleteFamilyBloomFilterWriter;
     private final BloomType bloomType;
+    private final int bloomPrefixLength;
     private byte[] lastBloomKey;
     private int lastBloomKeyOffset, lastBloomKeyLen;
     private KVComparator kvComparator;
@@ -690,6 +722,7 @@ public class StoreFile {
     private long earliestPutTs = HConstants.LATEST_TIMESTAMP;
     private KeyValue lastDeleteFamilyKV = null;
     private long deleteFamilyCnt = 0;
+    private long deleteCnt = 0;
 
 
     /** Checksum type */
@@ -716,6 +749,7 @@ public class StoreFile {
      * @param conf user configuration
      * @param comparator key comparator
      * @param bloomType bloom filter setting
+     * @param bloomPrefixLength row prefix length of a row prefix bloom filter
      * @param maxKeys the expected maximum number of keys to be added. Was used
      *        for Bloom filter size in {@link HFile} format version 1.
      * @param favoredNodes
@@ -725,8 +759,8 @@ public class StoreFile {
     private Writer(FileSystem fs, Path path,
         final Configuration conf,
         CacheConfig cacheConf,
-        final KVComparator comparator, BloomType bloomType, long maxKeys,
-        InetSocketAddress[] favoredNodes, HFileContext fileContext) 
+        final KVComparator comparator, BloomType bloomType, int bloomPrefixLength,
+        long maxKeys, InetSocketAddress[] favoredNodes, HFileContext fileContext)
             throws IOException {
       writer = HFile.getWriterFactory(conf, cacheConf)
           .withPath(fs, path)
@@ -736,6 +770,7 @@ public class StoreFile {
           .create();
 
       this.kvComparator = comparator;
+      this.bloomPrefixLength = bloomPrefixLength;
 
       generalBloomFilterWriter = BloomFilterFactory.createGeneralBloomAtWrite(
           conf, cacheConf, bloomType,
@@ -825,12 +860,16 @@ public class StoreFile {
           case ROWCOL:
             newKey = ! kvComparator.matchingRowColumn(kv, lastKv);
             break;
+          case ROWPREFIX:
+            newKey = ! Bytes.equals(kv.getBuffer(), kv.getRowOffset(), getRowPrefixLength(kv),
+                lastKv.getBuffer(), lastKv.getRowOffset(), getRowPrefixLength(lastKv));
+            break;
           case NONE:
             newKey = false;
             break;
           default:
             throw new IOException("Invalid Bloom filter type: " + bloomType +
-                " (ROW or ROWCOL expected)");
+                " (ROW, ROWCOL or ROWPREFIX expected)");
           }
         }
         if (newKey) {
@@ -838,9 +877,10 @@ public class StoreFile {
            * http://2.bp.blogspot.com/_Cib_A77V54U/StZMrzaKufI/AAAAAAAAADo/ZhK7bGoJdMQ/s400/KeyValue.png
            * Key = RowLen + Row + FamilyLen + Column [Family + Qualifier] + TimeStamp
            *
-           * 2 Types of Filtering:
+           * 3 Types of Filtering:
            *  1. Row = Row
            *  2. RowCol = Row + Qualifier
+           *  3. RowPrefix = first bloomPrefixLength bytes of Row
            */
           byte[] bloomKey;
           int bloomKeyOffset, bloomKeyLen;
@@ -861,9 +901,14 @@ public class StoreFile {
             bloomKeyOffset = 0;
             bloomKeyLen = bloomKey.length;
             break;
+          case ROWPREFIX:
+            bloomKey = kv.getBuffer();
+            bloomKeyOffset = kv.getRowOffset();
+            bloomKeyLen = getRowPrefixLength(kv);
+            break;
           default:
             throw new IOException("Invalid Bloom filter type: " + bloomType +
-                " (ROW or ROWCOL expected)");
+                " (ROW, ROWCOL or ROWPREFIX expected)");
           }
           generalBloomFilterWriter.add(bloomKey, bloomKeyOffset, bloomKeyLen);
           if (lastBloomKey != null
@@ -884,6 +929,14 @@ public class StoreFile {
       }
     }
 
+    /**
+     * @return length of the row prefix keying the row prefix Bloom filter;
+     *         rows shorter than the prefix length are keyed by the whole row
+     */
+    private int getRowPrefixLength(final KeyValue kv) {
+      return Math.min(kv.getRowLength(), bloomPrefixLength);
+    }
+
     private void appendDeleteFamilyBloomFilter(final KeyValue kv)
         throws IOException {
       if (!kv.isDeleteFamily() && !kv.isDeleteFamilyVersion()) {
@@ -908,6 +961,9 @@ public class StoreFile {
     public void append(final KeyValue kv) throws IOException {
       appendGeneralBloomfilter(kv);
       appendDeleteFamilyBloomFilter(kv);
+      if (KeyValue.isDelete(kv.getTypeByte())) {
+        deleteCnt++;
+      }
       writer.append(kv);
       trackTimestamps(kv);
     }
@@ -945,6 +1001,9 @@ public class StoreFile {
         writer.addGeneralBloomFilter(generalBloomFilterWriter);
         writer.appendFileInfo(BLOOM_FILTER_TYPE_KEY,
             Bytes.toBytes(bloomType.toString()));
+        if (bloomType == BloomType.ROWPREFIX) {
+          writer.appendFileInfo(BLOOM_PREFIX_LENGTH_KEY, Bytes.toBytes(bloomPrefixLength));
+        }
         if (lastBloomKey != null) {
           writer.appendFileInfo(LAST_BLOOM_KEY, Arrays.copyOfRange(
               lastBloomKey, lastBloomKeyOffset, lastBloomKeyOffset
@@ -966,6 +1025,7 @@ public class StoreFile {
       // even if there is no delete family Bloom.
       writer.appendFileInfo(DELETE_FAMILY_COUNT,
           Bytes.toBytes(this.deleteFamilyCnt));
+      writer.appendFileInfo(DELETE_COUNT, Bytes.toBytes(this.deleteCnt));
 
       return hasDeleteFamilyBloom;
     }
@@ -1010,7 +1070,9 @@ public class StoreFile {
     protected TimeRangeTracker timeRangeTracker = null;
     protected long sequenceID = -1;
     private byte[] lastBloomKey;
+    private int bloomPrefixLength;
     private long deleteFamilyCnt = -1;
+    private long deleteCnt = -1;
 
     public Reader(FileSystem fs, Path path, CacheConfig cacheConf) throws IOException {
       reader = HFile.createReader(fs, path, cacheConf);
@@ -1122,7 +1184,8 @@ public class StoreFile {
 
     /**
      * Checks whether the given scan passes the Bloom filter (if present). Only
-     * checks Bloom filters for single-row or single-row-column scans. Bloom
+     * checks Bloom filters for single-row or single-row-column scans, or for
+     * scans whose rows share a row prefix Bloom filter key. Bloom
      * filter checking for multi-gets is implemented as part of the store
      * scanner system (see {@link StoreFileScanner#seekExactly}) and uses
      * the lower-level API {@link #passesGeneralBloomFilter(byte[], int, int, byte[],
@@ -1138,6 +1201,12 @@ public class StoreFile {
      */
      boolean passesBloomFilter(Scan scan,
         final SortedSet<byte[]> columns) {
+      if (this.bloomFilterType == BloomType.ROWPREFIX) {
+        byte[] rowPrefix = getRowPrefix(scan);
+        return rowPrefix == null
+            || passesGeneralBloomFilter(rowPrefix, 0, rowPrefix.length, null, 0, 0);
+      }
+
       // Multi-column non-get scans will use Bloom filters through the
       // lower-level API function that this function calls.
       if (!scan.isGetScan()) {
@@ -1165,6 +1234,35 @@ public class StoreFile {
       }
     }
 
+    /**
+     * @param scan the scan specification
+     * @return the row prefix Bloom filter key that all rows of the scan share,
+     *         or null if they do not share one
+     */
+    private byte[] getRowPrefix(Scan scan) {
+      if (bloomPrefixLength <= 0) {
+        return null;
+      }
+      byte[] startRow = scan.getStartRow();
+      if (scan.isGetScan()) {
+        return Arrays.copyOf(startRow, Math.min(startRow.length, bloomPrefixLength));
+      }
+      Filter filter = scan.getFilter();
+      if (filter instanceof PrefixFilter) {
+        byte[] prefix = ((PrefixFilter) filter).getPrefix();
+        if (prefix != null && prefix.length >= bloomPrefixLength) {
+          return Arrays.copyOf(prefix, bloomPrefixLength);
+        }
+      }
+      // All rows between the start and the stop row share their common prefix
+      byte[] stopRow = scan.getStopRow();
+      if (startRow.length >= bloomPrefixLength && stopRow.length >= bloomPrefixLength
+          && Bytes.equals(startRow, 0, bloomPrefixLength, stopRow, 0, bloomPrefixLength)) {
+        return Arrays.copyOf(startRow, bloomPrefixLength);
+      }
+      return null;
+    }
+
     public boolean passesDeleteFamilyBloomFilter(byte[] row, int rowOffset,
         int rowLen) {
       // Cache Bloom filter as a local variable in case it is set to null by
@@ -1234,6 +1332,14 @@ public class StoreFile {
               colOffset, colLen);
           break;
 
+        case ROWPREFIX:
+          if (bloomPrefixLength <= 0) {
+            return true;
+          }
+          key = Arrays.copyOfRange(row, rowOffset,
+              rowOffset + Math.min(rowLen, bloomPrefixLength));
+          break;
+
         default:
           return true;
       }
@@ -1331,10 +1437,18 @@ public class StoreFile {
       }
 
       lastBloomKey = fi.get(LAST_BLOOM_KEY);
+      byte[] p = fi.get(BLOOM_PREFIX_LENGTH_KEY);
+      if (p != null) {
+        bloomPrefixLength = Bytes.toInt(p);
+      }
       byte[] cnt = fi.get(DELETE_FAMILY_COUNT);
       if (cnt != null) {
         deleteFamilyCnt = Bytes.toLong(cnt);
       }
+      cnt = fi.get(DELETE_COUNT);
+      if (cnt != null) {
+        deleteCnt = Bytes.toLong(cnt);
+      }
 
       return fi;
     }
@@ -1445,6 +1559,14 @@ public class StoreFile {
       return deleteFamilyCnt;
     }
 
+    /**
+     * @return the number of delete markers of any type in the file, or -1 if the file was
+     *         written before the count was kept
+     */
+    public long getDeleteCnt() {
+      return deleteCnt;
+    }
+
     public byte[] getFirstKey() {
       return reader.getFirstKey();
     }
@@ -34,6 +34,7 @@ import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.io.hfile.HFileScanner;
 import org.apache.hadoop.hbase.regionserver.StoreFile.Reader;
+import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * KeyValueScanner adaptor over the Reader.  It also provides hooks into
@@ -58,6 +59,10 @@ public class StoreFileScanner implements KeyValueScanner {
   private static AtomicLong seekCount;
 
   private ScanQueryMatcher matcher;
+
+  // Row that both the delete family and the general Bloom filter of this file
+  // ruled out, so later seeks within it do not need to touch the file.
+  private byte[] bloomExcludedRow;
   
   private long readPt;
 
@@ -296,12 +301,24 @@ public class StoreFileScanner implements KeyValueScanner {
         haveToSeek = reader.passesGeneralBloomFilter(kv.getBuffer(),
             kv.getRowOffset(), kv.getRowLength(), kv.getBuffer(),
             kv.getQualifierOffset(), kv.getQualifierLength());
+      } else if (bloomExcludedRow != null && Bytes.equals(bloomExcludedRow, 0,
+          bloomExcludedRow.length, kv.getBuffer(), kv.getRowOffset(), kv.getRowLength())) {
+        // the whole row is known not to be in the store file.
+        haveToSeek = false;
       } else if (this.matcher != null && !matcher.hasNullColumnInQuery() &&
           (kv.isDeleteFamily() || kv.isDeleteFamilyVersion())) {
         // if there is no such delete family kv in the store file,
         // then no need to seek.
         haveToSeek = reader.passesDeleteFamilyBloomFilter(kv.getBuffer(),
             kv.getRowOffset(), kv.getRowLength());
+        // if the row is not in the store file either, then no need to seek
+        // for any column of the row.
+        if (!haveToSeek) {
+          byte[] row = kv.getRow();
+          if (!passesGeneralRowBloomFilter(row)) {
+            bloomExcludedRow = row;
+          }
+        }
       }
     }
 
@@ -345,6 +362,18 @@ public class StoreFileScanner implements KeyValueScanner {
     return true;
   }
 
+  /**
+   * @return false if the general Bloom filter of the store file is keyed by
+   *         row or row prefix and rules out the given row
+   */
+  private boolean passesGeneralRowBloomFilter(byte[] row) {
+    BloomType bloomType = reader.getBloomFilterType();
+    if (bloomType != BloomType.ROW && bloomType != BloomType.ROWPREFIX) {
+      return true;
+    }
+    return reader.passesGeneralBloomFilter(row, 0, row.length, null, 0, 0);
+  }
+
   Reader getReaderForTesting() {
     return reader;
   }
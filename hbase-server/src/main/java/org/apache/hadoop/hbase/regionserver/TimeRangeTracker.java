@@ -92,6 +92,18 @@ public class TimeRangeTracker implements Writable {
     }
   }
 
+  /**
+   * Update the current TimestampRange to include the range of another tracker.
+   * @param trt the TimeRangeTracker to include; nothing is done if it is empty
+   */
+  public void includeTimeRange(final TimeRangeTracker trt) {
+    if (trt.getMaximumTimestamp() == -1) {
+      return;
+    }
+    includeTimestamp(trt.getMinimumTimestamp());
+    includeTimestamp(trt.getMaximumTimestamp());
+  }
+
   /**
    * If required, update the current TimestampRange to include timestamp
    * @param timestamp the timestamp value to include
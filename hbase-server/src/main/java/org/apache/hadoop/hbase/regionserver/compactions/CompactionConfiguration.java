@@ -51,6 +51,18 @@ public class CompactionConfiguration {
   public static final String MIN_KEY = CONFIG_PREFIX + "min";
   public static final String MAX_KEY = CONFIG_PREFIX + "max";
 
+  /*
+   * The following keys are used by the date tiered compaction policy only.
+   */
+  public static final String MAX_AGE_MILLIS_KEY =
+      CONFIG_PREFIX + "date.tiered.max.storefile.age.millis";
+  public static final String BASE_WINDOW_MILLIS_KEY =
+      CONFIG_PREFIX + "date.tiered.base.window.millis";
+  public static final String WINDOWS_PER_TIER_KEY =
+      CONFIG_PREFIX + "date.tiered.windows.per.tier";
+  public static final String INCOMING_WINDOW_MIN_KEY =
+      CONFIG_PREFIX + "date.tiered.incoming.window.min";
+
   Configuration conf;
   StoreConfigInformation storeConfigInfo;
 
@@ -64,6 +76,10 @@ public class CompactionConfiguration {
   boolean shouldDeleteExpired;
   long majorCompactionPeriod;
   float majorCompactionJitter;
+  long maxStoreFileAgeMillis;
+  long baseWindowMillis;
+  int windowsPerTier;
+  int incomingWindowMin;
 
   CompactionConfiguration(Configuration conf, StoreConfigInformation storeConfigInfo) {
     this.conf = conf;
@@ -85,6 +101,11 @@ public class CompactionConfiguration {
     // Make it 0.5 so jitter has us fall evenly either side of when the compaction should run
     majorCompactionJitter = conf.getFloat("hbase.hregion.majorcompaction.jitter", 0.50F);
 
+    maxStoreFileAgeMillis = conf.getLong(MAX_AGE_MILLIS_KEY, Long.MAX_VALUE);
+    baseWindowMillis = Math.max(1, conf.getLong(BASE_WINDOW_MILLIS_KEY, 3600000 * 6));
+    windowsPerTier = Math.max(2, conf.getInt(WINDOWS_PER_TIER_KEY, 4));
+    incomingWindowMin = conf.getInt(INCOMING_WINDOW_MIN_KEY, 6);
+
     LOG.info(this);
   }
 
@@ -176,4 +197,33 @@ public class CompactionConfiguration {
   boolean shouldDeleteExpired() {
     return shouldDeleteExpired;
   }
+
+  /**
+   * @return Age in milliseconds of the newest cell of a store file beyond which the date
+   *  tiered policy never compacts the file again
+   */
+  long getMaxStoreFileAgeMillis() {
+    return maxStoreFileAgeMillis;
+  }
+
+  /**
+   * @return Width in milliseconds of the newest, smallest time windows of the date tiered policy
+   */
+  long getBaseWindowMillis() {
+    return baseWindowMillis;
+  }
+
+  /**
+   * @return Number of time windows of a tier that are merged into one window of the next tier
+   */
+  int getWindowsPerTier() {
+    return windowsPerTier;
+  }
+
+  /**
+   * @return Minimum number of files in the newest time window before it is compacted
+   */
+  int getIncomingWindowMin() {
+    return incomingWindowMin;
+  }
 }
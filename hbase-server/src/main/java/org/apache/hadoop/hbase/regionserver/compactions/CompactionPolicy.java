@@ -55,6 +55,23 @@ public abstract class CompactionPolicy {
    */
   public abstract boolean throttleCompaction(long compactionSize);
 
+  /**
+   * @param priority Compaction priority of the store, the blocking file count less the
+   *          (effective) number of store files.
+   * @return The compaction pressure of the store, see {@link
+   *         org.apache.hadoop.hbase.regionserver.Store#getCompactionPressure()}.
+   */
+  public double getCompactionPressure(int priority) {
+    long blockingFileCount = storeConfigInfo.getBlockingFileCount();
+    int minFilesToCompact = comConf.getMinFilesToCompact();
+    long storefileCount = blockingFileCount - priority;
+    if (storefileCount <= minFilesToCompact || blockingFileCount <= minFilesToCompact) {
+      return 0.0;
+    }
+    return (double) (storefileCount - minFilesToCompact)
+        / (blockingFileCount - minFilesToCompact);
+  }
+
   /**
    * Inform the policy that some configuration has been change,
    * so cached value should be updated it any.
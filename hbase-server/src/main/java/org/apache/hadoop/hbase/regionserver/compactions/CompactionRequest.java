@@ -25,6 +25,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.hbase.regionserver.CompactionOffloader;
 import org.apache.hadoop.hbase.regionserver.Store;
 import org.apache.hadoop.hbase.regionserver.StoreFile;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
@@ -56,6 +57,9 @@ public class CompactionRequest implements Comparable<CompactionRequest> {
   private String regionName = "";
   private String storeName = "";
   private long totalSize = -1L;
+  private CompactionThroughputController throughputController =
+      NoLimitCompactionThroughputController.INSTANCE;
+  private CompactionOffloader offloader = null;
 
   /**
    * This ctor should be used by coprocessors that want to subclass CompactionRequest.
@@ -99,6 +103,8 @@ public class CompactionRequest implements Comparable<CompactionRequest> {
     this.regionName = other.regionName;
     this.storeName = other.storeName;
     this.totalSize = other.totalSize;
+    this.throughputController = other.throughputController;
+    this.offloader = other.offloader;
     return this;
   }
 
@@ -178,6 +184,30 @@ public class CompactionRequest implements Comparable<CompactionRequest> {
     this.isOffPeak = value;
   }
 
+  /** Gets the controller limiting the throughput of the compaction */
+  public CompactionThroughputController getThroughputController() {
+    return this.throughputController;
+  }
+
+  /** Sets the controller limiting the throughput of the compaction */
+  public void setThroughputController(CompactionThroughputController throughputController) {
+    Preconditions.checkNotNull(throughputController);
+    this.throughputController = throughputController;
+  }
+
+  /**
+   * @return The offloader that may run the compaction on a compaction worker; null if the
+   *         compaction is always done by the region server
+   */
+  public CompactionOffloader getOffloader() {
+    return this.offloader;
+  }
+
+  /** Sets the offloader that may run the compaction on a compaction worker */
+  public void setOffloader(CompactionOffloader offloader) {
+    this.offloader = offloader;
+  }
+
   public long getSelectionTime() {
     return this.selectionTime;
   }
@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.regionserver.RegionServerServices;
+
+/**
+ * A utility that constrains the total throughput of one or more simultaneous compactions on a
+ * region server. {@link Compactor} calls {@link #control(String, long)} as it writes the cells
+ * of a compaction, and the controller sleeps the compaction thread as needed.
+ */
+@InterfaceAudience.Private
+public interface CompactionThroughputController extends Stoppable {
+
+  /**
+   * Setup controller for the given region server.
+   */
+  void setup(RegionServerServices server);
+
+  /**
+   * Start a compaction.
+   */
+  void start(String compactionName);
+
+  /**
+   * Control the compaction throughput. Will sleep if too fast.
+   * @param compactionName name of the compaction, as passed to {@link #start(String)}
+   * @param size total number of bytes written by the compaction so far
+   * @return the actual sleep time, in milliseconds
+   */
+  long control(String compactionName, long size) throws InterruptedException;
+
+  /**
+   * Finish a compaction. Should call this method in a finally block.
+   */
+  void finish(String compactionName);
+
+  /**
+   * @return the current throughput limit of all compactions together, in bytes per second,
+   *         or {@link Double#MAX_VALUE} if it is not limited
+   */
+  double getMaxThroughput();
+
+  /**
+   * @return the current throughput of all running compactions together, in bytes per second
+   */
+  double getThroughput();
+
+  /**
+   * @return the total time compactions have been slept to limit their throughput, in
+   *         milliseconds
+   */
+  long getSleepTime();
+}
@@ -18,10 +18,12 @@
 package org.apache.hadoop.hbase.regionserver.compactions;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -42,7 +44,9 @@ import org.apache.hadoop.hbase.regionserver.Store;
 import org.apache.hadoop.hbase.regionserver.StoreFile;
 import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
 import org.apache.hadoop.hbase.regionserver.StoreScanner;
+import org.apache.hadoop.hbase.regionserver.TimeRangeTracker;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.util.StringUtils;
 
 /**
@@ -52,11 +56,21 @@ import org.apache.hadoop.util.StringUtils;
 @InterfaceAudience.Private
 public abstract class Compactor {
   private static final Log LOG = LogFactory.getLog(Compactor.class);
+  private static final AtomicInteger NAME_COUNTER = new AtomicInteger(0);
+
+  /**
+   * Whether files without delete markers and expired cells are compacted with a
+   * {@link StoreFileMergeScanner} instead of a {@link StoreScanner}.
+   */
+  public static final String MERGE_WITHOUT_MATCHER_KEY =
+      "hbase.hstore.compaction.merge.without.matcher";
+
   protected CompactionProgress progress;
   protected Configuration conf;
   protected Store store;
 
   private int compactionKVMax;
+  private boolean mergeWithoutMatcher;
   protected Compression.Algorithm compactionCompression;
 
   //TODO: depending on Store is not good but, realistically, all compactors currently do.
@@ -65,6 +79,7 @@ public abstract class Compactor {
     this.store = store;
     this.compactionKVMax =
       this.conf.getInt(HConstants.COMPACTION_KV_MAX, HConstants.COMPACTION_KV_MAX_DEFAULT);
+    this.mergeWithoutMatcher = this.conf.getBoolean(MERGE_WITHOUT_MATCHER_KEY, true);
     this.compactionCompression = (this.store.getFamily() == null) ?
         Compression.Algorithm.NONE : this.store.getFamily().getCompactionCompression();
   }
@@ -202,46 +217,141 @@ public abstract class Compactor {
    * @param scanner Where to read from.
    * @param writer Where to write to.
    * @param smallestReadPoint Smallest read point.
+   * @param throughputController Limits the rate at which cells are written.
+   * @return Whether compaction ended; false if it was interrupted for some reason.
+   */
+  protected boolean performCompaction(InternalScanner scanner, CellSink writer,
+      long smallestReadPoint, CompactionThroughputController throughputController)
+      throws IOException {
+    return performCompaction(scanner, writer, smallestReadPoint, throughputController,
+        this.progress);
+  }
+
+  /**
+   * Performs the compaction, tracking it with the given progress, so that several parts of a
+   * compaction can be done concurrently.
+   * @param scanner Where to read from.
+   * @param writer Where to write to.
+   * @param smallestReadPoint Smallest read point.
+   * @param throughputController Limits the rate at which cells are written.
+   * @param progress Progress of the compaction.
    * @return Whether compaction ended; false if it was interrupted for some reason.
    */
-  protected boolean performCompaction(InternalScanner scanner,
-      CellSink writer, long smallestReadPoint) throws IOException {
+  protected boolean performCompaction(InternalScanner scanner, CellSink writer,
+      long smallestReadPoint, CompactionThroughputController throughputController,
+      CompactionProgress progress) throws IOException {
     int bytesWritten = 0;
+    long bytesWrittenProgress = 0;
     // Since scanner.next() can return 'false' but still be delivering data,
     // we have to use a do/while loop.
     List<Cell> kvs = new ArrayList<Cell>();
     // Limit to "hbase.hstore.compaction.kv.max" (default 10) to avoid OOME
     int closeCheckInterval = HStore.getCloseCheckInterval();
-    boolean hasMore;
-    do {
-      hasMore = scanner.next(kvs, compactionKVMax);
-      // output to writer:
-      for (Cell c : kvs) {
-        KeyValue kv = KeyValueUtil.ensureKeyValue(c);
-        if (kv.getMvccVersion() <= smallestReadPoint) {
-          kv.setMvccVersion(0);
-        }
-        writer.append(kv);
-        ++progress.currentCompactedKVs;
+    String compactionName = store.getRegionInfo().getRegionNameAsString() + "#"
+        + store.getFamily().getNameAsString() + "#" + NAME_COUNTER.getAndIncrement();
+    throughputController.start(compactionName);
+    try {
+      boolean hasMore;
+      do {
+        hasMore = scanner.next(kvs, compactionKVMax);
+        // output to writer:
+        for (Cell c : kvs) {
+          KeyValue kv = KeyValueUtil.ensureKeyValue(c);
+          if (kv.getMvccVersion() <= smallestReadPoint) {
+            kv.setMvccVersion(0);
+          }
+          writer.append(kv);
+          ++progress.currentCompactedKVs;
+          int len = kv.getLength();
+          bytesWrittenProgress += len;
+          throughputController.control(compactionName, bytesWrittenProgress);
 
-        // check periodically to see if a system stop is requested
-        if (closeCheckInterval > 0) {
-          bytesWritten += kv.getLength();
-          if (bytesWritten > closeCheckInterval) {
-            bytesWritten = 0;
-            if (!store.areWritesEnabled()) {
-              progress.cancel();
-              return false;
+          // check periodically to see if a system stop is requested
+          if (closeCheckInterval > 0) {
+            bytesWritten += len;
+            if (bytesWritten > closeCheckInterval) {
+              bytesWritten = 0;
+              if (!store.areWritesEnabled()) {
+                progress.cancel();
+                return false;
+              }
             }
           }
         }
-      }
-      kvs.clear();
-    } while (hasMore);
+        kvs.clear();
+      } while (hasMore);
+    } catch (InterruptedException e) {
+      progress.cancel();
+      throw new InterruptedIOException("Interrupted while controlling the throughput of "
+          + compactionName);
+    } finally {
+      throughputController.finish(compactionName);
+    }
     progress.complete();
     return true;
   }
 
+  /**
+   * Checks whether the files can be compacted by merging their cells, without matching each
+   * of them against the deletes and the TTL of the store. This requires that no coprocessor
+   * sees the compaction, and that the files are known to have no delete markers and no
+   * expired cells. Files written before the delete count was kept never qualify.
+   * @param filesToCompact Files.
+   * @return Whether a {@link StoreFileMergeScanner} gives the same cells as a StoreScanner.
+   */
+  protected boolean canMergeWithoutMatcher(Collection<StoreFile> filesToCompact) {
+    if (!mergeWithoutMatcher || (store.getCoprocessorHost() != null
+        && !store.getCoprocessorHost().getCoprocessors().isEmpty())) {
+      return false;
+    }
+    long ttl = store.getScanInfo().getTtl();
+    long oldestUnexpiredTS = EnvironmentEdgeManager.currentTimeMillis() - ttl;
+    for (StoreFile file : filesToCompact) {
+      StoreFile.Reader r = file.getReader();
+      if (r == null || r.getDeleteCnt() != 0) {
+        return false;
+      }
+      if (ttl != Long.MAX_VALUE) {
+        Long minTimestamp = file.getMinimumTimestamp();
+        if (minTimestamp == null || minTimestamp < oldestUnexpiredTS) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param scanners Store file scanners.
+   * @param smallestReadPoint Smallest MVCC read point.
+   * @return A compaction scanner for files that pass {@link #canMergeWithoutMatcher}.
+   */
+  protected InternalScanner createMergeScanner(List<StoreFileScanner> scanners,
+      long smallestReadPoint) throws IOException {
+    return new StoreFileMergeScanner(scanners, store.getComparator(),
+        store.getFamily().getMaxVersions(), smallestReadPoint);
+  }
+
+  /**
+   * Computes the time range of the output of a merge up front, so that the writer does not
+   * track the timestamp of every cell. Versions dropped by the merge can only make the
+   * actual range narrower.
+   * @param filesToCompact Files.
+   * @return The union of the time ranges of the files; null if a file has no time range.
+   */
+  protected TimeRangeTracker getMergedTimeRange(Collection<StoreFile> filesToCompact) {
+    TimeRangeTracker trt = new TimeRangeTracker();
+    for (StoreFile file : filesToCompact) {
+      Long minTimestamp = file.getMinimumTimestamp();
+      Long maxTimestamp = file.getMaximumTimestamp();
+      if (minTimestamp == null || maxTimestamp == null) {
+        return null;
+      }
+      trt.includeTimeRange(new TimeRangeTracker(minTimestamp, maxTimestamp));
+    }
+    return trt;
+  }
+
   /**
    * @param store store
    * @param scanners Store file scanners.
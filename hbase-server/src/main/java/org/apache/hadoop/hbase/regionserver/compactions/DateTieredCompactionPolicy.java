@@ -0,0 +1,247 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.regionserver.StoreConfigInformation;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+/**
+ * Compaction policy for time series data, which is mostly written in timestamp order and
+ * read by time range. Store files are grouped into time windows by the max timestamp in
+ * their time range metadata, and only files of the same window are compacted together.
+ * <p/>
+ * The newest windows are {@link CompactionConfiguration#getBaseWindowMillis()} wide; going
+ * back in time, every {@link CompactionConfiguration#getWindowsPerTier()} windows of a tier
+ * are merged into one window of the next tier, so the windows grow exponentially with age.
+ * Once the data of a window has been compacted it is only rewritten when the window is
+ * merged into the next tier, and files whose newest cell is older than
+ * {@link CompactionConfiguration#getMaxStoreFileAgeMillis()} are never compacted again.
+ * Since a file then only covers a narrow time range, time range scans skip most of the
+ * files and whole files can be dropped when they expire.
+ * <p/>
+ * Periodic major compactions are not done, as they would merge all the windows into a
+ * single file; user requested major compactions still compact all the files.
+ * <p/>
+ * To use it, set {@link org.apache.hadoop.hbase.regionserver.DefaultStoreEngine
+ * #DEFAULT_COMPACTION_POLICY_CLASS_KEY} to this class for the table or column family.
+ */
+@InterfaceAudience.Private
+public class DateTieredCompactionPolicy extends RatioBasedCompactionPolicy {
+  private static final Log LOG = LogFactory.getLog(DateTieredCompactionPolicy.class);
+
+  public DateTieredCompactionPolicy(Configuration conf,
+      StoreConfigInformation storeConfigInfo) {
+    super(conf, storeConfigInfo);
+  }
+
+  @Override
+  public boolean isMajorCompaction(final Collection<StoreFile> filesToCompact)
+      throws IOException {
+    return false;
+  }
+
+  /**
+   * @return whether a window has enough files to compact, or the store is about to block
+   *  writes, as {@link #applyCompactionPolicy(ArrayList, boolean, boolean)} would select
+   */
+  @Override
+  public boolean needsCompaction(final Collection<StoreFile> storeFiles,
+      final List<StoreFile> filesCompacting) {
+    ArrayList<StoreFile> candidates = new ArrayList<StoreFile>(storeFiles);
+    candidates.removeAll(filesCompacting);
+    int futureFiles = filesCompacting.isEmpty() ? 0 : 1;
+    if (candidates.size() + futureFiles >= storeConfigInfo.getBlockingFileCount()) {
+      return candidates.size() >= comConf.getMinFilesToCompact();
+    }
+    return selectWindow(candidates, EnvironmentEdgeManager.currentTimeMillis()) != null;
+  }
+
+  /**
+   * Selects the files of the newest time window that has enough files to compact.
+   * @param candidates candidate files, ordered from oldest to newest
+   * @return files of a single window to compact, ordered from oldest to newest
+   */
+  @Override
+  ArrayList<StoreFile> applyCompactionPolicy(ArrayList<StoreFile> candidates,
+      boolean mayUseOffPeak, boolean mayBeStuck) throws IOException {
+    if (candidates.isEmpty()) {
+      return candidates;
+    }
+    List<StoreFile> window = selectWindow(candidates, EnvironmentEdgeManager.currentTimeMillis());
+    if (window != null) {
+      return new ArrayList<StoreFile>(window);
+    }
+    if (mayBeStuck) {
+      // no window has enough files but the store is about to block writes
+      return super.applyCompactionPolicy(candidates, mayUseOffPeak, mayBeStuck);
+    }
+    return new ArrayList<StoreFile>(0);
+  }
+
+  /**
+   * Walks the time windows from the newest to the oldest, for the first one with enough
+   * files to compact.
+   * @param candidates candidate files, ordered from oldest to newest
+   * @return files of the selected window, ordered from oldest to newest; null if no window
+   *  has enough files
+   */
+  private List<StoreFile> selectWindow(final List<StoreFile> candidates, final long now) {
+    long oldestToCompact = getOldestToCompact(now);
+    long[] maxTimestamps = getMaxTimestamps(candidates);
+    int start = candidates.size() - skipFrozenFiles(candidates, maxTimestamps, oldestToCompact)
+        .size();
+
+    Window window = Window.of(comConf.getBaseWindowMillis(), now);
+    int minFiles = comConf.getIncomingWindowMin();
+    // walk the files from newest to oldest, the max timestamps are not increasing this way
+    int end = candidates.size();
+    while (end > start) {
+      int cmp = window.compareToTimestamp(maxTimestamps[end - 1]);
+      if (cmp > 0) {
+        // the newest remaining file is older than the window
+        window = window.nextWindow(comConf.getWindowsPerTier(), oldestToCompact);
+        minFiles = comConf.getMinFilesToCompact();
+        continue;
+      }
+      int first = end - 1;
+      while (first > start && window.compareToTimestamp(maxTimestamps[first - 1]) <= 0) {
+        --first;
+      }
+      if (end - first >= minFiles) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Date tiered compaction has selected " + (end - first) + " files of "
+              + window + " from " + candidates.size() + " candidates");
+        }
+        return candidates.subList(first, end);
+      }
+      end = first;
+    }
+    return null;
+  }
+
+  private long getOldestToCompact(long now) {
+    long maxAge = comConf.getMaxStoreFileAgeMillis();
+    return maxAge >= now ? Long.MIN_VALUE : now - maxAge;
+  }
+
+  /**
+   * Store files are ordered by sequence id, which is not necessarily the timestamp order
+   * when old data is written late. Use the max timestamp of the file and all the files
+   * before it, so that the windows are made of consecutive files.
+   * @param storeFiles the files, ordered from oldest to newest
+   * @return the not decreasing max timestamps of the files; files without time range
+   *  metadata do not raise it
+   */
+  private static long[] getMaxTimestamps(List<StoreFile> storeFiles) {
+    long[] maxTimestamps = new long[storeFiles.size()];
+    long maxTimestamp = Long.MIN_VALUE;
+    for (int i = 0; i < maxTimestamps.length; i++) {
+      Long timestamp = storeFiles.get(i).getMaximumTimestamp();
+      if (timestamp != null && timestamp > maxTimestamp) {
+        maxTimestamp = timestamp;
+      }
+      maxTimestamps[i] = maxTimestamp;
+    }
+    return maxTimestamps;
+  }
+
+  /**
+   * @return the files whose data is not older than the max store file age
+   */
+  private static List<StoreFile> skipFrozenFiles(List<StoreFile> storeFiles,
+      long[] maxTimestamps, long oldestToCompact) {
+    int pos = 0;
+    while (pos < storeFiles.size() && maxTimestamps[pos] < oldestToCompact) {
+      ++pos;
+    }
+    return pos == 0 ? storeFiles : storeFiles.subList(pos, storeFiles.size());
+  }
+
+  /**
+   * A time window of the given width, aligned on a multiple of its width.
+   */
+  static final class Window {
+    private final long windowMillis;
+    // index of the window, the window starts at divPosition * windowMillis
+    private final long divPosition;
+
+    private Window(long windowMillis, long divPosition) {
+      this.windowMillis = windowMillis;
+      this.divPosition = divPosition;
+    }
+
+    /**
+     * @return the window of the given width that contains the timestamp
+     */
+    static Window of(long windowMillis, long timestamp) {
+      return new Window(windowMillis, floorDiv(timestamp, windowMillis));
+    }
+
+    /**
+     * @return a negative number if the window is before the timestamp, zero if the timestamp
+     *  is in the window, a positive number if the window is after the timestamp
+     */
+    int compareToTimestamp(long timestamp) {
+      long pos = floorDiv(timestamp, windowMillis);
+      return divPosition < pos ? -1 : (divPosition == pos ? 0 : 1);
+    }
+
+    /**
+     * @return the window just before this one, which is a window of the next tier if this
+     *  window is the first one of its tier window, unless that goes past the oldest
+     *  timestamp to compact
+     */
+    Window nextWindow(int windowsPerTier, long oldestToCompact) {
+      if (floorMod(divPosition, windowsPerTier) == 0
+          && windowMillis <= Long.MAX_VALUE / windowsPerTier) {
+        long nextWindowMillis = windowMillis * windowsPerTier;
+        long nextDivPosition = floorDiv(divPosition, windowsPerTier) - 1;
+        if (nextDivPosition >= floorDiv(oldestToCompact, nextWindowMillis)) {
+          return new Window(nextWindowMillis, nextDivPosition);
+        }
+      }
+      return new Window(windowMillis, divPosition - 1);
+    }
+
+    private static long floorDiv(long x, long y) {
+      long div = x / y;
+      return (x % y < 0) ? div - 1 : div;
+    }
+
+    private static long floorMod(long x, long y) {
+      return x - floorDiv(x, y) * y;
+    }
+
+    @Override
+    public String toString() {
+      return "window [" + divPosition * windowMillis + ", "
+          + (divPosition + 1) * windowMillis + ")";
+    }
+  }
+}
@@ -31,6 +31,7 @@ import org.apache.hadoop.hbase.regionserver.InternalScanner;
 import org.apache.hadoop.hbase.regionserver.ScanType;
 import org.apache.hadoop.hbase.regionserver.StoreFile;
 import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
+import org.apache.hadoop.hbase.regionserver.TimeRangeTracker;
 
 /**
  * Compact passed set of files. Create an instance and then call {@link #compact(CompactionRequest)}
@@ -61,7 +62,10 @@ public class DefaultCompactor extends Compactor {
         ScanType scanType =
             request.isMajor() ? ScanType.COMPACT_DROP_DELETES : ScanType.COMPACT_RETAIN_DELETES;
         scanner = preCreateCoprocScanner(request, scanType, fd.earliestPutTs, scanners);
-        if (scanner == null) {
+        boolean merge = scanner == null && canMergeWithoutMatcher(request.getFiles());
+        if (merge) {
+          scanner = createMergeScanner(scanners, smallestReadPoint);
+        } else if (scanner == null) {
           scanner = createScanner(store, scanners, scanType, smallestReadPoint, fd.earliestPutTs);
         }
         scanner = postCreateCoprocScanner(request, scanType, scanner);
@@ -73,7 +77,14 @@ public class DefaultCompactor extends Compactor {
         // because we need record the max seq id for the store file, see HBASE-6059
         writer = store.createWriterInTmp(fd.maxKeyCount, this.compactionCompression, true,
             fd.maxMVCCReadpoint >= smallestReadPoint, fd.maxTagsLength > 0);
-        boolean finished = performCompaction(scanner, writer, smallestReadPoint);
+        if (merge) {
+          TimeRangeTracker trt = getMergedTimeRange(request.getFiles());
+          if (trt != null) {
+            writer.setTimeRangeTracker(trt);
+          }
+        }
+        boolean finished = performCompaction(scanner, writer, smallestReadPoint,
+            request.getThroughputController());
         if (!finished) {
           writer.close();
           store.getFileSystem().delete(writer.getPath(), false);
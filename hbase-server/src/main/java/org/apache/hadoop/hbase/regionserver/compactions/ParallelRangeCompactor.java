@@ -0,0 +1,346 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.hfile.HFileBlockIndex;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.ScanType;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
+import org.apache.hadoop.hbase.regionserver.StoreScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Compactor for the default store engine that splits large major compactions into row
+ * ranges and compacts the ranges concurrently, one output file per range. The boundaries
+ * are picked from the root block index keys of the input files so that the ranges hold
+ * about the same amount of data. All the output files are committed together by the store,
+ * like the output of any other compaction.
+ * <p/>
+ * Only major compactions of at least {@link #MIN_SIZE_KEY} bytes are split, and only when no
+ * coprocessors are loaded, since compaction hooks expect a single scanner per compaction.
+ * The output files are excluded from minor compactions, so that they are rewritten by the
+ * next major compaction only instead of being merged back into a single file. Keep
+ * {@link #RANGES_KEY} well below the blocking store file count.
+ */
+@InterfaceAudience.Private
+public class ParallelRangeCompactor extends DefaultCompactor {
+  private static final Log LOG = LogFactory.getLog(ParallelRangeCompactor.class);
+
+  /** Number of ranges, and threads, a large major compaction is split into. */
+  public static final String RANGES_KEY = "hbase.hstore.compaction.parallel.ranges";
+  public static final int DEFAULT_RANGES = 4;
+  /** Minimum total size of the files of a major compaction to split it into ranges. */
+  public static final String MIN_SIZE_KEY = "hbase.hstore.compaction.parallel.min.size";
+  public static final long DEFAULT_MIN_SIZE = 5L * 1024 * 1024 * 1024;
+
+  private final int ranges;
+  private final long minSize;
+
+  public ParallelRangeCompactor(final Configuration conf, final Store store) {
+    super(conf, store);
+    this.ranges = Math.max(1, conf.getInt(RANGES_KEY, DEFAULT_RANGES));
+    this.minSize = conf.getLong(MIN_SIZE_KEY, DEFAULT_MIN_SIZE);
+  }
+
+  @Override
+  public List<Path> compact(final CompactionRequest request) throws IOException {
+    if (ranges > 1 && request.isMajor() && request.getSize() >= minSize
+        && (store.getCoprocessorHost() == null
+            || store.getCoprocessorHost().getCoprocessors().isEmpty())) {
+      List<byte[]> boundaries = getBoundaries(request.getFiles());
+      if (!boundaries.isEmpty()) {
+        return compactRanges(request, boundaries);
+      }
+    }
+    return super.compact(request);
+  }
+
+  /**
+   * Picks up to ranges - 1 row boundaries, weighting each root index key of the files with
+   * the size of the file divided by its number of root index entries.
+   * @param files Files to compact.
+   * @return Sorted distinct row boundaries; empty if the files have no usable index keys.
+   */
+  List<byte[]> getBoundaries(Collection<StoreFile> files) throws IOException {
+    final KVComparator comparator = store.getComparator();
+    List<IndexKey> keys = new ArrayList<IndexKey>();
+    double totalWeight = 0;
+    for (StoreFile file : files) {
+      StoreFile.Reader r = file.getReader();
+      if (r == null) {
+        continue;
+      }
+      HFileBlockIndex.BlockIndexReader index = r.getHFileReader().getDataBlockIndexReader();
+      int count = index.getRootBlockCount();
+      if (count == 0) {
+        continue;
+      }
+      double weight = (double) r.length() / count;
+      for (int i = 0; i < count; i++) {
+        byte[] key = index.getRootBlockKey(i);
+        keys.add(new IndexKey(KeyValue.createKeyValueFromKey(key).getRow(), weight));
+        totalWeight += weight;
+      }
+    }
+    Collections.sort(keys, new Comparator<IndexKey>() {
+      @Override
+      public int compare(IndexKey left, IndexKey right) {
+        return comparator.compareRows(left.row, 0, left.row.length,
+            right.row, 0, right.row.length);
+      }
+    });
+
+    List<byte[]> boundaries = new ArrayList<byte[]>(ranges - 1);
+    double step = totalWeight / ranges;
+    double next = step;
+    double seen = 0;
+    for (IndexKey key : keys) {
+      if (boundaries.size() == ranges - 1) {
+        break;
+      }
+      if (seen >= next && key.row.length > 0) {
+        byte[] last = boundaries.isEmpty() ? null : boundaries.get(boundaries.size() - 1);
+        if (last == null || comparator.compareRows(key.row, 0, key.row.length,
+            last, 0, last.length) > 0) {
+          boundaries.add(key.row);
+          next += step;
+        }
+      }
+      seen += key.weight;
+    }
+    return boundaries;
+  }
+
+  private List<Path> compactRanges(final CompactionRequest request, List<byte[]> boundaries)
+      throws IOException {
+    final FileDetails fd = getFileDetails(request.getFiles(), true);
+    final CompactionProgress totalProgress = new CompactionProgress(fd.maxKeyCount);
+    this.progress = totalProgress;
+    final long smallestReadPoint = getSmallestReadPoint();
+    if (LOG.isDebugEnabled()) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("Compacting " + StringUtils.humanReadableInt(request.getSize()) + " in "
+          + (boundaries.size() + 1) + " ranges with boundaries:");
+      for (byte[] boundary : boundaries) {
+        sb.append(" [").append(Bytes.toStringBinary(boundary)).append("]");
+      }
+      LOG.debug(sb.toString());
+    }
+
+    // The threads only live for the compaction, like the store file closer threads of a
+    // store: a pool per compactor would stay around after the store is closed.
+    ExecutorService pool = Threads.getBoundedCachedThreadPool(boundaries.size() + 1, 60,
+        TimeUnit.SECONDS, Threads.newDaemonThreadFactory("compaction-range-"
+            + store.getColumnFamilyName()));
+    try {
+      return compactRanges(request, boundaries, fd, totalProgress, smallestReadPoint, pool);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private List<Path> compactRanges(final CompactionRequest request, List<byte[]> boundaries,
+      final FileDetails fd, final CompactionProgress totalProgress, final long smallestReadPoint,
+      ExecutorService pool) throws IOException {
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    List<Future<Path>> futures = new ArrayList<Future<Path>>(boundaries.size() + 1);
+    for (int i = 0; i <= boundaries.size(); i++) {
+      final byte[] startRow = i == 0 ? HConstants.EMPTY_START_ROW : boundaries.get(i - 1);
+      final byte[] stopRow = i == boundaries.size()
+          ? HConstants.EMPTY_END_ROW : boundaries.get(i);
+      futures.add(pool.submit(new Callable<Path>() {
+        @Override
+        public Path call() throws Exception {
+          if (failed.get()) {
+            return null;
+          }
+          try {
+            return compactRange(request, fd, smallestReadPoint, startRow, stopRow,
+                totalProgress);
+          } catch (Exception e) {
+            failed.set(true);
+            throw e;
+          }
+        }
+      }));
+    }
+
+    // Wait for all the ranges, so that the output of the finished ones can be removed if
+    // another one failed. Ranges that did not start yet are skipped after a failure.
+    List<Path> newFiles = new ArrayList<Path>(futures.size());
+    IOException error = null;
+    for (Future<Path> future : futures) {
+      try {
+        Path path = future.get();
+        if (path != null) {
+          newFiles.add(path);
+        }
+      } catch (InterruptedException e) {
+        // The leftover temporary files are removed when the region is opened again.
+        for (Future<Path> f : futures) {
+          f.cancel(true);
+        }
+        totalProgress.cancel();
+        throw new InterruptedIOException("Interrupted while compacting store " + store
+            + " in region " + store.getRegionInfo().getRegionNameAsString());
+      } catch (ExecutionException e) {
+        if (error == null) {
+          error = (e.getCause() instanceof IOException)
+              ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+      }
+    }
+    if (error != null) {
+      totalProgress.cancel();
+      for (Path newFile : newFiles) {
+        try {
+          store.getFileSystem().delete(newFile, false);
+        } catch (Exception ex) {
+          LOG.error("Failed to delete the leftover file after an unfinished compaction.", ex);
+        }
+      }
+      throw error;
+    }
+    totalProgress.complete();
+    return newFiles;
+  }
+
+  private Path compactRange(CompactionRequest request, FileDetails fd, long smallestReadPoint,
+      byte[] startRow, byte[] stopRow, CompactionProgress totalProgress) throws IOException {
+    List<StoreFileScanner> scanners = createFileScanners(request.getFiles(), smallestReadPoint);
+    CompactionProgress rangeProgress = new CompactionProgress(0);
+    StoreFile.Writer writer = null;
+    boolean finished = false;
+    InternalScanner scanner = null;
+    try {
+      Scan scan = new Scan(startRow, stopRow);
+      scan.setMaxVersions(store.getFamily().getMaxVersions());
+      scanner = new RangeScanner(new StoreScanner(store, store.getScanInfo(), scan, scanners,
+          ScanType.COMPACT_DROP_DELETES, smallestReadPoint, fd.earliestPutTs),
+          store.getComparator(), stopRow);
+      writer = store.createWriterInTmp(fd.maxKeyCount, this.compactionCompression, true,
+          fd.maxMVCCReadpoint >= smallestReadPoint, fd.maxTagsLength > 0);
+      finished = performCompaction(scanner, writer, smallestReadPoint,
+          request.getThroughputController(), rangeProgress);
+      if (!finished) {
+        throw new InterruptedIOException("Aborting compaction of store " + store +
+            " in region " + store.getRegionInfo().getRegionNameAsString() +
+            " because it was interrupted.");
+      }
+      writer.appendMetadata(fd.maxSeqId, true);
+      writer.appendFileInfo(StoreFile.EXCLUDE_FROM_MINOR_COMPACTION_KEY, Bytes.toBytes(true));
+    } finally {
+      if (scanner != null) {
+        scanner.close();
+      }
+      if (writer != null) {
+        writer.close();
+        if (!finished) {
+          store.getFileSystem().delete(writer.getPath(), false);
+        }
+      }
+    }
+    synchronized (totalProgress) {
+      totalProgress.currentCompactedKVs += rangeProgress.currentCompactedKVs;
+    }
+    return writer.getPath();
+  }
+
+  /** A root index key row, with the estimated amount of data up to the next key. */
+  private static class IndexKey {
+    final byte[] row;
+    final double weight;
+
+    IndexKey(byte[] row, double weight) {
+      this.row = row;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * Compaction scanners do not stop at the stop row of their scan, this one ends the scan at
+   * the first cell of the stop row.
+   */
+  private static class RangeScanner implements InternalScanner {
+    private final InternalScanner delegate;
+    private final KVComparator comparator;
+    private final byte[] stopRow;
+
+    RangeScanner(InternalScanner delegate, KVComparator comparator, byte[] stopRow) {
+      this.delegate = delegate;
+      this.comparator = comparator;
+      this.stopRow = stopRow;
+    }
+
+    @Override
+    public boolean next(List<Cell> results) throws IOException {
+      return next(results, -1);
+    }
+
+    @Override
+    public boolean next(List<Cell> results, int limit) throws IOException {
+      int size = results.size();
+      boolean hasMore = delegate.next(results, limit);
+      if (stopRow.length == 0) {
+        return hasMore;
+      }
+      for (int i = size; i < results.size(); i++) {
+        Cell cell = results.get(i);
+        if (comparator.compareRows(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength(),
+            stopRow, 0, stopRow.length) >= 0) {
+          results.subList(i, results.size()).clear();
+          return false;
+        }
+      }
+      return hasMore;
+    }
+
+    @Override
+    public void close() throws IOException {
+      delegate.close();
+    }
+  }
+}
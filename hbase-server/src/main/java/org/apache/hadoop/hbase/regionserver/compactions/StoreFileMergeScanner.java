@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.ScanQueryMatcher;
+import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
+import org.apache.hadoop.hbase.regionserver.StoreScanner;
+
+/**
+ * Compaction scanner that merges the cells of the store file scanners directly, without a
+ * {@link StoreScanner} and its {@link ScanQueryMatcher}. It is only correct for files with
+ * no delete markers and no expired cells (see {@link Compactor#canMergeWithoutMatcher}),
+ * where all the matcher would do is to drop the versions beyond the maximum and the
+ * duplicates of a version, which this scanner does as well.
+ * <p>
+ * The merge keeps the scanner of the last cell out of its heap, so that a run of cells from
+ * one file costs a single comparison per cell. Cells are handed on as the KeyValues the file
+ * scanners return, and the previous cell is kept by reference for the version tracking, so
+ * nothing is copied or allocated per cell.
+ */
+@InterfaceAudience.Private
+public class StoreFileMergeScanner implements InternalScanner {
+  private final KVComparator comparator;
+  private final int maxVersions;
+  private final long smallestReadPoint;
+
+  /** The scanner at the smallest cell, kept out of the heap. */
+  private StoreFileScanner current;
+  /** Binary heap of the other scanners with cells left. */
+  private final StoreFileScanner[] heap;
+  private int heapSize = 0;
+
+  /** The last cell that went through the version tracking, and the state of its column. */
+  private KeyValue previous = null;
+  private int versions = 0;
+  private long previousTimestamp = HConstants.LATEST_TIMESTAMP;
+  private boolean columnDone = false;
+  private boolean newColumn = false;
+
+  /** A cell of the next row, read by the previous call to next. */
+  private KeyValue pending = null;
+
+  /**
+   * @param scanners Scanners of the files to compact.
+   * @param comparator Comparator of the store.
+   * @param maxVersions Maximum number of versions to keep.
+   * @param smallestReadPoint Smallest read point; newer cells are kept regardless of versions.
+   */
+  public StoreFileMergeScanner(List<StoreFileScanner> scanners, KVComparator comparator,
+      int maxVersions, long smallestReadPoint) throws IOException {
+    this.comparator = comparator;
+    this.maxVersions = maxVersions;
+    this.smallestReadPoint = smallestReadPoint;
+    this.heap = new StoreFileScanner[scanners.size()];
+    KeyValue startKey = KeyValue.createFirstOnRow(HConstants.EMPTY_START_ROW);
+    for (StoreFileScanner scanner : scanners) {
+      if (scanner.seek(startKey)) {
+        heap[heapSize++] = scanner;
+      } else {
+        scanner.close();
+      }
+    }
+    for (int i = heapSize / 2 - 1; i >= 0; i--) {
+      siftDown(i);
+    }
+    current = pollHeap();
+  }
+
+  /**
+   * Orders scanners by their next cell, breaking ties in favor of the newer file like
+   * {@link org.apache.hadoop.hbase.regionserver.KeyValueHeap} does.
+   */
+  private int compare(StoreFileScanner left, StoreFileScanner right) {
+    int comparison = comparator.compare(left.peek(), right.peek());
+    if (comparison != 0) {
+      return comparison;
+    }
+    long leftSequenceID = left.getSequenceID();
+    long rightSequenceID = right.getSequenceID();
+    return leftSequenceID > rightSequenceID ? -1 : (leftSequenceID < rightSequenceID ? 1 : 0);
+  }
+
+  private void siftDown(int i) {
+    StoreFileScanner scanner = heap[i];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= heapSize) {
+        break;
+      }
+      if (child + 1 < heapSize && compare(heap[child + 1], heap[child]) < 0) {
+        child++;
+      }
+      if (compare(scanner, heap[child]) <= 0) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = scanner;
+  }
+
+  private StoreFileScanner pollHeap() {
+    if (heapSize == 0) {
+      return null;
+    }
+    StoreFileScanner top = heap[0];
+    heap[0] = heap[--heapSize];
+    heap[heapSize] = null;
+    if (heapSize > 0) {
+      siftDown(0);
+    }
+    return top;
+  }
+
+  /**
+   * @return the next cell of the merge, or null if all the files are done
+   */
+  private KeyValue nextCell() throws IOException {
+    if (current == null) {
+      return null;
+    }
+    KeyValue kv = current.next();
+    if (current.peek() == null) {
+      current.close();
+      current = pollHeap();
+    } else if (heapSize > 0 && compare(current, heap[0]) > 0) {
+      StoreFileScanner top = heap[0];
+      heap[0] = current;
+      siftDown(0);
+      current = top;
+    }
+    return kv;
+  }
+
+  /**
+   * Does the version tracking of the column tracker for a compaction.
+   * @return whether the cell is kept
+   */
+  private boolean include(KeyValue kv) throws IOException {
+    if (KeyValue.isDelete(kv.getTypeByte())) {
+      throw new IOException("Unexpected delete marker " + kv + " in a compaction without deletes");
+    }
+    newColumn = previous == null || !comparator.matchingRowColumn(kv, previous);
+    if (newColumn) {
+      versions = 0;
+      previousTimestamp = HConstants.LATEST_TIMESTAMP;
+      columnDone = false;
+    }
+    previous = kv;
+    if (columnDone) {
+      return false;
+    }
+    if (kv.getMvccVersion() > smallestReadPoint) {
+      // not visible to all scanners yet, so it does not count as a version
+      return true;
+    }
+    if (versions > 0 && kv.getTimestamp() == previousTimestamp) {
+      // an older duplicate of the version we just kept
+      return false;
+    }
+    if (++versions > maxVersions) {
+      columnDone = true;
+      return false;
+    }
+    previousTimestamp = kv.getTimestamp();
+    return true;
+  }
+
+  @Override
+  public boolean next(List<Cell> results) throws IOException {
+    return next(results, -1);
+  }
+
+  /**
+   * Returns the kept cells of the next row, at most limit of them at a time.
+   */
+  @Override
+  public boolean next(List<Cell> results, int limit) throws IOException {
+    int count = 0;
+    KeyValue last = null;
+    if (pending != null) {
+      results.add(pending);
+      count++;
+      last = pending;
+      pending = null;
+    }
+    while (limit < 0 || count < limit) {
+      KeyValue kv = nextCell();
+      if (kv == null) {
+        return false;
+      }
+      if (!include(kv)) {
+        continue;
+      }
+      // the first cell of a column is always kept, so rows only change at new columns
+      if (last != null && newColumn && !comparator.matchingRows(kv, last)) {
+        pending = kv;
+        return true;
+      }
+      results.add(kv);
+      count++;
+      last = kv;
+    }
+    return pending != null || current != null;
+  }
+
+  @Override
+  public void close() {
+    if (current != null) {
+      current.close();
+      current = null;
+    }
+    for (int i = 0; i < heapSize; i++) {
+      heap[i].close();
+      heap[i] = null;
+    }
+    heapSize = 0;
+  }
+}
@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.regionserver.wal;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -34,11 +35,16 @@ import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -101,6 +107,14 @@ import org.cloudera.htrace.TraceScope;
  * rolling is not. To prevent log rolling taking place during this period, a
  * separate reentrant lock is used.
  *
+ * <p>
+ * When <code>hbase.regionserver.hlog.ringbuffer.enabled</code> is set, appends and
+ * sync requests are not serialized on {@link #updateLock} by the handlers. Instead
+ * handlers publish them on a lock-free {@link WALRingBuffer}; a single consumer
+ * thread assigns sequence ids and writes entries to the current {@link Writer} in
+ * batches, and hands the sync requests to a small pool of {@link SyncRunner}s that
+ * each cover many waiting handlers with one <code>hflush</code>.
+ *
  * <p>To read an HLog, call {@link HLogFactory#createReader(org.apache.hadoop.fs.FileSystem,
  * org.apache.hadoop.fs.Path, org.apache.hadoop.conf.Configuration)}.
  *
@@ -140,7 +154,7 @@ class FSHLog implements HLog, Syncable {
   /**
    * Current log file.
    */
-  Writer writer;
+  volatile Writer writer;
 
   /**
    * This lock synchronizes all operations on oldestUnflushedSeqNums and oldestFlushingSeqNums,
@@ -219,6 +233,42 @@ class FSHLog implements HLog, Syncable {
 
   private final AtomicInteger closeErrorCount = new AtomicInteger();
   private final MetricsWAL metrics;
+
+  /** Configuration key to switch appends and syncs over to the ring buffer pipeline. */
+  static final String RING_BUFFER_ENABLED_KEY = "hbase.regionserver.hlog.ringbuffer.enabled";
+  /** Configuration key for the number of slots in the ring buffer. */
+  static final String RING_BUFFER_SLOTS_KEY = "hbase.regionserver.hlog.ringbuffer.slots";
+  static final int DEFAULT_RING_BUFFER_SLOTS = 1024 * 16;
+  /** Configuration key for the number of threads issuing hflush in ring buffer mode. */
+  static final String SYNC_RUNNER_COUNT_KEY = "hbase.regionserver.hlog.syncrunner.count";
+  static final int DEFAULT_SYNC_RUNNER_COUNT = 5;
+  private static final long RING_BUFFER_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  /** True if appends and syncs go through {@link #ringBuffer}. */
+  private final boolean useRingBuffer;
+  private final WALRingBuffer<Object> ringBuffer;
+  private final RingBufferConsumer ringBufferConsumer;
+  private final SyncRunner[] syncRunners;
+  /** Set once the ring buffer consumer and sync runners have exited. */
+  private volatile boolean ringBufferStopped = false;
+  /**
+   * Transactions the ring buffer consumer could not write out. The handler that
+   * appended one of them fails its sync instead of being told it is durable, even
+   * if a later sync moved {@link #syncedTillHere} past it.
+   */
+  private final ConcurrentSkipListSet<Long> failedTxids = new ConcurrentSkipListSet<Long>();
+  private final AtomicInteger failedTxidCount = new AtomicInteger(0);
+  /**
+   * Appends that are never synced, like those of deferred log flush tables, leave their
+   * failures behind; past this many the oldest are dropped from {@link #failedTxids}.
+   */
+  private static final int MAX_FAILED_TXIDS = 1024 * 16;
+  /**
+   * The highest failed txid dropped from {@link #failedTxids}. Syncs of txids up to
+   * here fail, since whether they were written is no longer known.
+   */
+  private volatile long failedTxidWatermark = 0;
+  private final Object syncedTillHereLock = new Object();
 /**
  * Map of region encoded names to the latest sequence num obtained from them while appending
  * WALEdits to the wal. We create one map for each WAL file at the time it is rolled.
@@ -373,11 +423,29 @@ class FSHLog implements HLog, Syncable {
 
     this.logSyncer = new LogSyncer(this.optionalFlushInterval);
 
+    this.useRingBuffer = conf.getBoolean(RING_BUFFER_ENABLED_KEY, false);
+    if (this.useRingBuffer) {
+      this.ringBuffer = new WALRingBuffer<Object>(
+        conf.getInt(RING_BUFFER_SLOTS_KEY, DEFAULT_RING_BUFFER_SLOTS));
+      this.syncRunners =
+        new SyncRunner[Math.max(1, conf.getInt(SYNC_RUNNER_COUNT_KEY, DEFAULT_SYNC_RUNNER_COUNT))];
+      for (int i = 0; i < this.syncRunners.length; i++) {
+        this.syncRunners[i] = new SyncRunner();
+      }
+      this.ringBufferConsumer = new RingBufferConsumer();
+    } else {
+      this.ringBuffer = null;
+      this.syncRunners = null;
+      this.ringBufferConsumer = null;
+    }
+
     LOG.info("WAL/HLog configuration: blocksize=" +
       StringUtils.byteDesc(this.blocksize) +
       ", rollsize=" + StringUtils.byteDesc(this.logrollsize) +
       ", enabled=" + this.enabled +
-      ", optionallogflushinternal=" + this.optionalFlushInterval + "ms");
+      ", optionallogflushinternal=" + this.optionalFlushInterval + "ms" +
+      (this.useRingBuffer ? ", ringbuffer slots=" + this.ringBuffer.capacity() +
+        ", syncrunners=" + this.syncRunners.length : ""));
     // If prefix is null||empty then just name it hlog
     this.prefix = prefix == null || prefix.isEmpty() ?
         "hlog" : URLEncoder.encode(prefix, "UTF8");
@@ -413,6 +481,17 @@ class FSHLog implements HLog, Syncable {
     coprocessorHost = new WALCoprocessorHost(this, conf);
 
     this.metrics = new MetricsWAL();
+
+    // Start the ring buffer threads last; they use the coprocessor host and metrics.
+    if (this.useRingBuffer) {
+      String name = Thread.currentThread().getName();
+      for (int i = 0; i < this.syncRunners.length; i++) {
+        Threads.setDaemonThreadRunning(this.syncRunners[i].getThread(), name + ".syncRunner." + i);
+      }
+      this.ringBuffer.setConsumerThread(this.ringBufferConsumer.getThread());
+      Threads.setDaemonThreadRunning(this.ringBufferConsumer.getThread(),
+        name + ".ringBufferConsumer");
+    }
   }
 
   /**
@@ -719,7 +798,15 @@ class FSHLog implements HLog, Syncable {
                    " waiting for transactions to get synced " +
                    " total " + this.unflushedEntries.get() +
                    " synced till here " + syncedTillHere);
-          sync();
+          if (this.useRingBuffer) {
+            // The consumer can't be mid-batch while we hold the updateLock, so
+            // everything it has taken off the ring buffer is already in this writer.
+            long upTo = this.unflushedEntries.get();
+            this.writer.sync();
+            updateSyncedTillHere(upTo);
+          } else {
+            sync();
+          }
         }
         this.writer.close();
         this.writer = null;
@@ -877,6 +964,9 @@ class FSHLog implements HLog, Syncable {
         i.logCloseRequested();
       }
     }
+    if (this.useRingBuffer) {
+      stopRingBuffer();
+    }
     synchronized (updateLock) {
       this.closed = true;
       if (LOG.isDebugEnabled()) {
@@ -953,27 +1043,19 @@ class FSHLog implements HLog, Syncable {
       TraceScope traceScope = Trace.startSpan("FSHlog.append");
       try {
         long txid = 0;
-        synchronized (this.updateLock) {
-          // get the sequence number from the passed Long. In normal flow, it is coming from the
-          // region.
-          long seqNum = sequenceId.incrementAndGet();
-          // The 'lastSeqWritten' map holds the sequence number of the oldest
-          // write for each region (i.e. the first edit added to the particular
-          // memstore). . When the cache is flushed, the entry for the
-          // region being flushed is removed if the sequence number of the flush
-          // is greater than or equal to the value in lastSeqWritten.
-          // Use encoded name.  Its shorter, guaranteed unique and a subset of
-          // actual  name.
-          byte [] encodedRegionName = info.getEncodedNameAsBytes();
-          if (isInMemstore) this.oldestUnflushedSeqNums.putIfAbsent(encodedRegionName, seqNum);
-          HLogKey logKey = makeKey(encodedRegionName, tableName, seqNum, now, clusterIds);
-          doWrite(info, logKey, edits, htd);
-          this.numEntries.incrementAndGet();
-          txid = this.unflushedEntries.incrementAndGet();
-          if (htd.isDeferredLogFlush()) {
-            lastDeferredTxid = txid;
+        if (this.useRingBuffer) {
+          // The sequence id is assigned by the consumer, in ring buffer order.
+          txid = this.ringBuffer.publish(new RingBufferAppend(info, tableName, edits, clusterIds,
+            now, htd, isInMemstore, sequenceId));
+        } else {
+          synchronized (this.updateLock) {
+            appendUnderLock(info, tableName, edits, clusterIds, now, htd, isInMemstore,
+              sequenceId);
+            txid = this.unflushedEntries.incrementAndGet();
+            if (htd.isDeferredLogFlush()) {
+              lastDeferredTxid = txid;
+            }
           }
-          this.latestSequenceNums.put(encodedRegionName, seqNum);
         }
         // Sync if catalog region, and if not then check if that table supports
         // deferred log flushing
@@ -989,6 +1071,32 @@ class FSHLog implements HLog, Syncable {
       }
     }
 
+  /**
+   * Assigns the edit its sequence id, does the region bookkeeping and hands the
+   * entry to {@link #doWrite(HRegionInfo, HLogKey, WALEdit, HTableDescriptor)}.
+   * Must be called holding the updateLock.
+   */
+  private void appendUnderLock(HRegionInfo info, TableName tableName, WALEdit edits,
+      List<UUID> clusterIds, final long now, HTableDescriptor htd, boolean isInMemstore,
+      AtomicLong sequenceId) throws IOException {
+    // get the sequence number from the passed Long. In normal flow, it is coming from the
+    // region.
+    long seqNum = sequenceId.incrementAndGet();
+    // The 'lastSeqWritten' map holds the sequence number of the oldest
+    // write for each region (i.e. the first edit added to the particular
+    // memstore). . When the cache is flushed, the entry for the
+    // region being flushed is removed if the sequence number of the flush
+    // is greater than or equal to the value in lastSeqWritten.
+    // Use encoded name.  Its shorter, guaranteed unique and a subset of
+    // actual  name.
+    byte [] encodedRegionName = info.getEncodedNameAsBytes();
+    if (isInMemstore) this.oldestUnflushedSeqNums.putIfAbsent(encodedRegionName, seqNum);
+    HLogKey logKey = makeKey(encodedRegionName, tableName, seqNum, now, clusterIds);
+    doWrite(info, logKey, edits, htd);
+    this.numEntries.incrementAndGet();
+    this.latestSequenceNums.put(encodedRegionName, seqNum);
+  }
+
   @Override
   public long appendNoSync(HRegionInfo info, TableName tableName, WALEdit edits,
       List<UUID> clusterIds, final long now, HTableDescriptor htd, AtomicLong sequenceId)
@@ -1097,6 +1205,10 @@ class FSHLog implements HLog, Syncable {
     if (txid <= this.syncedTillHere) {
       return;
     }
+    if (this.useRingBuffer) {
+      ringBufferSync(txid);
+      return;
+    }
     Writer tempWriter;
     synchronized (this.updateLock) {
       if (this.closed) return;
@@ -1155,23 +1267,321 @@ class FSHLog implements HLog, Syncable {
       this.syncedTillHere = Math.max(this.syncedTillHere, doneUpto);
 
       this.metrics.finishSync(EnvironmentEdgeManager.currentTimeMillis() - now);
-      // TODO: preserving the old behavior for now, but this check is strange. It's not
-      //       protected by any locks here, so for all we know rolling locks might start
-      //       as soon as we enter the "if". Is this best-effort optimization check?
-      if (!this.logRollRunning) {
-        checkLowReplication();
+      checkLogRoll(tempWriter);
+    } catch (IOException e) {
+      LOG.fatal("Could not sync. Requesting roll of hlog", e);
+      requestLogRoll();
+      throw e;
+    }
+  }
+
+  private void checkLogRoll(final Writer tempWriter) {
+    // TODO: preserving the old behavior for now, but this check is strange. It's not
+    //       protected by any locks here, so for all we know rolling locks might start
+    //       as soon as we enter the "if". Is this best-effort optimization check?
+    if (!this.logRollRunning) {
+      checkLowReplication();
+      try {
+        if (tempWriter != null && tempWriter.getLength() > this.logrollsize) {
+          requestLogRoll();
+        }
+      } catch (IOException x) {
+        LOG.debug("Log roll failed and will be retried. (This is not an error)");
+      }
+    }
+  }
+
+  private void updateSyncedTillHere(final long txid) {
+    synchronized (this.syncedTillHereLock) {
+      if (txid > this.syncedTillHere) this.syncedTillHere = txid;
+    }
+  }
+
+  /**
+   * Publish a sync request on the ring buffer and wait until a {@link SyncRunner}
+   * has made everything up to and including <code>txid</code> durable.
+   */
+  private void ringBufferSync(final long txid) throws IOException {
+    if (this.closed) return;
+    TraceScope traceScope = Trace.startSpan("FSHlog.sync");
+    try {
+      SyncFuture future = new SyncFuture(txid);
+      this.ringBuffer.publish(future);
+      while (!future.get(this.optionalFlushInterval > 0 ? this.optionalFlushInterval : 1000)) {
+        if (this.ringBufferStopped && !future.isDone()) {
+          throw new IOException("WAL ring buffer stopped before txid=" + txid + " was synced");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting on sync of txid=" + txid);
+    } finally {
+      traceScope.close();
+    }
+  }
+
+  /**
+   * Wait until the ring buffer consumer has processed everything published up to now,
+   * so the sequence id bookkeeping reflects every append that returned to its caller.
+   */
+  private void awaitRingBufferConsumed() {
+    long target = this.ringBuffer.getClaimedSequence();
+    while (this.ringBuffer.getConsumedSequence() < target && !this.ringBufferStopped) {
+      LockSupport.parkNanos(this, RING_BUFFER_POLL_NANOS);
+    }
+  }
+
+  /**
+   * Stop the ring buffer consumer after it has drained what was published, then let
+   * the sync runners complete the sync requests it handed them.
+   */
+  private void stopRingBuffer() {
+    try {
+      this.ringBufferConsumer.close();
+      this.ringBufferConsumer.join();
+      for (SyncRunner runner : this.syncRunners) {
+        runner.close();
+        runner.join();
+      }
+    } catch (InterruptedException e) {
+      LOG.error("Exception while waiting for ring buffer threads to die", e);
+      Thread.currentThread().interrupt();
+    } finally {
+      this.ringBufferStopped = true;
+    }
+  }
+
+  /**
+   * An append as published by a handler on the ring buffer. Sequence id assignment
+   * and all the bookkeeping the old path does under the updateLock are left to the
+   * {@link RingBufferConsumer}.
+   */
+  private static class RingBufferAppend {
+    final HRegionInfo info;
+    final TableName tableName;
+    final WALEdit edits;
+    final List<UUID> clusterIds;
+    final long now;
+    final HTableDescriptor htd;
+    final boolean isInMemstore;
+    final AtomicLong sequenceId;
+
+    RingBufferAppend(HRegionInfo info, TableName tableName, WALEdit edits,
+        List<UUID> clusterIds, long now, HTableDescriptor htd, boolean isInMemstore,
+        AtomicLong sequenceId) {
+      this.info = info;
+      this.tableName = tableName;
+      this.edits = edits;
+      this.clusterIds = clusterIds;
+      this.now = now;
+      this.htd = htd;
+      this.isInMemstore = isInMemstore;
+      this.sequenceId = sequenceId;
+    }
+  }
+
+  /**
+   * The single thread that takes appends and sync requests off the ring buffer.
+   * Appends are written to the current writer in one batch per drain; the sync
+   * requests seen in that batch are then passed to one of the {@link SyncRunner}s,
+   * round robin, so the next batch can be written while they wait on hflush.
+   */
+  class RingBufferConsumer extends HasThread {
+    private static final int MAX_BATCH = 1024;
+
+    private final List<Entry> pendingWrites = new ArrayList<Entry>();
+    private final List<Object> batch = new ArrayList<Object>(MAX_BATCH);
+    private volatile boolean closeRequested = false;
+    private int nextSyncRunner = 0;
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          this.batch.clear();
+          long firstTxid = ringBuffer.getConsumedSequence() + 1;
+          if (ringBuffer.drainTo(this.batch, MAX_BATCH) == 0) {
+            if (this.closeRequested) break;
+            ringBuffer.awaitPublished(RING_BUFFER_POLL_NANOS * 10);
+            continue;
+          }
+          List<SyncFuture> syncs = new ArrayList<SyncFuture>();
+          IOException ioe = null;
+          try {
+            ioe = processBatch(firstTxid, syncs);
+          } finally {
+            // Only release the slots once the bookkeeping for them is done.
+            ringBuffer.markConsumed();
+          }
+          if (syncs.isEmpty()) continue;
+          if (ioe != null) {
+            for (SyncFuture f : syncs) f.done(ioe);
+          } else {
+            SyncRunner runner = syncRunners[this.nextSyncRunner++ % syncRunners.length];
+            runner.offer(syncs);
+          }
+        }
+      } catch (Throwable t) {
+        LOG.fatal(getName() + " died; WAL appends can no longer complete", t);
+        ringBufferStopped = true;
+      } finally {
+        LOG.info(getName() + " exiting");
+      }
+    }
+
+    /**
+     * Does the bookkeeping for the appends in the batch, collects its sync requests
+     * and writes the appended entries out to the current writer.
+     * @return the failure writing the batch out, or null
+     */
+    private IOException processBatch(final long firstTxid, final List<SyncFuture> syncs) {
+      long txid = firstTxid;
+      IOException ioe = null;
+      List<Long> appended = new ArrayList<Long>(this.batch.size());
+      synchronized (updateLock) {
+        if (closed) {
+          return new IOException("Cannot append; log is closed");
+        }
+        for (Object o : this.batch) {
+          if (o instanceof SyncFuture) {
+            syncs.add((SyncFuture) o);
+          } else {
+            RingBufferAppend a = (RingBufferAppend) o;
+            try {
+              appendUnderLock(a.info, a.tableName, a.edits, a.clusterIds, a.now, a.htd,
+                a.isInMemstore, a.sequenceId);
+              appended.add(txid);
+            } catch (IOException e) {
+              // doWrite already asked for a log roll.
+              addFailedTxid(txid);
+            }
+            if (a.htd.isDeferredLogFlush()) {
+              lastDeferredTxid = txid;
+            }
+          }
+          txid++;
+        }
         try {
-          if (tempWriter.getLength() > this.logrollsize) {
+          logSyncer.hlogFlush(writer, this.pendingWrites);
+        } catch (IOException e) {
+          ioe = e;
+          LOG.error("Ring buffer consumer encountered error, will retry. txid=" + txid, ioe);
+        }
+      }
+      if (ioe != null) {
+        synchronized (updateLock) {
+          // HBASE-4387, HBASE-5623, retry with updateLock held; a roll may have
+          // slipped in and given us a new writer.
+          try {
+            logSyncer.hlogFlush(writer, this.pendingWrites);
+            ioe = null;
+          } catch (IOException e) {
+            ioe = e;
+            LOG.fatal("Could not append. Requesting close of hlog", e);
+            for (Long failed : appended) {
+              addFailedTxid(failed);
+            }
             requestLogRoll();
           }
-        } catch (IOException x) {
-          LOG.debug("Log roll failed and will be retried. (This is not an error)");
         }
       }
-    } catch (IOException e) {
-      LOG.fatal("Could not sync. Requesting roll of hlog", e);
-      requestLogRoll();
-      throw e;
+      this.pendingWrites.clear();
+      if (ioe == null) {
+        // Everything up to the end of this batch has been handed to the writer; the
+        // appends that failed on their own are in failedTxids.
+        unflushedEntries.set(txid - 1);
+      }
+      return ioe;
+    }
+
+    void append(final Entry e) {
+      this.pendingWrites.add(e);
+    }
+
+    void close() {
+      this.closeRequested = true;
+      LockSupport.unpark(getThread());
+    }
+  }
+
+  /**
+   * Issues the hflush for batches of sync requests handed over by the
+   * {@link RingBufferConsumer} and completes the waiting handlers' futures.
+   */
+  class SyncRunner extends HasThread {
+    private final BlockingQueue<SyncFuture> syncFutures = new LinkedBlockingQueue<SyncFuture>();
+    private final List<SyncFuture> batch = new ArrayList<SyncFuture>();
+    private volatile boolean closeRequested = false;
+
+    void offer(final List<SyncFuture> futures) {
+      this.syncFutures.addAll(futures);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          SyncFuture first = this.syncFutures.poll(RING_BUFFER_POLL_NANOS * 10,
+            TimeUnit.NANOSECONDS);
+          if (first == null) {
+            if (this.closeRequested) break;
+            continue;
+          }
+          this.batch.clear();
+          this.batch.add(first);
+          this.syncFutures.drainTo(this.batch);
+          IOException ioe = null;
+          try {
+            syncWriter();
+          } catch (IOException e) {
+            ioe = e;
+          }
+          for (SyncFuture f : this.batch) {
+            // Failed appends are checked by sync(long) once the future is done.
+            f.done(ioe);
+          }
+        }
+      } catch (InterruptedException e) {
+        LOG.debug(getName() + " interrupted while waiting for sync requests");
+      } finally {
+        // Nobody is going to sync these anymore.
+        for (SyncFuture f : this.syncFutures) {
+          f.done(new IOException("WAL closed before sync completed"));
+        }
+        LOG.info(getName() + " exiting");
+      }
+    }
+
+    private void syncWriter() throws IOException {
+      long upTo = unflushedEntries.get();
+      if (upTo <= syncedTillHere) return;
+      long now = EnvironmentEdgeManager.currentTimeMillis();
+      Writer tempWriter = writer;
+      try {
+        try {
+          if (tempWriter != null) tempWriter.sync();
+        } catch (IOException ex) {
+          // A roll syncs the old writer before closing it; if that covered us we are done.
+          if (upTo > syncedTillHere) {
+            synchronized (updateLock) {
+              // HBASE-4387, HBASE-5623, retry with updateLock held
+              tempWriter = writer;
+              if (tempWriter != null) tempWriter.sync();
+            }
+          }
+        }
+        updateSyncedTillHere(upTo);
+        metrics.finishSync(EnvironmentEdgeManager.currentTimeMillis() - now);
+        checkLogRoll(tempWriter);
+      } catch (IOException e) {
+        LOG.fatal("Could not sync. Requesting roll of hlog", e);
+        requestLogRoll();
+        throw e;
+      }
+    }
+
+    void close() {
+      this.closeRequested = true;
     }
   }
 
@@ -1265,7 +1675,42 @@ class FSHLog implements HLog, Syncable {
 
   @Override
   public void sync(long txid) throws IOException {
-    syncer(txid);
+    try {
+      syncer(txid);
+    } catch (IOException e) {
+      if (this.useRingBuffer) takeFailedTxid(txid);
+      throw e;
+    }
+    // Once syncer returns, the ring buffer consumer is past txid, so a failure to
+    // write it has been recorded. Check even when syncedTillHere is past txid.
+    if (this.useRingBuffer && takeFailedTxid(txid)) {
+      throw new IOException("Append of txid=" + txid + " failed");
+    }
+  }
+
+  /**
+   * Records an append the ring buffer consumer could not write out.
+   */
+  private void addFailedTxid(final long txid) {
+    this.failedTxids.add(txid);
+    if (this.failedTxidCount.incrementAndGet() > MAX_FAILED_TXIDS) {
+      Long oldest = this.failedTxids.pollFirst();
+      if (oldest != null) {
+        this.failedTxidCount.decrementAndGet();
+        this.failedTxidWatermark = Math.max(this.failedTxidWatermark, oldest);
+      }
+    }
+  }
+
+  /**
+   * @return whether the append of txid failed; only the handler that appended txid
+   *         syncs it, so the failure is forgotten once it has been reported
+   */
+  private boolean takeFailedTxid(final long txid) {
+    if (txid <= this.failedTxidWatermark) return true;
+    if (this.failedTxids.isEmpty() || !this.failedTxids.remove(txid)) return false;
+    this.failedTxidCount.decrementAndGet();
+    return true;
   }
 
   private void requestLogRoll() {
@@ -1297,7 +1742,11 @@ class FSHLog implements HLog, Syncable {
           logKey.setScopes(null);
         }
         // write to our buffer for the Hlog file.
-        logSyncer.append(new FSHLog.Entry(logKey, logEdit));
+        if (this.useRingBuffer) {
+          ringBufferConsumer.append(new FSHLog.Entry(logKey, logEdit));
+        } else {
+          logSyncer.append(new FSHLog.Entry(logKey, logEdit));
+        }
       }
       long took = EnvironmentEdgeManager.currentTimeMillis() - now;
       coprocessorHost.postWALWrite(info, logKey, logEdit);
@@ -1332,6 +1781,9 @@ class FSHLog implements HLog, Syncable {
         " - because the server is closing.");
       return false;
     }
+    if (this.useRingBuffer) {
+      awaitRingBufferConsumed();
+    }
     synchronized (oldestSeqNumsLock) {
       oldRegionSeqNum = this.oldestUnflushedSeqNums.remove(encodedRegionName);
       if (oldRegionSeqNum != null) {
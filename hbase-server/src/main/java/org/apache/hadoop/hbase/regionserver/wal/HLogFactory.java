@@ -56,6 +56,17 @@ public class HLogFactory {
       return new FSHLog(fs, root, logName, conf, listeners, prefix);
     }
 
+    /**
+     * Create an additional HLog in an existing log directory, used when a region
+     * server runs more than one WAL group. See {@link HLogGroupProvider}.
+     */
+    public static HLog createGroupHLog(final FileSystem fs, final Path root, final String logName,
+        final Configuration conf, final List<WALActionsListener> listeners,
+        final String prefix) throws IOException {
+      return new FSHLog(fs, root, logName, HConstants.HREGION_OLDLOGDIR_NAME,
+            conf, listeners, false, prefix, false);
+    }
+
     public static HLog createMetaHLog(final FileSystem fs, final Path root, final String logName,
         final Configuration conf, final List<WALActionsListener> listeners,
         final String prefix) throws IOException {
@@ -0,0 +1,208 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Spreads the regions of a region server over several {@link HLog}s so appends
+ * and syncs of unrelated regions do not serialize on a single writer.
+ * <p>
+ * All the HLogs of a provider live in the same log directory. The first group uses
+ * the plain prefix so a server running with a single group writes exactly the
+ * files it always did; group <code>i</code> &gt; 0 uses
+ * <code>prefix + ".g" + i</code>. {@link HLogUtil#getWALGroupId(String)} maps a
+ * file name back to the group that wrote it.
+ * <p>
+ * A region is always served by the same group for the lifetime of the provider,
+ * so all its edits are in the files of a single HLog, in sequence id order.
+ */
+@InterfaceAudience.Private
+public class HLogGroupProvider {
+  static final Log LOG = LogFactory.getLog(HLogGroupProvider.class);
+
+  /** Number of HLogs per region server */
+  public static final String NUM_GROUPS_KEY = "hbase.regionserver.hlog.groups";
+  public static final int DEFAULT_NUM_GROUPS = 1;
+
+  /** How regions are mapped to groups; see {@link Strategy} */
+  public static final String STRATEGY_KEY = "hbase.regionserver.hlog.grouping.strategy";
+
+  static final String GROUP_PREFIX_SEPARATOR = ".g";
+
+  /**
+   * How a region is assigned to a group.
+   */
+  public static enum Strategy {
+    /** Regions are handed to groups in turn, in the order they are first seen. */
+    ROUNDROBIN,
+    /** All regions of a table share a group. */
+    TABLE,
+    /** A region goes to the group its encoded name hashes to. */
+    REGIONHASH
+  }
+
+  private final HLog[] groups;
+  private final Strategy strategy;
+  // Group picked for each region, by encoded region name.
+  private final ConcurrentMap<String, HLog> regionToGroup =
+    new ConcurrentHashMap<String, HLog>();
+  private final AtomicInteger nextGroup = new AtomicInteger(0);
+
+  /**
+   * Create the HLogs of all groups. Every HLog is handed the same listeners.
+   * @param fs filesystem handle
+   * @param root path for stored and archived hlogs
+   * @param logName dir where hlogs are stored
+   * @param conf configuration to use
+   * @param listeners listeners on WAL events
+   * @param prefix should always be hostname and port in distributed env
+   * @throws IOException
+   */
+  public HLogGroupProvider(final FileSystem fs, final Path root, final String logName,
+      final Configuration conf, final List<WALActionsListener> listeners,
+      final String prefix) throws IOException {
+    int numGroups = Math.max(1, conf.getInt(NUM_GROUPS_KEY, DEFAULT_NUM_GROUPS));
+    this.strategy = Strategy.valueOf(
+      conf.get(STRATEGY_KEY, Strategy.ROUNDROBIN.name()).trim().toUpperCase());
+    this.groups = new HLog[numGroups];
+    try {
+      // The first group creates the log dir and fails if it is already there.
+      this.groups[0] = HLogFactory.createHLog(fs, root, logName, conf, listeners, prefix);
+      for (int i = 1; i < numGroups; i++) {
+        this.groups[i] = HLogFactory.createGroupHLog(fs, root, logName, conf, listeners,
+          getGroupPrefix(prefix, i));
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    LOG.info("Using " + numGroups + " HLog group(s), strategy=" + this.strategy);
+  }
+
+  /**
+   * @param prefix the prefix of the first group
+   * @param group group index
+   * @return the log file prefix for the given group
+   */
+  static String getGroupPrefix(final String prefix, final int group) {
+    return group == 0 ? prefix : prefix + GROUP_PREFIX_SEPARATOR + group;
+  }
+
+  /**
+   * @param info region to look up; null for the default group
+   * @return the HLog the edits of the given region go to
+   */
+  public HLog getHLog(final HRegionInfo info) {
+    if (info == null || this.groups.length == 1) return this.groups[0];
+    String encodedName = info.getEncodedName();
+    HLog wal = this.regionToGroup.get(encodedName);
+    if (wal != null) return wal;
+    wal = this.groups[pickGroup(info)];
+    HLog existing = this.regionToGroup.putIfAbsent(encodedName, wal);
+    return existing == null ? wal : existing;
+  }
+
+  private int pickGroup(final HRegionInfo info) {
+    switch (this.strategy) {
+    case TABLE:
+      return bucket(Bytes.hashCode(info.getTable().getName()));
+    case REGIONHASH:
+      return bucket(info.getEncodedName().hashCode());
+    default:
+      return bucket(this.nextGroup.getAndIncrement());
+    }
+  }
+
+  private int bucket(final int hash) {
+    return (hash & Integer.MAX_VALUE) % this.groups.length;
+  }
+
+  /**
+   * @return the HLog of the first group, the one that owns the log directory
+   */
+  public HLog getDefaultHLog() {
+    return this.groups[0];
+  }
+
+  /**
+   * @return the HLogs of all groups, the default one first
+   */
+  public List<HLog> getHLogs() {
+    return Collections.unmodifiableList(Arrays.asList(this.groups));
+  }
+
+  public int getNumGroups() {
+    return this.groups.length;
+  }
+
+  /**
+   * Close all the HLogs.
+   * @throws IOException the first failure; every HLog is still closed
+   */
+  public void close() throws IOException {
+    closeGroups(false);
+  }
+
+  /**
+   * Close all the HLogs, archive their files and delete the log directory.
+   * @throws IOException the first failure; every HLog is still closed
+   */
+  public void closeAndDelete() throws IOException {
+    closeGroups(true);
+  }
+
+  private void closeGroups(final boolean delete) throws IOException {
+    IOException failure = null;
+    // The default group goes last: its closeAndDelete archives every file left in
+    // the shared directory, so the other groups must be done writing by then.
+    List<HLog> wals = new ArrayList<HLog>(Arrays.asList(this.groups));
+    Collections.reverse(wals);
+    for (HLog wal : wals) {
+      if (wal == null) continue;
+      try {
+        if (delete && wal == this.groups[0]) {
+          wal.closeAndDelete();
+        } else {
+          wal.close();
+        }
+      } catch (IOException e) {
+        LOG.error("Failed closing " + wal, e);
+        if (failure == null) failure = e;
+      }
+    }
+    if (failure != null) throw failure;
+  }
+}
@@ -252,6 +252,23 @@ public class HLogUtil {
     return false;
   }
 
+  /**
+   * Returns the WAL group of a log file, i.e. the file name without its trailing
+   * file number. All the files written by one HLog share a group id; a region
+   * server running several WAL groups (see {@link HLogGroupProvider}) writes one
+   * sequence of files per group in the same log directory.
+   * @param logName name of the log file, not the full path
+   * @return the WAL group id
+   */
+  public static String getWALGroupId(String logName) {
+    String name = logName;
+    boolean meta = isMetaFile(name);
+    if (meta) name = name.substring(0, name.length() - HLog.META_HLOG_FILE_EXTN.length());
+    int index = name.lastIndexOf('.');
+    if (index > 0) name = name.substring(0, index);
+    return meta ? name + HLog.META_HLOG_FILE_EXTN : name;
+  }
+
   /**
    * Write the marker that a compaction has succeeded and is about to be committed.
    * This provides info to the HMaster to allow it to recover the compaction if
@@ -0,0 +1,79 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A sync request published on the {@link FSHLog} ring buffer. The handler that
+ * asked for the sync blocks on its own future, so handlers waiting on a sync do
+ * not contend on a shared monitor; a sync runner completes every future it
+ * covered with a single <code>hflush</code>.
+ */
+@InterfaceAudience.Private
+class SyncFuture {
+  /** The transaction id the caller needs to be durable. */
+  private final long txid;
+
+  private boolean done = false;
+  private IOException error = null;
+
+  SyncFuture(final long txid) {
+    this.txid = txid;
+  }
+
+  long getTxid() {
+    return this.txid;
+  }
+
+  /**
+   * Complete this future.
+   * @param e null if the sync succeeded, the failure otherwise
+   */
+  synchronized void done(final IOException e) {
+    if (this.done) return;
+    this.done = true;
+    this.error = e;
+    notifyAll();
+  }
+
+  synchronized boolean isDone() {
+    return this.done;
+  }
+
+  /**
+   * Wait up to <code>timeoutMs</code> for this future to complete.
+   * @return true if completed successfully, false if still pending after the timeout
+   * @throws IOException if the sync failed
+   */
+  synchronized boolean get(final long timeoutMs) throws InterruptedException, IOException {
+    if (!this.done) {
+      wait(timeoutMs);
+    }
+    if (this.error != null) throw this.error;
+    return this.done;
+  }
+
+  @Override
+  public String toString() {
+    return "SyncFuture{txid=" + this.txid + ", done=" + isDone() + "}";
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A bounded, multi-producer, single-consumer ring buffer used by {@link FSHLog}
+ * when running with the ring buffer append pipeline.
+ * <p>
+ * Producers (the RPC handlers) claim a slot by incrementing a shared sequence,
+ * wait until the consumer has moved at least one lap past that slot, and
+ * publish their event with a volatile write. No lock is taken on the publish
+ * path. The single consumer drains published slots strictly in sequence order,
+ * so the order in which events are consumed is the order in which sequences
+ * were claimed.
+ * <p>
+ * Sequences start at 1; a sequence is also used as the transaction id of the
+ * event published in it.
+ */
+@InterfaceAudience.Private
+class WALRingBuffer<E> {
+  private static final long PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final AtomicReferenceArray<E> slots;
+  private final int mask;
+
+  /** Next sequence a producer will claim. */
+  private final AtomicLong next = new AtomicLong(1);
+
+  /** Highest sequence the consumer has drained; only touched by the consumer thread. */
+  private long readCursor = 0;
+
+  /**
+   * Highest sequence the consumer is done processing; written by the consumer only.
+   * Producers gate on this, so a slot is never reused before its event was processed.
+   */
+  private final AtomicLong consumed = new AtomicLong(0);
+
+  /** Set by the consumer before it parks so producers know to wake it up. */
+  private volatile boolean consumerParked = false;
+  private volatile Thread consumerThread;
+
+  /**
+   * @param capacity number of slots; rounded up to the next power of two
+   */
+  WALRingBuffer(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Ring buffer capacity must be > 0: " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) size <<= 1;
+    this.slots = new AtomicReferenceArray<E>(size);
+    this.mask = size - 1;
+  }
+
+  /**
+   * Registers the thread that drains this buffer, so producers can unpark it.
+   */
+  void setConsumerThread(final Thread t) {
+    this.consumerThread = t;
+  }
+
+  /**
+   * Publish an event. Blocks (spinning, then parking briefly) while the buffer is full.
+   * A claimed sequence must always be published or the consumer would stall on it, so
+   * an interrupt received while waiting is only re-asserted once the event is published.
+   * @return the sequence the event was published at
+   */
+  long publish(final E event) {
+    if (event == null) throw new NullPointerException("event");
+    final long sequence = this.next.getAndIncrement();
+    final long wrapPoint = sequence - capacity();
+    boolean interrupted = false;
+    int spins = 0;
+    while (wrapPoint >= this.consumed.get()) {
+      if (++spins < 100) {
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+        interrupted |= Thread.interrupted();
+      }
+    }
+    this.slots.set(index(sequence), event);
+    if (this.consumerParked) {
+      Thread t = this.consumerThread;
+      if (t != null) LockSupport.unpark(t);
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+    return sequence;
+  }
+
+  /**
+   * Move published events, in sequence order, into <code>batch</code>.
+   * Must only be called by the consumer thread.
+   * @return number of events drained; 0 if the next sequence is not published yet
+   */
+  int drainTo(final List<E> batch, final int maxEvents) {
+    int count = 0;
+    while (count < maxEvents) {
+      int idx = index(this.readCursor + 1);
+      E e = this.slots.get(idx);
+      if (e == null) break;
+      this.slots.lazySet(idx, null);
+      batch.add(e);
+      this.readCursor++;
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Mark everything drained so far as processed, freeing those slots for producers.
+   * Must only be called by the consumer thread.
+   * @return the highest processed sequence
+   */
+  long markConsumed() {
+    this.consumed.set(this.readCursor);
+    return this.readCursor;
+  }
+
+  /**
+   * Park the consumer until the next sequence is published or the timeout elapses.
+   * Must only be called by the consumer thread.
+   */
+  void awaitPublished(final long timeoutNanos) {
+    this.consumerParked = true;
+    try {
+      // Re-check after advertising we are about to park, so we can't miss a publish.
+      if (this.slots.get(index(this.readCursor + 1)) == null) {
+        LockSupport.parkNanos(this, timeoutNanos);
+      }
+    } finally {
+      this.consumerParked = false;
+    }
+  }
+
+  /** @return the highest sequence handed out to a producer so far */
+  long getClaimedSequence() {
+    return this.next.get() - 1;
+  }
+
+  /** @return the highest sequence processed by the consumer */
+  long getConsumedSequence() {
+    return this.consumed.get();
+  }
+
+  int capacity() {
+    return this.mask + 1;
+  }
+
+  private int index(final long sequence) {
+    return (int) (sequence & this.mask);
+  }
+}
@@ -26,8 +26,10 @@ import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -48,6 +50,7 @@ import org.apache.hadoop.hbase.protobuf.ReplicationProtbufUtil;
 import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.AdminService.BlockingInterface;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.regionserver.wal.HLogKey;
+import org.apache.hadoop.hbase.regionserver.wal.HLogUtil;
 import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 import org.apache.hadoop.hbase.replication.ReplicationException;
 import org.apache.hadoop.hbase.replication.ReplicationPeers;
@@ -67,6 +70,11 @@ import org.apache.hadoop.ipc.RemoteException;
  * A stream is considered down when we cannot contact a region server on the
  * peer cluster for more than 55 seconds by default.
  * <p/>
+ * A region server running several WAL groups writes one sequence of logs per
+ * group. Each group gets its own queue, and the source takes the groups in turn,
+ * remembering the log and position it is at in each of them. Recovered queues
+ * only hold closed logs and are processed as a single group.
+ * <p/>
  *
  */
 @InterfaceAudience.Private
@@ -74,8 +82,19 @@ public class ReplicationSource extends Thread
     implements ReplicationSourceInterface {
 
   public static final Log LOG = LogFactory.getLog(ReplicationSource.class);
-  // Queue of logs to process
+  // Queues of logs to process and where we are in them, by WAL group
+  private final ConcurrentSkipListMap<String, WALGroupCursor> groupCursors =
+      new ConcurrentSkipListMap<String, WALGroupCursor>();
+  // The WAL group being processed
+  private WALGroupCursor cursor;
+  // Queue of logs to process of the current WAL group
   private PriorityBlockingQueue<Path> queue;
+  // Initial capacity of a WAL group queue
+  private int queueInitialCapacity;
+  // Whether the current WAL group is the last one of a round over all groups
+  private boolean lastGroupOfRound = true;
+  // Whether edits were shipped since we last started over with the first group
+  private boolean shippedThisRound = false;
   private HConnection conn;
   private ReplicationQueues replicationQueues;
   private ReplicationPeers replicationPeers;
@@ -152,10 +171,7 @@ public class ReplicationSource extends Thread
     this.maxRetriesMultiplier = this.conf.getInt("replication.source.maxretriesmultiplier", 10);
     this.socketTimeoutMultiplier = this.conf.getInt("replication.source.socketTimeoutMultiplier",
         maxRetriesMultiplier * maxRetriesMultiplier);
-    this.queue =
-        new PriorityBlockingQueue<Path>(
-            conf.getInt("hbase.regionserver.maxlogs", 32),
-            new LogsComparator());
+    this.queueInitialCapacity = conf.getInt("hbase.regionserver.maxlogs", 32);
     // TODO: This connection is replication specific or we should make it particular to
     // replication and make replication specific settings such as compression or codec to use
     // passing Cells.
@@ -181,9 +197,10 @@ public class ReplicationSource extends Thread
 
   @Override
   public void enqueueLog(Path log) {
-    this.queue.put(log);
-    int queueSize = queue.size();
-    this.metrics.setSizeOfLogQueue(queueSize);
+    PriorityBlockingQueue<Path> groupQueue = getGroupCursor(log).queue;
+    groupQueue.put(log);
+    int queueSize = groupQueue.size();
+    this.metrics.setSizeOfLogQueue(getSizeOfLogQueue());
     // This will log a warning for each new log that gets created above the warn threshold
     if (queueSize > this.logQueueWarnThreshold) {
       LOG.warn("Queue size: " + queueSize +
@@ -220,6 +237,7 @@ public class ReplicationSource extends Thread
     }
     LOG.info("Replicating "+clusterId + " -> " + peerClusterId);
 
+    switchToNextGroup();
     // If this is recovered, the queue is already full and the first log
     // normally has a position (unless the RS failed between 2 logs)
     if (this.replicationQueueInfo.isQueueRecovered()) {
@@ -237,6 +255,7 @@ public class ReplicationSource extends Thread
     }
     // Loop until we close down
     while (isActive()) {
+      switchToNextGroup();
       // Sleep until replication is enabled again
       if (!isPeerEnabled()) {
         if (sleepForRetries("Replication is disabled", sleepMultiplier)) {
@@ -253,7 +272,7 @@ public class ReplicationSource extends Thread
         sleepMultiplier = 1; //reset the sleepMultiplier on a path change
       }
       if (!hasCurrentPath) {
-        if (sleepForRetries("No log to process", sleepMultiplier)) {
+        if (sleepForRetriesOncePerRound("No log to process", sleepMultiplier)) {
           sleepMultiplier++;
         }
         continue;
@@ -341,12 +360,13 @@ public class ReplicationSource extends Thread
         if (!gotIOE) {
           sleepMultiplier = 1;
         }
-        if (sleepForRetries("Nothing to replicate", sleepMultiplier)) {
+        if (sleepForRetriesOncePerRound("Nothing to replicate", sleepMultiplier)) {
           sleepMultiplier++;
         }
         continue;
       }
       sleepMultiplier = 1;
+      this.shippedThisRound = true;
       shipEdits(currentWALisBeingWrittenTo, entries);
     }
     if (this.conn != null) {
@@ -441,9 +461,11 @@ public class ReplicationSource extends Thread
    */
   protected boolean getNextPath() {
     try {
-      if (this.currentPath == null) {
-        this.currentPath = queue.poll(this.sleepForRetries, TimeUnit.MILLISECONDS);
-        this.metrics.setSizeOfLogQueue(queue.size());
+      if (this.currentPath == null && this.queue != null) {
+        // Only wait for a new log when there is no other group to look at
+        this.currentPath = this.groupCursors.size() > 1 ? queue.poll() :
+            queue.poll(this.sleepForRetries, TimeUnit.MILLISECONDS);
+        this.metrics.setSizeOfLogQueue(getSizeOfLogQueue());
         if (this.currentPath != null) {
           this.manager.cleanOldLogs(this.currentPath.getName(),
               this.peerId,
@@ -541,6 +563,76 @@ public class ReplicationSource extends Thread
     return true;
   }
 
+  /**
+   * Returns the cursor of the WAL group a log belongs to, creating it if needed.
+   */
+  private WALGroupCursor getGroupCursor(Path log) {
+    // A recovered queue only holds closed logs, there is no need to follow
+    // its groups separately.
+    String groupId = this.replicationQueueInfo.isQueueRecovered() ? "" :
+        HLogUtil.getWALGroupId(log.getName());
+    WALGroupCursor groupCursor = this.groupCursors.get(groupId);
+    if (groupCursor == null) {
+      groupCursor = new WALGroupCursor(groupId,
+          new PriorityBlockingQueue<Path>(this.queueInitialCapacity, new LogsComparator()));
+      WALGroupCursor existing = this.groupCursors.putIfAbsent(groupId, groupCursor);
+      if (existing != null) groupCursor = existing;
+    }
+    return groupCursor;
+  }
+
+  /**
+   * Save where we are in the current WAL group and move on to the next one. With a
+   * single group this only loads it the first time around.
+   */
+  private void switchToNextGroup() {
+    if (this.cursor != null) {
+      this.cursor.currentPath = this.currentPath;
+      this.cursor.position = this.repLogReader.getPosition();
+      this.cursor.lastLoggedPosition = this.lastLoggedPosition;
+    }
+    Map.Entry<String, WALGroupCursor> next = this.cursor == null ? null :
+        this.groupCursors.higherEntry(this.cursor.groupId);
+    if (next == null) {
+      // Starting a new round
+      next = this.groupCursors.firstEntry();
+      this.shippedThisRound = false;
+    }
+    if (next == null) {
+      return;
+    }
+    this.lastGroupOfRound = this.groupCursors.higherKey(next.getKey()) == null;
+    if (next.getValue() != this.cursor) {
+      this.cursor = next.getValue();
+      this.queue = this.cursor.queue;
+      this.currentPath = this.cursor.currentPath;
+      this.repLogReader.setPosition(this.cursor.position);
+      this.lastLoggedPosition = this.cursor.lastLoggedPosition;
+    }
+  }
+
+  /**
+   * Same as {@link #sleepForRetries(String, int)}, but only sleeps once all the WAL
+   * groups were looked at and none of them had anything to ship.
+   */
+  private boolean sleepForRetriesOncePerRound(String msg, int sleepMultiplier) {
+    if (!this.lastGroupOfRound || this.shippedThisRound) {
+      return false;
+    }
+    return sleepForRetries(msg, sleepMultiplier);
+  }
+
+  /**
+   * @return the number of logs queued over all WAL groups
+   */
+  private int getSizeOfLogQueue() {
+    int size = 0;
+    for (WALGroupCursor groupCursor : this.groupCursors.values()) {
+      size += groupCursor.queue.size();
+    }
+    return size;
+  }
+
   /*
    * Checks whether the current log file is empty, and it is not a recovered queue. This is to
    * handle scenario when in an idle cluster, there is no entry in the current log and we keep on
@@ -779,6 +871,23 @@ public class ReplicationSource extends Thread
     return !this.stopper.isStopped() && this.running;
   }
 
+  /**
+   * The queue of logs of a WAL group, and where we are in it while the source
+   * is looking at other groups.
+   */
+  private static class WALGroupCursor {
+    final String groupId;
+    final PriorityBlockingQueue<Path> queue;
+    Path currentPath;
+    long position = 0;
+    long lastLoggedPosition = -1;
+
+    WALGroupCursor(String groupId, PriorityBlockingQueue<Path> queue) {
+      this.groupId = groupId;
+      this.queue = queue;
+    }
+  }
+
   /**
    * Comparator used to compare logs together based on their start time
    */
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -42,6 +43,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.regionserver.wal.HLogUtil;
 import org.apache.hadoop.hbase.replication.ReplicationException;
 import org.apache.hadoop.hbase.replication.ReplicationListener;
 import org.apache.hadoop.hbase.replication.ReplicationPeers;
@@ -84,8 +86,8 @@ public class ReplicationSourceManager implements ReplicationListener {
   private final Map<String, SortedSet<String>> hlogsById;
   private final Configuration conf;
   private final FileSystem fs;
-  // The path to the latest log we saw, for new coming sources
-  private Path latestPath;
+  // The path to the latest log we saw of each WAL group, for new coming sources
+  private final Map<String, Path> latestPaths;
   // Path to the hlogs directories
   private final Path logDir;
   // Path to the hlog archive
@@ -120,6 +122,7 @@ public class ReplicationSourceManager implements ReplicationListener {
     this.replicationTracker = replicationTracker;
     this.stopper = stopper;
     this.hlogsById = new HashMap<String, SortedSet<String>>();
+    this.latestPaths = new HashMap<String, Path>();
     this.oldsources = new ArrayList<ReplicationSourceInterface>();
     this.conf = conf;
     this.fs = fs;
@@ -165,8 +168,8 @@ public class ReplicationSourceManager implements ReplicationListener {
   }
 
   /**
-   * Cleans a log file and all older files from ZK. Called when we are sure that a
-   * log file is closed and has no more entries.
+   * Cleans a log file and all older files of the same WAL group from ZK. Called when
+   * we are sure that a log file is closed and has no more entries.
    * @param key Path to the log
    * @param id id of the peer cluster
    * @param queueRecovered Whether this is a recovered queue
@@ -179,11 +182,15 @@ public class ReplicationSourceManager implements ReplicationListener {
       if (queueRecovered || hlogs.first().equals(key)) {
         return;
       }
-      SortedSet<String> hlogSet = hlogs.headSet(key);
-      for (String hlog : hlogSet) {
+      // Logs of other groups sort in between, and are not necessarily done with
+      String groupId = HLogUtil.getWALGroupId(key);
+      Iterator<String> it = hlogs.headSet(key).iterator();
+      while (it.hasNext()) {
+        String hlog = it.next();
+        if (!groupId.equals(HLogUtil.getWALGroupId(hlog))) continue;
         this.replicationQueues.removeLog(id, hlog);
+        it.remove();
       }
-      hlogSet.clear();
     }
   }
 
@@ -225,9 +232,9 @@ public class ReplicationSourceManager implements ReplicationListener {
     synchronized (this.hlogsById) {
       this.sources.add(src);
       this.hlogsById.put(id, new TreeSet<String>());
-      // Add the latest hlog to that source's queue
-      if (this.latestPath != null) {
-        String name = this.latestPath.getName();
+      // Add the latest hlog of each group to that source's queue
+      for (Path latestPath : this.latestPaths.values()) {
+        String name = latestPath.getName();
         this.hlogsById.get(id).add(name);
         try {
           this.replicationQueues.addLog(src.getPeerClusterZnode(), name);
@@ -238,7 +245,7 @@ public class ReplicationSourceManager implements ReplicationListener {
           stopper.stop(message);
           throw e;
         }
-        src.enqueueLog(this.latestPath);
+        src.enqueueLog(latestPath);
       }
     }
     src.startup();
@@ -297,17 +304,20 @@ public class ReplicationSourceManager implements ReplicationListener {
               + source.getPeerClusterZnode() + ", filename=" + name, e);
         }
       }
+      String groupId = HLogUtil.getWALGroupId(name);
       for (SortedSet<String> hlogs : this.hlogsById.values()) {
         if (this.sources.isEmpty()) {
-          // If there's no slaves, don't need to keep the old hlogs since
-          // we only consider the last one when a new slave comes in
-          hlogs.clear();
+          // If there's no slaves, don't need to keep the old hlogs of this group
+          // since we only consider the last one when a new slave comes in
+          Iterator<String> it = hlogs.iterator();
+          while (it.hasNext()) {
+            if (groupId.equals(HLogUtil.getWALGroupId(it.next()))) it.remove();
+          }
         }
         hlogs.add(name);
       }
+      this.latestPaths.put(groupId, newLog);
     }
-
-    this.latestPath = newLog;
   }
 
   void postLogRoll(Path newLog) throws IOException {
@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Like {@link IdLock}, but a read-write lock: any number of clients may hold
+ * the read lock on an id at the same time, while the write lock is exclusive.
+ * A lock only exists while some client holds or waits for it; each one is
+ * reference counted and dropped from the map by the last client to release
+ * it. The map is striped so that clients locking different ids rarely
+ * contend. The intended usage is as follows:
+ *
+ * <pre>
+ * IdReadWriteLock.Entry lockEntry = idLock.getReadLockEntry(id);
+ * try {
+ *   // User code.
+ * } finally {
+ *   idLock.releaseLockEntry(lockEntry);
+ * }</pre>
+ */
+@InterfaceAudience.Private
+public class IdReadWriteLock {
+  /** Default number of stripes of the lock map */
+  public static final int DEFAULT_NUM_STRIPES = 64;
+
+  /** An entry returned to the client as a lock object */
+  public static class Entry {
+    private final SharedLock shared;
+    /** The side of the lock taken by the client */
+    private final Lock held;
+
+    private Entry(SharedLock shared, boolean write) {
+      this.shared = shared;
+      this.held = write ? shared.lock.writeLock() : shared.lock.readLock();
+    }
+
+    public String toString() {
+      return "id=" + shared.id + ", refCount=" + shared.refCount.get() + ", "
+          + shared.lock;
+    }
+  }
+
+  /** The lock on an id, shared by all clients holding or waiting for it */
+  private static class SharedLock {
+    private final long id;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Number of clients; 0 once the lock is retired */
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    private SharedLock(long id) {
+      this.id = id;
+    }
+  }
+
+  private final ConcurrentMap<Long, SharedLock> map;
+
+  public IdReadWriteLock() {
+    this(DEFAULT_NUM_STRIPES);
+  }
+
+  /**
+   * @param numStripes number of independently locked stripes of the map
+   */
+  public IdReadWriteLock(int numStripes) {
+    this.map = new ConcurrentHashMap<Long, SharedLock>(16, 0.75f, numStripes);
+  }
+
+  /**
+   * Blocks until the read lock corresponding to the given id is acquired.
+   *
+   * @param id an arbitrary number to lock on
+   * @return an "entry" to pass to {@link #releaseLockEntry(Entry)} to release
+   *         the lock
+   * @throws IOException if interrupted
+   */
+  public Entry getReadLockEntry(long id) throws IOException {
+    return lock(id, false);
+  }
+
+  /**
+   * Blocks until the write lock corresponding to the given id is acquired.
+   *
+   * @param id an arbitrary number to lock on
+   * @return an "entry" to pass to {@link #releaseLockEntry(Entry)} to release
+   *         the lock
+   * @throws IOException if interrupted
+   */
+  public Entry getWriteLockEntry(long id) throws IOException {
+    return lock(id, true);
+  }
+
+  /**
+   * Must be called in a finally block to release the lock, and remove it from
+   * the map if the caller is the last client.
+   *
+   * @param entry the return value of {@link #getReadLockEntry(long)} or
+   *          {@link #getWriteLockEntry(long)}
+   */
+  public void releaseLockEntry(Entry entry) {
+    entry.held.unlock();
+    release(entry.shared);
+  }
+
+  private Entry lock(long id, boolean write) throws IOException {
+    SharedLock shared = reference(id);
+    Entry entry = new Entry(shared, write);
+    try {
+      entry.held.lockInterruptibly();
+    } catch (InterruptedException e) {
+      release(shared);
+      throw new InterruptedIOException(
+          "Interrupted waiting to acquire sparse read-write lock");
+    }
+    return entry;
+  }
+
+  /**
+   * @return the lock for the id, with a reference taken
+   */
+  private SharedLock reference(long id) {
+    while (true) {
+      SharedLock shared = map.get(id);
+      if (shared == null) {
+        shared = new SharedLock(id);
+        if (map.putIfAbsent(id, shared) == null) {
+          return shared;
+        }
+        continue;
+      }
+      int count = shared.refCount.get();
+      if (count > 0) {
+        if (shared.refCount.compareAndSet(count, count + 1)) {
+          return shared;
+        }
+      } else {
+        // Retired by its last client, which is about to remove it; help it
+        // along so we can put a fresh entry in its place
+        map.remove(id, shared);
+      }
+    }
+  }
+
+  private void release(SharedLock shared) {
+    if (shared.refCount.decrementAndGet() == 0) {
+      map.remove(shared.id, shared);
+    }
+  }
+
+  /** For testing */
+  void assertMapEmpty() {
+    assert map.size() == 0;
+  }
+}
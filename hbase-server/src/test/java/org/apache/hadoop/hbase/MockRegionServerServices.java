@@ -126,6 +126,11 @@ class MockRegionServerServices implements RegionServerServices {
     return null;
   }
 
+  @Override
+  public double getCompactionPressure() {
+    return 0;
+  }
+
   @Override
   public CatalogTracker getCatalogTracker() {
     return null;
@@ -221,4 +226,9 @@ class MockRegionServerServices implements RegionServerServices {
   public int getPriority(RPCProtos.RequestHeader header, Message param) {
     return 0;
   }
+
+  @Override
+  public long getDeadline(RPCProtos.RequestHeader header, Message param) {
+    return 0;
+  }
 }
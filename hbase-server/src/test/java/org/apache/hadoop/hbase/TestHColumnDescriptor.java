@@ -19,6 +19,7 @@ package org.apache.hadoop.hbase;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.apache.hadoop.hbase.exceptions.DeserializationException;
 import org.apache.hadoop.hbase.io.compress.Compression;
@@ -52,6 +53,8 @@ public class TestHColumnDescriptor {
     hcd.setDataBlockEncoding(DataBlockEncoding.FAST_DIFF);
     hcd.setBloomFilterType(BloomType.ROW);
     hcd.setCompressionType(Algorithm.SNAPPY);
+    hcd.setBlockCachePartition("lookups");
+    hcd.setBlockCachePartitionShares(0.1f, 0.5f);
 
 
     byte [] bytes = hcd.toByteArray();
@@ -68,6 +71,25 @@ public class TestHColumnDescriptor {
     assertTrue(deserializedHcd.getCompressionType().equals(Compression.Algorithm.SNAPPY));
     assertTrue(deserializedHcd.getDataBlockEncoding().equals(DataBlockEncoding.FAST_DIFF));
     assertTrue(deserializedHcd.getBloomFilterType().equals(BloomType.ROW));
+    assertEquals("lookups", deserializedHcd.getBlockCachePartition());
+    assertEquals(0.1f, deserializedHcd.getBlockCachePartitionMinShare(), 0.0f);
+    assertEquals(0.5f, deserializedHcd.getBlockCachePartitionMaxShare(), 0.0f);
+  }
+
+  @Test
+  public void testBlockCachePartitionShares() {
+    HColumnDescriptor desc = new HColumnDescriptor("foo");
+    assertEquals(null, desc.getBlockCachePartition());
+    assertEquals(HColumnDescriptor.DEFAULT_BLOCKCACHE_PARTITION_MIN_SHARE,
+      desc.getBlockCachePartitionMinShare(), 0.0f);
+    assertEquals(HColumnDescriptor.DEFAULT_BLOCKCACHE_PARTITION_MAX_SHARE,
+      desc.getBlockCachePartitionMaxShare(), 0.0f);
+    try {
+      desc.setBlockCachePartitionShares(0.5f, 0.2f);
+      fail("Minimum share above the maximum share should be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
   }
 
   @Test
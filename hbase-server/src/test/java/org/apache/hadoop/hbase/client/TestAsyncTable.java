@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+@Category(MediumTests.class)
+public class TestAsyncTable {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final TableName TABLE = TableName.valueOf("testAsyncTable");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final int ROWS = 500;
+
+  private HConnection connection;
+  private AsyncTable table;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.startMiniCluster();
+    TEST_UTIL.createTable(TABLE, new byte[][] { FAMILY }, 1,
+      Bytes.toBytes(String.format("%04d", 0)), Bytes.toBytes(String.format("%04d", ROWS)), 5);
+    TEST_UTIL.waitUntilAllRegionsAssigned(TABLE);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    connection = HConnectionManager.createConnection(TEST_UTIL.getConfiguration());
+    table = new AsyncTable(TABLE, connection);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    table.close();
+    connection.close();
+  }
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("%04d", i));
+  }
+
+  @Test
+  public void testSingleRowOperations() throws Exception {
+    List<ListenableFuture<Void>> puts = new ArrayList<ListenableFuture<Void>>();
+    for (int i = 0; i < ROWS; i++) {
+      puts.add(table.put(new Put(row(i)).add(FAMILY, QUALIFIER, Bytes.toBytes(i))));
+    }
+    for (ListenableFuture<Void> put : puts) {
+      put.get(60, TimeUnit.SECONDS);
+    }
+    for (int i = 0; i < ROWS; i += 50) {
+      Result result = table.get(new Get(row(i))).get(60, TimeUnit.SECONDS);
+      assertEquals(i, Bytes.toInt(result.getValue(FAMILY, QUALIFIER)));
+    }
+
+    byte[] counter = Bytes.toBytes("counter");
+    Result result = table.increment(new Increment(counter).addColumn(FAMILY, QUALIFIER, 5))
+      .get(60, TimeUnit.SECONDS);
+    assertEquals(5L, Bytes.toLong(result.getValue(FAMILY, QUALIFIER)));
+
+    assertFalse(table.checkAndMutate(row(1), FAMILY, QUALIFIER, CompareOp.EQUAL,
+      Bytes.toBytes(2), new Delete(row(1))).get(60, TimeUnit.SECONDS));
+    assertTrue(table.checkAndMutate(row(1), FAMILY, QUALIFIER, CompareOp.EQUAL,
+      Bytes.toBytes(1), new Delete(row(1))).get(60, TimeUnit.SECONDS));
+    assertTrue(table.get(new Get(row(1))).get(60, TimeUnit.SECONDS).isEmpty());
+
+    table.delete(new Delete(counter)).get(60, TimeUnit.SECONDS);
+    assertTrue(table.get(new Get(counter)).get(60, TimeUnit.SECONDS).isEmpty());
+  }
+
+  @Test
+  public void testBatch() throws Exception {
+    byte[] a = Bytes.toBytes("batch-a");
+    byte[] b = Bytes.toBytes("batch-b");
+    table.put(new Put(a).add(FAMILY, QUALIFIER, a)).get(60, TimeUnit.SECONDS);
+    List<Row> actions = new ArrayList<Row>();
+    actions.add(new Get(a));
+    actions.add(new Put(b).add(FAMILY, QUALIFIER, b));
+    List<Object> results = table.batch(actions).get(60, TimeUnit.SECONDS);
+    assertEquals(2, results.size());
+    assertArrayEquals(a, ((Result)results.get(0)).getValue(FAMILY, QUALIFIER));
+    assertNull(results.get(1));
+    assertArrayEquals(b,
+      table.get(new Get(b)).get(60, TimeUnit.SECONDS).getValue(FAMILY, QUALIFIER));
+  }
+
+  @Test
+  public void testScanAcrossRegions() throws Exception {
+    List<ListenableFuture<Void>> puts = new ArrayList<ListenableFuture<Void>>();
+    for (int i = 0; i < ROWS; i++) {
+      puts.add(table.put(new Put(row(i)).add(FAMILY, QUALIFIER, Bytes.toBytes(i))));
+    }
+    for (ListenableFuture<Void> put : puts) {
+      put.get(60, TimeUnit.SECONDS);
+    }
+
+    Scan scan = new Scan(row(10), row(450));
+    scan.setCaching(7);
+    final List<Result> rows = new ArrayList<Result>();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final CountDownLatch done = new CountDownLatch(1);
+    table.scan(scan, new AsyncTable.ScanResultConsumer() {
+      @Override
+      public boolean onNext(Result[] results) {
+        for (Result result : results) {
+          rows.add(result);
+        }
+        return true;
+      }
+
+      @Override
+      public void onComplete() {
+        done.countDown();
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        error.set(t);
+        done.countDown();
+      }
+    });
+    assertTrue(done.await(60, TimeUnit.SECONDS));
+    assertNull(error.get());
+    assertEquals(440, rows.size());
+    for (int i = 0; i < rows.size(); i++) {
+      assertArrayEquals(row(i + 10), rows.get(i).getRow());
+    }
+  }
+}
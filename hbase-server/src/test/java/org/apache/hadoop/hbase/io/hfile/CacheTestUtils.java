@@ -315,8 +315,13 @@ public class CacheTestUtils {
   }
 
 
-  private static HFileBlockPair[] generateHFileBlocks(int blockSize,
+  public static HFileBlockPair[] generateHFileBlocks(int blockSize,
       int numBlocks) {
+    return generateHFileBlocks(blockSize, numBlocks, BlockType.DATA);
+  }
+
+  public static HFileBlockPair[] generateHFileBlocks(int blockSize,
+      int numBlocks, BlockType blockType) {
     HFileBlockPair[] returnedBlocks = new HFileBlockPair[numBlocks];
     Random rand = new Random();
     HashSet<String> usedStrings = new HashSet<String>();
@@ -335,7 +340,7 @@ public class CacheTestUtils {
       int uncompressedSizeWithoutHeader = blockSize
           - HFileBlock.EXTRA_SERIALIZATION_SPACE;
       long prevBlockOffset = rand.nextLong();
-      BlockType.DATA.write(cachedBuffer);
+      blockType.write(cachedBuffer);
       cachedBuffer.putInt(onDiskSizeWithoutHeader);
       cachedBuffer.putInt(uncompressedSizeWithoutHeader);
       cachedBuffer.putLong(prevBlockOffset);
@@ -348,7 +353,7 @@ public class CacheTestUtils {
                           .withBytesPerCheckSum(0)
                           .withChecksumType(ChecksumType.NULL)
                           .build();
-      HFileBlock generated = new HFileBlock(BlockType.DATA,
+      HFileBlock generated = new HFileBlock(blockType,
           onDiskSizeWithoutHeader, uncompressedSizeWithoutHeader,
           prevBlockOffset, cachedBuffer, HFileBlock.DONT_FILL_HEADER,
           blockSize,
@@ -367,8 +372,16 @@ public class CacheTestUtils {
     return returnedBlocks;
   }
 
-  private static class HFileBlockPair {
+  public static class HFileBlockPair {
     BlockCacheKey blockName;
     HFileBlock block;
+
+    public BlockCacheKey getBlockName() {
+      return this.blockName;
+    }
+
+    public HFileBlock getBlock() {
+      return this.block;
+    }
   }
 }
@@ -21,6 +21,7 @@ package org.apache.hadoop.hbase.io.hfile;
 import static org.apache.hadoop.hbase.io.compress.Compression.Algorithm.GZ;
 import static org.apache.hadoop.hbase.io.compress.Compression.Algorithm.NONE;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -363,6 +364,62 @@ public class TestHFileBlock {
     }
   }
 
+  /**
+   * Test reading a data block in its compressed on-disk form, passing it
+   * through block cache serialization, and unpacking it.
+   */
+  @Test
+  public void testPackedBlock() throws IOException {
+    Path path = new Path(TEST_UTIL.getDataTestDir(), "blocks_v2_packed");
+    FSDataOutputStream os = fs.create(path);
+    HFileContext meta = new HFileContextBuilder()
+                       .withCompression(GZ)
+                       .withIncludesMvcc(includesMemstoreTS)
+                       .withIncludesTags(includesTag)
+                       .withBytesPerCheckSum(HFile.DEFAULT_BYTES_PER_CHECKSUM)
+                       .withChecksumType(HFile.DEFAULT_CHECKSUM_TYPE)
+                       .build();
+    HFileBlock.Writer hbw = new HFileBlock.Writer(null, meta);
+    DataOutputStream dos = hbw.startWriting(BlockType.DATA);
+    for (int i = 0; i < 1234; ++i)
+      dos.writeInt(i);
+    hbw.writeHeaderAndData(os);
+    long totalSize = hbw.getOnDiskSizeWithHeader();
+    os.close();
+
+    FSDataInputStream is = fs.open(path);
+    meta = new HFileContextBuilder()
+        .withHBaseCheckSum(true)
+        .withIncludesMvcc(includesMemstoreTS)
+        .withIncludesTags(includesTag)
+        .withCompression(GZ).build();
+    HFileBlock.FSReader hbr = new HFileBlock.FSReaderV2(is, totalSize, meta);
+    HFileBlock expected = hbr.readBlockData(0, -1, -1, false);
+    HFileBlock packed = hbr.readBlockData(0, -1, -1, false, true);
+    is.close();
+    assertFalse(expected.isPacked());
+    assertTrue(packed.isPacked());
+    assertEquals(expected.getOnDiskSizeWithHeader(), packed.getSerializedLength()
+        - HFileBlock.EXTRA_SERIALIZATION_SPACE);
+    assertTrue(packed.heapSize() < expected.heapSize());
+
+    ByteBuffer serialized = ByteBuffer.allocate(packed.getSerializedLength());
+    packed.serialize(serialized);
+    HFileBlock deserialized =
+        (HFileBlock) packed.getDeserializer().deserialize(serialized);
+    assertTrue(deserialized.isPacked());
+    assertEquals(packed, deserialized);
+
+    long unpackCount = HFile.getUnpackCount();
+    HFileBlock unpacked = hbr.unpack(deserialized);
+    assertEquals(unpackCount + 1, HFile.getUnpackCount());
+    assertFalse(unpacked.isPacked());
+    assertEquals(expected.getUncompressedSizeWithoutHeader(),
+        unpacked.getUncompressedSizeWithoutHeader());
+    assertEquals(expected.getBufferWithoutHeader(), unpacked.getBufferWithoutHeader());
+    assertTrue(unpacked == hbr.unpack(unpacked));
+  }
+
   /**
    * Test encoding/decoding data blocks.
    * @throws IOException a bug or a problem with temporary files.
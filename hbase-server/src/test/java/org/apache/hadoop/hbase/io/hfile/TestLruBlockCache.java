@@ -19,6 +19,7 @@
 package org.apache.hadoop.hbase.io.hfile;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.nio.ByteBuffer;
@@ -579,6 +580,159 @@ public class TestLruBlockCache {
     assertEquals(0.5, stats.getHitCachingRatioPastNPeriods(), delta);
   }
 
+  @Test
+  public void testPartitionMaxShare() throws Exception {
+    long maxSize = 100000;
+    long blockSize = calculateBlockSizeDefault(maxSize, 10);
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false);
+    BlockCachePartition partition = cache.getPartition("scans", 0.0f, 0.3f);
+
+    CachedItem [] sharedBlocks = generateFixedBlocks(2, blockSize, "shared");
+    CachedItem [] partitionBlocks = generateFixedBlocks(6, blockSize, "scans");
+    for (CachedItem block : sharedBlocks) {
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    for (CachedItem block : partitionBlocks) {
+      cache.cacheBlock(block.cacheKey, block, false, partition);
+    }
+
+    // The partition was kept to its share, well before the cache filled up
+    assertTrue(partition.getCurrentSize() <= maxSize * 0.3f);
+    assertTrue(cache.getEvictedCount() > 0);
+    // By evicting its own oldest blocks
+    assertEquals(null, cache.getBlock(partitionBlocks[0].cacheKey, true, false));
+    assertEquals(partitionBlocks[5], cache.getBlock(partitionBlocks[5].cacheKey, true, false));
+    for (CachedItem block : sharedBlocks) {
+      assertEquals(block, cache.getBlock(block.cacheKey, true, false));
+    }
+  }
+
+  @Test
+  public void testPartitionKeepsItsShares() throws Exception {
+    long maxSize = 100000;
+    long blockSize = calculateBlockSizeDefault(maxSize, 10);
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false);
+    BlockCachePartition partition = cache.getPartition("scans", 0.1f, 0.3f);
+    assertSame(partition, cache.getPartition("scans", 0.0f, 0.9f));
+    assertEquals(0.1f, partition.getMinShare(), 0.0f);
+    assertEquals(0.3f, partition.getMaxShare(), 0.0f);
+  }
+
+  @Test
+  public void testPartitionMinShareReserved() throws Exception {
+    long maxSize = 100000;
+    long blockSize = calculateBlockSizeDefault(maxSize, 10);
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false);
+    BlockCachePartition partition = cache.getPartition("lookups", 0.3f, 1.0f);
+
+    CachedItem [] reservedBlocks = generateFixedBlocks(2, blockSize, "lookups");
+    CachedItem [] sharedBlocks = generateFixedBlocks(20, blockSize, "shared");
+    for (CachedItem block : reservedBlocks) {
+      cache.cacheBlock(block.cacheKey, block, false, partition);
+    }
+    long reservedSize = partition.getCurrentSize();
+    for (CachedItem block : sharedBlocks) {
+      cache.cacheBlock(block.cacheKey, block);
+    }
+
+    assertTrue(cache.getEvictionCount() > 0);
+    assertTrue(cache.heapSize() < maxSize);
+    // The least recently used blocks, but within the reservation of their partition
+    assertEquals(reservedSize, partition.getCurrentSize());
+    for (CachedItem block : reservedBlocks) {
+      assertEquals(block, cache.getBlock(block.cacheKey, true, false));
+    }
+    assertEquals(null, cache.getBlock(sharedBlocks[0].cacheKey, true, false));
+  }
+
+  @Test
+  public void testPartitionMinSharesCapped() throws Exception {
+    LruBlockCache cache = new LruBlockCache(100000, 1000, false);
+    assertEquals(0.6f, cache.getPartition("a", 0.6f, 1.0f).getMinShare(), 0.001f);
+    BlockCachePartition b = cache.getPartition("b", 0.6f, 1.0f);
+    // The reservations may not add up to more than the minimum size
+    assertEquals(LruBlockCache.DEFAULT_MIN_FACTOR - 0.6f, b.getMinShare(), 0.001f);
+    // Asking again for the same partition returns it, with the share it was given
+    assertTrue(b == cache.getPartition("b", 0.1f, 1.0f));
+    assertEquals(LruBlockCache.DEFAULT_MIN_FACTOR - 0.6f, b.getMinShare(), 0.001f);
+    // Once all of the minimum size is reserved new partitions get no reservation
+    assertEquals(0.0f, cache.getPartition("c", 0.1f, 1.0f).getMinShare(), 0.001f);
+    assertEquals(3, cache.getPartitions().size());
+  }
+
+  @Test
+  public void testPartitionView() throws Exception {
+    long maxSize = 100000;
+    long blockSize = calculateBlockSizeDefault(maxSize, 10);
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false);
+    BlockCachePartition partition = cache.getPartition("view", 0.0f, 1.0f);
+    BlockCache view = new BlockCachePartitionView(cache, partition);
+
+    CachedItem [] blocks = generateFixedBlocks(2, blockSize, "view");
+    view.cacheBlock(blocks[0].cacheKey, blocks[0]);
+    assertEquals(blocks[0].cacheBlockHeapSize(), partition.getCurrentSize());
+
+    assertEquals(blocks[0], view.getBlock(blocks[0].cacheKey, true, false));
+    assertEquals(null, view.getBlock(blocks[1].cacheKey, true, false));
+    // Lookups of blocks of the partition directly in the cache are not its own
+    assertEquals(blocks[0], cache.getBlock(blocks[0].cacheKey, true, false));
+    assertEquals(1, partition.getStats().getHitCount());
+    assertEquals(1, partition.getStats().getMissCount());
+    assertEquals(2, cache.getStats().getHitCount());
+
+    assertTrue(view.evictBlock(blocks[0].cacheKey));
+    assertEquals(0, partition.getCurrentSize());
+  }
+
+  @Test
+  public void testPinnedTier() throws Exception {
+    long maxSize = 100000;
+    long blockSize = calculateBlockSizeDefault(maxSize, 10);
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false,
+        (int)Math.ceil(1.2*maxSize/blockSize),
+        LruBlockCache.DEFAULT_LOAD_FACTOR,
+        LruBlockCache.DEFAULT_CONCURRENCY_LEVEL,
+        LruBlockCache.DEFAULT_MIN_FACTOR,
+        LruBlockCache.DEFAULT_ACCEPTABLE_FACTOR,
+        LruBlockCache.DEFAULT_SINGLE_FACTOR,
+        LruBlockCache.DEFAULT_MULTI_FACTOR,
+        LruBlockCache.DEFAULT_MEMORY_FACTOR,
+        0.25f); // pinned
+
+    CachedItem [] indexBlocks = generateFixedBlocks(3, blockSize, "index");
+    indexBlocks[0].blockType = BlockType.LEAF_INDEX;
+    indexBlocks[1].blockType = BlockType.LEAF_INDEX;
+    indexBlocks[2].blockType = BlockType.BLOOM_CHUNK;
+    CachedItem [] dataBlocks = generateFixedBlocks(20, blockSize, "data");
+
+    cache.cacheBlock(indexBlocks[0].cacheKey, indexBlocks[0]);
+    cache.cacheBlock(indexBlocks[1].cacheKey, indexBlocks[1]);
+    long indexSize = indexBlocks[0].cacheBlockHeapSize() + indexBlocks[1].cacheBlockHeapSize();
+    assertEquals(indexSize, cache.getPinnedSize());
+    assertEquals(indexSize, cache.getStats().getIndexBlockSize());
+
+    // Data blocks, accessed or not, never push index blocks out
+    for (CachedItem block : dataBlocks) {
+      cache.cacheBlock(block.cacheKey, block);
+      cache.getBlock(block.cacheKey, true, false);
+    }
+    assertTrue(cache.getEvictionCount() > 0);
+    assertEquals(indexBlocks[0], cache.getBlock(indexBlocks[0].cacheKey, true, false));
+    assertEquals(indexBlocks[1], cache.getBlock(indexBlocks[1].cacheKey, true, false));
+    assertEquals(null, cache.getBlock(dataBlocks[0].cacheKey, true, false));
+    assertEquals(indexSize, cache.getPinnedSize());
+
+    // The pinned tier evicts its own least-recently-used blocks when it is full
+    cache.getBlock(indexBlocks[0].cacheKey, true, false);
+    cache.cacheBlock(indexBlocks[2].cacheKey, indexBlocks[2]);
+    assertEquals(indexBlocks[0], cache.getBlock(indexBlocks[0].cacheKey, true, false));
+    assertEquals(null, cache.getBlock(indexBlocks[1].cacheKey, true, false));
+    assertEquals(indexBlocks[2], cache.getBlock(indexBlocks[2].cacheKey, true, false));
+    assertEquals(indexBlocks[0].cacheBlockHeapSize(), cache.getStats().getIndexBlockSize());
+    assertEquals(indexBlocks[2].cacheBlockHeapSize(), cache.getStats().getBloomBlockSize());
+    assertTrue(cache.getCurrentSize() <= maxSize);
+  }
+
   private CachedItem [] generateFixedBlocks(int numBlocks, int size, String pfx) {
     CachedItem [] blocks = new CachedItem[numBlocks];
     for(int i=0;i<numBlocks;i++) {
@@ -628,6 +782,7 @@ public class TestLruBlockCache {
   private static class CachedItem implements Cacheable {
     BlockCacheKey cacheKey;
     int size;
+    BlockType blockType = BlockType.DATA;
 
     CachedItem(String blockName, int size) {
       this.cacheKey = new BlockCacheKey(blockName, 0);
@@ -663,7 +818,7 @@ public class TestLruBlockCache {
     
     @Override
     public BlockType getBlockType() {
-      return BlockType.DATA;
+      return blockType;
     }
 
   }
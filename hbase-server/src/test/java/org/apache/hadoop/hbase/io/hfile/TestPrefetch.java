@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.fs.HFileSystem;
+import org.apache.hadoop.hbase.regionserver.BloomType;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(MediumTests.class)
+public class TestPrefetch {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  private static final int NUM_KV = 1000;
+  private static final int DATA_BLOCK_SIZE = 2048;
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private Configuration conf;
+  private CacheConfig cacheConf;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = TEST_UTIL.getConfiguration();
+    conf.setBoolean(CacheConfig.PREFETCH_BLOCKS_ON_OPEN_KEY, true);
+    fs = HFileSystem.get(conf);
+    cacheConf = new CacheConfig(conf);
+  }
+
+  @Test(timeout=60000)
+  public void testPrefetch() throws Exception {
+    Path storeFile = writeStoreFile();
+    HFileReaderV2 reader = (HFileReaderV2) HFile.createReader(fs, storeFile, cacheConf);
+    assertTrue(cacheConf.shouldPrefetchOnOpen());
+    // Wait for the prefetch to run to the end of the file
+    while (!PrefetchExecutor.isCompleted(storeFile)) {
+      Thread.sleep(100);
+    }
+    assertTrue(PrefetchExecutor.getPrefetchedBlockCount() > 0);
+
+    // Every data block is now in the cache
+    BlockCache blockCache = cacheConf.getBlockCache();
+    long offset = 0;
+    HFileBlock prevBlock = null;
+    int dataBlocks = 0;
+    while (offset < reader.getTrailer().getLoadOnOpenDataOffset()) {
+      long onDiskSize = -1;
+      if (prevBlock != null) {
+        onDiskSize = prevBlock.getNextBlockOnDiskSizeWithHeader();
+      }
+      HFileBlock block = reader.readBlock(offset, onDiskSize, false, true, false, null);
+      if (block.getBlockType() == BlockType.DATA) {
+        dataBlocks++;
+        assertTrue("Data block at " + offset + " is not cached",
+          blockCache.getBlock(new BlockCacheKey(reader.getName(), offset), true, false) != null);
+      }
+      prevBlock = block;
+      offset += block.getOnDiskSizeWithHeader();
+    }
+    assertTrue(dataBlocks > 1);
+    reader.close(true);
+  }
+
+  @Test(timeout=60000)
+  public void testCloseCancelsPrefetch() throws Exception {
+    Path storeFile = writeStoreFile();
+    long cancelled = PrefetchExecutor.getCancelledCount();
+    // Close before the prefetch delay expires
+    HFileReaderV2 reader = (HFileReaderV2) HFile.createReader(fs, storeFile, cacheConf);
+    String name = reader.getName();
+    reader.close(true);
+    assertTrue(PrefetchExecutor.isCompleted(storeFile));
+    assertTrue(PrefetchExecutor.getCancelledCount() > cancelled);
+    Thread.sleep(2 * PrefetchExecutor.DEFAULT_PREFETCH_DELAY);
+    assertFalse(cacheConf.getBlockCache().getBlock(new BlockCacheKey(name, 0), true, false)
+      != null);
+  }
+
+  private Path writeStoreFile() throws IOException {
+    Path storeFileParentDir = new Path(TEST_UTIL.getDataTestDir(), "TestPrefetch");
+    HFileContext meta = new HFileContextBuilder().withBlockSize(DATA_BLOCK_SIZE).build();
+    StoreFile.Writer sfw = new StoreFile.WriterBuilder(conf, cacheConf, fs)
+      .withOutputDir(storeFileParentDir)
+      .withComparator(KeyValue.COMPARATOR)
+      .withFileContext(meta)
+      .withBloomType(BloomType.NONE)
+      .withMaxKeyCount(NUM_KV)
+      .build();
+
+    Random rand = new Random();
+    for (int i = 0; i < NUM_KV; i++) {
+      byte[] value = new byte[100];
+      rand.nextBytes(value);
+      sfw.append(new KeyValue(Bytes.toBytes(String.format("%08d", i)), FAMILY, QUALIFIER,
+        value));
+    }
+    sfw.close();
+    return sfw.getPath();
+  }
+}
@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the TinyLFU block cache: the generic cache contract, and that a scan
+ * of one-off blocks cannot push frequently read blocks out.
+ */
+@Category(SmallTests.class)
+public class TestTinyLfuBlockCache {
+  private static final long MAX_SIZE = 1024 * 1024;
+  private static final int BLOCK_SIZE = 50 * 1024;
+
+  private TinyLfuBlockCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new TinyLfuBlockCache(MAX_SIZE, BLOCK_SIZE,
+        TinyLfuBlockCache.DEFAULT_SAMPLE_SIZE);
+  }
+
+  @After
+  public void tearDown() {
+    cache.shutdown();
+  }
+
+  @Test
+  public void testHeapSizeChanges() throws Exception {
+    CacheTestUtils.testHeapSizeChanges(cache, BLOCK_SIZE);
+  }
+
+  @Test
+  public void testCacheMultiThreaded() throws Exception {
+    CacheTestUtils.testCacheMultiThreaded(cache, 1024, 10, 200, 0.80);
+  }
+
+  @Test
+  public void testCacheMultiThreadedSingleKey() throws Exception {
+    CacheTestUtils.hammerSingleKey(cache, BLOCK_SIZE, 10, 200);
+  }
+
+  @Test
+  public void testCacheMultiThreadedEviction() throws Exception {
+    TinyLfuBlockCache small = new TinyLfuBlockCache(64 * 1024, 5 * 1024,
+        TinyLfuBlockCache.DEFAULT_SAMPLE_SIZE);
+    try {
+      CacheTestUtils.hammerEviction(small, 5 * 1024, 10, 100);
+      assertTrue(small.getCurrentSize() <= small.getMaxSize());
+    } finally {
+      small.shutdown();
+    }
+  }
+
+  @Test
+  public void testScanResistance() throws Exception {
+    CachedItem[] hot = generateBlocks(5, "hot");
+    for (CachedItem block : hot) {
+      assertNull(cache.getBlock(block.cacheKey, true, false));
+      cache.cacheBlock(block.cacheKey, block);
+      for (int i = 0; i < 3; i++) {
+        assertTrue(cache.getBlock(block.cacheKey, true, false) != null);
+      }
+    }
+
+    // A long scan, every block read once, each far more than the cache holds
+    CachedItem[] scan = generateBlocks(200, "scan");
+    for (CachedItem block : scan) {
+      assertNull(cache.getBlock(block.cacheKey, true, false));
+      cache.cacheBlock(block.cacheKey, block);
+      assertTrue(cache.getCurrentSize() <= cache.getMaxSize());
+    }
+
+    for (CachedItem block : hot) {
+      assertTrue("Hot block " + block.cacheKey + " was evicted by the scan",
+          cache.containsBlock(block.cacheKey));
+    }
+    assertTrue(cache.getStats().getRejectedCount() > 0);
+
+    // A block that becomes popular gets in, evicting something colder
+    CachedItem newlyHot = generateBlocks(1, "newlyHot")[0];
+    for (int i = 0; i < 10; i++) {
+      assertNull(cache.getBlock(newlyHot.cacheKey, true, false));
+    }
+    long evicted = cache.getEvictedCount();
+    cache.cacheBlock(newlyHot.cacheKey, newlyHot);
+    assertTrue(cache.containsBlock(newlyHot.cacheKey));
+    assertTrue(cache.getEvictedCount() > evicted);
+    assertTrue(cache.getStats().getEvictionCount() > 0);
+    assertTrue(cache.getCurrentSize() <= cache.getMaxSize());
+  }
+
+  @Test
+  public void testInMemoryBlocksAlwaysAdmitted() throws Exception {
+    CachedItem[] blocks = generateBlocks(100, "block");
+    for (CachedItem block : blocks) {
+      cache.cacheBlock(block.cacheKey, block, true);
+    }
+    assertTrue(cache.containsBlock(blocks[blocks.length - 1].cacheKey));
+    assertEquals(0, cache.getStats().getRejectedCount());
+    assertTrue(cache.getCurrentSize() <= cache.getMaxSize());
+  }
+
+  @Test
+  public void testFrequencySketch() {
+    FrequencySketch sketch = new FrequencySketch(1000);
+    int hash = new BlockCacheKey("file", 1234).hashCode();
+    assertEquals(0, sketch.frequency(hash));
+    for (int i = 0; i < 7; i++) {
+      sketch.increment(hash);
+    }
+    assertEquals(7, sketch.frequency(hash));
+    for (int i = 0; i < 20; i++) {
+      sketch.increment(hash);
+    }
+    assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency(hash));
+    assertFalse(sketch.frequency(new BlockCacheKey("file", 5678).hashCode())
+        == FrequencySketch.MAX_FREQUENCY);
+  }
+
+  private static CachedItem[] generateBlocks(int numBlocks, String pfx) {
+    CachedItem[] blocks = new CachedItem[numBlocks];
+    for (int i = 0; i < numBlocks; i++) {
+      blocks[i] = new CachedItem(pfx + i, BLOCK_SIZE);
+    }
+    return blocks;
+  }
+
+  private static class CachedItem implements Cacheable {
+    BlockCacheKey cacheKey;
+    int size;
+
+    CachedItem(String blockName, int size) {
+      this.cacheKey = new BlockCacheKey(blockName, 0);
+      this.size = size;
+    }
+
+    @Override
+    public long heapSize() {
+      return ClassSize.align(size);
+    }
+
+    @Override
+    public int getSerializedLength() {
+      return 0;
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return null;
+    }
+
+    @Override
+    public void serialize(ByteBuffer destination) {
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return BlockType.DATA;
+    }
+  }
+}
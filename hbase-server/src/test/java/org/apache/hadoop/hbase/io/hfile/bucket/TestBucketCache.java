@@ -18,6 +18,7 @@
  */
 package org.apache.hadoop.hbase.io.hfile.bucket;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.FileNotFoundException;
@@ -28,7 +29,9 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.SmallTests;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
 import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
 import org.apache.hadoop.hbase.io.hfile.Cacheable;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketAllocator.BucketSizeInfo;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketAllocator.IndexStatistics;
@@ -151,4 +154,27 @@ public class TestBucketCache {
     CacheTestUtils.testHeapSizeChanges(cache, BLOCK_SIZE);
   }
 
+  @Test
+  public void testIndexAndBloomBlockSize() throws Exception {
+    HFileBlockPair index = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 1,
+        BlockType.LEAF_INDEX)[0];
+    HFileBlockPair bloom = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 1,
+        BlockType.BLOOM_CHUNK)[0];
+    HFileBlockPair data = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 1)[0];
+    cache.cacheBlock(index.getBlockName(), index.getBlock());
+    cache.cacheBlock(bloom.getBlockName(), bloom.getBlock());
+    cache.cacheBlock(data.getBlockName(), data.getBlock());
+    // blocks are accounted once written to their bucket
+    while (cache.heapSize() > 0) {
+      Thread.sleep(10);
+    }
+    assertEquals(BLOCK_SIZE, cache.getStats().getIndexBlockSize());
+    assertEquals(BLOCK_SIZE, cache.getStats().getBloomBlockSize());
+
+    assertTrue(cache.evictBlock(index.getBlockName()));
+    assertTrue(cache.evictBlock(bloom.getBlockName()));
+    assertEquals(0, cache.getStats().getIndexBlockSize());
+    assertEquals(0, cache.getStats().getBloomBlockSize());
+  }
+
 }
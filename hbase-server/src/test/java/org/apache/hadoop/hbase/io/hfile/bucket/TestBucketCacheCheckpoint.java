@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests that a file backed {@link BucketCache} with periodic checkpoints of its
+ * index survives a crash, keeping the blocks it can still vouch for.
+ */
+@Category(SmallTests.class)
+public class TestBucketCacheCheckpoint {
+  private static final long CAPACITY = 32 * 1024 * 1024;
+  private static final int BLOCK_SIZE = 16 * 1024;
+  private static final int NUM_BLOCKS = 20;
+  // Checkpoints are taken by the tests themselves
+  private static final long CHECKPOINT_INTERVAL = 60 * 60 * 1000;
+
+  private final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private File dataFile;
+  private File checkpointFile;
+
+  @Before
+  public void setUp() throws IOException {
+    File dir = new File(TEST_UTIL.getDataTestDir("TestBucketCacheCheckpoint").toString());
+    dir.mkdirs();
+    dataFile = new File(dir, "bucket.cache");
+    checkpointFile = new File(dir, "bucket.checkpoint");
+  }
+
+  @After
+  public void tearDown() {
+    dataFile.delete();
+    checkpointFile.delete();
+  }
+
+  @Test
+  public void testRestoreAfterCrash() throws Exception {
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, NUM_BLOCKS);
+    BucketCache cache = createCache();
+    cacheAndFlush(cache, blocks);
+    cache.checkpoint();
+    crash(cache);
+
+    BucketCache restored = createCache();
+    try {
+      BucketCacheStats stats = (BucketCacheStats) restored.getStats();
+      assertEquals(NUM_BLOCKS, stats.getRestoredCount());
+      assertEquals(0, stats.getDiscardedCount());
+      assertEquals(NUM_BLOCKS, restored.getBlockCount());
+      for (HFileBlockPair block : blocks) {
+        assertEquals(block.getBlock(), restored.getBlock(block.getBlockName(), true, false));
+      }
+      assertEquals(0, stats.getChecksumFailureCount());
+    } finally {
+      restored.shutdown();
+    }
+  }
+
+  @Test
+  public void testIncrementalCheckpoint() throws Exception {
+    HFileBlockPair[] first = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, NUM_BLOCKS);
+    HFileBlockPair[] second = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, NUM_BLOCKS);
+    BucketCache cache = createCache();
+    cacheAndFlush(cache, first);
+    cache.checkpoint();
+    long fullLength = checkpointFile.length();
+
+    cacheAndFlush(cache, second);
+    for (int i = 0; i < NUM_BLOCKS / 2; i++) {
+      assertTrue(cache.evictBlock(first[i].getBlockName()));
+    }
+    cache.checkpoint();
+    // The changes were appended rather than the whole index rewritten
+    assertTrue(checkpointFile.length() > fullLength);
+    crash(cache);
+
+    BucketCache restored = createCache();
+    try {
+      assertEquals(NUM_BLOCKS + NUM_BLOCKS / 2,
+          ((BucketCacheStats) restored.getStats()).getRestoredCount());
+      for (int i = 0; i < NUM_BLOCKS; i++) {
+        if (i < NUM_BLOCKS / 2) {
+          assertNull(restored.getBlock(first[i].getBlockName(), true, false));
+        } else {
+          assertEquals(first[i].getBlock(),
+              restored.getBlock(first[i].getBlockName(), true, false));
+        }
+        assertEquals(second[i].getBlock(),
+            restored.getBlock(second[i].getBlockName(), true, false));
+      }
+    } finally {
+      restored.shutdown();
+    }
+  }
+
+  @Test
+  public void testOverwrittenDataFailsChecksum() throws Exception {
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, NUM_BLOCKS);
+    BucketCache cache = createCache();
+    cacheAndFlush(cache, blocks);
+    cache.checkpoint();
+    crash(cache);
+
+    // Scribble over all of the cached data, as reuse of the space after the
+    // checkpoint would
+    RandomAccessFile raf = new RandomAccessFile(dataFile, "rw");
+    try {
+      byte[] garbage = new byte[1024 * 1024];
+      Random random = new Random();
+      for (long pos = 0; pos < raf.length(); pos += garbage.length) {
+        random.nextBytes(garbage);
+        raf.write(garbage, 0, (int) Math.min(garbage.length, raf.length() - pos));
+      }
+    } finally {
+      raf.close();
+    }
+
+    BucketCache restored = createCache();
+    try {
+      BucketCacheStats stats = (BucketCacheStats) restored.getStats();
+      assertEquals(NUM_BLOCKS, stats.getRestoredCount());
+      for (HFileBlockPair block : blocks) {
+        assertNull(restored.getBlock(block.getBlockName(), true, false));
+      }
+      assertEquals(NUM_BLOCKS, stats.getChecksumFailureCount());
+      assertEquals(0, restored.getBlockCount());
+    } finally {
+      restored.shutdown();
+    }
+  }
+
+  @Test
+  public void testCorruptAndTornChunksSkipped() throws Exception {
+    HFileBlockPair[] first = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, NUM_BLOCKS);
+    HFileBlockPair[] second = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, NUM_BLOCKS);
+    HFileBlockPair[] third = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, NUM_BLOCKS);
+    BucketCache cache = createCache();
+    cacheAndFlush(cache, first);
+    cache.checkpoint();
+    cacheAndFlush(cache, second);
+    cache.checkpoint();
+    long secondLength = checkpointFile.length();
+    cacheAndFlush(cache, third);
+    cache.checkpoint();
+    crash(cache);
+
+    RandomAccessFile raf = new RandomAccessFile(checkpointFile, "rw");
+    try {
+      // Flip a byte in the records appended by the second checkpoint
+      long pos = secondLength - 20;
+      raf.seek(pos);
+      int b = raf.read();
+      raf.seek(pos);
+      raf.write(b ^ 0xFF);
+      // And tear the end of the third, as a crash in mid append would
+      raf.setLength(raf.length() - 5);
+    } finally {
+      raf.close();
+    }
+
+    BucketCache restored = createCache();
+    try {
+      assertEquals(NUM_BLOCKS, ((BucketCacheStats) restored.getStats()).getRestoredCount());
+      for (int i = 0; i < NUM_BLOCKS; i++) {
+        assertEquals(first[i].getBlock(),
+            restored.getBlock(first[i].getBlockName(), true, false));
+        assertNull(restored.getBlock(second[i].getBlockName(), true, false));
+        assertNull(restored.getBlock(third[i].getBlockName(), true, false));
+      }
+    } finally {
+      restored.shutdown();
+    }
+  }
+
+  private BucketCache createCache() throws IOException {
+    BucketCache cache = new BucketCache("file:" + dataFile.getPath(), CAPACITY,
+        BucketCache.DEFAULT_WRITER_THREADS, BucketCache.DEFAULT_WRITER_QUEUE_ITEMS,
+        checkpointFile.getPath(), BucketCache.DEFAULT_ERROR_TOLERATION_DURATION,
+        CHECKPOINT_INTERVAL);
+    cache.wait_when_cache = true;
+    return cache;
+  }
+
+  private static void cacheAndFlush(BucketCache cache, HFileBlockPair[] blocks)
+      throws InterruptedException {
+    for (HFileBlockPair block : blocks) {
+      cache.cacheBlock(block.getBlockName(), block.getBlock());
+    }
+    // Blocks leave the RAM queue once written to the IO engine
+    while (cache.heapSize() > 0) {
+      Thread.sleep(10);
+    }
+  }
+
+  /**
+   * Stop the cache without the checkpoint a clean shutdown writes.
+   */
+  private static void crash(BucketCache cache) throws InterruptedException {
+    cache.stopWriterThreads();
+    cache.ioEngine.shutdown();
+  }
+}
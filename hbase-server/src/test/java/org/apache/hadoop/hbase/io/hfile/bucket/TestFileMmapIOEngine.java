@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Basic test for {@link FileMmapIOEngine}
+ */
+@Category(SmallTests.class)
+public class TestFileMmapIOEngine {
+  private static final String FILE_PATH = "testFileMmapIOEngine";
+  private static final int SIZE = 2 * 1024 * 1024; // 2 MB
+  // Small segments so that some accesses span two of them
+  private static final int SEGMENT_SIZE = 64 * 1024;
+
+  @After
+  public void tearDown() {
+    File file = new File(FILE_PATH);
+    if (file.exists()) {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testReadWrite() throws IOException {
+    FileMmapIOEngine ioEngine = new FileMmapIOEngine(FILE_PATH, SIZE, SEGMENT_SIZE);
+    try {
+      Random rand = new Random();
+      for (int i = 0; i < 100; i++) {
+        int len = rand.nextInt(3 * SEGMENT_SIZE / 2) + 1;
+        long offset = rand.nextInt(SIZE - len);
+        byte[] data1 = new byte[len];
+        rand.nextBytes(data1);
+        ioEngine.write(ByteBuffer.wrap(data1), offset);
+
+        byte[] data2 = new byte[len];
+        ioEngine.read(ByteBuffer.wrap(data2), offset);
+        for (int j = 0; j < len; ++j) {
+          assertEquals(data1[j], data2[j]);
+        }
+
+        ByteBuffer view = ioEngine.read(offset, len);
+        assertEquals(0, view.position());
+        assertEquals(len, view.remaining());
+        for (int j = 0; j < len; ++j) {
+          assertEquals(data1[j], view.get(j));
+        }
+      }
+    } finally {
+      ioEngine.shutdown();
+    }
+  }
+
+  @Test
+  public void testReadWithinSegmentIsView() throws IOException {
+    FileMmapIOEngine ioEngine = new FileMmapIOEngine(FILE_PATH, SIZE, SEGMENT_SIZE);
+    try {
+      assertTrue(ioEngine.usesSharedMemory());
+      ByteBuffer view = ioEngine.read(SEGMENT_SIZE + 10, 100);
+      assertTrue(view.isDirect());
+      ioEngine.write(ByteBuffer.wrap(new byte[] { 42 }), SEGMENT_SIZE + 10);
+      assertEquals(42, view.get(0));
+    } finally {
+      ioEngine.shutdown();
+    }
+  }
+
+  @Test
+  public void testOutOfRange() throws IOException {
+    FileMmapIOEngine ioEngine = new FileMmapIOEngine(FILE_PATH, SIZE, SEGMENT_SIZE);
+    try {
+      ioEngine.read(SIZE - 10, 20);
+      fail("Read past the end of the file should fail");
+    } catch (IOException e) {
+      // expected
+    } finally {
+      ioEngine.shutdown();
+    }
+  }
+
+  @Test
+  public void testDataSurvivesReopen() throws IOException {
+    byte[] data = new byte[SEGMENT_SIZE];
+    new Random().nextBytes(data);
+    long offset = SEGMENT_SIZE / 2;
+    FileMmapIOEngine ioEngine = new FileMmapIOEngine(FILE_PATH, SIZE, SEGMENT_SIZE);
+    assertTrue(ioEngine.isPersistent());
+    ioEngine.write(ByteBuffer.wrap(data), offset);
+    ioEngine.sync();
+    ioEngine.shutdown();
+
+    ioEngine = new FileMmapIOEngine(FILE_PATH, SIZE, SEGMENT_SIZE);
+    try {
+      byte[] read = new byte[data.length];
+      ioEngine.read(ByteBuffer.wrap(read), offset);
+      for (int j = 0; j < data.length; ++j) {
+        assertEquals(data[j], read[j]);
+      }
+    } finally {
+      ioEngine.shutdown();
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestBufferChain {
+  private final byte[][] HELLO_WORLD_CHUNKS = new byte[][] {
+      Bytes.toBytes("hello"),
+      Bytes.toBytes(" "),
+      Bytes.toBytes("world")
+  };
+
+  /**
+   * Channel that takes at most <code>maxWrite</code> bytes per write.
+   */
+  private static class RecordingChannel implements GatheringByteChannel {
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final int maxWrite;
+
+    RecordingChannel(int maxWrite) {
+      this.maxWrite = maxWrite;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+      long count = 0;
+      for (int i = offset; i < offset + length && count < maxWrite; i++) {
+        count += write(srcs[i], (int) (maxWrite - count));
+      }
+      return count;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+      return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      return write(src, maxWrite);
+    }
+
+    private int write(ByteBuffer src, int max) {
+      int n = Math.min(src.remaining(), max);
+      byte[] bytes = new byte[n];
+      src.get(bytes);
+      written.write(bytes, 0, n);
+      return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  @Test
+  public void testWriteAll() throws IOException {
+    BufferChain chain = new BufferChain(wrapArrays(HELLO_WORLD_CHUNKS));
+    assertEquals(11, chain.remaining());
+    RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+    assertEquals(11, chain.write(channel, 1024));
+    assertFalse(chain.hasRemaining());
+    assertArrayEquals(Bytes.toBytes("hello world"), channel.written.toByteArray());
+    assertEquals(0, chain.write(channel, 1024));
+  }
+
+  @Test
+  public void testChunkSizeLimitsWrites() throws IOException {
+    ByteBuffer[] buffers = wrapArrays(HELLO_WORLD_CHUNKS);
+    BufferChain chain = new BufferChain(buffers);
+    RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+    assertEquals(3, chain.write(channel, 3));
+    // The buffer written in part keeps its limit
+    assertEquals(5, buffers[0].limit());
+    assertEquals(3, chain.write(channel, 3));
+    assertEquals(3, chain.write(channel, 3));
+    assertEquals(2, chain.write(channel, 3));
+    assertFalse(chain.hasRemaining());
+    assertArrayEquals(Bytes.toBytes("hello world"), channel.written.toByteArray());
+  }
+
+  @Test
+  public void testPartialWrites() throws IOException {
+    BufferChain chain = new BufferChain(wrapArrays(HELLO_WORLD_CHUNKS));
+    RecordingChannel channel = new RecordingChannel(4);
+    int writes = 0;
+    while (chain.hasRemaining()) {
+      assertTrue(chain.write(channel, 1024) > 0);
+      writes++;
+    }
+    assertEquals(3, writes);
+    assertArrayEquals(Bytes.toBytes("hello world"), channel.written.toByteArray());
+  }
+
+  private ByteBuffer[] wrapArrays(byte[][] arrays) {
+    ByteBuffer[] ret = new ByteBuffer[arrays.length];
+    for (int i = 0; i < arrays.length; i++) {
+      ret[i] = ByteBuffer.wrap(arrays[i]);
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.ipc.RpcServer.Call;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.Action;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.Get;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.GetRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MultiRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutateRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutationProto;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.RegionAction;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanRequest;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+
+@Category(SmallTests.class)
+public class TestMultiQueueRpcScheduler {
+
+  private final RpcScheduler.Context CONTEXT = new RpcScheduler.Context() {
+    @Override
+    public InetSocketAddress getListenerAddress() {
+      return InetSocketAddress.createUnresolved("127.0.0.1", 1000);
+    }
+
+    @Override
+    public MetricsHBaseServer getMetrics() {
+      return null;
+    }
+  };
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    conf = HBaseConfiguration.create();
+  }
+
+  @Test
+  public void testQueueSizing() {
+    conf.setFloat(MultiQueueRpcScheduler.CALL_QUEUE_HANDLER_FACTOR_KEY, 0.5f);
+    MultiQueueRpcScheduler scheduler =
+        new MultiQueueRpcScheduler(conf, 8, 0, 0, mock(PriorityFunction.class), 0);
+    assertEquals(4, scheduler.writeGroup.queues.size());
+    assertEquals(8, scheduler.writeGroup.handlerCount);
+    assertNull(scheduler.readGroup);
+    assertNull(scheduler.scanGroup);
+
+    conf.setFloat(MultiQueueRpcScheduler.CALL_QUEUE_READ_RATIO_KEY, 0.5f);
+    conf.setFloat(MultiQueueRpcScheduler.CALL_QUEUE_SCAN_RATIO_KEY, 0.5f);
+    scheduler = new MultiQueueRpcScheduler(conf, 8, 0, 0, mock(PriorityFunction.class), 0);
+    assertEquals(2, scheduler.writeGroup.queues.size());
+    assertEquals(4, scheduler.writeGroup.handlerCount);
+    assertEquals(1, scheduler.readGroup.queues.size());
+    assertEquals(2, scheduler.readGroup.handlerCount);
+    assertEquals(1, scheduler.scanGroup.queues.size());
+    assertEquals(2, scheduler.scanGroup.handlerCount);
+
+    // Too few handlers to split
+    scheduler = new MultiQueueRpcScheduler(conf, 1, 0, 0, mock(PriorityFunction.class), 0);
+    assertEquals(1, scheduler.writeGroup.queues.size());
+    assertNull(scheduler.readGroup);
+  }
+
+  @Test
+  public void testReadWriteScanSeparation() {
+    conf.setFloat(MultiQueueRpcScheduler.CALL_QUEUE_HANDLER_FACTOR_KEY, 1);
+    conf.setFloat(MultiQueueRpcScheduler.CALL_QUEUE_READ_RATIO_KEY, 0.5f);
+    conf.setFloat(MultiQueueRpcScheduler.CALL_QUEUE_SCAN_RATIO_KEY, 0.5f);
+    MultiQueueRpcScheduler scheduler = new MultiQueueRpcScheduler(
+        conf, 10, 0, 0, mock(PriorityFunction.class), HConstants.HIGH_QOS);
+
+    assertSame(scheduler.readGroup,
+        scheduler.getGroup(createCall(GetRequest.getDefaultInstance())));
+    assertSame(scheduler.scanGroup,
+        scheduler.getGroup(createCall(ScanRequest.getDefaultInstance())));
+    assertSame(scheduler.writeGroup,
+        scheduler.getGroup(createCall(MutateRequest.getDefaultInstance())));
+    assertSame(scheduler.writeGroup, scheduler.getGroup(createCall(null)));
+
+    // only the action types matter, so leave the region and mutation fields unset
+    Action getAction = Action.newBuilder()
+        .setGet(Get.newBuilder().setRow(ByteString.copyFromUtf8("r"))).build();
+    Action mutateAction = Action.newBuilder()
+        .setMutation(MutationProto.getDefaultInstance()).buildPartial();
+    MultiRequest multiGet = MultiRequest.newBuilder().addRegionAction(
+        RegionAction.newBuilder().addAction(getAction).buildPartial()).buildPartial();
+    assertSame(scheduler.readGroup, scheduler.getGroup(createCall(multiGet)));
+    MultiRequest multiMutate = MultiRequest.newBuilder().addRegionAction(
+        RegionAction.newBuilder().addAction(getAction).addAction(mutateAction).buildPartial())
+        .buildPartial();
+    assertSame(scheduler.writeGroup, scheduler.getGroup(createCall(multiMutate)));
+  }
+
+  @Test
+  public void testDispatch() throws IOException, InterruptedException {
+    conf.setFloat(MultiQueueRpcScheduler.CALL_QUEUE_HANDLER_FACTOR_KEY, 1);
+    conf.setFloat(MultiQueueRpcScheduler.CALL_QUEUE_READ_RATIO_KEY, 0.5f);
+    RpcScheduler scheduler = new MultiQueueRpcScheduler(
+        conf, 4, 1, 1, mock(PriorityFunction.class), HConstants.HIGH_QOS);
+    scheduler.init(CONTEXT);
+    scheduler.start();
+    CallRunner[] tasks = new CallRunner[] {
+        createMockTask(GetRequest.getDefaultInstance()),
+        createMockTask(ScanRequest.getDefaultInstance()),
+        createMockTask(MutateRequest.getDefaultInstance()),
+        createMockTask(MutateRequest.getDefaultInstance())
+    };
+    for (CallRunner task : tasks) {
+      scheduler.dispatch(task);
+    }
+    for (CallRunner task : tasks) {
+      verify(task, timeout(1000)).run();
+    }
+    scheduler.stop();
+  }
+
+  private Call createCall(Message param) {
+    Call call = mock(Call.class);
+    call.param = param;
+    return call;
+  }
+
+  private CallRunner createMockTask(Message param) {
+    Call call = createCall(param);
+    CallRunner task = mock(CallRunner.class);
+    when(task.getCall()).thenReturn(call);
+    return task;
+  }
+}
@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.ipc.TestProtoBufRpc.PBServerImpl;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EchoRequestProto;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EchoResponseProto;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EmptyRequestProto;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EmptyResponseProto;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestRpcServiceProtos;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.ipc.RemoteException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.BlockingRpcChannel;
+import com.google.protobuf.BlockingService;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.ServiceException;
+
+@Category(MediumTests.class)
+public class TestNioRpcClient {
+  private static final MethodDescriptor ECHO =
+      TestRpcServiceProtos.TestProtobufRpcProto.getDescriptor().findMethodByName("echo");
+  private static final MethodDescriptor ERROR =
+      TestRpcServiceProtos.TestProtobufRpcProto.getDescriptor().findMethodByName("error");
+
+  private Configuration conf;
+  private RpcServerInterface server;
+  private InetSocketAddress isa;
+  private NioRpcClient client;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = HBaseConfiguration.create();
+    conf.set(RpcClientFactory.RPC_CLIENT_IMPL_CLASS_KEY, NioRpcClient.class.getName());
+    BlockingService service =
+      TestRpcServiceProtos.TestProtobufRpcProto.newReflectiveBlockingService(new PBServerImpl());
+    server = new RpcServer(null, "testrpc",
+        Lists.newArrayList(new RpcServer.BlockingServiceAndInterface(service, null)),
+        new InetSocketAddress("0.0.0.0", 0), conf, new FifoRpcScheduler(conf, 10));
+    isa = server.getListenerAddress();
+    server.start();
+    client = (NioRpcClient)RpcClientFactory.createClient(conf, HConstants.CLUSTER_ID_DEFAULT);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.stop();
+    server.stop();
+  }
+
+  @Test
+  public void testBlockingStub() throws Exception {
+    BlockingRpcChannel channel = client.createBlockingRpcChannel(
+      new ServerName(isa.getHostName(), isa.getPort(), System.currentTimeMillis()),
+      User.getCurrent(), 0);
+    TestRpcServiceProtos.TestProtobufRpcProto.BlockingInterface stub =
+      TestRpcServiceProtos.TestProtobufRpcProto.newBlockingStub(channel);
+    stub.ping(null, EmptyRequestProto.getDefaultInstance());
+    EchoResponseProto echoResponse =
+      stub.echo(null, EchoRequestProto.newBuilder().setMessage("hello").build());
+    assertEquals("hello", echoResponse.getMessage());
+    try {
+      stub.error(null, EmptyRequestProto.getDefaultInstance());
+      fail("Expected exception is not thrown");
+    } catch (ServiceException e) {
+      assertTrue(e.getCause() instanceof RemoteException);
+    }
+  }
+
+  @Test
+  public void testConcurrentAsyncCalls() throws Exception {
+    User user = User.getCurrent();
+    List<ListenableFuture<Pair<Message, CellScanner>>> futures =
+      new ArrayList<ListenableFuture<Pair<Message, CellScanner>>>();
+    int count = 1000;
+    for (int i = 0; i < count; i++) {
+      futures.add(client.callAsync(ECHO,
+        EchoRequestProto.newBuilder().setMessage("m" + i).build(), null,
+        EchoResponseProto.getDefaultInstance(), user, isa, 0, HConstants.NORMAL_QOS));
+    }
+    for (int i = 0; i < count; i++) {
+      Pair<Message, CellScanner> response = futures.get(i).get(30, TimeUnit.SECONDS);
+      assertEquals("m" + i, ((EchoResponseProto)response.getFirst()).getMessage());
+    }
+
+    ListenableFuture<Pair<Message, CellScanner>> error = client.callAsync(ERROR,
+      EmptyRequestProto.getDefaultInstance(), null, EmptyResponseProto.getDefaultInstance(),
+      user, isa, 0, HConstants.NORMAL_QOS);
+    try {
+      error.get(30, TimeUnit.SECONDS);
+      fail("Expected exception is not thrown");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RemoteException);
+    }
+  }
+
+  @Test
+  public void testConnectFailure() throws Exception {
+    ServerSocket socket = new ServerSocket(0);
+    InetSocketAddress dead = new InetSocketAddress("localhost", socket.getLocalPort());
+    socket.close();
+    ListenableFuture<Pair<Message, CellScanner>> future = client.callAsync(ECHO,
+      EchoRequestProto.newBuilder().setMessage("hello").build(), null,
+      EchoResponseProto.getDefaultInstance(), User.getCurrent(), dead, 0,
+      HConstants.NORMAL_QOS);
+    try {
+      future.get(30, TimeUnit.SECONDS);
+      fail("Expected exception is not thrown");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    // The server is now in the failed servers list
+    future = client.callAsync(ECHO, EchoRequestProto.newBuilder().setMessage("hello").build(),
+      null, EchoResponseProto.getDefaultInstance(), User.getCurrent(), dead, 0,
+      HConstants.NORMAL_QOS);
+    try {
+      future.get(30, TimeUnit.SECONDS);
+      fail("Expected exception is not thrown");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RpcClient.FailedServerException);
+    }
+  }
+}
@@ -41,7 +41,9 @@ import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.timeout;
@@ -56,6 +58,11 @@ public class TestSimpleRpcScheduler {
     public InetSocketAddress getListenerAddress() {
       return InetSocketAddress.createUnresolved("127.0.0.1", 1000);
     }
+
+    @Override
+    public MetricsHBaseServer getMetrics() {
+      return null;
+    }
   };
   private Configuration conf;
 
@@ -128,6 +135,39 @@ public class TestSimpleRpcScheduler {
     assertEquals(3, ImmutableSet.copyOf(handlerThreads.values()).size());
   }
 
+  @Test
+  public void testDeadlineQueue() throws IOException, InterruptedException {
+    conf.set(SimpleRpcScheduler.CALL_QUEUE_TYPE_CONF_KEY,
+        SimpleRpcScheduler.CALL_QUEUE_TYPE_DEADLINE_CONF_VALUE);
+    conf.setInt(SimpleRpcScheduler.QUEUE_MAX_CALL_DELAY_CONF_KEY, 100);
+    PriorityFunction qosFunction = mock(PriorityFunction.class);
+    SimpleRpcScheduler scheduler = new SimpleRpcScheduler(conf, 1, 0, 0, qosFunction, 0);
+
+    // A long scan received first, a get received later, and a scan so long it hits the
+    // maximum delay
+    CallRunner longScan = createMockDeadlineTask(1000);
+    CallRunner get = createMockDeadlineTask(1010);
+    CallRunner veryLongScan = createMockDeadlineTask(1000);
+    Map<CallRunner, Long> delays = ImmutableMap.of(longScan, 50L, get, 0L, veryLongScan, 10000L);
+    for (CallRunner task : ImmutableList.of(longScan, get, veryLongScan)) {
+      when(qosFunction.getDeadline((RPCProtos.RequestHeader) anyObject(), (Message) anyObject()))
+          .thenReturn(delays.get(task));
+      scheduler.dispatch(task);
+    }
+    assertEquals(1100, veryLongScan.getDeadline());
+    assertEquals(get, scheduler.callQueue.take());
+    assertEquals(longScan, scheduler.callQueue.take());
+    assertEquals(veryLongScan, scheduler.callQueue.take());
+  }
+
+  private CallRunner createMockDeadlineTask(long timestamp) {
+    CallRunner task = createMockTask();
+    task.getCall().timestamp = timestamp;
+    doCallRealMethod().when(task).setDeadline(anyLong());
+    when(task.getDeadline()).thenCallRealMethod();
+    return task;
+  }
+
   private CallRunner createMockTask() {
     Call call = mock(Call.class);
     CallRunner task = mock(CallRunner.class);
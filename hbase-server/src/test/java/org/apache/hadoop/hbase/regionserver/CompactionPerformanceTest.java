@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.regionserver.compactions.Compactor;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Measure the cells compacted per second by a major compaction of a region with many
+ * overlapping store files without deletes, once with the store scanner and once with the
+ * merge that skips the matcher. Each file holds a new version of a random part of the rows,
+ * so that the compaction both merges the files and drops the versions beyond the maximum.
+ */
+public class CompactionPerformanceTest {
+  private static final double NANOSEC_IN_SEC = 1000.0 * 1000.0 * 1000.0;
+  /** Default number of store files in the region. */
+  public static final int DEFAULT_NUM_FILES = 10;
+  /** Default number of rows in each store file. */
+  public static final int DEFAULT_ROWS_PER_FILE = 20000;
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final int NUM_COLUMNS = 10;
+  private static final int MAX_VERSIONS = 3;
+  private static final int VALUE_LENGTH = 20;
+
+  private final HBaseTestingUtility testingUtility = new HBaseTestingUtility();
+
+  private HRegion createRegion(final String name, final boolean merge, final int numFiles,
+      final int rowsPerFile) throws IOException {
+    Configuration configuration = new Configuration(testingUtility.getConfiguration());
+    configuration.setBoolean(Compactor.MERGE_WITHOUT_MATCHER_KEY, merge);
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf(name));
+    htd.addFamily(new HColumnDescriptor(FAMILY).setMaxVersions(MAX_VERSIONS));
+    HRegion region = PerformanceTestUtil.createRegionKeepingFiles(testingUtility,
+        configuration, htd);
+
+    // the same data for both regions
+    Random random = new Random(42L);
+    byte[] value = new byte[VALUE_LENGTH];
+    for (int file = 0; file < numFiles; file++) {
+      for (int i = 0; i < rowsPerFile; i++) {
+        Put put = new Put(Bytes.toBytes(String.format("row%08d",
+            random.nextInt(numFiles * rowsPerFile / 2))));
+        put.setDurability(Durability.SKIP_WAL);
+        for (int column = 0; column < NUM_COLUMNS; column++) {
+          random.nextBytes(value);
+          put.add(FAMILY, Bytes.toBytes(String.format("col%03d", column)), file, value);
+        }
+        region.put(put);
+      }
+      region.flushcache();
+    }
+    return region;
+  }
+
+  private void runTest(final boolean merge, final int numFiles, final int rowsPerFile)
+      throws IOException {
+    HRegion region = createRegion("CompactionPerformance" + (merge ? "Merge" : "Matcher"),
+        merge, numFiles, rowsPerFile);
+    try {
+      Store store = region.getStore(FAMILY);
+      long cells = 0;
+      for (StoreFile file : store.getStorefiles()) {
+        cells += file.getReader().getEntries();
+      }
+      long startTime = System.nanoTime();
+      region.compactStores(true);
+      long finishTime = System.nanoTime();
+      long cellsWritten = store.getStorefiles().iterator().next().getReader().getEntries();
+
+      System.out.println("Major compaction " + (merge ? "without" : "with") + " the matcher, "
+          + numFiles + " files, " + rowsPerFile + " rows per file");
+      System.out.printf("  Cells read:       %10d\n", cells);
+      System.out.printf("  Cells written:    %10d\n", cellsWritten);
+      System.out.printf("  Cells per second: %10.0f\n",
+          cells / ((finishTime - startTime) / NANOSEC_IN_SEC));
+    } finally {
+      HRegion.closeHRegion(region);
+    }
+  }
+
+  /**
+   * Compacts a new region with the matcher and one without it, twice each, the first round
+   * warming up the JIT.
+   * @param numFiles number of store files in the region
+   * @param rowsPerFile number of rows in each store file
+   * @throws IOException if writing the store files or compacting them fails
+   */
+  public void runTests(final int numFiles, final int rowsPerFile) throws IOException {
+    // once for warming up
+    runTest(false, numFiles, rowsPerFile);
+    runTest(true, numFiles, rowsPerFile);
+    runTest(false, numFiles, rowsPerFile);
+    runTest(true, numFiles, rowsPerFile);
+  }
+
+  /**
+   * Command line interface:
+   * @param args number of store files and number of rows per file,
+   *          10 and 20000 if not given
+   * @throws IOException if a benchmark region cannot be written or compacted
+   */
+  public static void main(final String[] args) throws IOException {
+    int numFiles = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_FILES;
+    int rowsPerFile = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROWS_PER_FILE;
+    new CompactionPerformanceTest().runTests(numFiles, rowsPerFile);
+    System.exit(0);
+  }
+}
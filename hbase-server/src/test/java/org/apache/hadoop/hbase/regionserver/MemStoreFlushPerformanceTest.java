@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.SortedSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CollectionBackedScanner;
+
+/**
+ * Compare the time to flush a MemStore snapshot kept as a skip list with the time
+ * to flush it once flattened into an array, see {@link MemStore#flattenSnapshot}.
+ * Each memstore is filled with random rows, snapshotted, and written to a store
+ * file the way {@link DefaultStoreFlusher} does. Run with a heap large enough for
+ * the biggest memstore, e.g. -Xmx4g for the default sizes.
+ */
+public class MemStoreFlushPerformanceTest {
+  private static final double NANOSEC_IN_MILLISEC = 1000.0 * 1000.0;
+  private static final long BYTES_IN_MEGABYTES = 1024L * 1024L;
+  /** Default memstore sizes, in megabytes, used in benchmark. */
+  public static final int[] DEFAULT_SIZES_MB = { 128, 512 };
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final int VALUE_LENGTH = 100;
+
+  private final HBaseTestingUtility testingUtility = new HBaseTestingUtility();
+  private final Configuration configuration = testingUtility.getConfiguration();
+  private final CacheConfig cacheConf = new CacheConfig(configuration);
+
+  private MemStore fill(final boolean flat, final long size) {
+    Configuration conf = new Configuration(configuration);
+    conf.setBoolean(MemStore.FLAT_SNAPSHOT_KEY, flat);
+    MemStore memstore = new MemStore(conf, KeyValue.COMPARATOR);
+    Random random = new Random(42L);
+    byte[] value = new byte[VALUE_LENGTH];
+    while (memstore.keySize() < size) {
+      byte[] row = Bytes.toBytes(random.nextLong());
+      random.nextBytes(value);
+      memstore.add(new KeyValue(row, FAMILY, Bytes.toBytes(random.nextInt(10)),
+          System.currentTimeMillis(), value));
+    }
+    return memstore;
+  }
+
+  private void runTest(final boolean flat, final long size) throws IOException {
+    MemStore memstore = fill(flat, size);
+    memstore.snapshot();
+    SortedSet<KeyValue> snapshot = memstore.getSnapshot();
+    System.gc();
+
+    long startFlattenTime = System.nanoTime();
+    snapshot = memstore.flattenSnapshot(snapshot);
+    long startWriteTime = System.nanoTime();
+
+    FileSystem fs = testingUtility.getTestFileSystem();
+    Path path = new Path(testingUtility.getDataTestDir(), "flush-" + flat + "-" + size);
+    StoreFile.Writer writer = new StoreFile.WriterBuilder(configuration, cacheConf, fs)
+        .withFilePath(path)
+        .withComparator(KeyValue.COMPARATOR)
+        .withMaxKeyCount(snapshot.size())
+        .withFileContext(new HFileContextBuilder().build())
+        .build();
+    CollectionBackedScanner scanner =
+        new CollectionBackedScanner(snapshot, KeyValue.COMPARATOR);
+    try {
+      for (KeyValue kv = scanner.next(); kv != null; kv = scanner.next()) {
+        writer.append(kv);
+      }
+    } finally {
+      scanner.close();
+      writer.close();
+    }
+    long finishTime = System.nanoTime();
+    memstore.clearSnapshot(snapshot);
+    fs.delete(path, false);
+
+    System.out.println((flat ? "Flat" : "Skip list") + " snapshot of " +
+        (size / BYTES_IN_MEGABYTES) + " MB, " + snapshot.size() + " cells");
+    System.out.printf("  Flatten time:     %8.2f (ms)\n",
+        (startWriteTime - startFlattenTime) / NANOSEC_IN_MILLISEC);
+    System.out.printf("  Write time:       %8.2f (ms)\n",
+        (finishTime - startWriteTime) / NANOSEC_IN_MILLISEC);
+    System.out.printf("  Total flush time: %8.2f (ms)\n",
+        (finishTime - startFlattenTime) / NANOSEC_IN_MILLISEC);
+  }
+
+  /**
+   * @param sizesMb memstore sizes to flush, in megabytes
+   * @throws IOException if there is a bug while writing to disk
+   */
+  public void runTests(final int[] sizesMb) throws IOException {
+    for (int sizeMb : sizesMb) {
+      runTest(false, sizeMb * BYTES_IN_MEGABYTES);
+      runTest(true, sizeMb * BYTES_IN_MEGABYTES);
+    }
+  }
+
+  /**
+   * Command line interface:
+   * @param args memstore sizes in megabytes, 128 and 512 if none given
+   * @throws IOException if there is a bug while writing to disk
+   */
+  public static void main(final String[] args) throws IOException {
+    int[] sizesMb = DEFAULT_SIZES_MB;
+    if (args.length > 0) {
+      sizesMb = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        sizesMb[i] = Integer.parseInt(args[i]);
+      }
+    }
+    new MemStoreFlushPerformanceTest().runTests(sizesMb);
+    System.exit(0);
+  }
+}
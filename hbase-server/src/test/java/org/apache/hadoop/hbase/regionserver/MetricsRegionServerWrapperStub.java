@@ -18,6 +18,9 @@
 
 package org.apache.hadoop.hbase.regionserver;
 
+import java.util.Collections;
+import java.util.Map;
+
 public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrapper {
 
   @Override
@@ -145,6 +148,21 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 0;
   }
 
+  @Override
+  public long getCompactionThroughput() {
+    return 450;
+  }
+
+  @Override
+  public long getCompactionThroughputLimit() {
+    return 451;
+  }
+
+  @Override
+  public long getCompactionThrottleSleepTime() {
+    return 452;
+  }
+
   @Override
   public int getFlushQueueSize() {
     return 412;
@@ -165,6 +183,16 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 415;
   }
 
+  @Override
+  public long getBlockCacheIndexSize() {
+    return 440;
+  }
+
+  @Override
+  public long getBlockCacheBloomSize() {
+    return 441;
+  }
+
   @Override
   public long getBlockCacheHitCount() {
     return 416;
@@ -180,6 +208,26 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 418;
   }
 
+  @Override
+  public long getBlockCachePrefetchedBytes() {
+    return 4096;
+  }
+
+  @Override
+  public int getBlockCachePrefetchPendingCount() {
+    return 3;
+  }
+
+  @Override
+  public long getBlockCacheUnpackCount() {
+    return 430;
+  }
+
+  @Override
+  public long getBlockCacheUnpackTimeMs() {
+    return 431;
+  }
+
   @Override
   public int getBlockCacheHitPercent() {
     return 98;
@@ -190,6 +238,21 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 97;
   }
 
+  @Override
+  public Map<String, Long> getBlockCachePartitionSizes() {
+    return Collections.singletonMap("lookups", 420L);
+  }
+
+  @Override
+  public Map<String, Long> getBlockCachePartitionHitCounts() {
+    return Collections.singletonMap("lookups", 421L);
+  }
+
+  @Override
+  public Map<String, Long> getBlockCachePartitionMissCounts() {
+    return Collections.singletonMap("lookups", 422L);
+  }
+
 
   @Override
   public long getUpdatesBlockedTime() {
@@ -36,6 +36,8 @@ public class MockStoreFile extends StoreFile {
   long sequenceid;
   private Map<byte[], byte[]> metadata = new TreeMap<byte[], byte[]>(Bytes.BYTES_COMPARATOR);
   byte[] splitPoint = null;
+  Long minimumTimestamp = null;
+  Long maximumTimestamp = null;
 
   MockStoreFile(HBaseTestingUtility testUtil, Path testPath,
       long length, long ageInDisk, boolean isRef, long sequenceid) throws IOException {
@@ -51,6 +53,21 @@ public class MockStoreFile extends StoreFile {
     this.length = newLen;
   }
 
+  void setTimeRange(long minimumTimestamp, long maximumTimestamp) {
+    this.minimumTimestamp = minimumTimestamp;
+    this.maximumTimestamp = maximumTimestamp;
+  }
+
+  @Override
+  public Long getMinimumTimestamp() {
+    return minimumTimestamp;
+  }
+
+  @Override
+  public Long getMaximumTimestamp() {
+    return maximumTimestamp;
+  }
+
   @Override
   byte[] getFileSplitPoint(KVComparator comparator) throws IOException {
     return this.splitPoint;
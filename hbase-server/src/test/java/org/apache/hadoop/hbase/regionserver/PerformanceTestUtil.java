@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+
+/**
+ * Region setup shared by the command line benchmarks of this package that measure reads or
+ * compactions over a given number of store files.
+ */
+final class PerformanceTestUtil {
+  private PerformanceTestUtil() {
+  }
+
+  /**
+   * Creates a region of the whole table in the data test dir. Flushes of the region add store
+   * files that are neither compacted nor block updates, so that the benchmark decides how
+   * many files the region has.
+   * @param util testing utility providing the data test dir
+   * @param conf configuration of the region, not modified
+   * @param htd table of the region
+   * @return the region, to be closed with {@link HRegion#closeHRegion(HRegion)}
+   * @throws IOException if the region cannot be created
+   */
+  static HRegion createRegionKeepingFiles(final HBaseTestingUtility util,
+      final Configuration conf, final HTableDescriptor htd) throws IOException {
+    Configuration regionConf = new Configuration(conf);
+    regionConf.setInt("hbase.hstore.compactionThreshold", Integer.MAX_VALUE);
+    regionConf.setInt("hbase.hstore.blockingStoreFiles", Integer.MAX_VALUE);
+    HRegionInfo info = new HRegionInfo(htd.getTableName(), null, null, false);
+    return HRegion.createHRegion(info, util.getDataTestDir(), regionConf, htd);
+  }
+}
@@ -452,4 +452,59 @@ public class TestBlocksRead extends HBaseTestCase {
     }
   }
 
+  /**
+   * Scan a single row for the given columns, and return the number of store
+   * file seeks done.
+   */
+  private long scanRow(byte[] cf, String row, List<String> columns,
+      int expKVs) throws IOException {
+    byte[] startRow = Bytes.toBytes(row);
+    Scan scan = new Scan(startRow, Bytes.add(startRow, new byte[1]));
+    for (String column : columns) {
+      scan.addColumn(cf, Bytes.toBytes(column));
+    }
+    long seeksStart = StoreFileScanner.getSeekCount();
+    RegionScanner rs = region.getScanner(scan);
+    List<Cell> result = new ArrayList<Cell>();
+    rs.next(result);
+    rs.close();
+    assertEquals(expKVs, result.size());
+    return StoreFileScanner.getSeekCount() - seeksStart;
+  }
+
+  /**
+   * Test that a store file whose delete family and row Bloom filters both
+   * rule out the row is not positioned for each column of a multi-column
+   * single row scan.
+   */
+  @Test
+  public void testLazySeekSkipsFilesWithoutRow() throws Exception {
+    byte[] TABLE = Bytes.toBytes("testLazySeekSkipsFilesWithoutRow");
+    String FAMILY = "cf1";
+    byte[] cf = Bytes.toBytes(FAMILY + "_" + BloomType.ROW);
+    List<String> columns = Arrays.asList("col1", "col2");
+    HBaseConfiguration conf = getConf();
+    this.region = initHRegion(TABLE, getName(), conf, FAMILY);
+    StoreFileScanner.instrument();
+    try {
+      putData(FAMILY, "row1", "col1", 1);
+      putData(FAMILY, "row1", "col2", 1);
+      region.flushcache();
+      long seeks = scanRow(cf, "row1", columns, 2);
+
+      // A newer file around row1, but without it
+      putData(FAMILY, "row0", "col1", 2);
+      putData(FAMILY, "row0", "col2", 2);
+      putData(FAMILY, "row2", "col1", 2);
+      putData(FAMILY, "row2", "col2", 2);
+      region.flushcache();
+      // The newer file is only positioned once, past the row, when the scan
+      // moves on to the next row
+      assertEquals(seeks + 1, scanRow(cf, "row1", columns, 2));
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
 }
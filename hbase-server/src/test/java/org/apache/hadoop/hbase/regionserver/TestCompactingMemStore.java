@@ -0,0 +1,206 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the compacting mode of the {@link MemStore}, see {@link MemStoreCompactor}.
+ */
+@Category(SmallTests.class)
+public class TestCompactingMemStore {
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private MemStore memstore;
+
+  @Before
+  public void setUp() {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setBoolean(MemStore.COMPACTING_KEY, true);
+    conf.setLong(MemStore.IN_MEMORY_FLUSH_SIZE_KEY, 1);
+    this.memstore = new MemStore(conf, KeyValue.COMPARATOR);
+  }
+
+  private static KeyValue kv(final String row, final long ts, final String value) {
+    return new KeyValue(Bytes.toBytes(row), FAMILY, QUALIFIER, ts, Bytes.toBytes(value));
+  }
+
+  private static ScanInfo scanInfo(final int maxVersions) {
+    return new ScanInfo(FAMILY, 0, maxVersions, Long.MAX_VALUE, false, 0, KeyValue.COMPARATOR);
+  }
+
+  private List<KeyValue> scanAll(final long readPoint) throws IOException {
+    List<KeyValue> result = new ArrayList<KeyValue>();
+    KeyValueScanner scanner = this.memstore.getScanners(readPoint).get(0);
+    try {
+      scanner.seek(KeyValue.createFirstOnRow(HConstants.EMPTY_START_ROW));
+      for (KeyValue kv = scanner.next(); kv != null; kv = scanner.next()) {
+        result.add(kv);
+      }
+    } finally {
+      scanner.close();
+    }
+    return result;
+  }
+
+  private long merge(final ScanInfo scanInfo, final long smallestReadPoint) {
+    List<MemStore.Segment> segments = this.memstore.getPipeline();
+    MemStore.Segment merged = MemStoreCompactor.merge(segments, scanInfo, smallestReadPoint,
+        System.currentTimeMillis(), KeyValue.COMPARATOR, this.memstore.newAllocator());
+    return this.memstore.swapPipeline(segments, merged);
+  }
+
+  @Test
+  public void testScanAcrossSegments() throws IOException {
+    this.memstore.add(kv("b", 1, "v1"));
+    this.memstore.add(kv("d", 1, "v1"));
+    assertTrue(this.memstore.shouldFreeze());
+    long heapSize = this.memstore.heapSize();
+    // The entries no longer pay for the skip list, the new segment for its overhead
+    long delta = this.memstore.freeze();
+    assertEquals(heapSize + delta, this.memstore.heapSize());
+    assertFalse(this.memstore.shouldFreeze());
+    this.memstore.add(kv("a", 1, "v1"));
+    this.memstore.add(kv("c", 1, "v1"));
+    this.memstore.freeze();
+    this.memstore.add(kv("e", 1, "v1"));
+    assertEquals(2, this.memstore.getPipeline().size());
+
+    List<KeyValue> kvs = scanAll(Long.MAX_VALUE);
+    assertEquals(5, kvs.size());
+    for (int i = 0; i < kvs.size(); i++) {
+      assertEquals(String.valueOf((char)('a' + i)), Bytes.toString(kvs.get(i).getRow()));
+    }
+    assertEquals("c", Bytes.toString(this.memstore.getNextRow(kv("b", 1, "v1")).getRow()));
+  }
+
+  @Test
+  public void testMergeDropsDeadVersions() throws IOException {
+    for (int ts = 1; ts <= 3; ts++) {
+      this.memstore.add(kv("r", ts, "v" + ts));
+      this.memstore.freeze();
+    }
+    this.memstore.add(new KeyValue(Bytes.toBytes("s"), FAMILY, QUALIFIER, 2,
+        KeyValue.Type.DeleteColumn));
+    this.memstore.add(kv("s", 1, "v1"));
+    this.memstore.add(kv("s", 3, "v3"));
+    this.memstore.freeze();
+    assertEquals(4, this.memstore.getPipeline().size());
+
+    long heapSize = this.memstore.heapSize();
+    long delta = merge(scanInfo(1), Long.MAX_VALUE);
+    assertTrue(delta < 0);
+    assertEquals(heapSize + delta, this.memstore.heapSize());
+    assertEquals(1, this.memstore.getPipeline().size());
+
+    List<KeyValue> kvs = scanAll(Long.MAX_VALUE);
+    // Newest version of r, newest version of s and the delete marker
+    assertEquals(3, kvs.size());
+    assertEquals(kv("r", 3, "v3"), kvs.get(0));
+    assertEquals(kv("s", 3, "v3"), kvs.get(1));
+    assertEquals(KeyValue.Type.DeleteColumn.getCode(), kvs.get(2).getTypeByte());
+  }
+
+  @Test
+  public void testMergeKeepsVersionsReadersMaySee() throws IOException {
+    KeyValue older = kv("r", 1, "v1");
+    older.setMvccVersion(5);
+    KeyValue newer = kv("r", 2, "v2");
+    newer.setMvccVersion(10);
+    this.memstore.add(older);
+    this.memstore.freeze();
+    this.memstore.add(newer);
+    this.memstore.freeze();
+
+    // A reader at read point 7 sees the older version only
+    merge(scanInfo(1), 7);
+    assertEquals(2, scanAll(Long.MAX_VALUE).size());
+    List<KeyValue> kvs = scanAll(7);
+    assertEquals(1, kvs.size());
+    assertEquals(older, kvs.get(0));
+  }
+
+  @Test
+  public void testSnapshotTakesPipeline() throws Exception {
+    this.memstore.add(kv("a", 1, "v1"));
+    this.memstore.freeze();
+    this.memstore.add(kv("b", 1, "v1"));
+    this.memstore.freeze();
+    this.memstore.add(kv("c", 1, "v1"));
+    List<MemStore.Segment> segments = this.memstore.getPipeline();
+
+    // The segments are only taken along, they are merged by the flush
+    this.memstore.snapshot();
+    SortedSet<KeyValue> snapshot = this.memstore.getSnapshot();
+    assertEquals(1, snapshot.size());
+    assertEquals(segments, this.memstore.snapshotSegments);
+    assertTrue(this.memstore.getPipeline().isEmpty());
+    assertEquals(MemStore.DEEP_OVERHEAD, this.memstore.heapSize());
+    assertEquals(3, scanAll(Long.MAX_VALUE).size());
+
+    snapshot = this.memstore.flattenSnapshot(snapshot);
+    assertEquals(3, snapshot.size());
+    assertSame(snapshot, this.memstore.getSnapshot());
+    assertTrue(this.memstore.snapshotSegments.isEmpty());
+    assertEquals(3, scanAll(Long.MAX_VALUE).size());
+
+    // A merge that ran meanwhile is thrown away
+    MemStore.Segment merged = MemStoreCompactor.merge(segments, scanInfo(1), Long.MAX_VALUE,
+        System.currentTimeMillis(), KeyValue.COMPARATOR, null);
+    assertEquals(0, this.memstore.swapPipeline(segments, merged));
+    assertTrue(this.memstore.getPipeline().isEmpty());
+
+    this.memstore.clearSnapshot(snapshot);
+    assertEquals(0, scanAll(Long.MAX_VALUE).size());
+  }
+
+  @Test
+  public void testRollbackFromSegment() throws IOException {
+    KeyValue kv = kv("a", 1, "v1");
+    kv.setMvccVersion(3);
+    this.memstore.add(kv);
+    this.memstore.add(kv("b", 1, "v1"));
+    this.memstore.freeze();
+    this.memstore.rollback(kv);
+    List<KeyValue> kvs = scanAll(Long.MAX_VALUE);
+    assertEquals(1, kvs.size());
+    assertEquals("b", Bytes.toString(kvs.get(0).getRow()));
+    assertNull(this.memstore.getPipeline().get(0).kvs.get(kv));
+  }
+}
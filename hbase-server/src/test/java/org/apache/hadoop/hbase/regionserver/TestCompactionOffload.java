@@ -0,0 +1,197 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionContext;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Compactions handed to a {@link CompactionOffloadWorker} by the {@link CompactionOffloader}.
+ */
+@Category(MediumTests.class)
+public class TestCompactionOffload {
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final int NUM_FILES = 3;
+  private static final int NUM_ROWS = 100;
+
+  private final HBaseTestingUtility testUtil = new HBaseTestingUtility();
+  private Configuration conf;
+  private HRegion region;
+  private HStore store;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = testUtil.getConfiguration();
+    conf.setBoolean(CompactionOffloader.OFFLOAD_ENABLED_KEY, true);
+    conf.set(CompactionOffloader.OFFLOAD_DIR_KEY,
+        testUtil.getDataTestDir("offload").toString());
+    conf.setLong(CompactionOffloader.MIN_SIZE_KEY, 0);
+    conf.setBoolean(CompactionOffloader.PEAK_ONLY_KEY, false);
+    conf.setLong(CompactionOffloader.POLL_INTERVAL_KEY, 100);
+    conf.setInt("hbase.hstore.compactionThreshold", NUM_FILES);
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("TestCompactionOffload"));
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    region = testUtil.createLocalHRegion(htd, null, null);
+    store = (HStore) region.getStore(FAMILY);
+
+    for (int file = 0; file < NUM_FILES; file++) {
+      for (int i = 0; i < NUM_ROWS; i++) {
+        Put put = new Put(Bytes.toBytes(i));
+        put.setDurability(Durability.SKIP_WAL);
+        put.add(FAMILY, QUALIFIER, Bytes.toBytes(file));
+        region.put(put);
+      }
+      region.flushcache();
+    }
+    assertEquals(NUM_FILES, store.getStorefilesCount());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HRegion.closeHRegion(region);
+  }
+
+  private void compact(CompactionOffloader offloader) throws IOException {
+    CompactionContext compaction = store.requestCompaction();
+    compaction.getRequest().setIsMajor(true);
+    compaction.getRequest().setOffloader(offloader);
+    assertTrue(offloader.shouldOffload(store, compaction.getRequest()));
+    assertTrue(region.compact(compaction, store));
+  }
+
+  private void verifyCompacted() throws IOException {
+    assertEquals(1, store.getStorefilesCount());
+    for (int i = 0; i < NUM_ROWS; i++) {
+      Result result = region.get(new Get(Bytes.toBytes(i)));
+      assertEquals(NUM_FILES - 1, Bytes.toInt(result.getValue(FAMILY, QUALIFIER)));
+    }
+    // the offloaded task left nothing behind
+    Path offloadDir = CompactionOffloader.getOffloadDir(conf);
+    FileSystem fs = offloadDir.getFileSystem(conf);
+    Path tasksDir = new Path(offloadDir, CompactionOffloader.TASKS_DIR);
+    assertTrue(!fs.exists(tasksDir) || FSUtils.listStatus(fs, tasksDir) == null);
+  }
+
+  @Test
+  public void testCompactionOnWorker() throws Exception {
+    final CompactionOffloadWorker worker = new CompactionOffloadWorker();
+    worker.setConf(new Configuration(conf));
+    Thread workerThread = new Thread("CompactionOffloadWorker") {
+      @Override
+      public void run() {
+        try {
+          worker.run(new String[0]);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    workerThread.start();
+    try {
+      compact(CompactionOffloader.create(conf));
+    } finally {
+      worker.stop();
+      workerThread.join();
+    }
+    verifyCompacted();
+    assertTrue(store.getStorefiles().iterator().next().isMajorCompaction());
+  }
+
+  @Test
+  public void testFailedTaskIsCompactedLocally() throws Exception {
+    CompactionContext compaction = store.requestCompaction();
+    compaction.getRequest().setOffloader(CompactionOffloader.create(conf));
+    // a worker only knows the files of the store directory
+    CompactionOffloader.Task task = new CompactionOffloader.Task(
+        store.getRegionFileSystem().getTableDir(), region.getTableDesc(),
+        region.getRegionInfo(), store.getColumnFamilyName(), false);
+    task.files.add("missing");
+    Path offloadDir = CompactionOffloader.getOffloadDir(conf);
+    FileSystem fs = offloadDir.getFileSystem(conf);
+    Path tasksDir = new Path(offloadDir, CompactionOffloader.TASKS_DIR);
+    CompactionOffloader.writeAtomically(fs,
+        new Path(tasksDir, "bad" + CompactionOffloader.TASK_SUFFIX), task);
+    CompactionOffloadWorker worker = new CompactionOffloadWorker();
+    worker.setConf(new Configuration(conf));
+    assertEquals(0, worker.run(new String[] { "-once" }));
+    assertTrue(fs.exists(new Path(tasksDir, "bad" + CompactionOffloader.FAILED_SUFFIX)));
+    assertFalse(fs.exists(new Path(new Path(offloadDir, CompactionOffloader.OUTPUT_DIR), "bad")));
+    CompactionOffloader.deleteQuietly(fs, tasksDir);
+
+    // the region server compacts when no worker picks the task up in time
+    Configuration offloaderConf = new Configuration(conf);
+    offloaderConf.setLong(CompactionOffloader.TIMEOUT_KEY, 500);
+    compaction.getRequest().setOffloader(CompactionOffloader.create(offloaderConf));
+    assertTrue(region.compact(compaction, store));
+    verifyCompacted();
+  }
+
+  @Test
+  public void testCleanOrphans() throws Exception {
+    Path offloadDir = CompactionOffloader.getOffloadDir(conf);
+    FileSystem fs = offloadDir.getFileSystem(conf);
+    Path tasksDir = new Path(offloadDir, CompactionOffloader.TASKS_DIR);
+    Path outputsDir = new Path(offloadDir, CompactionOffloader.OUTPUT_DIR);
+    // a task the region server still waits for, and one it gave up on
+    CompactionOffloader.writeAtomically(fs,
+        new Path(tasksDir, "live" + CompactionOffloader.CLAIMED_SUFFIX), "");
+    CompactionOffloader.writeAtomically(fs,
+        new Path(tasksDir, "live" + CompactionOffloader.DONE_SUFFIX), "");
+    fs.mkdirs(new Path(outputsDir, "live"));
+    CompactionOffloader.writeAtomically(fs,
+        new Path(tasksDir, "gone" + CompactionOffloader.DONE_SUFFIX), "");
+    fs.mkdirs(new Path(outputsDir, "gone"));
+
+    assertEquals(2, CompactionOffloader.cleanOrphans(fs, offloadDir, Long.MAX_VALUE, 0));
+    assertFalse(fs.exists(new Path(tasksDir, "gone" + CompactionOffloader.DONE_SUFFIX)));
+    assertFalse(fs.exists(new Path(outputsDir, "gone")));
+    assertTrue(fs.exists(new Path(tasksDir, "live" + CompactionOffloader.DONE_SUFFIX)));
+    assertTrue(fs.exists(new Path(outputsDir, "live")));
+    // nothing is removed while it may still be being written
+    assertEquals(0, CompactionOffloader.cleanOrphans(fs, offloadDir, -1, Long.MAX_VALUE));
+
+    // past the timeout the region server does not wait for the claimed task anymore
+    assertEquals(3, CompactionOffloader.cleanOrphans(fs, offloadDir, -1, 0));
+    assertTrue(FSUtils.listStatus(fs, tasksDir) == null);
+    assertTrue(FSUtils.listStatus(fs, outputsDir) == null);
+  }
+}
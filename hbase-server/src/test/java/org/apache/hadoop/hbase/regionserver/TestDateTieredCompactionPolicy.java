@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionConfiguration;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequest;
+import org.apache.hadoop.hbase.regionserver.compactions.DateTieredCompactionPolicy;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestDateTieredCompactionPolicy {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  // base windows of 6 ms, 4 windows per tier, so the incoming window is [156, 162)
+  private static final long NOW = 161;
+
+  private Path testFile;
+  private StoreConfigInformation storeConfigInfo;
+
+  @Before
+  public void setUp() throws IOException {
+    // store file names must be hex, see StoreFileInfo.HFILE_NAME_REGEX
+    testFile = new Path(TEST_UTIL.getDataTestDir(), "1234abcd");
+    TEST_UTIL.getTestFileSystem().createNewFile(testFile);
+    storeConfigInfo = mock(StoreConfigInformation.class);
+    when(storeConfigInfo.getStoreFileTtl()).thenReturn(Long.MAX_VALUE);
+    when(storeConfigInfo.getBlockingFileCount()).thenReturn(100L);
+    ManualEnvironmentEdge edge = new ManualEnvironmentEdge();
+    edge.setValue(NOW);
+    EnvironmentEdgeManager.injectEdge(edge);
+  }
+
+  @After
+  public void tearDown() {
+    EnvironmentEdgeManager.reset();
+  }
+
+  private DateTieredCompactionPolicy createPolicy(long maxAge) {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(CompactionConfiguration.MIN_KEY, 2);
+    conf.setInt(CompactionConfiguration.MAX_KEY, 10);
+    conf.setLong(CompactionConfiguration.MAX_AGE_MILLIS_KEY, maxAge);
+    conf.setLong(CompactionConfiguration.BASE_WINDOW_MILLIS_KEY, 6);
+    conf.setInt(CompactionConfiguration.WINDOWS_PER_TIER_KEY, 4);
+    conf.setInt(CompactionConfiguration.INCOMING_WINDOW_MIN_KEY, 3);
+    return new DateTieredCompactionPolicy(conf, storeConfigInfo);
+  }
+
+  /**
+   * @param timestamps max timestamps of the files, ordered by sequence id; each file has
+   *  its max timestamp as length so that it can be identified in the selection
+   */
+  private List<StoreFile> sfCreate(long... timestamps) throws IOException {
+    List<StoreFile> storeFiles = new ArrayList<StoreFile>();
+    for (int i = 0; i < timestamps.length; i++) {
+      MockStoreFile sf = new MockStoreFile(TEST_UTIL, testFile, timestamps[i], 0, false, i);
+      sf.setTimeRange(timestamps[i] - 1, timestamps[i]);
+      storeFiles.add(sf);
+    }
+    return storeFiles;
+  }
+
+  private void compactEquals(DateTieredCompactionPolicy policy, List<StoreFile> candidates,
+      long... expected) throws IOException {
+    CompactionRequest request = policy.selectCompaction(candidates,
+        new ArrayList<StoreFile>(), false, false, false);
+    List<StoreFile> actual = new ArrayList<StoreFile>(request.getFiles());
+    long[] lengths = new long[actual.size()];
+    for (int i = 0; i < lengths.length; i++) {
+      lengths[i] = actual.get(i).getReader().length();
+    }
+    assertEquals(Arrays.toString(expected), Arrays.toString(lengths));
+  }
+
+  @Test
+  public void testIncomingWindow() throws IOException {
+    DateTieredCompactionPolicy policy = createPolicy(Long.MAX_VALUE);
+    compactEquals(policy, sfCreate(50, 100, 150, 157, 158, 159), 157, 158, 159);
+    // not enough files in the incoming window, compact the previous window
+    compactEquals(policy, sfCreate(50, 100, 150, 151, 158, 159), 150, 151);
+  }
+
+  @Test
+  public void testTieredWindows() throws IOException {
+    DateTieredCompactionPolicy policy = createPolicy(Long.MAX_VALUE);
+    // 126, 132 and 138 fall in the second tier window [120, 144), 145 alone in [144, 150)
+    compactEquals(policy, sfCreate(126, 132, 138, 145, 158), 126, 132, 138);
+    // nothing to compact when every window has a single file
+    compactEquals(policy, sfCreate(20, 138, 145, 158));
+  }
+
+  @Test
+  public void testNeedsCompaction() throws IOException {
+    DateTieredCompactionPolicy policy = createPolicy(Long.MAX_VALUE);
+    List<StoreFile> noCompacting = new ArrayList<StoreFile>();
+    assertTrue(policy.needsCompaction(sfCreate(126, 132, 138, 145, 158), noCompacting));
+    // enough files, but in windows of their own
+    assertFalse(policy.needsCompaction(sfCreate(20, 138, 145, 158), noCompacting));
+    // unless the store is about to block writes
+    when(storeConfigInfo.getBlockingFileCount()).thenReturn(4L);
+    assertTrue(policy.needsCompaction(sfCreate(20, 138, 145, 158), noCompacting));
+  }
+
+  @Test
+  public void testOldFilesAreFrozen() throws IOException {
+    // files with data older than 161 - 20 are not compacted anymore
+    DateTieredCompactionPolicy policy = createPolicy(20);
+    compactEquals(policy, sfCreate(126, 132, 138, 158));
+    compactEquals(policy, sfCreate(126, 132, 138, 145, 146, 158), 145, 146);
+    assertFalse(policy.needsCompaction(sfCreate(126, 132, 138, 158), new ArrayList<StoreFile>()));
+  }
+
+  @Test
+  public void testOutOfOrderTimestamps() throws IOException {
+    DateTieredCompactionPolicy policy = createPolicy(Long.MAX_VALUE);
+    // the late written old data stays with the files around it
+    compactEquals(policy, sfCreate(157, 100, 158), 157, 100, 158);
+  }
+
+  @Test
+  public void testNoPeriodicMajorCompaction() throws IOException {
+    DateTieredCompactionPolicy policy = createPolicy(Long.MAX_VALUE);
+    assertFalse(policy.isMajorCompaction(sfCreate(20, 50, 100)));
+  }
+}
@@ -24,8 +24,10 @@ import java.lang.management.MemoryMXBean;
 import java.rmi.UnexpectedException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
 import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
@@ -459,11 +461,44 @@ public class TestMemStore extends TestCase {
     for (int i = 0; i < snapshotCount; i++) {
       addRows(this.memstore);
       runSnapshot(this.memstore);
-      KeyValueSkipListSet ss = this.memstore.getSnapshot();
+      SortedSet<KeyValue> ss = this.memstore.getSnapshot();
       assertEquals("History not being cleared", 0, ss.size());
     }
   }
 
+  /**
+   * Test the snapshot is flattened into an array, still readable by scanners
+   * @throws IOException
+   */
+  public void testFlattenSnapshot() throws IOException {
+    addRows(this.memstore);
+    this.memstore.snapshot();
+    SortedSet<KeyValue> ss = this.memstore.getSnapshot();
+    SortedSet<KeyValue> flat = this.memstore.flattenSnapshot(ss);
+    assertTrue(flat instanceof KeyValueArraySet);
+    assertTrue(flat == this.memstore.getSnapshot());
+    assertEquals(ss.size(), flat.size());
+    // KeyValueSkipListSet does not implement toArray, so walk both sets
+    Iterator<KeyValue> it = flat.iterator();
+    for (KeyValue kv : ss) {
+      assertTrue(kv == it.next());
+    }
+    // Already flat
+    assertTrue(flat == this.memstore.flattenSnapshot(flat));
+
+    int count = 0;
+    KeyValueScanner scanner = this.memstore.getScanners(Long.MAX_VALUE).get(0);
+    scanner.seek(KeyValue.createFirstOnRow(HConstants.EMPTY_START_ROW));
+    while (scanner.next() != null) {
+      count++;
+    }
+    scanner.close();
+    assertEquals(ROW_COUNT * QUALIFIER_COUNT, count);
+
+    this.memstore.clearSnapshot(flat);
+    assertEquals(0, this.memstore.getSnapshot().size());
+  }
+
   public void testMultipleVersionsSimple() throws Exception {
     MemStore m = new MemStore(new Configuration(), KeyValue.COMPARATOR);
     byte [] row = Bytes.toBytes("testRow");
@@ -966,7 +1001,7 @@ public class TestMemStore extends TestCase {
     // Save off old state.
     int oldHistorySize = hmc.getSnapshot().size();
     hmc.snapshot();
-    KeyValueSkipListSet ss = hmc.getSnapshot();
+    SortedSet<KeyValue> ss = hmc.getSnapshot();
     // Make some assertions about what just happened.
     assertTrue("History size has not increased", oldHistorySize < ss.size());
     long t = memstore.timeOfOldestEdit();
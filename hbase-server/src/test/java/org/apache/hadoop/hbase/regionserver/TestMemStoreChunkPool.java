@@ -19,11 +19,14 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.rmi.UnexpectedException;
 import java.util.List;
 import java.util.Random;
+import java.util.SortedSet;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.KeyValue;
@@ -116,7 +119,7 @@ public class TestMemStoreChunkPool {
 
     // Creating a snapshot
     memstore.snapshot();
-    KeyValueSkipListSet snapshot = memstore.getSnapshot();
+    SortedSet<KeyValue> snapshot = memstore.getSnapshot();
     assertEquals(3, memstore.snapshot.size());
 
     // Adding value to "new" memstore
@@ -154,7 +157,7 @@ public class TestMemStoreChunkPool {
 
     // Creating a snapshot
     memstore.snapshot();
-    KeyValueSkipListSet snapshot = memstore.getSnapshot();
+    SortedSet<KeyValue> snapshot = memstore.getSnapshot();
     assertEquals(3, memstore.snapshot.size());
 
     // Adding value to "new" memstore
@@ -198,4 +201,62 @@ public class TestMemStoreChunkPool {
     assertTrue(chunkPool.getPoolSize() > 0);
   }
 
+  @Test
+  public void testPoolingEnabled() {
+    Configuration c = new Configuration(false);
+    assertFalse(MemStoreChunkPool.isPoolingEnabled(c));
+    c.setLong(MemStoreChunkPool.CHUNK_POOL_DEDICATED_SIZE_KEY, 64L * 1024 * 1024);
+    assertTrue(MemStoreChunkPool.isPoolingEnabled(c));
+    c = new Configuration(false);
+    c.setFloat(MemStoreChunkPool.CHUNK_POOL_MAXSIZE_KEY, 0.1f);
+    assertTrue(MemStoreChunkPool.isPoolingEnabled(c));
+  }
+
+  @Test
+  public void testDedicatedSizeWithinMemstoreLimit() {
+    Configuration c = new Configuration(false);
+    long heapMax = 1000L * 1024 * 1024;
+    assertEquals(0, MemStoreChunkPool.getDedicatedSize(c, heapMax));
+    c.setFloat(MemStoreFlusher.UPPER_KEY, 0.4f);
+    c.setLong(MemStoreChunkPool.CHUNK_POOL_DEDICATED_SIZE_KEY, 400L * 1024 * 1024);
+    assertEquals(400L * 1024 * 1024, MemStoreChunkPool.getDedicatedSize(c, heapMax));
+    c.setLong(MemStoreChunkPool.CHUNK_POOL_DEDICATED_SIZE_KEY, 401L * 1024 * 1024);
+    try {
+      MemStoreChunkPool.getDedicatedSize(c, heapMax);
+      fail("A pool larger than the global memstore limit was accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testDedicatedPoolAccounting() {
+    int chunkSize = conf.getInt(MemStoreLAB.CHUNK_SIZE_KEY, MemStoreLAB.CHUNK_SIZE_DEFAULT);
+    MemStoreChunkPool dedicated = new MemStoreChunkPool(conf, chunkSize, 4, 4, true);
+    // A dedicated pool is allocated in full up front
+    assertEquals(4, dedicated.getPoolSize());
+    assertEquals(4L * chunkSize, dedicated.getCapacity());
+    RegionServerAccounting accounting = new RegionServerAccounting(dedicated);
+    assertEquals(4L * chunkSize, accounting.getGlobalMemstoreChunkPoolCapacity());
+
+    MemStoreLAB mslab = new MemStoreLAB(conf, dedicated);
+    int size = 1024;
+    // Fill a bit more than two chunks
+    for (int i = 0; i < 2 * (chunkSize / size) + 1; i++) {
+      assertTrue(mslab.allocateBytes(size) != null);
+    }
+    assertEquals(3L * chunkSize, accounting.getGlobalMemstoreChunkPoolSize());
+    accounting.addAndGetGlobalMemstoreSize(4L * chunkSize);
+    // Data in the pool's chunks still counts in the global memstore size
+    assertEquals(4L * chunkSize, accounting.getGlobalMemstoreSize());
+
+    mslab.close();
+    assertEquals(0, accounting.getGlobalMemstoreChunkPoolSize());
+    assertEquals(4, dedicated.getPoolSize());
+
+    // A pool that is not dedicated has no flush limit of its own
+    accounting = new RegionServerAccounting(chunkPool);
+    assertEquals(0, accounting.getGlobalMemstoreChunkPoolCapacity());
+  }
+
 }
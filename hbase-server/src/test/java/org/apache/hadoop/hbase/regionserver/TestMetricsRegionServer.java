@@ -74,16 +74,26 @@ public class TestMetricsRegionServer {
     HELPER.assertGauge("mutationsWithoutWALSize", 410, serverSource);
     HELPER.assertGauge("percentFilesLocal", 99, serverSource);
     HELPER.assertGauge("compactionQueueLength", 411, serverSource);
+    HELPER.assertGauge("compactionThroughput", 450, serverSource);
+    HELPER.assertGauge("compactionThroughputLimit", 451, serverSource);
+    HELPER.assertCounter("compactionThrottleSleepTime", 452, serverSource);
     HELPER.assertGauge("flushQueueLength", 412, serverSource);
     HELPER.assertGauge("blockCacheFreeSize", 413, serverSource);
     HELPER.assertGauge("blockCacheCount", 414, serverSource);
     HELPER.assertGauge("blockCacheSize", 415, serverSource);
+    HELPER.assertGauge("blockCacheIndexSize", 440, serverSource);
+    HELPER.assertGauge("blockCacheBloomSize", 441, serverSource);
     HELPER.assertCounter("blockCacheHitCount", 416, serverSource);
     HELPER.assertCounter("blockCacheMissCount", 417, serverSource);
     HELPER.assertCounter("blockCacheEvictionCount", 418, serverSource);
     HELPER.assertGauge("blockCountHitPercent", 98, serverSource);
     HELPER.assertGauge("blockCacheExpressHitPercent", 97, serverSource);
     HELPER.assertCounter("updatesBlockedTime", 419, serverSource);
+    HELPER.assertCounter("blockCacheUnpackCount", 430, serverSource);
+    HELPER.assertCounter("blockCacheUnpackTime", 431, serverSource);
+    HELPER.assertGauge("blockCachePartition_lookups_size", 420, serverSource);
+    HELPER.assertCounter("blockCachePartition_lookups_hitCount", 421, serverSource);
+    HELPER.assertCounter("blockCachePartition_lookups_missCount", 422, serverSource);
   }
 
   @Test
@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.regionserver.compactions.ParallelRangeCompactor;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Major compactions with the {@link ParallelRangeCompactor}.
+ */
+@Category(MediumTests.class)
+public class TestParallelRangeCompaction {
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final int NUM_FILES = 4;
+  private static final int ROWS_PER_FILE = 500;
+
+  private final HBaseTestingUtility testUtil = new HBaseTestingUtility();
+  private HRegion region;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = testUtil.getConfiguration();
+    conf.set(DefaultStoreEngine.DEFAULT_COMPACTOR_CLASS_KEY,
+        ParallelRangeCompactor.class.getName());
+    conf.setInt(ParallelRangeCompactor.RANGES_KEY, 3);
+    conf.setLong(ParallelRangeCompactor.MIN_SIZE_KEY, 0);
+    // keep the flushed files around until the test compacts them
+    conf.setInt("hbase.hstore.compactionThreshold", 100);
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("TestParallelRangeCompaction"));
+    // small blocks so that the files have many root index keys to pick boundaries from
+    htd.addFamily(new HColumnDescriptor(FAMILY).setBlocksize(1024));
+    region = testUtil.createLocalHRegion(htd, null, null);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HRegion.closeHRegion(region);
+  }
+
+  private static byte[] getRow(int i) {
+    return Bytes.toBytes(String.format("row%06d", i));
+  }
+
+  @Test
+  public void testMajorCompactionInRanges() throws IOException {
+    // the files overlap each other and every other row is deleted in the last one
+    for (int file = 0; file < NUM_FILES; file++) {
+      for (int i = file; i < NUM_FILES * ROWS_PER_FILE; i += NUM_FILES) {
+        Put put = new Put(getRow(i));
+        put.setDurability(Durability.SKIP_WAL);
+        put.add(FAMILY, QUALIFIER, Bytes.toBytes(i));
+        region.put(put);
+      }
+      if (file == NUM_FILES - 1) {
+        for (int i = 0; i < NUM_FILES * ROWS_PER_FILE; i += 2) {
+          Delete delete = new Delete(getRow(i));
+          delete.setDurability(Durability.SKIP_WAL);
+          region.delete(delete);
+        }
+      }
+      region.flushcache();
+    }
+    Store store = region.getStore(FAMILY);
+    assertEquals(NUM_FILES, store.getStorefilesCount());
+
+    region.compactStores(true);
+    assertEquals(3, store.getStorefilesCount());
+    for (StoreFile file : store.getStorefiles()) {
+      assertTrue(file.excludeFromMinorCompaction());
+      assertTrue(file.isMajorCompaction());
+    }
+
+    // the files hold disjoint ranges of the remaining rows, without the deleted ones
+    List<Cell> cells = new ArrayList<Cell>();
+    RegionScanner scanner = region.getScanner(new Scan());
+    try {
+      boolean hasMore;
+      do {
+        hasMore = scanner.next(cells);
+      } while (hasMore);
+    } finally {
+      scanner.close();
+    }
+    assertEquals(NUM_FILES * ROWS_PER_FILE / 2, cells.size());
+    for (int i = 0; i < cells.size(); i++) {
+      assertTrue(CellUtil.matchingRow(cells.get(i), getRow(2 * i + 1)));
+    }
+    long entries = 0;
+    for (StoreFile file : store.getStorefiles()) {
+      entries += file.getReader().getEntries();
+    }
+    assertEquals(cells.size(), entries);
+  }
+}
@@ -20,7 +20,9 @@ import static org.junit.Assert.assertEquals;
 
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.GetRequest;
 import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MultiRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanRequest;
 import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.RequestHeader;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -47,6 +49,23 @@ public class TestQosFunction {
     checkMethod("Multi", HConstants.NORMAL_QOS, qosFunction, MultiRequest.getDefaultInstance());
   }
 
+  @Test
+  public void testDeadline() {
+    HRegionServer hrs = Mockito.mock(HRegionServer.class);
+    Mockito.when(hrs.getScannerNextCount(1)).thenReturn(100L);
+    AnnotationReadingPriorityFunction qosFunction = new AnnotationReadingPriorityFunction(hrs);
+    RequestHeader header = RequestHeader.newBuilder().setMethodName("Scan").build();
+
+    // Scans are delayed by the square root of their next calls
+    assertEquals(10, qosFunction.getDeadline(header,
+        ScanRequest.newBuilder().setScannerId(1).build()));
+    assertEquals(0, qosFunction.getDeadline(header,
+        ScanRequest.newBuilder().setScannerId(2).build()));
+    // Opening a scanner or any other request is not delayed
+    assertEquals(0, qosFunction.getDeadline(header, ScanRequest.getDefaultInstance()));
+    assertEquals(0, qosFunction.getDeadline(header, GetRequest.getDefaultInstance()));
+  }
+
   private void checkMethod(final String methodName, final int expected,
       final AnnotationReadingPriorityFunction qosf) {
     checkMethod(methodName, expected, qosf, null);
@@ -41,6 +41,7 @@ import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.SmallTests;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.PrefixFilter;
 import org.apache.hadoop.hbase.io.HFileLink;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
@@ -683,6 +684,124 @@ public class TestStoreFile extends HBaseTestCase {
     }
   }
 
+  public void testRowPrefixBloomFilter() throws Exception {
+    float err = (float) 0.01;
+    FileSystem fs = FileSystem.getLocal(conf);
+    conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE, err);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
+
+    int prefixCount = 50;
+    int suffixCount = 5;
+    int prefixLength = 5;
+
+    // write the file
+    Path f = new Path(ROOT_DIR, getName());
+    HFileContext meta = new HFileContextBuilder().withBlockSize(StoreFile.DEFAULT_BLOCKSIZE_SMALL)
+        .withChecksumType(CKTYPE)
+        .withBytesPerCheckSum(CKBYTES).build();
+    StoreFile.Writer writer = new StoreFile.WriterBuilder(conf, cacheConf, this.fs)
+            .withFilePath(f)
+            .withBloomType(BloomType.ROWPREFIX)
+            .withBloomPrefixLength(prefixLength)
+            .withMaxKeyCount(prefixCount)
+            .withFileContext(meta)
+            .build();
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < prefixCount*2; i += 2) { // row prefixes
+      for (int j = 0; j < suffixCount; ++j) {   // rows sharing the prefix
+        String row = String.format("%04d-%04d", i, j);
+        KeyValue kv = new KeyValue(row.getBytes(), "family".getBytes(),
+            "col".getBytes(), now, Bytes.toBytes((long)-1));
+        writer.append(kv);
+      }
+    }
+    writer.close();
+
+    StoreFile.Reader reader = new StoreFile.Reader(fs, f, cacheConf);
+    reader.loadFileInfo();
+    reader.loadBloomfilter();
+    assertEquals(BloomType.ROWPREFIX, reader.getBloomFilterType());
+    assertEquals(prefixCount, reader.generalBloomFilter.getKeyCount());
+
+    // check false positives rate on scans bounded within a row prefix
+    int falsePos = 0;
+    int falseNeg = 0;
+    for (int i = 0; i < prefixCount*2; ++i) {
+      String prefix = String.format("%04d-", i);
+      Scan scan = new Scan((prefix + "0001").getBytes(), (prefix + "0003").getBytes());
+      boolean exists = reader.passesBloomFilter(scan, null);
+      if (i % 2 == 0) {
+        if (!exists) falseNeg++;
+      } else {
+        if (exists) falsePos++;
+      }
+    }
+    assertEquals(0, falseNeg);
+    assertTrue(falsePos < 2*prefixCount*err + 1);
+
+    // scans and gets sharing the prefix of an absent row prefix are skipped
+    TreeSet<byte[]> columns = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    columns.add("col".getBytes());
+    byte[] row = "0000-0003".getBytes();
+    assertTrue(reader.passesBloomFilter(new Scan(row, row), columns));
+    Scan prefixScan = new Scan();
+    prefixScan.setFilter(new PrefixFilter("0000-00".getBytes()));
+    assertTrue(reader.passesBloomFilter(prefixScan, null));
+    // scans spanning several row prefixes cannot use the Bloom filter
+    assertTrue(reader.passesBloomFilter(
+        new Scan("0001-0000".getBytes(), "0003-0000".getBytes()), null));
+    assertTrue(reader.passesBloomFilter(new Scan(), null));
+
+    reader.close(true); // evict because we are about to delete the file
+    fs.delete(f, true);
+  }
+
+  /**
+   * Test that the column seeks within a row ruled out by both the delete
+   * family and the row Bloom filter do not position the scanner.
+   */
+  public void testLazySeekSkipsRowNotInFile() throws Exception {
+    FileSystem fs = FileSystem.getLocal(conf);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
+
+    Path f = new Path(ROOT_DIR, getName());
+    HFileContext meta = new HFileContextBuilder().withBlockSize(StoreFile.DEFAULT_BLOCKSIZE_SMALL)
+        .withChecksumType(CKTYPE)
+        .withBytesPerCheckSum(CKBYTES).build();
+    StoreFile.Writer writer = new StoreFile.WriterBuilder(conf, cacheConf, this.fs)
+            .withFilePath(f)
+            .withBloomType(BloomType.ROW)
+            .withMaxKeyCount(2)
+            .withFileContext(meta)
+            .build();
+    byte[] family = Bytes.toBytes("family");
+    byte[] col = Bytes.toBytes("col");
+    long now = System.currentTimeMillis();
+    writer.append(new KeyValue(Bytes.toBytes("row0"), family, col, now, Bytes.toBytes("v")));
+    writer.append(new KeyValue(Bytes.toBytes("row2"), family, col, now, Bytes.toBytes("v")));
+    writer.close();
+
+    StoreFile.Reader reader = new StoreFile.Reader(fs, f, cacheConf);
+    reader.loadFileInfo();
+    reader.loadBloomfilter();
+    StoreFileScanner scanner = reader.getStoreFileScanner(false, false);
+    scanner.setScanQueryMatcher(Mockito.mock(ScanQueryMatcher.class));
+    StoreFileScanner.instrument();
+
+    byte[] row = Bytes.toBytes("row1");
+    assertTrue(scanner.requestSeek(KeyValue.createFirstDeleteFamilyOnRow(row, family),
+        false, true));
+    assertTrue(scanner.requestSeek(KeyValue.createFirstOnRow(row, family, col), true, true));
+    // A fake key on the row, handed to the query matcher without touching the file
+    assertTrue(scanner.realSeekDone());
+    assertTrue(Bytes.equals(row, scanner.peek().getRow()));
+    assertEquals(0, StoreFileScanner.getSeekCount());
+
+    scanner.close();
+    reader.close(true); // evict because we are about to delete the file
+    fs.delete(f, true);
+  }
+
   public void testSeqIdComparator() {
     assertOrdering(StoreFile.Comparators.SEQ_ID,
         mockStoreFile(true,  100,   1000, -1, "/foo/123"),
@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Count the data blocks read by wide row reads of a few columns on a region
+ * with many store files, with and without lazy seek. Each store file holds
+ * every n-th row plus a delete family marker, so that all files overlap the
+ * key range of every row while only one of them has the row. Reads are done
+ * as gets and as single row scans; with lazy seek the files whose delete
+ * family and row Bloom filters rule out the row are not read.
+ */
+public class WideRowReadPerformanceTest {
+  private static final double NANOSEC_IN_MILLISEC = 1000.0 * 1000.0;
+  /** Default number of store files in the region. */
+  public static final int DEFAULT_NUM_FILES = 20;
+  /** Default number of columns in each row. */
+  public static final int DEFAULT_NUM_COLUMNS = 100;
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final int ROWS_PER_FILE = 100;
+  private static final int COLUMNS_PER_READ = 10;
+  private static final int NUM_READS = 1000;
+  private static final int VALUE_LENGTH = 100;
+
+  private final HBaseTestingUtility testingUtility = new HBaseTestingUtility();
+  private final Configuration configuration = testingUtility.getConfiguration();
+
+  private HRegion createRegion(final int numFiles, final int numColumns)
+      throws IOException {
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("WideRowRead"));
+    htd.addFamily(new HColumnDescriptor(FAMILY).setBloomFilterType(BloomType.ROW));
+    HRegion region = PerformanceTestUtil.createRegionKeepingFiles(testingUtility,
+        configuration, htd);
+
+    Random random = new Random(42L);
+    byte[] value = new byte[VALUE_LENGTH];
+    for (int file = 0; file < numFiles; file++) {
+      for (int i = 0; i < ROWS_PER_FILE; i++) {
+        byte[] row = getRow(i * numFiles + file);
+        Put put = new Put(row);
+        put.setDurability(Durability.SKIP_WAL);
+        for (int column = 0; column < numColumns; column++) {
+          random.nextBytes(value);
+          put.add(FAMILY, getColumn(column), value);
+        }
+        region.put(put);
+      }
+      // an old delete family marker, so that every file has a delete family
+      // Bloom filter to consult
+      Delete delete = new Delete(getRow(file));
+      delete.deleteFamily(FAMILY, 1L);
+      delete.setDurability(Durability.SKIP_WAL);
+      region.delete(delete);
+      region.flushcache();
+    }
+    return region;
+  }
+
+  private static byte[] getRow(final int row) {
+    return Bytes.toBytes(String.format("row%08d", row));
+  }
+
+  private static byte[] getColumn(final int column) {
+    return Bytes.toBytes(String.format("col%05d", column));
+  }
+
+  private void runTest(final HRegion region, final int numFiles, final int numColumns,
+      final boolean lazySeek, final boolean get) throws IOException {
+    StoreScanner.enableLazySeekGlobally(lazySeek);
+    Random random = new Random(42L);
+    List<Cell> result = new ArrayList<Cell>();
+    long blocksStart = HFile.dataBlockReadCnt.get();
+    long startTime = System.nanoTime();
+    for (int i = 0; i < NUM_READS; i++) {
+      byte[] row = getRow(random.nextInt(numFiles * ROWS_PER_FILE));
+      int firstColumn = random.nextInt(numColumns - COLUMNS_PER_READ + 1);
+      result.clear();
+      if (get) {
+        Get g = new Get(row);
+        for (int column = firstColumn; column < firstColumn + COLUMNS_PER_READ; column++) {
+          g.addColumn(FAMILY, getColumn(column));
+        }
+        Result r = region.get(g);
+        if (!r.isEmpty()) {
+          result.addAll(r.listCells());
+        }
+      } else {
+        Scan scan = new Scan(row, Bytes.add(row, new byte[1]));
+        for (int column = firstColumn; column < firstColumn + COLUMNS_PER_READ; column++) {
+          scan.addColumn(FAMILY, getColumn(column));
+        }
+        RegionScanner scanner = region.getScanner(scan);
+        try {
+          scanner.next(result);
+        } finally {
+          scanner.close();
+        }
+      }
+      if (result.size() != COLUMNS_PER_READ) {
+        throw new IOException("Expected " + COLUMNS_PER_READ + " cells, got " +
+            result.size());
+      }
+    }
+    long finishTime = System.nanoTime();
+    long blocksRead = HFile.dataBlockReadCnt.get() - blocksStart;
+
+    System.out.println((get ? "Gets" : "Single row scans") + " with lazy seek " +
+        (lazySeek ? "enabled" : "disabled") + ", " + numFiles + " files, " +
+        numColumns + " columns per row");
+    System.out.printf("  Blocks read per read: %8.2f\n",
+        (double) blocksRead / NUM_READS);
+    System.out.printf("  Time per read:        %8.4f (ms)\n",
+        (finishTime - startTime) / NANOSEC_IN_MILLISEC / NUM_READS);
+  }
+
+  /**
+   * Fills a region, then times gets and single row scans with lazy seek off and on.
+   * @param numFiles number of store files in the region
+   * @param numColumns number of columns in each row
+   * @throws IOException if a flush fails, or a read misses cells it should return
+   */
+  public void runTests(final int numFiles, final int numColumns) throws IOException {
+    HRegion region = createRegion(numFiles, numColumns);
+    try {
+      for (boolean get : new boolean[] { true, false }) {
+        runTest(region, numFiles, numColumns, false, get);
+        runTest(region, numFiles, numColumns, true, get);
+      }
+    } finally {
+      StoreScanner.enableLazySeekGlobally(true);
+      HRegion.closeHRegion(region);
+    }
+  }
+
+  /**
+   * Command line interface:
+   * @param args number of store files and number of columns per row,
+   *          20 and 100 if not given
+   * @throws IOException if the benchmark region cannot be filled or read
+   */
+  public static void main(final String[] args) throws IOException {
+    int numFiles = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_FILES;
+    int numColumns = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NUM_COLUMNS;
+    new WideRowReadPerformanceTest().runTests(numFiles, numColumns);
+    System.exit(0);
+  }
+}
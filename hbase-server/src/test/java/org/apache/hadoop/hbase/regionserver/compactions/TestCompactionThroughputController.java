@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.RegionServerServices;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestCompactionThroughputController {
+  private static final long LOWER_BOUND = 1000;
+  private static final long HIGHER_BOUND = 2000;
+
+  private Configuration conf;
+  private RegionServerServices server;
+
+  @Before
+  public void setUp() {
+    conf = HBaseConfiguration.create();
+    conf.set(CompactionThroughputControllerFactory.HBASE_THROUGHPUT_CONTROLLER_KEY,
+        PressureAwareCompactionThroughputController.class.getName());
+    conf.setLong(
+        PressureAwareCompactionThroughputController.HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_LOWER_BOUND,
+        LOWER_BOUND);
+    conf.setLong(
+        PressureAwareCompactionThroughputController.HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_HIGHER_BOUND,
+        HIGHER_BOUND);
+    conf.setLong(PressureAwareCompactionThroughputController
+        .HBASE_HSTORE_COMPACTION_THROUGHPUT_CONTROL_CHECK_INTERVAL, 100);
+    // tune at every throughput check
+    conf.setInt(
+        PressureAwareCompactionThroughputController.HBASE_HSTORE_COMPACTION_THROUGHPUT_TUNE_PERIOD,
+        0);
+    server = mock(RegionServerServices.class);
+  }
+
+  @Test
+  public void testDefaultIsNoLimit() {
+    CompactionThroughputController controller =
+        CompactionThroughputControllerFactory.create(server, HBaseConfiguration.create());
+    assertTrue(controller instanceof NoLimitCompactionThroughputController);
+    assertEquals(Double.MAX_VALUE, controller.getMaxThroughput(), 0.0);
+  }
+
+  @Test
+  public void testTuneByCompactionPressure() throws InterruptedException {
+    when(server.getCompactionPressure()).thenReturn(0.0);
+    CompactionThroughputController controller =
+        CompactionThroughputControllerFactory.create(server, conf);
+    assertTrue(controller instanceof PressureAwareCompactionThroughputController);
+    assertEquals(LOWER_BOUND, controller.getMaxThroughput(), 0.0);
+
+    controller.start("c");
+    when(server.getCompactionPressure()).thenReturn(0.5);
+    controller.control("c", 1);
+    // below the check interval, not tuned yet
+    assertEquals(LOWER_BOUND, controller.getMaxThroughput(), 0.0);
+    controller.control("c", 200);
+    assertEquals((LOWER_BOUND + HIGHER_BOUND) / 2, controller.getMaxThroughput(), 0.0);
+
+    // stores at the blocking file count lift the limit
+    when(server.getCompactionPressure()).thenReturn(1.5);
+    assertEquals(0, controller.control("c", 400));
+    assertEquals(Double.MAX_VALUE, controller.getMaxThroughput(), 0.0);
+    controller.finish("c");
+  }
+
+  @Test
+  public void testControlSleepsWhenTooFast() throws InterruptedException {
+    when(server.getCompactionPressure()).thenReturn(0.0);
+    CompactionThroughputController controller =
+        CompactionThroughputControllerFactory.create(server, conf);
+    controller.start("c");
+    // 500 bytes at 1000 bytes per second take 500 ms
+    long sleepTime = controller.control("c", 500);
+    assertTrue(sleepTime > 0 && sleepTime <= 500);
+    assertEquals(sleepTime, controller.getSleepTime());
+    assertTrue(controller.getThroughput() > 0);
+    controller.finish("c");
+    assertEquals(0.0, controller.getThroughput(), 0.0);
+
+    // a stopped controller does not throttle anymore
+    controller.stop("test");
+    controller.start("d");
+    assertEquals(0, controller.control("d", 500));
+    controller.finish("d");
+  }
+}
@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Checks that a {@link StoreFileMergeScanner} keeps the same cells as the store scanner.
+ */
+@Category(MediumTests.class)
+public class TestStoreFileMergeScanner {
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final int MAX_VERSIONS = 3;
+  private static final int NUM_FILES = 8;
+  private static final int NUM_ROWS = 200;
+  private static final int NUM_COLUMNS = 3;
+
+  private final HBaseTestingUtility testUtil = new HBaseTestingUtility();
+  private HRegion region;
+
+  @Before
+  public void setUp() throws IOException {
+    // keep the flushed files around until the test compacts them
+    testUtil.getConfiguration().setInt("hbase.hstore.compactionThreshold", 100);
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("TestStoreFileMergeScanner"));
+    htd.addFamily(new HColumnDescriptor(FAMILY).setMaxVersions(MAX_VERSIONS));
+    region = testUtil.createLocalHRegion(htd, null, null);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HRegion.closeHRegion(region);
+  }
+
+  private static byte[] getRow(int i) {
+    return Bytes.toBytes(String.format("row%06d", i));
+  }
+
+  /**
+   * Every other file has a new version of a row, and rewrites the version of the row in the
+   * file before for some of the columns, so that there are both versions beyond the maximum
+   * and duplicates of a version.
+   */
+  private void loadFiles() throws IOException {
+    for (int file = 0; file < NUM_FILES; file++) {
+      for (int i = file % 2; i < NUM_ROWS; i += 2) {
+        Put put = new Put(getRow(i));
+        put.setDurability(Durability.SKIP_WAL);
+        for (int column = 0; column < NUM_COLUMNS; column++) {
+          byte[] qualifier = Bytes.toBytes("q" + column);
+          put.add(FAMILY, qualifier, 100L + file, Bytes.toBytes("v" + file));
+          if (file > 1 && i % NUM_COLUMNS == column) {
+            put.add(FAMILY, qualifier, 100L + file - 2, Bytes.toBytes("w" + file));
+          }
+        }
+        region.put(put);
+      }
+      region.flushcache();
+    }
+  }
+
+  private List<List<Cell>> scanRows() throws IOException {
+    List<List<Cell>> rows = new ArrayList<List<Cell>>();
+    RegionScanner scanner = region.getScanner(new Scan().setMaxVersions());
+    try {
+      boolean hasMore;
+      do {
+        List<Cell> row = new ArrayList<Cell>();
+        hasMore = scanner.next(row);
+        if (!row.isEmpty()) {
+          rows.add(row);
+        }
+      } while (hasMore);
+    } finally {
+      scanner.close();
+    }
+    return rows;
+  }
+
+  private static void assertSameCells(List<Cell> expected, List<Cell> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Cell e = expected.get(i);
+      Cell a = actual.get(i);
+      assertTrue(CellUtil.matchingRow(e, a) && CellUtil.matchingQualifier(e, a));
+      assertEquals(e.getTimestamp(), a.getTimestamp());
+      assertTrue(CellUtil.matchingValue(e, a));
+    }
+  }
+
+  @Test
+  public void testMergeKeepsCellsOfStoreScanner() throws IOException {
+    loadFiles();
+    Store store = region.getStore(FAMILY);
+    assertEquals(NUM_FILES, store.getStorefilesCount());
+    for (StoreFile file : store.getStorefiles()) {
+      assertEquals(0, file.getReader().getDeleteCnt());
+    }
+    List<List<Cell>> expected = scanRows();
+    assertEquals(NUM_ROWS, expected.size());
+
+    List<StoreFileScanner> scanners = StoreFileScanner.getScannersForStoreFiles(
+        store.getStorefiles(), false, false, true, Long.MAX_VALUE);
+    StoreFileMergeScanner scanner = new StoreFileMergeScanner(scanners, KeyValue.COMPARATOR,
+        MAX_VERSIONS, Long.MAX_VALUE);
+    try {
+      List<Cell> row = new ArrayList<Cell>();
+      for (int i = 0; i < NUM_ROWS; i++) {
+        row.clear();
+        assertEquals(i < NUM_ROWS - 1, scanner.next(row));
+        assertSameCells(expected.get(i), row);
+      }
+    } finally {
+      scanner.close();
+    }
+
+    // the compaction merges the files and gives the same cells
+    region.compactStores(true);
+    assertEquals(1, store.getStorefilesCount());
+    List<List<Cell>> compacted = scanRows();
+    assertEquals(NUM_ROWS, compacted.size());
+    long entries = 0;
+    for (int i = 0; i < NUM_ROWS; i++) {
+      assertSameCells(expected.get(i), compacted.get(i));
+      entries += compacted.get(i).size();
+    }
+    assertEquals(entries, store.getStorefiles().iterator().next().getReader().getEntries());
+  }
+
+  @Test
+  public void testFilesWithDeletesAreMatched() throws IOException {
+    loadFiles();
+    Delete delete = new Delete(getRow(0));
+    delete.setDurability(Durability.SKIP_WAL);
+    region.delete(delete);
+    region.flushcache();
+    Store store = region.getStore(FAMILY);
+    long deletes = 0;
+    for (StoreFile file : store.getStorefiles()) {
+      deletes += file.getReader().getDeleteCnt();
+    }
+    assertEquals(1, deletes);
+
+    // the delete marker rules out the merge, so the compaction drops the row
+    region.compactStores(true);
+    assertEquals(NUM_ROWS - 1, scanRows().size());
+  }
+}
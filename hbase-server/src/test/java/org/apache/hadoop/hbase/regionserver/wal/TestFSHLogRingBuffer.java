@@ -0,0 +1,270 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the ring buffer append/sync pipeline of {@link FSHLog}.
+ */
+@Category(MediumTests.class)
+public class TestFSHLogRingBuffer {
+  private final static HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+
+  /**
+   * Many producers publishing on a small ring buffer; the consumer must see every
+   * event exactly once, at the sequence it was published at.
+   */
+  @Test
+  public void testRingBufferDeliversInSequenceOrder() throws Exception {
+    final WALRingBuffer<Long> ring = new WALRingBuffer<Long>(7);
+    assertEquals(8, ring.capacity());
+    final int producers = 8;
+    final int perProducer = 5000;
+    final Map<Long, Long> published = new HashMap<Long, Long>();
+    Thread[] threads = new Thread[producers];
+    for (int i = 0; i < producers; i++) {
+      final long base = i * 1000000L;
+      threads[i] = new Thread("producer-" + i) {
+        @Override
+        public void run() {
+          Map<Long, Long> mine = new HashMap<Long, Long>();
+          for (long j = 0; j < perProducer; j++) {
+            mine.put(ring.publish(base + j), base + j);
+          }
+          synchronized (published) {
+            published.putAll(mine);
+          }
+        }
+      };
+    }
+    final List<Long> consumed = new ArrayList<Long>();
+    Thread consumer = new Thread("consumer") {
+      @Override
+      public void run() {
+        List<Long> batch = new ArrayList<Long>();
+        while (consumed.size() < producers * perProducer) {
+          batch.clear();
+          if (ring.drainTo(batch, 3) == 0) {
+            ring.awaitPublished(1000000L);
+            continue;
+          }
+          consumed.addAll(batch);
+          ring.markConsumed();
+        }
+      }
+    };
+    ring.setConsumerThread(consumer);
+    consumer.start();
+    for (Thread t : threads) t.start();
+    for (Thread t : threads) t.join();
+    consumer.join();
+
+    assertEquals(producers * perProducer, consumed.size());
+    assertEquals(producers * perProducer, ring.getClaimedSequence());
+    assertEquals(producers * perProducer, ring.getConsumedSequence());
+    for (int i = 0; i < consumed.size(); i++) {
+      // Sequences start at 1.
+      assertEquals(published.get(Long.valueOf(i + 1)), consumed.get(i));
+    }
+  }
+
+  /**
+   * Concurrent appenders against a ring buffer backed HLog, rolling as they go. Every
+   * edit must make it to a log file, with strictly increasing sequence ids per region.
+   */
+  @Test
+  public void testConcurrentAppendsWithRolls() throws Exception {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setBoolean(FSHLog.RING_BUFFER_ENABLED_KEY, true);
+    conf.setInt(FSHLog.RING_BUFFER_SLOTS_KEY, 64);
+    conf.setInt(FSHLog.SYNC_RUNNER_COUNT_KEY, 3);
+    FileSystem fs = FileSystem.get(conf);
+    Path dir = TEST_UTIL.getDataTestDir("TestFSHLogRingBuffer");
+    final FSHLog wal = (FSHLog) HLogFactory.createHLog(fs, dir, "logs", conf);
+
+    final TableName tableName = TableName.valueOf("TestFSHLogRingBuffer");
+    final HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    final int regions = 4;
+    final HRegionInfo[] infos = new HRegionInfo[regions];
+    final AtomicLong[] sequenceIds = new AtomicLong[regions];
+    for (int i = 0; i < regions; i++) {
+      infos[i] = new HRegionInfo(tableName, Bytes.toBytes("" + i), Bytes.toBytes("" + (i + 1)));
+      sequenceIds[i] = new AtomicLong(0);
+    }
+
+    final int threadCount = 10;
+    final int editsPerThread = 200;
+    final List<Exception> errors = new ArrayList<Exception>();
+    Thread[] appenders = new Thread[threadCount];
+    for (int t = 0; t < threadCount; t++) {
+      final int index = t;
+      appenders[t] = new Thread("appender-" + t) {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < editsPerThread; i++) {
+              if (index == 0 && i % 50 == 0) wal.rollWriter();
+              int region = (index + i) % regions;
+              long now = System.currentTimeMillis();
+              byte[] row = Bytes.toBytes(index * editsPerThread + i);
+              WALEdit edit = new WALEdit();
+              edit.add(new KeyValue(row, FAMILY, FAMILY, now, row));
+              if (i % 2 == 0) {
+                wal.append(infos[region], tableName, edit, now, htd, sequenceIds[region]);
+              } else {
+                long txid = wal.appendNoSync(infos[region], tableName, edit,
+                  new ArrayList<UUID>(), now, htd, sequenceIds[region]);
+                wal.sync(txid);
+              }
+            }
+          } catch (Exception e) {
+            synchronized (errors) {
+              errors.add(e);
+            }
+          }
+        }
+      };
+    }
+    for (Thread t : appenders) t.start();
+    for (Thread t : appenders) t.join();
+    assertTrue("Appenders failed: " + errors, errors.isEmpty());
+    wal.close();
+
+    int count = 0;
+    Map<String, Long> lastSeqNums = new HashMap<String, Long>();
+    List<FileStatus> logs = new ArrayList<FileStatus>();
+    for (FileStatus status : fs.listStatus(new Path(dir, "logs"))) logs.add(status);
+    for (FileStatus status : fs.listStatus(new Path(dir, HConstants.HREGION_OLDLOGDIR_NAME))) {
+      logs.add(status);
+    }
+    // Read the logs in the order they were written; file names end in the creation time.
+    Collections.sort(logs, new Comparator<FileStatus>() {
+      @Override
+      public int compare(FileStatus o1, FileStatus o2) {
+        String n1 = o1.getPath().getName();
+        String n2 = o2.getPath().getName();
+        return Long.valueOf(n1.substring(n1.lastIndexOf('.') + 1)).compareTo(
+          Long.valueOf(n2.substring(n2.lastIndexOf('.') + 1)));
+      }
+    });
+    for (FileStatus status : logs) {
+      if (status.getLen() == 0) continue;
+      HLog.Reader reader = HLogFactory.createReader(fs, status.getPath(), conf);
+      try {
+        HLog.Entry entry;
+        while ((entry = reader.next()) != null) {
+          count++;
+          String region = Bytes.toString(entry.getKey().getEncodedRegionName());
+          Long last = lastSeqNums.get(region);
+          long seqNum = entry.getKey().getLogSeqNum();
+          assertFalse("Out of order seqnum " + seqNum + " after " + last + " for " + region,
+            last != null && last.longValue() >= seqNum);
+          lastSeqNums.put(region, seqNum);
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    assertEquals(threadCount * editsPerThread, count);
+  }
+
+  /**
+   * An append that failed must not be reported as durable, even after a later append
+   * was synced past it.
+   */
+  @Test
+  public void testFailedAppendIsNotSynced() throws Exception {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setBoolean(FSHLog.RING_BUFFER_ENABLED_KEY, true);
+    FileSystem fs = FileSystem.get(conf);
+    Path dir = TEST_UTIL.getDataTestDir("TestFailedAppendIsNotSynced");
+    final byte[] badRow = Bytes.toBytes("bad");
+    FSHLog wal = new FSHLog(fs, dir, "logs", conf) {
+      @Override
+      protected void doWrite(HRegionInfo info, HLogKey logKey, WALEdit logEdit,
+          HTableDescriptor htd) throws IOException {
+        if (Bytes.equals(badRow, logEdit.getKeyValues().get(0).getRow())) {
+          throw new IOException("Injected failure");
+        }
+        super.doWrite(info, logKey, logEdit, htd);
+      }
+    };
+    try {
+      TableName tableName = TableName.valueOf("TestFailedAppendIsNotSynced");
+      HTableDescriptor htd = new HTableDescriptor(tableName);
+      htd.addFamily(new HColumnDescriptor(FAMILY));
+      HRegionInfo info = new HRegionInfo(tableName, null, null);
+      AtomicLong sequenceId = new AtomicLong(0);
+      long now = EnvironmentEdgeManager.currentTimeMillis();
+
+      WALEdit bad = new WALEdit();
+      bad.add(new KeyValue(badRow, FAMILY, FAMILY, now, badRow));
+      long badTxid = wal.appendNoSync(info, tableName, bad, new ArrayList<UUID>(), now, htd,
+        sequenceId);
+      byte[] goodRow = Bytes.toBytes("good");
+      WALEdit good = new WALEdit();
+      good.add(new KeyValue(goodRow, FAMILY, FAMILY, now, goodRow));
+      long goodTxid = wal.appendNoSync(info, tableName, good, new ArrayList<UUID>(), now, htd,
+        sequenceId);
+      assertTrue(goodTxid > badTxid);
+      wal.sync(goodTxid);
+      try {
+        wal.sync(badTxid);
+        fail("Sync of a failed append succeeded");
+      } catch (IOException e) {
+        // expected
+      }
+    } finally {
+      wal.close();
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests region servers running several HLogs, see {@link HLogGroupProvider}.
+ */
+@Category(MediumTests.class)
+public class TestHLogGroupProvider {
+  private final static HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+
+  @Test
+  public void testWALGroupId() {
+    assertEquals("host%2C60020%2C1", HLogUtil.getWALGroupId("host%2C60020%2C1.1380000000000"));
+    assertEquals("host%2C60020%2C1.g2",
+      HLogUtil.getWALGroupId("host%2C60020%2C1.g2.1380000000000"));
+    assertEquals("host%2C60020%2C1" + HLog.META_HLOG_FILE_EXTN,
+      HLogUtil.getWALGroupId("host%2C60020%2C1.1380000000000" + HLog.META_HLOG_FILE_EXTN));
+    assertTrue(HLogUtil.validateHLogFilename("host%2C60020%2C1.g2.1380000000000"));
+  }
+
+  @Test
+  public void testRegionsStickToTheirGroup() throws Exception {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(HLogGroupProvider.NUM_GROUPS_KEY, 3);
+    conf.set(HLogGroupProvider.STRATEGY_KEY, "table");
+    FileSystem fs = FileSystem.get(conf);
+    Path dir = TEST_UTIL.getDataTestDir("testRegionsStickToTheirGroup");
+    HLogGroupProvider provider = new HLogGroupProvider(fs, dir, "logs", conf, null, "server");
+    try {
+      assertEquals(3, provider.getNumGroups());
+      assertSame(provider.getDefaultHLog(), provider.getHLog(null));
+      Set<HLog> used = new HashSet<HLog>();
+      for (int t = 0; t < 20; t++) {
+        TableName tableName = TableName.valueOf("table" + t);
+        HLog wal = provider.getHLog(new HRegionInfo(tableName, null, Bytes.toBytes("m")));
+        // All regions of a table share a group, over and over again.
+        assertSame(wal, provider.getHLog(new HRegionInfo(tableName, Bytes.toBytes("m"), null)));
+        assertSame(wal, provider.getHLog(new HRegionInfo(tableName, null, Bytes.toBytes("m"))));
+        used.add(wal);
+      }
+      assertEquals(3, used.size());
+    } finally {
+      provider.close();
+    }
+  }
+
+  @Test
+  public void testEachGroupWritesItsOwnLogs() throws Exception {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(HLogGroupProvider.NUM_GROUPS_KEY, 2);
+    conf.set(HLogGroupProvider.STRATEGY_KEY, "roundrobin");
+    FileSystem fs = FileSystem.get(conf);
+    Path dir = TEST_UTIL.getDataTestDir("testEachGroupWritesItsOwnLogs");
+    HLogGroupProvider provider = new HLogGroupProvider(fs, dir, "logs", conf, null, "server");
+
+    TableName tableName = TableName.valueOf("testEachGroupWritesItsOwnLogs");
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    HRegionInfo first = new HRegionInfo(tableName, null, Bytes.toBytes("m"));
+    HRegionInfo second = new HRegionInfo(tableName, Bytes.toBytes("m"), null);
+    HLog firstWAL = provider.getHLog(first);
+    HLog secondWAL = provider.getHLog(second);
+    assertFalse(firstWAL == secondWAL);
+
+    AtomicLong sequenceId = new AtomicLong(0);
+    for (HRegionInfo info : new HRegionInfo[] { first, second }) {
+      for (int i = 0; i < 10; i++) {
+        long now = System.currentTimeMillis();
+        WALEdit edit = new WALEdit();
+        edit.add(new KeyValue(Bytes.toBytes(i), FAMILY, FAMILY, now, Bytes.toBytes(i)));
+        provider.getHLog(info).append(info, tableName, edit, now, htd, sequenceId);
+      }
+    }
+    firstWAL.rollWriter();
+    secondWAL.rollWriter();
+    provider.close();
+
+    Set<String> groups = new HashSet<String>();
+    int count = 0;
+    for (FileStatus status : fs.listStatus(new Path(dir, "logs"))) {
+      groups.add(HLogUtil.getWALGroupId(status.getPath().getName()));
+      if (status.getLen() == 0) continue;
+      HLog.Reader reader = HLogFactory.createReader(fs, status.getPath(), conf);
+      try {
+        HLog.Entry entry;
+        byte[] region = null;
+        while ((entry = reader.next()) != null) {
+          // A log only holds edits of the regions of its group.
+          if (region == null) region = entry.getKey().getEncodedRegionName();
+          assertTrue(Bytes.equals(region, entry.getKey().getEncodedRegionName()));
+          count++;
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    assertEquals(2, groups.size());
+    assertTrue(groups.contains("server"));
+    assertTrue(groups.contains("server" + HLogGroupProvider.GROUP_PREFIX_SEPARATOR + 1));
+    assertEquals(20, count);
+  }
+
+  @Test
+  public void testCloseAndDeleteArchivesAllGroups() throws Exception {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(HLogGroupProvider.NUM_GROUPS_KEY, 4);
+    FileSystem fs = FileSystem.get(conf);
+    Path dir = TEST_UTIL.getDataTestDir("testCloseAndDeleteArchivesAllGroups");
+    HLogGroupProvider provider = new HLogGroupProvider(fs, dir, "logs", conf, null, "server");
+    assertEquals(4, fs.listStatus(new Path(dir, "logs")).length);
+    provider.closeAndDelete();
+    assertFalse(fs.exists(new Path(dir, "logs")));
+    assertEquals(4, fs.listStatus(new Path(dir, HConstants.HREGION_OLDLOGDIR_NAME)).length);
+  }
+}
@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of reads of a few hot blocks guarded by a per-offset
+ * lock, the way BucketCache guards its reads, with the exclusive
+ * {@link IdLock} and with the read side of {@link IdReadWriteLock}. Each read
+ * copies a block sized buffer while holding the lock. Runs a number of warmup
+ * iterations, then reports the mean and best of the measured iterations.
+ *
+ * <pre>
+ * IdReadWriteLockPerformanceTest [threads] [hotIds] [blockSize] [seconds]
+ * </pre>
+ */
+public class IdReadWriteLockPerformanceTest {
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int MEASURED_ITERATIONS = 5;
+
+  private final int numThreads;
+  private final int numIds;
+  private final int blockSize;
+  private final long iterationMillis;
+  private final ByteBuffer[] blocks;
+
+  /** The lock being measured */
+  private interface OffsetLock {
+    void read(long id, Runnable criticalSection) throws IOException;
+  }
+
+  public IdReadWriteLockPerformanceTest(int numThreads, int numIds,
+      int blockSize, long iterationMillis) {
+    this.numThreads = numThreads;
+    this.numIds = numIds;
+    this.blockSize = blockSize;
+    this.iterationMillis = iterationMillis;
+    this.blocks = new ByteBuffer[numIds];
+    for (int i = 0; i < numIds; i++) {
+      blocks[i] = ByteBuffer.allocateDirect(blockSize);
+    }
+  }
+
+  /**
+   * @return reads per second of each measured iteration
+   */
+  private double[] run(OffsetLock lock) throws Exception {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      iteration(lock);
+    }
+    double[] results = new double[MEASURED_ITERATIONS];
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      results[i] = iteration(lock);
+    }
+    return results;
+  }
+
+  private double iteration(final OffsetLock lock) throws Exception {
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    final AtomicLong reads = new AtomicLong(0);
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final int seed = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          final byte[] dst = new byte[blockSize];
+          long count = 0;
+          int next = seed;
+          try {
+            start.await();
+            while (!stop.get()) {
+              final int id = next++ % numIds;
+              lock.read(id, new Runnable() {
+                @Override
+                public void run() {
+                  blocks[id].duplicate().get(dst);
+                }
+              });
+              count++;
+            }
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+          reads.addAndGet(count);
+        }
+      };
+      threads[t].start();
+    }
+    long begin = System.nanoTime();
+    start.countDown();
+    Thread.sleep(iterationMillis);
+    stop.set(true);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    double seconds = (System.nanoTime() - begin) / 1e9;
+    return reads.get() / seconds;
+  }
+
+  private static void report(String name, double[] results) {
+    double sum = 0;
+    double best = 0;
+    for (double result : results) {
+      sum += result;
+      best = Math.max(best, result);
+    }
+    System.out.println(String.format("%-16s mean %,14.0f reads/s, best %,14.0f reads/s",
+        name, sum / results.length, best));
+  }
+
+  public static void main(String[] args) throws Exception {
+    int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+    int numIds = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int blockSize = args.length > 2 ? Integer.parseInt(args[2]) : 64 * 1024;
+    long iterationMillis = args.length > 3 ? Long.parseLong(args[3]) * 1000 : 2000;
+    IdReadWriteLockPerformanceTest test = new IdReadWriteLockPerformanceTest(
+        numThreads, numIds, blockSize, iterationMillis);
+    System.out.println("Hot block reads: threads=" + numThreads + ", hotIds="
+        + numIds + ", blockSize=" + blockSize);
+
+    final IdLock idLock = new IdLock();
+    report("IdLock", test.run(new OffsetLock() {
+      @Override
+      public void read(long id, Runnable criticalSection) throws IOException {
+        IdLock.Entry entry = idLock.getLockEntry(id);
+        try {
+          criticalSection.run();
+        } finally {
+          idLock.releaseLockEntry(entry);
+        }
+      }
+    }));
+
+    final IdReadWriteLock idReadWriteLock = new IdReadWriteLock();
+    report("IdReadWriteLock", test.run(new OffsetLock() {
+      @Override
+      public void read(long id, Runnable criticalSection) throws IOException {
+        IdReadWriteLock.Entry entry = idReadWriteLock.getReadLockEntry(id);
+        try {
+          criticalSection.run();
+        } finally {
+          idReadWriteLock.releaseLockEntry(entry);
+        }
+      }
+    }));
+  }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.util;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.MediumTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(MediumTests.class)
+// Medium as it creates 100 threads; seems better to run it isolated
+public class TestIdReadWriteLock {
+
+  private static final Log LOG = LogFactory.getLog(TestIdReadWriteLock.class);
+
+  private static final int NUM_IDS = 16;
+  private static final int NUM_THREADS = 128;
+  private static final int NUM_SECONDS = 15;
+
+  private IdReadWriteLock idLock = new IdReadWriteLock();
+
+  /** Writer holding each id */
+  private Map<Long, String> idOwner = new ConcurrentHashMap<Long, String>();
+  /** Number of readers holding each id */
+  private Map<Long, AtomicInteger> idReaders = new ConcurrentHashMap<Long, AtomicInteger>();
+
+  private class IdLockTestThread implements Callable<Boolean> {
+
+    private String clientId;
+
+    public IdLockTestThread(String clientId) {
+      this.clientId = clientId;
+    }
+
+    @Override
+    public Boolean call() throws Exception {
+      Thread.currentThread().setName(clientId);
+      Random rand = new Random();
+      long endTime = System.currentTimeMillis() + NUM_SECONDS * 1000;
+      while (System.currentTimeMillis() < endTime) {
+        long id = rand.nextInt(NUM_IDS);
+        boolean readLock = rand.nextBoolean();
+
+        IdReadWriteLock.Entry lockEntry = readLock ? idLock.getReadLockEntry(id)
+            : idLock.getWriteLockEntry(id);
+        try {
+          int sleepMs = 1 + rand.nextInt(4);
+          String owner = idOwner.get(id);
+          if (owner != null) {
+            LOG.error("Id " + id + " already taken by " + owner + ", "
+                + clientId + " failed");
+            return false;
+          }
+          AtomicInteger readers = idReaders.get(id);
+          if (readLock) {
+            readers.incrementAndGet();
+            Thread.sleep(sleepMs);
+            readers.decrementAndGet();
+          } else {
+            if (readers.get() > 0) {
+              LOG.error("Id " + id + " is being read, " + clientId
+                  + " failed to get the write lock exclusively");
+              return false;
+            }
+            idOwner.put(id, clientId);
+            Thread.sleep(sleepMs);
+            idOwner.remove(id);
+          }
+        } finally {
+          idLock.releaseLockEntry(lockEntry);
+        }
+      }
+      return true;
+    }
+
+  }
+
+  @Test
+  public void testMultipleClients() throws Exception {
+    for (long id = 0; id < NUM_IDS; id++) {
+      idReaders.put(id, new AtomicInteger(0));
+    }
+    ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      ExecutorCompletionService<Boolean> ecs =
+          new ExecutorCompletionService<Boolean>(exec);
+      for (int i = 0; i < NUM_THREADS; ++i)
+        ecs.submit(new IdLockTestThread("client_" + i));
+      for (int i = 0; i < NUM_THREADS; ++i) {
+        Future<Boolean> result = ecs.take();
+        assertTrue(result.get());
+      }
+      idLock.assertMapEmpty();
+    } finally {
+      exec.shutdown();
+      exec.awaitTermination(5000, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testReadersShareLock() throws Exception {
+    final int numReaders = 8;
+    final CountDownLatch allHolding = new CountDownLatch(numReaders);
+    final CountDownLatch done = new CountDownLatch(1);
+    ExecutorService exec = Executors.newFixedThreadPool(numReaders);
+    try {
+      for (int i = 0; i < numReaders; i++) {
+        exec.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            IdReadWriteLock.Entry lockEntry = idLock.getReadLockEntry(42);
+            try {
+              // Only returns if all readers get the lock at the same time
+              allHolding.countDown();
+              done.await();
+            } finally {
+              idLock.releaseLockEntry(lockEntry);
+            }
+            return null;
+          }
+        });
+      }
+      assertTrue(allHolding.await(5, TimeUnit.SECONDS));
+      done.countDown();
+    } finally {
+      exec.shutdown();
+      exec.awaitTermination(5000, TimeUnit.MILLISECONDS);
+    }
+    idLock.assertMapEmpty();
+  }
+
+}